@@ -0,0 +1,137 @@
+package ycastor.me.miro.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import cyclops.data.Vector;
+import ycastor.me.miro.MiroApplication;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.datasources.ColumnarDataset;
+import ycastor.me.miro.widgets.dao.datasources.InMemoryDataset;
+import ycastor.me.miro.widgets.dao.datasources.MappedDataset;
+import ycastor.me.miro.widgets.dao.datasources.SparseInMemoryDataset;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+
+// A filled board for the benchmarks, SQL runs inside a Spring context for its repositories and migrations
+final class BenchmarkBoard implements AutoCloseable {
+
+    static final String BOARD_ID = "benchmark";
+    static final int BOARD_SIDE = 1_000_000;
+    // boards get a gap after every run of this many widgets, so a collision pushes a run instead of the whole board
+    static final int RUN_LENGTH = 10;
+
+    static final int LOAD_CHUNK = 10_000;
+
+    private final WidgetRepository repository;
+    private final ConfigurableApplicationContext context;
+    private final List<Widget> widgets;
+
+    private BenchmarkBoard(WidgetRepository repository, ConfigurableApplicationContext context, List<Widget> widgets) {
+        this.repository = repository;
+        this.context = context;
+        this.widgets = widgets;
+    }
+
+    // IN_MEMORY, SPARSE, COLUMNAR, MAPPED or SQL
+    static BenchmarkBoard open(String datasource, int boardSize, Random random) {
+        ConfigurableApplicationContext context = null;
+        WidgetRepository repository;
+
+        if (datasource.equals("SQL")) {
+            context = new SpringApplicationBuilder(MiroApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .properties("miro.datasource=SQL")
+                    .run();
+            repository = context.getBean(WidgetRepository.class);
+        } else {
+            repository = embedded(datasource);
+        }
+
+        return new BenchmarkBoard(repository, context, fill(repository, BOARD_ID, boardSize, random));
+    }
+
+    // Loads one more board of the given size into the same repository
+    void fill(String boardId, int boardSize, Random random) {
+        fill(repository, boardId, boardSize, random);
+    }
+
+    static WidgetRepository embedded(String datasource) {
+        switch (datasource) {
+            case "IN_MEMORY":
+                return new InMemoryDataset();
+            case "SPARSE":
+                return new SparseInMemoryDataset();
+            case "COLUMNAR":
+                return new ColumnarDataset();
+            case "MAPPED":
+                return new MappedDataset(temporaryDirectory().toString());
+            default:
+                throw new IllegalArgumentException("Unknown datasource " + datasource);
+        }
+    }
+
+    static Widget randomWidget(Random random, int zIndex) {
+        return Widget.builder()
+                     .id(UUID.randomUUID())
+                     .zIndex(zIndex)
+                     .xAxis(random.nextInt(BOARD_SIDE))
+                     .yAxis(random.nextInt(BOARD_SIDE))
+                     .width(1 + random.nextInt(100))
+                     .height(1 + random.nextInt(100))
+                     .build();
+    }
+
+    private static List<Widget> fill(WidgetRepository repository, String boardId, int boardSize, Random random) {
+        var widgets = new ArrayList<Widget>(boardSize);
+        for (int i = 0; i < boardSize; i++) {
+            widgets.add(randomWidget(random, i + i / RUN_LENGTH));
+        }
+
+        for (int from = 0; from < boardSize; from += LOAD_CHUNK) {
+            var chunk = widgets.subList(from, Math.min(boardSize, from + LOAD_CHUNK));
+            repository.saveBatch(boardId, WidgetChanges.builder().created(Vector.fromIterable(chunk)).build());
+        }
+
+        return widgets;
+    }
+
+    WidgetRepository repository() {
+        return repository;
+    }
+
+    // the widgets as loaded, writes made by the benchmarks are not reflected here
+    List<Widget> widgets() {
+        return widgets;
+    }
+
+    @Override
+    public void close() {
+        if (context != null) {
+            context.close();
+        }
+        if (repository instanceof MappedDataset) {
+            ((MappedDataset) repository).close();
+        }
+    }
+
+    private static Path temporaryDirectory() {
+        try {
+            var directory = Files.createTempDirectory("boards");
+            directory.toFile().deleteOnExit();
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
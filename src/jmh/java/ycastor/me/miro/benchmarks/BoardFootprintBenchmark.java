@@ -0,0 +1,98 @@
+package ycastor.me.miro.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cyclops.data.Vector;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.BOARD_ID;
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.LOAD_CHUNK;
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.RUN_LENGTH;
+
+/*
+ * Heap retained by a loaded embedded board, reported as the bytesPerWidget counter next to the load time.
+ * The widgets are generated chunk by chunk and dropped, so only what the repository keeps is measured.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="BoardFootprintBenchmark -p boardSize=1000000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BoardFootprintBenchmark {
+
+    @Param({"IN_MEMORY", "SPARSE", "COLUMNAR", "MAPPED"})
+    private String datasource;
+
+    @Param({"100000", "1000000"})
+    private int boardSize;
+
+    @Benchmark
+    public WidgetRepository load(Footprint footprint) {
+        var random = new Random(42);
+        var zIndexes = zIndexes();
+        long before = usedHeap();
+
+        var repository = BenchmarkBoard.embedded(datasource);
+        for (int from = 0; from < boardSize; from += LOAD_CHUNK) {
+            var chunk = new ArrayList<Widget>(LOAD_CHUNK);
+            for (int i = from; i < Math.min(boardSize, from + LOAD_CHUNK); i++) {
+                chunk.add(BenchmarkBoard.randomWidget(random, zIndexes[i]));
+            }
+            repository.saveBatch(BOARD_ID, WidgetChanges.builder().created(Vector.fromIterable(chunk)).build());
+        }
+
+        footprint.bytesPerWidget = (usedHeap() - before) / boardSize;
+        return repository;
+    }
+
+    // the same z-indexes BenchmarkBoard uses, loaded in z-order too
+    private int[] zIndexes() {
+        var zIndexes = new int[boardSize];
+        for (int i = 0; i < boardSize; i++) {
+            zIndexes[i] = i + i / RUN_LENGTH;
+        }
+
+        return zIndexes;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        // a few collections in a row, until the used heap stops shrinking
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+
+        return used;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerWidget;
+    }
+}
@@ -0,0 +1,85 @@
+package ycastor.me.miro.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.datasources.WidgetsState;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+// mvn -Pbenchmark test-compile exec:exec -Djmh.args="InAreaSelectivityBenchmark"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InAreaSelectivityBenchmark {
+
+    private static final int BOARD_SIDE = 1_000_000;
+
+    @Param({"10000", "100000"})
+    private int boardSize;
+
+    // fraction of the board covered by the viewport
+    @Param({"0.0001", "0.001", "0.01", "0.1"})
+    private double selectivity;
+
+    private WidgetsState state;
+    private FilterArea viewport;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(42);
+        var widgets = new ArrayList<Widget>(boardSize);
+
+        for (int z = 0; z < boardSize; z++) {
+            widgets.add(Widget.builder()
+                              .id(UUID.randomUUID())
+                              .zIndex(z)
+                              .xAxis(random.nextInt(BOARD_SIDE))
+                              .yAxis(random.nextInt(BOARD_SIDE))
+                              .width(1 + random.nextInt(100))
+                              .height(1 + random.nextInt(100))
+                              .build());
+        }
+
+        state = WidgetsState.empty().putAll(widgets);
+
+        int side = (int) (BOARD_SIDE * Math.sqrt(selectivity));
+        int lowerLeft = (BOARD_SIDE - side) / 2;
+        viewport = FilterArea.builder()
+                             .lowerLeft(new Coordinates(lowerLeft, lowerLeft))
+                             .upperRight(new Coordinates(lowerLeft + side, lowerLeft + side))
+                             .build();
+    }
+
+    @Benchmark
+    public ImmutableSortedSet<Widget> fullScan() {
+        return state.widgets().filter(widget -> withinArea(widget, viewport));
+    }
+
+    @Benchmark
+    public ImmutableSortedSet<Widget> spatialIndex() {
+        return state.findWithinArea(viewport);
+    }
+}
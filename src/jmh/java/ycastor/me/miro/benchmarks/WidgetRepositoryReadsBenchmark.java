@@ -0,0 +1,114 @@
+package ycastor.me.miro.benchmarks;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.BOARD_ID;
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.BOARD_SIDE;
+
+// mvn -Pbenchmark test-compile exec:exec -Djmh.args="WidgetRepositoryReadsBenchmark -p datasource=IN_MEMORY,SQL -p boardSize=1000"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetRepositoryReadsBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"IN_MEMORY", "SPARSE", "COLUMNAR", "MAPPED", "SQL"})
+    private String datasource;
+
+    @Param({"1000", "100000", "1000000"})
+    private int boardSize;
+
+    private BenchmarkBoard board;
+    private WidgetRepository repository;
+    private UUID[] ids;
+    private int[] zIndexes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = BenchmarkBoard.open(datasource, boardSize, new Random(42));
+        repository = board.repository();
+        ids = board.widgets().stream().map(Widget::getId).toArray(UUID[]::new);
+        zIndexes = board.widgets().stream().mapToInt(Widget::getZIndex).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        board.close();
+    }
+
+    @Benchmark
+    public Option<Widget> findById() {
+        return repository.findById(BOARD_ID, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    // the page 90% deep into the board, where offset paging has to walk past most of it
+    @Benchmark
+    public ImmutableSortedSet<Widget> listAllDeepPage() {
+        int deepPage = (int) (boardSize * 0.9) / PAGE_SIZE;
+        return repository.listAll(BOARD_ID, PageRequest.of(deepPage, PAGE_SIZE));
+    }
+
+    @Benchmark
+    public ImmutableSortedSet<Widget> listAfterZIndexDeep() {
+        return repository.listAfterZIndex(BOARD_ID, Option.some(zIndexes[(int) (boardSize * 0.9)]), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public ImmutableSortedSet<Widget> listAllWithinArea(Viewport viewport) {
+        return repository.listAllWithinArea(BOARD_ID, viewport.filterArea);
+    }
+
+    @Benchmark
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap() {
+        return repository.findFromZIndexUntilGap(BOARD_ID, zIndexes[ThreadLocalRandom.current().nextInt(zIndexes.length)]);
+    }
+
+    // kept apart so only the in-area benchmark is multiplied by the selectivities
+    @State(Scope.Benchmark)
+    public static class Viewport {
+        // fraction of the board covered by the viewport
+        @Param({"0.0001", "0.01", "0.1"})
+        private double selectivity;
+
+        private FilterArea filterArea;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            int side = (int) (BOARD_SIDE * Math.sqrt(selectivity));
+            int lowerLeft = (BOARD_SIDE - side) / 2;
+            filterArea = FilterArea.builder()
+                                   .lowerLeft(new Coordinates(lowerLeft, lowerLeft))
+                                   .upperRight(new Coordinates(lowerLeft + side, lowerLeft + side))
+                                   .build();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ycastor.me.miro.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ycastor.me.miro.widgets.WidgetsService;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+
+import static ycastor.me.miro.benchmarks.BenchmarkBoard.BOARD_SIDE;
+
+/*
+ * Writes go through WidgetsService, so the collision lookup is measured with the save. The board keeps growing during
+ * a trial. Contended writes: add "-t 4" (or more) to jmh.args, lost compare-and-set races show up in the conflicts counter.
+ * With boards=PER_THREAD every thread writes its own board of the same size, so the threads should not contend at all.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="WidgetRepositoryWritesBenchmark -p datasource=IN_MEMORY -p boards=SHARED,PER_THREAD -t 4"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetRepositoryWritesBenchmark {
+
+    @Param({"IN_MEMORY", "SPARSE", "COLUMNAR", "MAPPED", "SQL"})
+    private String datasource;
+
+    @Param({"1000", "100000", "1000000"})
+    private int boardSize;
+
+    @Param({"SHARED", "PER_THREAD"})
+    private String boards;
+
+    private BenchmarkBoard board;
+    private WidgetsService widgetsService;
+    private final AtomicInteger threadBoards = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = BenchmarkBoard.open(datasource, boardSize, new Random(42));
+        widgetsService = new WidgetsService(board.repository(), new WidgetsCommandConverter(), new WidgetsFeed(1024, 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        board.close();
+    }
+
+    // no z-index, the widget goes on top of the board and nothing collides
+    @Benchmark
+    public Widget createOnTop(Writer writer, Conflicts conflicts) {
+        return create(writer, command(null), conflicts);
+    }
+
+    // lands on an existing run and pushes it up
+    @Benchmark
+    public Widget createColliding(Writer writer, Conflicts conflicts) {
+        return create(writer, command(ThreadLocalRandom.current().nextInt(writer.largestZIndex)), conflicts);
+    }
+
+    private Widget create(Writer writer, WidgetCreateCommand command, Conflicts conflicts) {
+        try {
+            return widgetsService.create(writer.boardId, command);
+        } catch (WidgetsChangedException e) {
+            conflicts.conflicts++;
+            return null;
+        }
+    }
+
+    private static WidgetCreateCommand command(Integer zIndex) {
+        var random = ThreadLocalRandom.current();
+        return WidgetCreateCommand.builder()
+                                  .zIndex(zIndex)
+                                  .xAxis(random.nextInt(BOARD_SIDE))
+                                  .yAxis(random.nextInt(BOARD_SIDE))
+                                  .width(1 + random.nextInt(100))
+                                  .height(1 + random.nextInt(100))
+                                  .build();
+    }
+
+    // The board a thread writes, loaded before the trial when every thread has its own
+    @State(Scope.Thread)
+    public static class Writer {
+        private String boardId;
+        private int largestZIndex;
+
+        @Setup(Level.Trial)
+        public void setUp(WidgetRepositoryWritesBenchmark benchmark) {
+            if (benchmark.boards.equals("PER_THREAD")) {
+                boardId = "writer-" + benchmark.threadBoards.incrementAndGet();
+                benchmark.board.fill(boardId, benchmark.boardSize, new Random(boardId.hashCode()));
+            } else {
+                boardId = BenchmarkBoard.BOARD_ID;
+            }
+            largestZIndex = benchmark.board.repository().findLargestZIndex(boardId);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Conflicts {
+        public long conflicts;
+    }
+}
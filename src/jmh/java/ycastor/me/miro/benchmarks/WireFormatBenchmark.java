@@ -0,0 +1,90 @@
+package ycastor.me.miro.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import ycastor.me.miro.config.WebConfig;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+/*
+ * An in-area answer of the given size written with the mappers the API answers with, and read back as a client
+ * without the model would. The body size of each format is printed when its trial starts.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="WireFormatBenchmark -p widgets=10000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    private String format;
+
+    @Param({"100", "10000"})
+    private int widgets;
+
+    private ObjectMapper mapper;
+    private ObjectWriter writer;
+    private List<Widget> inArea;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var webConfig = new WebConfig();
+        switch (format) {
+            case "JSON":
+                mapper = webConfig.objectMapper();
+                break;
+            case "SMILE":
+                mapper = webConfig.smileHttpMessageConverter().getObjectMapper();
+                break;
+            case "CBOR":
+                mapper = webConfig.cborHttpMessageConverter().getObjectMapper();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+
+        var random = new Random(42);
+        inArea = new ArrayList<>(widgets);
+        for (int z = 0; z < widgets; z++) {
+            inArea.add(BenchmarkBoard.randomWidget(random, z));
+        }
+
+        writer = mapper.writerFor(mapper.getTypeFactory().constructCollectionType(List.class, Widget.class));
+        body = writer.writeValueAsBytes(inArea);
+        System.out.println(format + " body of " + widgets + " widgets: " + body.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return writer.writeValueAsBytes(inArea);
+    }
+
+    @Benchmark
+    public JsonNode read() throws IOException {
+        return mapper.readTree(body);
+    }
+}
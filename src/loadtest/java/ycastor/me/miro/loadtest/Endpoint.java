@@ -0,0 +1,90 @@
+package ycastor.me.miro.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Random;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+
+// The calls of the mix, named as in --mix. Updates and gets pick one of the seeded widgets
+enum Endpoint {
+    CREATE("create") {
+        @Override
+        HttpRequest request(LoadBoard board, Random random) {
+            return post(board.uri(""), board.json(WidgetCreateCommand.builder()
+                                                                     .xAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                     .yAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                     .width(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                     .height(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                     .build()));
+        }
+    },
+    // moves a widget onto an occupied z-index, so the run above it is pushed up
+    UPDATE("update") {
+        @Override
+        HttpRequest request(LoadBoard board, Random random) {
+            return post(board.uri("/" + board.anyWidget(random)), board.json(WidgetUpdateCommand.builder()
+                                                                                                .zIndex(1 + random.nextInt(board.largestZIndex()))
+                                                                                                .xAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                                                .yAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                                                .width(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                                                .height(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                                                .build()));
+        }
+    },
+    GET("get") {
+        @Override
+        HttpRequest request(LoadBoard board, Random random) {
+            return HttpRequest.newBuilder(board.uri("/" + board.anyWidget(random))).GET().build();
+        }
+    },
+    LIST("list") {
+        @Override
+        HttpRequest request(LoadBoard board, Random random) {
+            int pages = Math.max(1, board.size() / LoadBoard.PAGE_SIZE);
+            return HttpRequest.newBuilder(board.uri("?page=" + random.nextInt(pages) + "&pageSize=" + LoadBoard.PAGE_SIZE)).GET().build();
+        }
+    },
+    IN_AREA("in-area") {
+        @Override
+        HttpRequest request(LoadBoard board, Random random) {
+            int x = random.nextInt(LoadBoard.BOARD_SIDE - LoadBoard.AREA_SIDE);
+            int y = random.nextInt(LoadBoard.BOARD_SIDE - LoadBoard.AREA_SIDE);
+            return post(board.uri("/in-area"), board.json(FilterArea.builder()
+                                                                    .lowerLeft(new Coordinates(x, y))
+                                                                    .upperRight(new Coordinates(x + LoadBoard.AREA_SIDE, y + LoadBoard.AREA_SIDE))
+                                                                    .build()));
+        }
+    };
+
+    private final String mixName;
+
+    Endpoint(String mixName) {
+        this.mixName = mixName;
+    }
+
+    abstract HttpRequest request(LoadBoard board, Random random);
+
+    String mixName() {
+        return mixName;
+    }
+
+    static Endpoint fromMixName(String mixName) {
+        for (Endpoint endpoint : values()) {
+            if (endpoint.mixName.equals(mixName)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("Unknown endpoint " + mixName + ", expected one of create, update, get, list, in-area");
+    }
+
+    private static HttpRequest post(URI uri, String body) {
+        return HttpRequest.newBuilder(uri)
+                          .header("Content-Type", "application/json")
+                          .POST(HttpRequest.BodyPublishers.ofString(body))
+                          .build();
+    }
+}
@@ -0,0 +1,59 @@
+package ycastor.me.miro.loadtest;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// The board the mix runs against, filled before the measurement starts
+final class LoadBoard {
+    static final int BOARD_SIDE = 100_000;
+    static final int WIDGET_SIDE = 1_000;
+    static final int AREA_SIDE = 5_000;
+    static final int PAGE_SIZE = 50;
+    // seeded boards get a gap after every run of this many widgets, so a colliding update pushes a run and not the board
+    static final int RUN_LENGTH = 10;
+
+    private final String baseUri;
+    private final ObjectMapper objectMapper;
+    private final List<UUID> widgets;
+    private final int largestZIndex;
+
+    LoadBoard(String baseUri, ObjectMapper objectMapper, List<UUID> widgets, int largestZIndex) {
+        this.baseUri = baseUri;
+        this.objectMapper = objectMapper;
+        this.widgets = widgets;
+        this.largestZIndex = largestZIndex;
+    }
+
+    static int seededZIndex(int index) {
+        return 1 + index + index / RUN_LENGTH;
+    }
+
+    URI uri(String path) {
+        return URI.create(baseUri + path);
+    }
+
+    UUID anyWidget(Random random) {
+        return widgets.get(random.nextInt(widgets.size()));
+    }
+
+    int size() {
+        return widgets.size();
+    }
+
+    int largestZIndex() {
+        return largestZIndex;
+    }
+
+    String json(Object command) {
+        try {
+            return objectMapper.writeValueAsString(command);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ycastor.me.miro.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ycastor.me.miro.MiroApplication;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetBatchOperation;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+
+/*
+ * Starts the app on a free localhost port for every datasource, fills a board and runs the mix against it over HTTP,
+ * first to warm up and then measured. Options the harness doesn't know (--miro.writes QUEUED, ...) are passed to the app.
+ *
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--datasources IN_MEMORY,SQL --mix create=50,update=50,get=400,list=200,in-area=100"
+ */
+public final class LoadTest {
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "datasources", "IN_MEMORY,SQL",
+            "mix", "create=20,update=20,get=200,list=100,in-area=60",
+            "board-size", "10000",
+            "warmup", "10",
+            "duration", "30",
+            "max-in-flight", "2000",
+            "client-threads", "4",
+            "seed", "42"
+    );
+    private static final int SEED_CHUNK = 500;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new LinkedHashMap<>(DEFAULTS);
+        var appProperties = new ArrayList<String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            var name = args[i].replaceFirst("^--", "");
+            if (name.contains(".")) {
+                appProperties.add(name + "=" + args[i + 1]);
+            } else if (DEFAULTS.containsKey(name)) {
+                options.put(name, args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option --" + name + ", expected one of " + DEFAULTS.keySet());
+            }
+        }
+
+        var mix = mix(options.get("mix"));
+        var clientExecutor = Executors.newFixedThreadPool(Integer.parseInt(options.get("client-threads")));
+        var httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clientExecutor).build();
+        // devtools would restart the app in another class loader, the harness holds on to the first one
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        try {
+            for (String datasource : options.get("datasources").split(",")) {
+                try (var app = start(datasource, appProperties)) {
+                    var random = new Random(Long.parseLong(options.get("seed")));
+                    var board = seed(app, httpClient, Integer.parseInt(options.get("board-size")), random);
+                    var driver = new OpenLoopDriver(httpClient, board, mix, Integer.parseInt(options.get("max-in-flight")));
+
+                    driver.run(Long.parseLong(options.get("warmup")), random);
+                    long duration = Long.parseLong(options.get("duration"));
+                    var histograms = driver.run(duration, random);
+                    driver.report(System.out, "miro.datasource=" + datasource + ", " + board.size() + " seeded widgets, " + duration + "s", duration, histograms);
+                }
+            }
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    // Requests per second of every endpoint, in the order given
+    private static Map<Endpoint, Integer> mix(String mix) {
+        var rates = new LinkedHashMap<Endpoint, Integer>();
+        for (String entry : mix.split(",")) {
+            var parts = entry.split("=");
+            int rate = Integer.parseInt(parts[1].trim());
+            if (rate <= 0) {
+                throw new IllegalArgumentException("The rate of " + parts[0] + " must be positive");
+            }
+            rates.put(Endpoint.fromMixName(parts[0].trim()), rate);
+        }
+        return rates;
+    }
+
+    private static ConfigurableApplicationContext start(String datasource, List<String> appProperties) {
+        var properties = new ArrayList<>(appProperties);
+        properties.add("server.port=0");
+        properties.add("miro.datasource=" + datasource);
+        return new SpringApplicationBuilder(MiroApplication.class).properties(properties.toArray(String[]::new)).run();
+    }
+
+    // Each run gets a board of its own, SQL runs of the same JVM share the in memory database
+    private static LoadBoard seed(ConfigurableApplicationContext app, HttpClient httpClient, int boardSize, Random random) throws IOException, InterruptedException {
+        int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+        var objectMapper = app.getBean(ObjectMapper.class);
+        var baseUri = "http://localhost:" + port + "/boards/load-" + UUID.randomUUID() + "/widget";
+        var widgets = new ArrayList<UUID>(boardSize);
+
+        for (int start = 0; start < boardSize; start += SEED_CHUNK) {
+            var operations = new ArrayList<WidgetBatchOperation>();
+            for (int i = start; i < Math.min(boardSize, start + SEED_CHUNK); i++) {
+                operations.add(WidgetBatchOperation.create(WidgetCreateCommand.builder()
+                                                                              .zIndex(LoadBoard.seededZIndex(i))
+                                                                              .xAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                              .yAxis(random.nextInt(LoadBoard.BOARD_SIDE))
+                                                                              .width(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                              .height(1 + random.nextInt(LoadBoard.WIDGET_SIDE))
+                                                                              .build()));
+            }
+
+            var request = HttpRequest.newBuilder(URI.create(baseUri + "/batch"))
+                                     .header("Content-Type", "application/json")
+                                     .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(new WidgetBatchCommand(operations))))
+                                     .build();
+            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding the board failed with " + response.statusCode() + ": " + response.body());
+            }
+            objectMapper.readTree(response.body()).forEach(widget -> widgets.add(UUID.fromString(widget.get("id").asText())));
+        }
+
+        return new LoadBoard(baseUri, objectMapper, widgets, LoadBoard.seededZIndex(boardSize - 1));
+    }
+}
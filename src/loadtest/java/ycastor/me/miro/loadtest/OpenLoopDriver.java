@@ -0,0 +1,153 @@
+package ycastor.me.miro.loadtest;
+
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/*
+ * Sends every endpoint of the mix at its own fixed rate, whether the earlier calls were answered or not. Latencies are
+ * measured from the moment a call was due, so a stalled server shows up in the percentiles instead of slowing the
+ * arrivals down (coordinated omission). Calls beyond maxInFlight are not sent and counted as dropped.
+ */
+final class OpenLoopDriver {
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final HttpClient httpClient;
+    private final LoadBoard board;
+    private final Map<Endpoint, Integer> mix;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+
+    OpenLoopDriver(HttpClient httpClient, LoadBoard board, Map<Endpoint, Integer> mix, int maxInFlight) {
+        this.httpClient = httpClient;
+        this.board = board;
+        this.mix = mix;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        mix.keySet().forEach(endpoint -> stats.put(endpoint, new Stats()));
+    }
+
+    // Runs the mix for the given time, the latencies of a run replace the ones of the run before
+    Map<Endpoint, Histogram> run(long seconds, Random random) {
+        stats.values().forEach(Stats::reset);
+        var arrivals = new PriorityQueue<Arrival>();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        mix.forEach((endpoint, rate) -> arrivals.add(new Arrival(endpoint, TimeUnit.SECONDS.toNanos(1) / rate, start)));
+
+        while (arrivals.peek().due < end) {
+            var arrival = arrivals.poll();
+            long wait = arrival.due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(arrival.endpoint, arrival.due, random);
+            arrivals.add(arrival.next());
+        }
+
+        awaitInFlight();
+        var histograms = new EnumMap<Endpoint, Histogram>(Endpoint.class);
+        stats.forEach((endpoint, endpointStats) -> histograms.put(endpoint, endpointStats.latencies.getIntervalHistogram()));
+        return histograms;
+    }
+
+    void report(PrintStream out, String title, long seconds, Map<Endpoint, Histogram> histograms) {
+        out.println();
+        out.println(title);
+        out.printf("%-8s %9s %9s %9s %8s %10s %10s %10s %10s%n", "endpoint", "rate", "req/s", "non-2xx", "dropped", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        mix.forEach((endpoint, rate) -> {
+            var histogram = histograms.get(endpoint);
+            var endpointStats = stats.get(endpoint);
+            out.printf(
+                    "%-8s %9d %9.1f %9d %8d %10.2f %10.2f %10.2f %10.2f%n",
+                    endpoint.mixName(),
+                    rate,
+                    endpointStats.succeeded.sum() / (double) seconds,
+                    endpointStats.failed.sum(),
+                    endpointStats.dropped.sum(),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue())
+            );
+        });
+    }
+
+    private void send(Endpoint endpoint, long due, Random random) {
+        var endpointStats = stats.get(endpoint);
+        if (!inFlight.tryAcquire()) {
+            endpointStats.dropped.increment();
+            return;
+        }
+
+        httpClient.sendAsync(endpoint.request(board, random), HttpResponse.BodyHandlers.discarding())
+                  .whenComplete((response, error) -> {
+                      endpointStats.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+                      if (error == null && response.statusCode() / 100 == 2) {
+                          endpointStats.succeeded.increment();
+                      } else {
+                          endpointStats.failed.increment();
+                      }
+                      inFlight.release();
+                  });
+    }
+
+    // Calls still unanswered after the drain timeout are left out of the run
+    private void awaitInFlight() {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT;
+        while (inFlight.availablePermits() < maxInFlight && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static final class Stats {
+        private final Recorder latencies = new Recorder(3);
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        private void reset() {
+            latencies.reset();
+            succeeded.reset();
+            failed.reset();
+            dropped.reset();
+        }
+    }
+
+    private static final class Arrival implements Comparable<Arrival> {
+        private final Endpoint endpoint;
+        private final long period;
+        private final long due;
+
+        private Arrival(Endpoint endpoint, long period, long due) {
+            this.endpoint = endpoint;
+            this.period = period;
+            this.due = due;
+        }
+
+        private Arrival next() {
+            return new Arrival(endpoint, period, due + period);
+        }
+
+        @Override
+        public int compareTo(Arrival other) {
+            return Long.compare(due, other.due);
+        }
+    }
+}
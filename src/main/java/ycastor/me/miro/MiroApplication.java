@@ -2,8 +2,10 @@ package ycastor.me.miro;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 
-@SpringBootApplication
+// A ConnectionFactory bean would turn the JDBC datasource off, the reactive SQL datasource opens its own
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 public class MiroApplication {
 
 	public static void main(String[] args) {
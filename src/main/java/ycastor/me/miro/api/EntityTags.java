@@ -0,0 +1,72 @@
+package ycastor.me.miro.api;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+// The tags both stacks answer with, a client moving between them keeps its cached boards and widgets
+final class EntityTags {
+
+    static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
+    private EntityTags() {
+    }
+
+    static String boardTag(String epoch, long version, String variant) {
+        return "\"" + epoch + "-" + version + variant + "\"";
+    }
+
+    static String areaTag(FilterArea filterArea) {
+        return "-" + filterArea.getLowerLeft().getXAxis() + "_" + filterArea.getLowerLeft().getYAxis() +
+                "_" + filterArea.getUpperRight().getXAxis() + "_" + filterArea.getUpperRight().getYAxis();
+    }
+
+    static String widgetTag(Widget widget, String variant) {
+        return "\"" + widget.getZIndex() + "_" + widget.getXAxis() + "_" + widget.getYAxis() +
+                "_" + widget.getWidth() + "_" + widget.getHeight() + variant + "\"";
+    }
+
+    // Binary encodings of the same widgets are other representations, so they get tags of their own. JSON keeps the
+    // plain tags, it is what clients without a preference (or an Accept the converters reject anyway) are answered with
+    static String formatTag(String accept) {
+        if (accept == null) {
+            return "";
+        }
+
+        try {
+            var accepted = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(accepted);
+            for (MediaType mediaType : accepted) {
+                if (mediaType.isWildcardType() || mediaType.isWildcardSubtype() || mediaType.equalsTypeAndSubtype(MediaType.APPLICATION_JSON)) {
+                    return "";
+                }
+                if (mediaType.equalsTypeAndSubtype(SMILE)) {
+                    return "-smile";
+                }
+                if (mediaType.equalsTypeAndSubtype(MediaType.APPLICATION_CBOR)) {
+                    return "-cbor";
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return "";
+        }
+        return "";
+    }
+
+    // Weak tags compare as strong ones, every tag here describes the exact widgets
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            var candidate = tag.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,225 @@
+package ycastor.me.miro.api;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import ycastor.me.miro.widgets.ReactiveWidgetsService;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetsPage;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+
+import static ycastor.me.miro.api.EntityTags.areaTag;
+import static ycastor.me.miro.api.EntityTags.boardTag;
+import static ycastor.me.miro.api.EntityTags.formatTag;
+import static ycastor.me.miro.api.EntityTags.matches;
+import static ycastor.me.miro.api.EntityTags.widgetTag;
+
+/*
+ * The routes of WidgetsApi on the reactive stack, answered with the same bodies and tags. Widget sets are streamed as
+ * the datasource reads them, a JSON array or one widget per line.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping({"/widget", "/boards/{boardId}/widget"})
+@Validated
+public class ReactiveWidgetsApi {
+    private static final String NDJSON = "application/x-ndjson";
+    // board ids also name files of the datasources that keep one per board
+    private static final String BOARD_ID = "[A-Za-z0-9_-]{1,64}";
+
+    private final ReactiveWidgetsService widgetsService;
+    private final int changesBuffer;
+    private final Duration changesTimeout;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    @Autowired
+    public ReactiveWidgetsApi(
+            ReactiveWidgetsService widgetsService,
+            @Value("${miro.feed.history:1024}") int changesBuffer,
+            @Value("${miro.feed.timeout:600000}") long changesTimeout
+    ) {
+        this.widgetsService = widgetsService;
+        this.changesBuffer = changesBuffer;
+        this.changesTimeout = Duration.ofMillis(changesTimeout);
+    }
+
+    @PostMapping
+    public Mono<Widget> create(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @Valid @RequestBody WidgetCreateCommand createCommand) {
+        return widgetsService.create(board(boardId), createCommand);
+    }
+
+    @PostMapping("/{widgetId}")
+    public Mono<Widget> update(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @NotNull @PathVariable UUID widgetId,
+            @Valid @RequestBody WidgetUpdateCommand widgetUpdateCommand
+    ) {
+        return widgetsService.update(board(boardId), widgetId, widgetUpdateCommand);
+    }
+
+    @PostMapping("/batch")
+    public Flux<Widget> batch(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @Valid @RequestBody WidgetBatchCommand batchCommand) {
+        return widgetsService.applyBatch(board(boardId), batchCommand);
+    }
+
+    // A widget is tagged with its own values, its tag only changes when the widget does
+    @GetMapping("/{widgetId}")
+    public Mono<ResponseEntity<Widget>> getById(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @NotNull @PathVariable UUID widgetId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return widgetsService.fetch(board(boardId), widgetId)
+                             .map(widget -> {
+                                 var etag = widgetTag(widget, formatTag(accept));
+                                 return matches(ifNoneMatch, etag)
+                                         ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).<Widget>build()
+                                         : ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(widget);
+                             })
+                             .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @DeleteMapping("/{widgetId}")
+    public Mono<Widget> deleteById(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @NotNull @PathVariable UUID widgetId) {
+        return widgetsService.delete(board(boardId), widgetId);
+    }
+
+    @GetMapping
+    public Mono<ResponseEntity<Flux<Widget>>> getById(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestParam(defaultValue = "0") Integer page,
+            @RequestParam(defaultValue = "10") Integer pageSize,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return ifBoardChanged(board(boardId), formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.list(board(boardId), PageRequest.of(page, pageSize))));
+    }
+
+    // An empty cursor starts from the bottom of the board, every page answers with the cursor of the next one
+    @GetMapping(params = "cursor")
+    public Mono<ResponseEntity<Mono<WidgetsPage>>> listAfter(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestParam String cursor,
+            @RequestParam(defaultValue = "10") Integer pageSize,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return ifBoardChanged(board(boardId), formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.listAfter(board(boardId), cursor, pageSize)));
+    }
+
+    // The area is read from the body, so it is part of the tag
+    @PostMapping("/in-area")
+    public Mono<ResponseEntity<Flux<Widget>>> inArea(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @Valid @RequestBody FilterArea filterArea,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return ifBoardChanged(board(boardId), areaTag(filterArea) + formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.filterInArea(board(boardId), filterArea)));
+    }
+
+    @GetMapping(produces = NDJSON)
+    public Mono<ResponseEntity<Flux<Widget>>> streamAll(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return ifBoardChanged(board(boardId), "-ndjson", ifNoneMatch, () -> ndjson(widgetsService.list(board(boardId), Pageable.unpaged())));
+    }
+
+    @PostMapping(value = "/in-area", produces = NDJSON)
+    public Mono<ResponseEntity<Flux<Widget>>> streamInArea(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @Valid @RequestBody FilterArea filterArea,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return ifBoardChanged(board(boardId), areaTag(filterArea) + "-ndjson", ifNoneMatch, () -> ndjson(widgetsService.filterInArea(board(boardId), filterArea)));
+    }
+
+    // Every change of the board after Last-Event-ID (or since, for clients that can't set it), live ones from now without.
+    // A client that falls further behind than the history kept is dropped, it resumes or resets on reconnect
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> changes(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String since
+    ) {
+        return Flux.<ServerSentEvent<Object>>create(sink -> {
+            var unsubscribe = widgetsService.subscribe(board(boardId), lastEventId != null ? lastEventId : since, new ChangesSubscriber(sink));
+            sink.onDispose(unsubscribe::run);
+        }).onBackpressureBuffer(changesBuffer).take(changesTimeout);
+    }
+
+    private static ResponseEntity<Flux<Widget>> ndjson(Flux<Widget> widgets) {
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(widgets);
+    }
+
+    private static final class ChangesSubscriber implements WidgetsFeed.Subscriber {
+        private final FluxSink<ServerSentEvent<Object>> sink;
+
+        private ChangesSubscriber(FluxSink<ServerSentEvent<Object>> sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void changed(String eventId, BoardChange change) {
+            sink.next(ServerSentEvent.<Object>builder().id(eventId).event("change").data(change).build());
+        }
+
+        @Override
+        public void reset(String eventId, long version) {
+            sink.next(ServerSentEvent.<Object>builder().id(eventId).event("reset").data(version).build());
+        }
+    }
+
+    // The version is read first, a write landing before the read only makes the tag older than the body
+    private <T> Mono<ResponseEntity<T>> ifBoardChanged(String boardId, String variant, String ifNoneMatch, Supplier<ResponseEntity<T>> read) {
+        return widgetsService.boardVersion(boardId).map(version -> {
+            var etag = boardTag(epoch, version, variant);
+            if (matches(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+            }
+
+            var response = read.get();
+            return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders()).eTag(etag).varyBy(HttpHeaders.ACCEPT).body(response.getBody());
+        });
+    }
+
+    private static String board(String boardId) {
+        return boardId != null ? boardId : WidgetsApi.DEFAULT_BOARD;
+    }
+}
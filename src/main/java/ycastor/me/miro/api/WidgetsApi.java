@@ -1,76 +1,371 @@
 package ycastor.me.miro.api;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
-import cyclops.data.ImmutableSortedSet;
 import ycastor.me.miro.widgets.WidgetsService;
 import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
 import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
 import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
 import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetsPage;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+import ycastor.me.miro.widgets.writers.WidgetsWriter;
+
+import static ycastor.me.miro.api.EntityTags.areaTag;
+import static ycastor.me.miro.api.EntityTags.boardTag;
+import static ycastor.me.miro.api.EntityTags.formatTag;
+import static ycastor.me.miro.api.EntityTags.matches;
+import static ycastor.me.miro.api.EntityTags.widgetTag;
 
+/*
+ * Every route is served per board, the routes without a board id work on the default board.
+ * Board reads are tagged with the version the board had before they were read, so a client still holding that version
+ * gets a 304 without the board being read or serialized again. Versions start over with the instance, so do the tags.
+ * Widget sets are answered as plain Iterables: cyclops collections are also Publishers, which Spring MVC would otherwise
+ * subscribe to asynchronously now that Reactor is on the classpath.
+ */
 @RestController
-@RequestMapping("/widget")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping({"/widget", "/boards/{boardId}/widget"})
 @Validated
 public class WidgetsApi {
+    public static final String DEFAULT_BOARD = "default";
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final String SMILE = "application/x-jackson-smile";
+    // board ids also name files of the datasources that keep one per board
+    private static final String BOARD_ID = "[A-Za-z0-9_-]{1,64}";
+
     private final WidgetsService widgetsService;
+    private final WidgetsWriter widgetsWriter;
+    private final ObjectWriter widgetWriter;
+    private final ObjectWriter smileWidgetWriter;
+    private final ObjectReader widgetReader;
+    private final ObjectReader smileWidgetReader;
+    private final long changesTimeout;
+    private final int importChunk;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
 
     @Autowired
-    public WidgetsApi(WidgetsService widgetsService) {
+    public WidgetsApi(
+            WidgetsService widgetsService,
+            WidgetsWriter widgetsWriter,
+            ObjectMapper objectMapper,
+            MappingJackson2SmileHttpMessageConverter smileConverter,
+            @Value("${miro.feed.timeout:600000}") long changesTimeout,
+            @Value("${miro.import-chunk:1000}") int importChunk
+    ) {
         this.widgetsService = widgetsService;
+        this.widgetsWriter = widgetsWriter;
+        this.changesTimeout = changesTimeout;
+        this.importChunk = importChunk;
+        // the servlet buffer decides when a chunk goes out, flushing every widget would send tiny chunks
+        this.widgetWriter = objectMapper.writerFor(Widget.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.smileWidgetWriter = smileConverter.getObjectMapper().writerFor(Widget.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.widgetReader = objectMapper.readerFor(Widget.class);
+        this.smileWidgetReader = smileConverter.getObjectMapper().readerFor(Widget.class);
     }
 
     @PostMapping
-    public ResponseEntity<Widget> create(@Valid @RequestBody WidgetCreateCommand createCommand) {
-        var widget = widgetsService.create(createCommand);
+    public ResponseEntity<Widget> create(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @Valid @RequestBody WidgetCreateCommand createCommand) {
+        var widget = await(widgetsWriter.create(board(boardId), createCommand));
         return ResponseEntity.ok(widget);
     }
 
     @PostMapping("/{widgetId}")
-    public ResponseEntity<Widget> update(@NotNull @PathVariable UUID widgetId, @Valid @RequestBody WidgetUpdateCommand widgetUpdateCommand) {
-        var widget = widgetsService.update(widgetId, widgetUpdateCommand);
+    public ResponseEntity<Widget> update(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @NotNull @PathVariable UUID widgetId,
+            @Valid @RequestBody WidgetUpdateCommand widgetUpdateCommand
+    ) {
+        var widget = await(widgetsWriter.update(board(boardId), widgetId, widgetUpdateCommand));
         return ResponseEntity.ok(widget);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<Iterable<Widget>> batch(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @Valid @RequestBody WidgetBatchCommand batchCommand) {
+        var widgets = await(widgetsWriter.applyBatch(board(boardId), batchCommand));
+        return ResponseEntity.ok(widgets);
+    }
+
+    // A widget is tagged with its own values, its tag only changes when the widget does
     @GetMapping("/{widgetId}")
-    public ResponseEntity<Widget> getById(@NotNull @PathVariable UUID widgetId) {
-        return widgetsService.fetch(widgetId).fold(ResponseEntity::ok, () -> ResponseEntity.notFound().build());
+    public ResponseEntity<Widget> getById(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @NotNull @PathVariable UUID widgetId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return widgetsService.fetch(board(boardId), widgetId).fold(
+                widget -> {
+                    var etag = widgetTag(widget, formatTag(accept));
+                    return matches(ifNoneMatch, etag)
+                            ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).<Widget>build()
+                            : ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT).body(widget);
+                },
+                () -> ResponseEntity.notFound().build()
+        );
     }
 
     @DeleteMapping("/{widgetId}")
-    public ResponseEntity<Widget> deleteById(@NotNull @PathVariable UUID widgetId) {
-        var widget = widgetsService.delete(widgetId);
+    public ResponseEntity<Widget> deleteById(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, @NotNull @PathVariable UUID widgetId) {
+        var widget = await(widgetsWriter.delete(board(boardId), widgetId));
         return ResponseEntity.ok(widget);
     }
 
     @GetMapping
-    public ResponseEntity<ImmutableSortedSet<Widget>> getById(
+    public ResponseEntity<Iterable<Widget>> getById(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
             @RequestParam(defaultValue = "0") Integer page,
-            @RequestParam(defaultValue = "10") Integer pageSize
+            @RequestParam(defaultValue = "10") Integer pageSize,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
     ) {
-        var widgets = widgetsService.list(PageRequest.of(page, pageSize));
-        return ResponseEntity.ok(widgets);
+        return ifBoardChanged(board(boardId), formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.list(board(boardId), PageRequest.of(page, pageSize))));
     }
 
+    // An empty cursor starts from the bottom of the board, every page answers with the cursor of the next one
+    @GetMapping(params = "cursor")
+    public ResponseEntity<WidgetsPage> listAfter(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestParam String cursor,
+            @RequestParam(defaultValue = "10") Integer pageSize,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return ifBoardChanged(board(boardId), formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.listAfter(board(boardId), cursor, pageSize)));
+    }
+
+    // The area is read from the body, so it is part of the tag
     @PostMapping("/in-area")
-    public ResponseEntity<ImmutableSortedSet<Widget>> inArea(@Valid @RequestBody FilterArea filterArea) {
-        var widgets = widgetsService.filterInArea(filterArea);
-        return ResponseEntity.ok(widgets);
+    public ResponseEntity<Iterable<Widget>> inArea(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @Valid @RequestBody FilterArea filterArea,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        return ifBoardChanged(board(boardId), areaTag(filterArea) + formatTag(accept), ifNoneMatch, () -> ResponseEntity.ok(widgetsService.filterInArea(board(boardId), filterArea)));
+    }
+
+    @GetMapping(produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAll(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return ifBoardChanged(board(boardId), "-ndjson", ifNoneMatch, () -> ndjson(action -> widgetsService.streamAll(board(boardId), action)));
+    }
+
+    @PostMapping(value = "/in-area", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamInArea(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @Valid @RequestBody FilterArea filterArea,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        return ifBoardChanged(
+                board(boardId),
+                areaTag(filterArea) + "-ndjson",
+                ifNoneMatch,
+                () -> ndjson(action -> widgetsService.streamInArea(board(boardId), filterArea, action))
+        );
+    }
+
+    // The whole board in z-order, as the import reads it back
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportNdjson(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId) {
+        return ndjson(action -> widgetsService.streamAll(board(boardId), action));
+    }
+
+    @GetMapping(value = "/export", produces = SMILE)
+    public ResponseEntity<StreamingResponseBody> exportSmile(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId) {
+        return stream(EntityTags.SMILE, smileWidgetWriter, action -> widgetsService.streamAll(board(boardId), action));
+    }
+
+    // Loads an empty board from an export, widgets are read off the body while importing so only a chunk is held at once.
+    // Answers how many widgets were imported
+    @PostMapping(value = "/import", consumes = NDJSON)
+    public ResponseEntity<Long> importNdjson(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, InputStream body) throws IOException {
+        return importBoard(board(boardId), widgetReader, body);
+    }
+
+    @PostMapping(value = "/import", consumes = SMILE)
+    public ResponseEntity<Long> importSmile(@PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId, InputStream body) throws IOException {
+        return importBoard(board(boardId), smileWidgetReader, body);
+    }
+
+    // Every change of the board after Last-Event-ID (or since, for clients that can't set it), live ones from now without
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(
+            @PathVariable(required = false) @Pattern(regexp = BOARD_ID) String boardId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String since
+    ) {
+        var emitter = new SseEmitter(changesTimeout);
+        var unsubscribe = widgetsService.subscribe(board(boardId), lastEventId != null ? lastEventId : since, new ChangesSubscriber(emitter));
+        emitter.onCompletion(unsubscribe);
+        emitter.onError(error -> unsubscribe.run());
+        return emitter;
+    }
+
+    // One widget per line
+    private ResponseEntity<StreamingResponseBody> ndjson(Consumer<Consumer<Widget>> source) {
+        return stream(MediaType.parseMediaType(NDJSON), widgetWriter, source);
+    }
+
+    // Written while the repository reads them so nothing is held besides the current widget. Text formats separate the
+    // widgets with new lines, binary ones delimit their values by themselves
+    private static ResponseEntity<StreamingResponseBody> stream(MediaType mediaType, ObjectWriter writer, Consumer<Consumer<Widget>> source) {
+        boolean lines = !writer.getFactory().canHandleBinaryNatively();
+        StreamingResponseBody body = output -> {
+            try (var generator = writer.getFactory().createGenerator(output)) {
+                if (lines) {
+                    generator.setRootValueSeparator(null);
+                }
+                source.accept(widget -> {
+                    try {
+                        writer.writeValue(generator, widget);
+                        if (lines) {
+                            generator.writeRaw('\n');
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok().contentType(mediaType).body(body);
+    }
+
+    private ResponseEntity<Long> importBoard(String boardId, ObjectReader reader, InputStream body) throws IOException {
+        try (MappingIterator<Widget> widgets = reader.readValues(body)) {
+            return ResponseEntity.ok(widgetsService.importBoard(boardId, parsing(widgets), importChunk));
+        }
+    }
+
+    // A body that doesn't parse fails the import like an invalid widget does
+    private static Iterator<Widget> parsing(MappingIterator<Widget> widgets) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return widgets.hasNextValue();
+                } catch (IOException e) {
+                    throw unreadable(e);
+                }
+            }
+
+            @Override
+            public Widget next() {
+                try {
+                    return widgets.nextValue();
+                } catch (IOException e) {
+                    throw unreadable(e);
+                }
+            }
+        };
+    }
+
+    private static RuntimeException unreadable(IOException e) {
+        return e instanceof JsonProcessingException
+                ? new InvalidImportException(((JsonProcessingException) e).getOriginalMessage())
+                : new UncheckedIOException(e);
+    }
+
+    private static final class ChangesSubscriber implements WidgetsFeed.Subscriber {
+        private final SseEmitter emitter;
+
+        private ChangesSubscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void changed(String eventId, BoardChange change) throws IOException {
+            send(SseEmitter.event().id(eventId).name("change").data(change, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void reset(String eventId, long version) throws IOException {
+            send(SseEmitter.event().id(eventId).name("reset").data(version));
+        }
+
+        private void send(SseEmitter.SseEventBuilder event) throws IOException {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                throw e;
+            }
+        }
+    }
+
+    // The version is read first, a write landing before the read only makes the tag older than the body
+    private <T> ResponseEntity<T> ifBoardChanged(String boardId, String variant, String ifNoneMatch, Supplier<ResponseEntity<T>> read) {
+        var etag = boardTag(epoch, widgetsService.boardVersion(boardId), variant);
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+
+        var response = read.get();
+        return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders()).eTag(etag).varyBy(HttpHeaders.ACCEPT).body(response.getBody());
+    }
+
+    private static String board(String boardId) {
+        return boardId != null ? boardId : DEFAULT_BOARD;
+    }
+
+    // Rethrows the command failure itself, so the advisors handle it as if it was applied on this thread
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
     }
 }
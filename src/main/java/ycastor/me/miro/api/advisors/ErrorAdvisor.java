@@ -2,14 +2,22 @@ package ycastor.me.miro.api.advisors;
 
 import java.util.stream.Collectors;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
 
 import ycastor.me.miro.shared.Problem;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
+import ycastor.me.miro.widgets.exceptions.InvalidCursorException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
 
 @ControllerAdvice
 public class ErrorAdvisor {
@@ -24,9 +32,56 @@ public class ErrorAdvisor {
         return ResponseEntity.badRequest().body(error);
     }
 
+    // The reactive stack reports invalid bodies on the exchange instead
+    @ExceptionHandler({WebExchangeBindException.class})
+    public final ResponseEntity<Problem> bindErrors(WebExchangeBindException bindException) {
+        var error = new Problem(
+                "Invalid Request", bindException.getAllErrors()
+                                                .stream()
+                                                .map(DefaultMessageSourceResolvable::getDefaultMessage)
+                                                .collect(Collectors.joining()));
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    // Path variables and request parameters are validated on the method call instead of the binding
+    @ExceptionHandler({ConstraintViolationException.class})
+    public final ResponseEntity<Problem> constraintViolations(ConstraintViolationException violationException) {
+        var error = new Problem(
+                "Invalid Request", violationException.getConstraintViolations()
+                                                     .stream()
+                                                     .map(ConstraintViolation::getMessage)
+                                                     .collect(Collectors.joining()));
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    @ExceptionHandler({InvalidCursorException.class})
+    public final ResponseEntity<Problem> invalidCursor(InvalidCursorException invalidCursorException) {
+        var error = new Problem("Invalid Request", invalidCursorException.getMessage());
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    @ExceptionHandler({InvalidImportException.class})
+    public final ResponseEntity<Problem> invalidImport(InvalidImportException invalidImportException) {
+        var error = new Problem("Invalid Request", invalidImportException.getMessage());
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    @ExceptionHandler({BoardNotEmptyException.class})
+    public final ResponseEntity<Problem> boardNotEmpty(BoardNotEmptyException boardNotEmptyException) {
+        var error = new Problem("Board not empty", boardNotEmptyException.getMessage());
+        return ResponseEntity.status(409).body(error);
+    }
+
     @ExceptionHandler({WidgetNotFoundException.class})
     public final ResponseEntity<Problem> widgetNotFound(WidgetNotFoundException widgetNotFoundException) {
         var error = new Problem("Widget not found", widgetNotFoundException.getMessage());
         return ResponseEntity.status(404).body(error);
     }
+
+    // Only reached once the service ran out of attempts, the client may send the write again
+    @ExceptionHandler({WidgetsChangedException.class})
+    public final ResponseEntity<Problem> widgetsChanged(WidgetsChangedException widgetsChangedException) {
+        var error = new Problem("Board changed", widgetsChangedException.getMessage());
+        return ResponseEntity.status(409).body(error);
+    }
 }
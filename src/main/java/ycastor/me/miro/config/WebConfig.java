@@ -2,17 +2,36 @@ package ycastor.me.miro.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.oath.cyclops.jackson.CyclopsModule;
 
+// JSON stays the default, clients asking for Smile or CBOR (Accept and Content-Type) get the same fields in binary,
+// with widget ids as their 16 raw bytes
 @Configuration
 public class WebConfig {
     @Bean
     public ObjectMapper objectMapper() {
-        return Jackson2ObjectMapperBuilder.json().modules(new CyclopsModule(), new JavaTimeModule(), new Jdk8Module()).build();
+        return withModules(Jackson2ObjectMapperBuilder.json()).build();
+    }
+
+    // Replace the converters Spring MVC registers on its own, which would not know the cyclops types
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+        return new MappingJackson2SmileHttpMessageConverter(withModules(Jackson2ObjectMapperBuilder.smile()).build());
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+        return new MappingJackson2CborHttpMessageConverter(withModules(Jackson2ObjectMapperBuilder.cbor()).build());
+    }
+
+    static Jackson2ObjectMapperBuilder withModules(Jackson2ObjectMapperBuilder builder) {
+        return builder.modules(new CyclopsModule(), new JavaTimeModule(), new Jdk8Module());
     }
 }
@@ -0,0 +1,300 @@
+package ycastor.me.miro.utils;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import cyclops.control.Option;
+import cyclops.data.tuple.Tuple;
+import cyclops.data.tuple.Tuple2;
+
+/*
+ * Persistent AVL tree. The cyclops 10.4 red-black tree behind TreeSet and TreeMap does not rebalance on insert, keys
+ * added in order (like widgets created on top of the board) turn it into a list and recursing over it overflows the
+ * stack. Here every update keeps the heights of sibling subtrees within one of each other, so lookups, updates and
+ * navigation stay O(log n) whatever the insertion order. Subtrees also keep their size, to seek by position.
+ */
+public final class AvlTree<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+
+    private AvlTree(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    public static <K, V> AvlTree<K, V> empty(Comparator<? super K> comparator) {
+        return new AvlTree<>(comparator, null);
+    }
+
+    // Builds the tree bottom-up in O(n) from entries in ascending key order, no rotation needed
+    public static <K, V> AvlTree<K, V> fromSorted(Comparator<? super K> comparator, List<Tuple2<K, V>> entries) {
+        for (int i = 1; i < entries.size(); i++) {
+            if (comparator.compare(entries.get(i - 1)._1(), entries.get(i)._1()) >= 0) {
+                throw new IllegalArgumentException("entries are not in strictly ascending key order at " + i);
+            }
+        }
+
+        return new AvlTree<>(comparator, build(entries, 0, entries.size()));
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Option<V> get(K key) {
+        var node = root;
+
+        while (node != null) {
+            int comparison = comparator.compare(key, node.key);
+            if (comparison == 0) {
+                return Option.some(node.value);
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+
+        return Option.none();
+    }
+
+    public AvlTree<K, V> plus(K key, V value) {
+        return new AvlTree<>(comparator, plus(root, key, value));
+    }
+
+    public AvlTree<K, V> minus(K key) {
+        var updated = minus(root, key);
+        return updated == root ? this : new AvlTree<>(comparator, updated);
+    }
+
+    // Entry with the greatest key lower than or equal to the given one
+    public Option<Tuple2<K, V>> floor(K key) {
+        Node<K, V> best = null;
+        var node = root;
+
+        while (node != null) {
+            int comparison = comparator.compare(key, node.key);
+            if (comparison == 0) {
+                return Option.some(node.entry());
+            }
+            if (comparison < 0) {
+                node = node.left;
+            } else {
+                best = node;
+                node = node.right;
+            }
+        }
+
+        return Option.ofNullable(best).map(Node::entry);
+    }
+
+    public Option<Tuple2<K, V>> last() {
+        var node = root;
+
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+
+        return Option.ofNullable(node).map(Node::entry);
+    }
+
+    public Iterator<V> values() {
+        return valuesFromPosition(0);
+    }
+
+    // In-order values starting at the first key greater than (or equal to, when inclusive) the given key
+    public Iterator<V> valuesFrom(K key, boolean inclusive) {
+        var path = new ArrayDeque<Node<K, V>>();
+        var node = root;
+
+        while (node != null) {
+            int comparison = comparator.compare(key, node.key);
+            if (comparison < 0 || (comparison == 0 && inclusive)) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        return new InOrder<>(path);
+    }
+
+    // In-order values starting at the given position, 0 being the lowest key
+    public Iterator<V> valuesFromPosition(int position) {
+        var path = new ArrayDeque<Node<K, V>>();
+        var node = root;
+        int skipped = position;
+
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (skipped <= leftSize) {
+                path.push(node);
+                if (skipped == leftSize) {
+                    break;
+                }
+                node = node.left;
+            } else {
+                skipped -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        return new InOrder<>(path);
+    }
+
+    private Node<K, V> plus(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+
+        int comparison = comparator.compare(key, node.key);
+        if (comparison < 0) {
+            return balanced(node.key, node.value, plus(node.left, key, value), node.right);
+        }
+        if (comparison > 0) {
+            return balanced(node.key, node.value, node.left, plus(node.right, key, value));
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    private Node<K, V> minus(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+
+        int comparison = comparator.compare(key, node.key);
+        if (comparison < 0) {
+            var left = minus(node.left, key);
+            return left == node.left ? node : balanced(node.key, node.value, left, node.right);
+        }
+        if (comparison > 0) {
+            var right = minus(node.right, key);
+            return right == node.right ? node : balanced(node.key, node.value, node.left, right);
+        }
+
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+
+        var successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balanced(successor.key, successor.value, node.left, withoutFirst(node.right));
+    }
+
+    private static <K, V> Node<K, V> withoutFirst(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balanced(node.key, node.value, withoutFirst(node.left), node.right);
+    }
+
+    // Joins two subtrees whose heights differ by two at most, rotating once or twice when they differ by two
+    private static <K, V> Node<K, V> balanced(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            var pivot = left.right;
+            return new Node<>(
+                    pivot.key, pivot.value, new Node<>(left.key, left.value, left.left, pivot.left), new Node<>(key, value, pivot.right, right)
+            );
+        }
+
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            var pivot = right.left;
+            return new Node<>(
+                    pivot.key, pivot.value, new Node<>(key, value, left, pivot.left), new Node<>(right.key, right.value, pivot.right, right.right)
+            );
+        }
+
+        return new Node<>(key, value, left, right);
+    }
+
+    // Halving the range keeps both sides of every node within one entry, so within one level of height
+    private static <K, V> Node<K, V> build(List<Tuple2<K, V>> entries, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+
+        int middle = (from + to) >>> 1;
+        var entry = entries.get(middle);
+        return new Node<>(entry._1(), entry._2(), build(entries, from, middle), build(entries, middle + 1, to));
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class InOrder<K, V> implements Iterator<V> {
+        // the next node on top, then every ancestor still to visit
+        private final ArrayDeque<Node<K, V>> path;
+
+        private InOrder(ArrayDeque<Node<K, V>> path) {
+            this.path = path;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public V next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+
+            var node = path.pop();
+            var right = node.right;
+            while (right != null) {
+                path.push(right);
+                right = right.left;
+            }
+
+            return node.value;
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+        private final int size;
+
+        private Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        private Tuple2<K, V> entry() {
+            return Tuple.tuple(key, value);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ycastor.me.miro.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import cyclops.control.Option;
+import ycastor.me.miro.widgets.exceptions.InvalidCursorException;
+
+// Opaque page tokens holding the z-index of the last widget seen, an empty token starts from the bottom of the board
+public class CursorTokens {
+
+    public static String encode(int zIndex) {
+        var raw = Integer.toString(zIndex).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    public static Option<Integer> decode(String token) {
+        if (token == null || token.isBlank()) {
+            return Option.none();
+        }
+
+        try {
+            var raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            return Option.some(Integer.parseInt(raw));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(token);
+        }
+    }
+}
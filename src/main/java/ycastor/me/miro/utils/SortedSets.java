@@ -0,0 +1,54 @@
+package ycastor.me.miro.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.base.RedBlackTree;
+
+/*
+ * Cyclops sorted sets built balanced. TreeSet.fromIterable adds one value at a time to a red-black tree that does not
+ * rebalance, ordered input (every z-ordered result) ends up as deep as it is long. Here the tree is built bottom-up,
+ * with the deepest level red so every path keeps the same number of black nodes.
+ */
+public class SortedSets {
+
+    // Same content as TreeSet.fromIterable, of values comparing equal the last one is kept
+    public static <T extends Comparable<? super T>> ImmutableSortedSet<T> fromIterable(Iterable<? extends T> values) {
+        Comparator<T> order = Comparator.naturalOrder();
+        var sorted = new ArrayList<T>();
+        values.forEach(sorted::add);
+        sorted.sort(order);
+
+        var distinct = new ArrayList<T>(sorted.size());
+        for (T value : sorted) {
+            if (!distinct.isEmpty() && order.compare(distinct.get(distinct.size() - 1), value) == 0) {
+                distinct.set(distinct.size() - 1, value);
+            } else {
+                distinct.add(value);
+            }
+        }
+
+        int deepestLevel = distinct.isEmpty() ? 0 : 31 - Integer.numberOfLeadingZeros(distinct.size());
+        return new TreeSet<>(build(distinct, 0, distinct.size(), 0, deepestLevel, order), order);
+    }
+
+    private static <T> RedBlackTree.Tree<T, T> build(List<T> values, int from, int to, int level, int deepestLevel, Comparator<T> order) {
+        if (from >= to) {
+            return RedBlackTree.empty(order);
+        }
+
+        int middle = (from + to) >>> 1;
+        var value = values.get(middle);
+        return new RedBlackTree.Node<>(
+                level < deepestLevel || level == 0,
+                build(values, from, middle, level + 1, deepestLevel, order),
+                build(values, middle + 1, to, level + 1, deepestLevel, order),
+                value,
+                value,
+                order
+        );
+    }
+}
@@ -0,0 +1,209 @@
+package ycastor.me.miro.widgets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.widgets.commands.WidgetBatchOperation;
+import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+
+/*
+ * Applies the operations of a batch over the stored board without writing anything. Colliding widgets are pushed up
+ * in memory, so a widget pushed by several operations is saved only once, with its final z-index.
+ */
+class BatchBoard {
+    private final StoredBoard storedBoard;
+    private final WidgetsCommandConverter widgetsCommandConverter;
+
+    private final Map<UUID, Widget> changed = new LinkedHashMap<>();
+    private final TreeMap<Integer, Widget> changedByZIndex = new TreeMap<>();
+    private final Set<UUID> created = new HashSet<>();
+    private final Set<UUID> deleted = new LinkedHashSet<>();
+    // stored widgets whose stored version is no longer the current one
+    private final Set<UUID> overridden = new HashSet<>();
+
+    private final Map<Integer, Widget> storedByZIndex = new HashMap<>();
+    private final Set<Integer> storedGaps = new HashSet<>();
+    private Integer storedLargestZIndex;
+
+    BatchBoard(String boardId, WidgetRepository widgetRepository, WidgetsCommandConverter widgetsCommandConverter) {
+        this(new StoredBoard() {
+            @Override
+            public Option<Widget> findById(UUID widgetId) {
+                return widgetRepository.findById(boardId, widgetId);
+            }
+
+            @Override
+            public ImmutableSortedSet<Widget> findFromZIndexUntilGap(int zIndex) {
+                return widgetRepository.findFromZIndexUntilGap(boardId, zIndex);
+            }
+
+            @Override
+            public int findLargestZIndex() {
+                return widgetRepository.findLargestZIndex(boardId);
+            }
+        }, widgetsCommandConverter);
+    }
+
+    BatchBoard(StoredBoard storedBoard, WidgetsCommandConverter widgetsCommandConverter) {
+        this.storedBoard = storedBoard;
+        this.widgetsCommandConverter = widgetsCommandConverter;
+    }
+
+    void apply(WidgetBatchOperation operation) {
+        switch (operation.getType()) {
+            case CREATE:
+                create(operation);
+                break;
+            case UPDATE:
+                update(operation);
+                break;
+            case DELETE:
+                delete(operation.getWidgetId());
+                break;
+        }
+    }
+
+    WidgetChanges changes() {
+        var createdWidgets = new ArrayList<Widget>();
+        var updatedWidgets = new ArrayList<Widget>();
+        changed.values().forEach(widget -> (created.contains(widget.getId()) ? createdWidgets : updatedWidgets).add(widget));
+
+        return WidgetChanges.builder()
+                            .created(Vector.fromIterable(createdWidgets))
+                            .updated(Vector.fromIterable(updatedWidgets))
+                            .deleted(Vector.fromIterable(deleted))
+                            .build();
+    }
+
+    private void create(WidgetBatchOperation operation) {
+        var command = operation.getCreate();
+        int zIndex = command.maybeZIndex().orElseGet(() -> largestZIndex() + 1);
+        var widget = widgetsCommandConverter.fromCommand(command, zIndex).toBuilder().id(UUID.randomUUID()).build();
+
+        created.add(widget.getId());
+        place(widget);
+    }
+
+    // Unlike a single update, the previous version leaves the board before the collisions are pushed
+    private void update(WidgetBatchOperation operation) {
+        var command = operation.getUpdate();
+        var current = current(operation.getWidgetId());
+        int zIndex = command.maybeZIndex().orElseGet(() -> largestZIndex() + 1);
+        var widget = widgetsCommandConverter.fromCommand(command, zIndex).toBuilder().id(current.getId()).version(current.getVersion()).build();
+
+        takeOut(current);
+        place(widget);
+    }
+
+    private void delete(UUID widgetId) {
+        var current = current(widgetId);
+        takeOut(current);
+
+        if (!created.remove(widgetId)) {
+            deleted.add(widgetId);
+        }
+    }
+
+    private Widget current(UUID widgetId) {
+        if (deleted.contains(widgetId)) {
+            throw new WidgetNotFoundException(widgetId);
+        }
+
+        var widget = changed.get(widgetId);
+        if (widget != null) {
+            return widget;
+        }
+
+        return storedBoard.findById(widgetId)
+                          .filter(stored -> !overridden.contains(stored.getId()))
+                          .orElseGet(() -> { throw new WidgetNotFoundException(widgetId); });
+    }
+
+    private void place(Widget widget) {
+        var collided = new ArrayList<Widget>();
+        for (var occupant = occupant(widget.getZIndex()); occupant != null; occupant = occupant(occupant.getZIndex() + 1)) {
+            collided.add(occupant);
+        }
+
+        for (int i = collided.size() - 1; i >= 0; i--) {
+            var pushed = collided.get(i);
+            takeOut(pushed);
+            put(pushed.toBuilder().zIndex(pushed.getZIndex() + 1).build());
+        }
+
+        put(widget);
+    }
+
+    private void put(Widget widget) {
+        changed.put(widget.getId(), widget);
+        changedByZIndex.put(widget.getZIndex(), widget);
+        overridden.add(widget.getId());
+    }
+
+    private void takeOut(Widget widget) {
+        changed.remove(widget.getId());
+        changedByZIndex.remove(widget.getZIndex(), widget);
+        overridden.add(widget.getId());
+    }
+
+    private Widget occupant(int zIndex) {
+        var widget = changedByZIndex.get(zIndex);
+        if (widget != null) {
+            return widget;
+        }
+
+        var stored = stored(zIndex);
+        return stored != null && !overridden.contains(stored.getId()) ? stored : null;
+    }
+
+    // Stored runs are loaded once, from the first z-index asked until the gap that ends them
+    private Widget stored(int zIndex) {
+        if (storedByZIndex.containsKey(zIndex) || storedGaps.contains(zIndex)) {
+            return storedByZIndex.get(zIndex);
+        }
+
+        var run = storedBoard.findFromZIndexUntilGap(zIndex);
+        run.forEach(widget -> storedByZIndex.put(widget.getZIndex(), widget));
+        if (!storedByZIndex.containsKey(zIndex)) {
+            storedGaps.add(zIndex);
+        }
+        run.last()
+           .map(Widget::getZIndex)
+           .filter(runEnd -> runEnd < Integer.MAX_VALUE)
+           .forEach(runEnd -> storedGaps.add(runEnd + 1));
+
+        return storedByZIndex.get(zIndex);
+    }
+
+    // Widgets created without a z-index go above everything the board had when the batch started
+    private int largestZIndex() {
+        if (storedLargestZIndex == null) {
+            storedLargestZIndex = storedBoard.findLargestZIndex();
+        }
+
+        return changedByZIndex.isEmpty() ? storedLargestZIndex : Math.max(storedLargestZIndex, changedByZIndex.lastKey());
+    }
+
+    // The stored board, read while the batch is applied over it
+    interface StoredBoard {
+        Option<Widget> findById(UUID widgetId);
+
+        ImmutableSortedSet<Widget> findFromZIndexUntilGap(int zIndex);
+
+        int findLargestZIndex();
+    }
+}
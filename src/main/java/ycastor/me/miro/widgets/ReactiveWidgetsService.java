@@ -0,0 +1,193 @@
+package ycastor.me.miro.widgets;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import io.micrometer.core.instrument.Metrics;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+import ycastor.me.miro.utils.CursorTokens;
+import ycastor.me.miro.widgets.commands.Command;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.ReactiveWidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.WidgetsPage;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+
+/*
+ * WidgetsService for the reactive stack. The writes of a board are chained one after the other instead of holding a
+ * lock while they run, so their changes reach the feed in the order they were applied and no thread waits meanwhile.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWidgetsService {
+    // a write that lost against a concurrent change of its board is planned and tried again, a few times
+    private static final int MAX_WRITE_ATTEMPTS = 4;
+    private static final Duration WRITE_BACKOFF = Duration.ofMillis(2);
+
+    private final ReactiveWidgetRepository widgetRepository;
+    private final WidgetsCommandConverter widgetsCommandConverter;
+    private final WidgetsFeed widgetsFeed;
+    // completes once the last write queued on the board is done
+    private final Map<String, Mono<Void>> lastWrites = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ReactiveWidgetsService(ReactiveWidgetRepository widgetRepository, WidgetsCommandConverter widgetsCommandConverter, WidgetsFeed widgetsFeed) {
+        this.widgetRepository = widgetRepository;
+        this.widgetsCommandConverter = widgetsCommandConverter;
+        this.widgetsFeed = widgetsFeed;
+    }
+
+    public Flux<Widget> list(String boardId, Pageable pageRequest) {
+        return widgetRepository.listAll(boardId, pageRequest);
+    }
+
+    public Mono<WidgetsPage> listAfter(String boardId, String cursor, int pageSize) {
+        return Mono.fromSupplier(() -> CursorTokens.decode(cursor))
+                   .flatMap(afterZIndex -> widgetRepository.listAfterZIndex(boardId, afterZIndex, pageSize).collectList())
+                   .map(found -> {
+                       var widgets = TreeSet.fromIterable(found);
+                       var nextCursor = widgets.size() < pageSize ? null : widgets.last().map(widget -> CursorTokens.encode(widget.getZIndex())).orElse(null);
+                       return new WidgetsPage(widgets, nextCursor);
+                   });
+    }
+
+    public Flux<Widget> filterInArea(String boardId, FilterArea filterArea) {
+        return widgetRepository.listAllWithinArea(boardId, filterArea);
+    }
+
+    public Mono<Long> boardVersion(String boardId) {
+        return widgetRepository.boardVersion(boardId);
+    }
+
+    public Mono<Widget> fetch(String boardId, UUID widgetId) {
+        return widgetRepository.findById(boardId, widgetId);
+    }
+
+    public Mono<Widget> create(String boardId, WidgetCreateCommand command) {
+        return retryingChanges("create", inBoardOrder(boardId, convertWithZIndex(boardId, command, command.maybeZIndex())
+                .flatMap(indexedWidget -> widgetRepository.saveReportingShift(boardId, indexedWidget))
+                .map(saved -> widgetsFeed.record(boardId, () -> saved, created -> withShift(BoardChange.builder().created(Vector.of(created._1())), created._2()))._1())));
+    }
+
+    // The update only applies to the version of the widget it was planned against
+    public Mono<Widget> update(String boardId, UUID widgetId, WidgetUpdateCommand command) {
+        return retryingChanges("update", inBoardOrder(boardId, widgetRepository.findById(boardId, widgetId)
+                .switchIfEmpty(Mono.error(() -> new WidgetNotFoundException(widgetId)))
+                .flatMap(current -> convertWithZIndex(boardId, command, command.maybeZIndex())
+                        .map(widget -> widget.toBuilder().id(widgetId).version(current.getVersion()).build()))
+                .flatMap(indexedWidget -> widgetRepository.saveReportingShift(boardId, indexedWidget))
+                .map(saved -> widgetsFeed.record(boardId, () -> saved, updated -> withShift(BoardChange.builder().updated(Vector.of(updated._1())), updated._2()))._1())));
+    }
+
+    public Mono<Widget> delete(String boardId, UUID widgetId) {
+        return retryingChanges("delete", inBoardOrder(boardId, widgetRepository.delete(boardId, widgetId)
+                .map(deleted -> widgetsFeed.record(boardId, () -> deleted, widget -> BoardChange.builder().deleted(Vector.of(widget.getId())).build()))));
+    }
+
+    // The batch is planned on a bounded elastic thread, it reads the board one widget or run at a time as it goes
+    public Flux<Widget> applyBatch(String boardId, WidgetBatchCommand command) {
+        var planned = Mono.fromSupplier(() -> {
+            var board = new BatchBoard(storedBoard(boardId), widgetsCommandConverter);
+            command.getOperations().forEach(board::apply);
+            return board.changes();
+        }).subscribeOn(Schedulers.boundedElastic());
+
+        return retryingChanges("batch", inBoardOrder(boardId, planned.flatMap(changes -> widgetRepository.saveBatch(boardId, changes)
+                .collectList()
+                .map(saved -> widgetsFeed.record(boardId, () -> TreeSet.fromIterable(saved), widgets -> batchChange(changes, widgets))))))
+                .flatMapIterable(saved -> saved);
+    }
+
+    public Runnable subscribe(String boardId, String lastEventId, WidgetsFeed.Subscriber subscriber) {
+        return widgetsFeed.subscribe(boardId, lastEventId, subscriber);
+    }
+
+    // Starts once the previous write of the board is done, a write cancelled while waiting still keeps the order
+    private <T> Mono<T> inBoardOrder(String boardId, Mono<T> write) {
+        return Mono.defer(() -> {
+            var done = Sinks.<Void>empty();
+            var current = done.asMono();
+            var previous = lastWrites.put(boardId, current);
+            var before = previous != null ? previous : Mono.<Void>empty();
+
+            return before.then(write).doFinally(signal -> before.subscribe(null, null, () -> {
+                lastWrites.remove(boardId, current);
+                done.tryEmitEmpty();
+            }));
+        });
+    }
+
+    // Counts the writes that lost against a concurrent change of the board and plans them again over the changed board
+    private static <T> Mono<T> retryingChanges(String operation, Mono<T> write) {
+        return write.doOnError(WidgetsChangedException.class, e -> Metrics.counter("widgets.changed", "operation", operation).increment())
+                    .retryWhen(Retry.backoff(MAX_WRITE_ATTEMPTS - 1, WRITE_BACKOFF)
+                                    .filter(WidgetsChangedException.class::isInstance)
+                                    .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+    }
+
+    // Blocks on the repository, only used from the bounded elastic threads
+    private BatchBoard.StoredBoard storedBoard(String boardId) {
+        return new BatchBoard.StoredBoard() {
+            @Override
+            public Option<Widget> findById(UUID widgetId) {
+                return Option.fromOptional(widgetRepository.findById(boardId, widgetId).blockOptional());
+            }
+
+            @Override
+            public ImmutableSortedSet<Widget> findFromZIndexUntilGap(int zIndex) {
+                return TreeSet.fromIterable(widgetRepository.findFromZIndexUntilGap(boardId, zIndex).collectList().block());
+            }
+
+            @Override
+            public int findLargestZIndex() {
+                return widgetRepository.findLargestZIndex(boardId).block();
+            }
+        };
+    }
+
+    // Saves push the run at the saved z-index without telling which widgets it held, only where it started
+    private static BoardChange withShift(BoardChange.BoardChangeBuilder change, Option<ZIndexRun> shiftedRun) {
+        return shiftedRun.fold(run -> change.shiftedFrom(run.getRunStart()), () -> change).build();
+    }
+
+    // The batch already pushed the collisions itself, pushed widgets come back with the updated ones
+    private static BoardChange batchChange(WidgetChanges changes, ImmutableSortedSet<Widget> saved) {
+        var createdIds = changes.getCreated().map(Widget::getId).toHashSet();
+        return BoardChange.builder()
+                          .created(Vector.fromIterable(saved.filter(widget -> createdIds.contains(widget.getId()))))
+                          .updated(Vector.fromIterable(saved.filter(widget -> !createdIds.contains(widget.getId()))))
+                          .deleted(changes.getDeleted())
+                          .build();
+    }
+
+    private <T extends Command> Mono<Widget> convertWithZIndex(String boardId, T command, Option<Integer> zIndex) {
+        return zIndex.fold(
+                z -> Mono.fromSupplier(() -> widgetsCommandConverter.fromCommand(command, z)),
+                () -> widgetRepository.findLargestZIndex(boardId).map(largest -> widgetsCommandConverter.fromCommand(command, largest + 1))
+        );
+    }
+}
@@ -1,6 +1,12 @@
 package ycastor.me.miro.widgets;
 
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
@@ -8,68 +14,302 @@ import org.springframework.stereotype.Service;
 
 import cyclops.control.Option;
 import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import ycastor.me.miro.utils.CursorTokens;
+import ycastor.me.miro.utils.SortedSets;
 import ycastor.me.miro.widgets.commands.Command;
 import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
 import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
 import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
 import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
 import ycastor.me.miro.widgets.dao.WidgetRepository;
 import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.WidgetsPage;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
 
 @Service
 public class WidgetsService {
+    private static final DistributionSummary COLLISION_SHIFTS = DistributionSummary.builder("widgets.collisions.shifted")
+                                                                                   .description("Widgets pushed up by a create or update")
+                                                                                   .publishPercentileHistogram()
+                                                                                   .register(Metrics.globalRegistry);
+    private static final DistributionSummary IN_AREA_RESULTS = DistributionSummary.builder("widgets.in_area.results")
+                                                                                  .description("Widgets matched by an in-area query")
+                                                                                  .publishPercentileHistogram()
+                                                                                  .register(Metrics.globalRegistry);
+    // a write that lost against a concurrent change of its board is planned and tried again, a few times
+    private static final int MAX_WRITE_ATTEMPTS = 4;
+    private static final long WRITE_BACKOFF_MILLIS = 2;
+
     private final WidgetRepository widgetRepository;
     private final WidgetsCommandConverter widgetsCommandConverter;
+    private final WidgetsFeed widgetsFeed;
+    // set while the thread applies a write group, the writer lane applying it must not sleep between attempts
+    private final ThreadLocal<Boolean> grouped = new ThreadLocal<>();
 
     @Autowired
-    public WidgetsService(WidgetRepository widgetRepository, WidgetsCommandConverter widgetsCommandConverter) {
+    public WidgetsService(WidgetRepository widgetRepository, WidgetsCommandConverter widgetsCommandConverter, WidgetsFeed widgetsFeed) {
         this.widgetRepository = widgetRepository;
         this.widgetsCommandConverter = widgetsCommandConverter;
+        this.widgetsFeed = widgetsFeed;
+    }
+
+    @Timed(value = "widgets.service", histogram = true)
+    public ImmutableSortedSet<Widget> list(String boardId, Pageable pageRequest) {
+        return widgetRepository.listAll(boardId, pageRequest);
+    }
+
+    @Timed(value = "widgets.service", histogram = true)
+    public WidgetsPage listAfter(String boardId, String cursor, int pageSize) {
+        var widgets = widgetRepository.listAfterZIndex(boardId, CursorTokens.decode(cursor), pageSize);
+        var nextCursor = widgets.size() < pageSize ? null : widgets.last().map(widget -> CursorTokens.encode(widget.getZIndex())).orElse(null);
+        return new WidgetsPage(widgets, nextCursor);
+    }
+
+    @Timed(value = "widgets.service", histogram = true)
+    public ImmutableSortedSet<Widget> filterInArea(String boardId, FilterArea filterArea) {
+        var widgets = widgetRepository.listAllWithinArea(boardId, filterArea);
+        IN_AREA_RESULTS.record(widgets.size());
+        return widgets;
+    }
+
+    @Timed(value = "widgets.service", histogram = true)
+    public void streamAll(String boardId, Consumer<Widget> action) {
+        widgetRepository.forEachWidget(boardId, action);
+    }
+
+    @Timed(value = "widgets.service", histogram = true)
+    public void streamInArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        var results = new AtomicLong();
+        widgetRepository.forEachWithinArea(boardId, filterArea, widget -> {
+            results.incrementAndGet();
+            action.accept(widget);
+        });
+        IN_AREA_RESULTS.record(results.get());
     }
 
-    public ImmutableSortedSet<Widget> list(Pageable pageRequest) {
-        return widgetRepository.listAll(pageRequest);
+    public long boardVersion(String boardId) {
+        return widgetRepository.boardVersion(boardId);
     }
 
-    public ImmutableSortedSet<Widget> filterInArea(FilterArea filterArea) {
-        return widgetRepository.listAllWithinArea(filterArea);
+    @Timed(value = "widgets.service", histogram = true)
+    public Option<Widget> fetch(String boardId, UUID widgetId) {
+        return widgetRepository.findById(boardId, widgetId);
     }
 
-    public Option<Widget> fetch(UUID widgetId) {
-        return widgetRepository.findById(widgetId);
+    @Timed(value = "widgets.service", histogram = true)
+    public Widget create(String boardId, WidgetCreateCommand command) {
+        return retryingChanges("create", () -> {
+            var indexedWidget = convertWithZIndex(boardId, command, command.maybeZIndex());
+            var fixedWidgets = fixCollisions(boardId, indexedWidget);
+            return widgetsFeed.record(
+                    boardId,
+                    () -> saveShifting(boardId, indexedWidget, fixedWidgets),
+                    writtenVersion(boardId),
+                    saved -> withShifts(BoardChange.builder().created(Vector.of(saved._1())), saved._2(), fixedWidgets)
+            )._1();
+        });
     }
 
-    public Widget create(WidgetCreateCommand command) {
-        var indexedWidget = convertWithZIndex(command, command.maybeZIndex());
-        var fixedWidgets = fixCollisions(indexedWidget);
-        return widgetRepository.save(indexedWidget, fixedWidgets);
+    @Timed(value = "widgets.service", histogram = true)
+    public Widget update(String boardId, UUID widgetId, WidgetUpdateCommand command) {
+        return retryingChanges("update", () -> {
+            var current = widgetRepository.findById(boardId, widgetId)
+                                          .orElseGet(() -> { throw new WidgetNotFoundException(widgetId); });
+            // the update only applies to the version it was planned against
+            var indexedWidget = convertWithZIndex(boardId, command, command.maybeZIndex()).toBuilder().id(widgetId).version(current.getVersion()).build();
+            var fixedWidgets = fixCollisions(boardId, indexedWidget);
+            return widgetsFeed.record(
+                    boardId,
+                    () -> saveShifting(boardId, indexedWidget, fixedWidgets),
+                    writtenVersion(boardId),
+                    saved -> withShifts(BoardChange.builder().updated(Vector.of(saved._1())), saved._2(), fixedWidgets.filter(widget -> !widgetId.equals(widget.getId())))
+            )._1();
+        });
     }
 
-    public Widget update(UUID widgetId, WidgetUpdateCommand command) {
-        widgetRepository.findById(widgetId)
-                        .orElseGet(() -> { throw new WidgetNotFoundException(widgetId); });
-        var indexedWidget = convertWithZIndex(command, command.maybeZIndex()).toBuilder().id(widgetId).build();
-        var fixedWidgets = fixCollisions(indexedWidget);
-        return widgetRepository.save(indexedWidget, fixedWidgets);
+    @Timed(value = "widgets.service", histogram = true)
+    public Widget delete(String boardId, UUID widgetId) {
+        return retryingChanges("delete", () -> widgetsFeed.record(
+                boardId,
+                () -> widgetRepository.delete(boardId, widgetId),
+                writtenVersion(boardId),
+                deleted -> BoardChange.builder().deleted(Vector.of(deleted.getId())).build()
+        ));
     }
 
-    public Widget delete(UUID widgetId) {
-        return widgetRepository.delete(widgetId);
+    // Returns the final version of every widget the batch created, updated or pushed up
+    @Timed(value = "widgets.service", histogram = true)
+    public ImmutableSortedSet<Widget> applyBatch(String boardId, WidgetBatchCommand command) {
+        return retryingChanges("batch", () -> {
+            var board = new BatchBoard(boardId, widgetRepository, widgetsCommandConverter);
+            command.getOperations().forEach(board::apply);
+            var changes = board.changes();
+            return widgetsFeed.record(
+                    boardId,
+                    () -> widgetRepository.saveBatch(boardId, changes),
+                    writtenVersion(boardId),
+                    saved -> batchChange(changes, saved)
+            );
+        });
     }
 
-    private ImmutableSortedSet<Widget> fixCollisions(Widget indexedWidget) {
-        var collision = widgetRepository.findFromZIndexUntilGap(indexedWidget.getZIndex());
-        return collision.map(widget -> widget.toBuilder()
-                                             .zIndex(widget.getZIndex() + 1)
-                                             .build());
+    // Loads an empty board in one pass, widgets come in strictly ascending z-order so none collides and nothing is planned.
+    // Widgets without an id get one. Subscribers get a reset instead of a change holding the whole board
+    @Timed(value = "widgets.service", histogram = true)
+    public long importBoard(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        return widgetsFeed.recordReload(boardId, () -> widgetRepository.importWidgets(boardId, new ImportedWidgets(widgets), chunkSize), writtenVersion(boardId));
+    }
+
+    // Applies the writes as one group of the board, their changes reach the feed once the whole group is published
+    public void writeGroup(String boardId, Runnable writes) {
+        boolean outermost = grouped.get() == null;
+        grouped.set(true);
+        try {
+            widgetsFeed.group(boardId, () -> widgetRepository.writeGroup(boardId, writes));
+        } finally {
+            if (outermost) {
+                grouped.remove();
+            }
+        }
+    }
+
+    public Runnable subscribe(String boardId, String lastEventId, WidgetsFeed.Subscriber subscriber) {
+        return widgetsFeed.subscribe(boardId, lastEventId, subscriber);
+    }
+
+    // Read right after the write, the feed orders the changes of concurrent writes by it
+    private LongSupplier writtenVersion(String boardId) {
+        return () -> widgetRepository.writtenVersion(boardId);
+    }
+
+    private ImmutableSortedSet<Widget> fixCollisions(String boardId, Widget indexedWidget) {
+        if (widgetRepository instanceof SelfOrderingRepository) {
+            return TreeSet.empty();
+        }
+
+        var collision = widgetRepository.findFromZIndexUntilGap(boardId, indexedWidget.getZIndex());
+        COLLISION_SHIFTS.record(collision.size());
+        // TreeSet.map would rebuild the run by ascending inserts, as deep as the run is long
+        var shifted = Vector.fromIterable(collision).map(widget -> widget.toBuilder()
+                                                                  .zIndex(widget.getZIndex() + 1)
+                                                                  .build());
+        return SortedSets.fromIterable(shifted);
+    }
+
+    // Self ordering repositories push the run at the saved z-index themselves and report which z-indexes it covered,
+    // the collisions planned for the others are all there is to push
+    private Tuple2<Widget, Option<ZIndexRun>> saveShifting(String boardId, Widget indexedWidget, ImmutableSortedSet<Widget> fixedWidgets) {
+        if (widgetRepository instanceof SelfOrderingRepository) {
+            var saved = ((SelfOrderingRepository) widgetRepository).saveReportingShift(boardId, indexedWidget);
+            COLLISION_SHIFTS.record(saved._2().fold(run -> run.getRunEnd() - run.getRunStart() + 1, () -> 0));
+            return saved;
+        }
+
+        return Tuple2.of(widgetRepository.save(boardId, indexedWidget, fixedWidgets), Option.none());
+    }
+
+    // Self ordering repositories push the run without telling which widgets it held, only where it started
+    private BoardChange withShifts(BoardChange.BoardChangeBuilder change, Option<ZIndexRun> shiftedRun, ImmutableSortedSet<Widget> fixedWidgets) {
+        if (widgetRepository instanceof SelfOrderingRepository) {
+            return shiftedRun.fold(run -> change.shiftedFrom(run.getRunStart()), () -> change).build();
+        }
+
+        return change.shifted(Vector.fromIterable(fixedWidgets)).build();
+    }
+
+    // The batch already pushed the collisions itself, pushed widgets come back with the updated ones
+    private static BoardChange batchChange(WidgetChanges changes, ImmutableSortedSet<Widget> saved) {
+        var createdIds = changes.getCreated().map(Widget::getId).toHashSet();
+        return BoardChange.builder()
+                          .created(Vector.fromIterable(saved.filter(widget -> createdIds.contains(widget.getId()))))
+                          .updated(Vector.fromIterable(saved.filter(widget -> !createdIds.contains(widget.getId()))))
+                          .deleted(changes.getDeleted())
+                          .build();
+    }
+
+    // Counts the writes that lost against a concurrent change of the board and plans them again over the changed board.
+    // The backoff doubles on every attempt, with jitter so the writers that collided don't collide again right away.
+    // Writes of a group are tried again right away, a sleep would stall every board of the lane applying the group
+    private <T> T retryingChanges(String operation, Supplier<T> write) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return write.get();
+            } catch (WidgetsChangedException e) {
+                Metrics.counter("widgets.changed", "operation", operation).increment();
+                if (attempt == MAX_WRITE_ATTEMPTS) {
+                    throw e;
+                }
+                if (grouped.get() == null) {
+                    backOff(attempt, e);
+                }
+            }
+        }
+    }
+
+    private static void backOff(int attempt, WidgetsChangedException conflict) {
+        long backoff = WRITE_BACKOFF_MILLIS << (attempt - 1);
+        try {
+            Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+    // Checks every widget as it is read, the import fails at the first one that doesn't fit
+    private static final class ImportedWidgets implements Iterator<Widget> {
+        private final Iterator<Widget> widgets;
+        private long position;
+        private Integer lastZIndex;
+
+        private ImportedWidgets(Iterator<Widget> widgets) {
+            this.widgets = widgets;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return widgets.hasNext();
+        }
+
+        @Override
+        public Widget next() {
+            var widget = widgets.next();
+            position++;
+
+            if (widget == null || widget.getZIndex() == null || widget.getXAxis() == null || widget.getYAxis() == null) {
+                throw new InvalidImportException(position, "the z-index and both axes must be informed");
+            }
+            if (widget.getWidth() == null || widget.getWidth() <= 0 || widget.getHeight() == null || widget.getHeight() <= 0) {
+                throw new InvalidImportException(position, "the width and height must be positive");
+            }
+            if (lastZIndex != null && widget.getZIndex() <= lastZIndex) {
+                throw new InvalidImportException(position, String.format("its z-index %d is not above the previous one", widget.getZIndex()));
+            }
+            lastZIndex = widget.getZIndex();
+
+            return widget.getId() != null ? widget : widget.toBuilder().id(UUID.randomUUID()).build();
+        }
     }
 
-    private <T extends Command> Widget convertWithZIndex(T command, Option<Integer> zIndex) {
+    private <T extends Command> Widget convertWithZIndex(String boardId, T command, Option<Integer> zIndex) {
         return zIndex.fold(
                 z -> widgetsCommandConverter.fromCommand(command, z),
                 () -> {
-                    int z = widgetRepository.findLargestZIndex() + 1;
+                    int z = widgetRepository.findLargestZIndex(boardId) + 1;
                     return widgetsCommandConverter.fromCommand(command, z);
                 }
         );
@@ -0,0 +1,21 @@
+package ycastor.me.miro.widgets.commands;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class WidgetBatchCommand {
+    @Valid
+    @NotEmpty(message = "The batch must have at least one operation")
+    private List<WidgetBatchOperation> operations;
+}
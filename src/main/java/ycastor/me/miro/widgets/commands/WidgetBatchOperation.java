@@ -0,0 +1,61 @@
+package ycastor.me.miro.widgets.commands;
+
+import java.util.UUID;
+
+import javax.validation.Valid;
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class WidgetBatchOperation {
+    @NotNull(message = "The operation type must be informed")
+    private Type type;
+    private UUID widgetId;
+    @Valid
+    private WidgetCreateCommand create;
+    @Valid
+    private WidgetUpdateCommand update;
+
+    public static WidgetBatchOperation create(WidgetCreateCommand command) {
+        return WidgetBatchOperation.builder().type(Type.CREATE).create(command).build();
+    }
+
+    public static WidgetBatchOperation update(UUID widgetId, WidgetUpdateCommand command) {
+        return WidgetBatchOperation.builder().type(Type.UPDATE).widgetId(widgetId).update(command).build();
+    }
+
+    public static WidgetBatchOperation delete(UUID widgetId) {
+        return WidgetBatchOperation.builder().type(Type.DELETE).widgetId(widgetId).build();
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Create operations need a create command, updates a widget id and an update command, deletes a widget id")
+    public boolean isWellFormed() {
+        if (type == null) {
+            return true;
+        }
+
+        switch (type) {
+            case CREATE:
+                return create != null && widgetId == null;
+            case UPDATE:
+                return update != null && widgetId != null;
+            default:
+                return widgetId != null;
+        }
+    }
+
+    public enum Type {
+        CREATE, UPDATE, DELETE
+    }
+}
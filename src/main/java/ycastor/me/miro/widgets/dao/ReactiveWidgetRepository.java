@@ -0,0 +1,50 @@
+package ycastor.me.miro.widgets.dao;
+
+import java.util.UUID;
+
+import org.springframework.data.domain.Pageable;
+
+import cyclops.control.Option;
+import cyclops.data.tuple.Tuple2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+/*
+ * Non-blocking counterpart of WidgetRepository, for the reactive stack. Saves push the colliding run up by themselves,
+ * like a SelfOrderingRepository does, so callers never compute the collided widgets.
+ */
+public interface ReactiveWidgetRepository {
+
+    // An unpaged request streams the whole board in z-order
+    Flux<Widget> listAll(String boardId, Pageable pageRequest);
+
+    Flux<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit);
+
+    Flux<Widget> listAllWithinArea(String boardId, FilterArea filterArea);
+
+    Mono<Widget> findById(String boardId, UUID id);
+
+    Mono<Integer> findLargestZIndex(String boardId);
+
+    Flux<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex);
+
+    Mono<Long> boardVersion(String boardId);
+
+    default Mono<Widget> save(String boardId, Widget newWidget) {
+        return saveReportingShift(boardId, newWidget).map(Tuple2::_1);
+    }
+
+    // Also tells which z-indexes the save pushed up, from the saved one to the end of the run it collided with. None
+    // when the z-index was free
+    Mono<Tuple2<Widget, Option<ZIndexRun>>> saveReportingShift(String boardId, Widget newWidget);
+
+    Flux<Widget> saveBatch(String boardId, WidgetChanges changes);
+
+    // Fails with WidgetNotFoundException when the board has no such widget
+    Mono<Widget> delete(String boardId, UUID widgetId);
+
+}
@@ -0,0 +1,15 @@
+package ycastor.me.miro.widgets.dao;
+
+import cyclops.control.Option;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+// Repositories that push colliding widgets up by themselves when saving, so no collided widgets have to be computed
+public interface SelfOrderingRepository extends WidgetRepository {
+
+    // Saves like save does and also tells which z-indexes it pushed up, from the saved one to the end of the run it
+    // collided with. None when the z-index was free
+    Tuple2<Widget, Option<ZIndexRun>> saveReportingShift(String boardId, Widget newWidget);
+
+}
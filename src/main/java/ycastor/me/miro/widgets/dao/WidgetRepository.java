@@ -1,38 +1,95 @@
 package ycastor.me.miro.widgets.dao;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.UUID;
-import java.util.function.Predicate;
+import java.util.function.Consumer;
 
 import org.springframework.data.domain.Pageable;
 
 import cyclops.control.Option;
 import cyclops.data.ImmutableSortedSet;
+import cyclops.data.Vector;
 import ycastor.me.miro.widgets.commands.FilterArea;
 import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
 
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+/*
+ * Widgets are partitioned by board: every board has its own z-order, collisions only shift widgets of the same board
+ * and writes to different boards never contend on the same state.
+ */
 public interface WidgetRepository {
 
-    ImmutableSortedSet<Widget> listAll(Pageable pageRequest);
+    ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest);
+
+    // Keyset page, the widgets right above the given z-index or from the bottom of the board when there is none
+    ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit);
+
+    Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets);
+
+    ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes);
+
+    Widget delete(String boardId, UUID widgetId);
+
+    Integer findLargestZIndex(String boardId);
+
+    // Changes with every write to the board, reading it before the board gives a version no newer than what was read
+    long boardVersion(String boardId);
 
-    Widget save(Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets);
+    // The version the last write of the calling thread gave the board. Stores that don't keep it answer the current one,
+    // which is never older than the write
+    default long writtenVersion(String boardId) {
+        return boardVersion(boardId);
+    }
+
+    ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex);
 
-    Widget delete(UUID widgetId);
+    Option<Widget> findById(String boardId, UUID id);
 
-    Integer findLargestZIndex();
+    ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea);
 
-    ImmutableSortedSet<Widget> findFromZIndexUntilGap(Integer zIndex);
+    // Hands the whole board to the action in z-order, without building the result in memory
+    void forEachWidget(String boardId, Consumer<Widget> action);
 
-    Option<Widget> findById(UUID id);
+    // Scans the board in z-order, stores that can filter while reading should do it instead
+    default void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        forEachWidget(boardId, widget -> {
+            if (withinArea(widget, filterArea)) {
+                action.accept(widget);
+            }
+        });
+    }
 
-    ImmutableSortedSet<Widget> listAllWithinArea(FilterArea filterArea);
+    // Runs several writes to the board that should become visible together, by default each write is published on its own
+    default void writeGroup(String boardId, Runnable writes) {
+        writes.run();
+    }
+
+    // Loads an empty board from widgets in ascending z-order with their ids set, nothing collides so nothing is shifted.
+    // By default every chunk is created as a batch of its own, a failing chunk leaves the ones before it on the board
+    default long importWidgets(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        if (!listAfterZIndex(boardId, Option.none(), 1).isEmpty()) {
+            throw new BoardNotEmptyException(boardId);
+        }
+
+        long imported = 0;
+        while (widgets.hasNext()) {
+            var chunk = nextChunk(widgets, chunkSize);
+            saveBatch(boardId, WidgetChanges.builder().created(chunk).build());
+            imported += chunk.size();
+        }
+        return imported;
+    }
 
-    default Predicate<Widget> toGap(ImmutableSortedSet<Widget> currentState) {
-        return widget -> {
-            var currentIndex = currentState.indexOf(it -> it.getId().equals(widget.getId())).orElse(0L).intValue();
-            var previousIndex = currentIndex == 0 ? currentIndex : currentIndex - 1;
-            var lastZIndex = currentState.get(previousIndex).map(Widget::getZIndex).orElse(-1);
-            return widget.getZIndex() <= (lastZIndex + 1);
-        };
+    static Vector<Widget> nextChunk(Iterator<Widget> widgets, int chunkSize) {
+        var chunk = new ArrayList<Widget>(chunkSize);
+        while (chunk.size() < chunkSize && widgets.hasNext()) {
+            chunk.add(widgets.next());
+        }
+        return Vector.fromIterable(chunk);
     }
 
 }
@@ -0,0 +1,302 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+/*
+ * Read-through cache in front of the SQL datasource, for widgets by id, the largest z-index and recent in-area results.
+ * Writes invalidate after the SQL transaction committed. Loads that overlapped a write are dropped instead of cached,
+ * so a value read before the commit never outlives it. The cache is local, so it is only coherent for a single instance.
+ * Entries are keyed by board, a write only invalidates what was cached for its own board, in-area results included.
+ */
+@Component
+@Primary
+@ConditionalOnExpression("'${miro.datasource}' == 'SQL' and '${miro.sql-cache:OFF}' == 'ON'")
+public class CachedSqlDataset implements SelfOrderingRepository {
+
+    private final SqlDataset sqlDataset;
+    private final Cache<BoardKey<UUID>, Widget> widgetsById;
+    private final Cache<String, Integer> largestZIndex;
+    private final Cache<BoardKey<FilterArea>, ImmutableSortedSet<Widget>> widgetsByArea;
+    // bumped after every committed write to the board, a load that saw it change may hold data older than the write
+    private final Map<String, AtomicLong> writes = new ConcurrentHashMap<>();
+    // z-index of every widget cached by id, per board. Kept by the cache itself as entries come and go, so a shifted
+    // run is dropped without scanning the cache. A board is only here while it has widgets cached by id
+    private final Map<String, CachedZIndexes> cachedZIndexes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CachedSqlDataset(
+            SqlDataset sqlDataset,
+            @Value("${miro.sql-cache-widgets:10000}") long maxWidgets,
+            @Value("${miro.sql-cache-areas:256}") long maxAreas,
+            @Value("${miro.sql-cache-boards:1024}") long maxBoards
+    ) {
+        this.sqlDataset = sqlDataset;
+        this.widgetsById = Caffeine.newBuilder().maximumSize(maxWidgets).writer(new ZIndexWriter()).recordStats().build();
+        this.largestZIndex = Caffeine.newBuilder().maximumSize(maxBoards).recordStats().build();
+        this.widgetsByArea = Caffeine.newBuilder().maximumSize(maxAreas).recordStats().build();
+
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, widgetsById, "widgets.by_id");
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, largestZIndex, "widgets.largest_z_index");
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, widgetsByArea, "widgets.by_area");
+    }
+
+    @Override
+    public Option<Widget> findById(String boardId, UUID id) {
+        return Option.ofNullable(readThrough(boardId, widgetsById, new BoardKey<>(boardId, id), () -> sqlDataset.findById(boardId, id).orElse(null)));
+    }
+
+    @Override
+    public Integer findLargestZIndex(String boardId) {
+        return readThrough(boardId, largestZIndex, boardId, () -> sqlDataset.findLargestZIndex(boardId));
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return readThrough(boardId, widgetsByArea, new BoardKey<>(boardId, filterArea), () -> sqlDataset.listAllWithinArea(boardId, filterArea));
+    }
+
+    @Override
+    public long boardVersion(String boardId) {
+        return sqlDataset.boardVersion(boardId);
+    }
+
+    @Override
+    public long writtenVersion(String boardId) {
+        return sqlDataset.writtenVersion(boardId);
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        return sqlDataset.listAll(boardId, pageRequest);
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return sqlDataset.listAfterZIndex(boardId, afterZIndex, limit);
+    }
+
+    @Override
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        sqlDataset.forEachWidget(boardId, action);
+    }
+
+    @Override
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        sqlDataset.forEachWithinArea(boardId, filterArea, action);
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return sqlDataset.findFromZIndexUntilGap(boardId, zIndex);
+    }
+
+    @Override
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        return saveReportingShift(boardId, newWidget)._1();
+    }
+
+    // The datasource tells which z-indexes it pushed up, only the widgets cached at them are dropped. A failed save
+    // shifted nothing
+    @Override
+    public Tuple2<Widget, Option<ZIndexRun>> saveReportingShift(String boardId, Widget newWidget) {
+        Option<ZIndexRun> shifted = Option.none();
+        try {
+            var saved = sqlDataset.saveReportingShift(boardId, newWidget);
+            shifted = saved._2();
+            return saved;
+        } finally {
+            writes(boardId).incrementAndGet();
+            if (newWidget.getId() != null) {
+                widgetsById.invalidate(new BoardKey<>(boardId, newWidget.getId()));
+            }
+            shifted.forEach(run -> invalidateCachedBetween(boardId, run.getRunStart(), run.getRunEnd()));
+            invalidateBoardWide(boardId);
+        }
+    }
+
+    // Batches carry every widget they move, so only those are invalidated
+    @Override
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        try {
+            return sqlDataset.saveBatch(boardId, changes);
+        } finally {
+            writes(boardId).incrementAndGet();
+            widgetsById.invalidateAll(changes.getUpdated().map(widget -> new BoardKey<>(boardId, widget.getId())));
+            widgetsById.invalidateAll(changes.getDeleted().map(widgetId -> new BoardKey<>(boardId, widgetId)));
+            invalidateBoardWide(boardId);
+        }
+    }
+
+    // Only empty boards are imported, no widget of the board can be cached by id
+    @Override
+    public long importWidgets(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        try {
+            return sqlDataset.importWidgets(boardId, widgets, chunkSize);
+        } finally {
+            writes(boardId).incrementAndGet();
+            invalidateBoardWide(boardId);
+        }
+    }
+
+    @Override
+    public Widget delete(String boardId, UUID widgetId) {
+        try {
+            return sqlDataset.delete(boardId, widgetId);
+        } finally {
+            writes(boardId).incrementAndGet();
+            widgetsById.invalidate(new BoardKey<>(boardId, widgetId));
+            invalidateBoardWide(boardId);
+        }
+    }
+
+    // Boards with widgets cached by id, checked by tests
+    int indexedBoards() {
+        return cachedZIndexes.size();
+    }
+
+    private void invalidateCachedBetween(String boardId, int fromZIndex, int toZIndex) {
+        var index = cachedZIndexes.get(boardId);
+        if (index != null) {
+            var cached = index.between(fromZIndex, toZIndex);
+            widgetsById.invalidateAll(cached.stream().map(widgetId -> new BoardKey<>(boardId, widgetId)).collect(Collectors.toList()));
+        }
+    }
+
+    private void invalidateBoardWide(String boardId) {
+        largestZIndex.invalidate(boardId);
+        widgetsByArea.asMap().keySet().removeIf(key -> key.boardId.equals(boardId));
+    }
+
+    private AtomicLong writes(String boardId) {
+        return writes.computeIfAbsent(boardId, id -> new AtomicLong());
+    }
+
+    // Caches the loaded value only if no write to the board committed while loading, re-checking after the put closes the race
+    private <K, V> V readThrough(String boardId, Cache<K, V> cache, K key, Supplier<V> load) {
+        var cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var boardWrites = writes(boardId);
+        long seenWrites = boardWrites.get();
+        var loaded = load.get();
+
+        if (loaded != null && boardWrites.get() == seenWrites) {
+            cache.put(key, loaded);
+            if (boardWrites.get() != seenWrites) {
+                cache.invalidate(key);
+            }
+        }
+
+        return loaded;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class BoardKey<K> {
+        private final String boardId;
+        private final K key;
+    }
+
+    // The writes for an entry are serialized by the cache, so a widget is only ever kept at the z-index it is cached with
+    private static final class CachedZIndexes {
+        private static final UUID LOWEST_ID = new UUID(Long.MIN_VALUE, Long.MIN_VALUE);
+        private static final UUID HIGHEST_ID = new UUID(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        private final Map<UUID, Integer> byId = new ConcurrentHashMap<>();
+        private final NavigableSet<CachedAt> ordered = new ConcurrentSkipListSet<>(CachedAt.ORDER);
+
+        private void put(UUID widgetId, int zIndex) {
+            var previous = byId.put(widgetId, zIndex);
+            if (previous != null) {
+                ordered.remove(new CachedAt(previous, widgetId));
+            }
+            ordered.add(new CachedAt(zIndex, widgetId));
+        }
+
+        private void remove(UUID widgetId) {
+            var previous = byId.remove(widgetId);
+            if (previous != null) {
+                ordered.remove(new CachedAt(previous, widgetId));
+            }
+        }
+
+        private boolean isEmpty() {
+            return byId.isEmpty();
+        }
+
+        private List<UUID> between(int fromZIndex, int toZIndex) {
+            return ordered.subSet(new CachedAt(fromZIndex, LOWEST_ID), true, new CachedAt(toZIndex, HIGHEST_ID), true)
+                          .stream()
+                          .map(cached -> cached.id)
+                          .collect(Collectors.toList());
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class CachedAt {
+        private static final Comparator<CachedAt> ORDER = Comparator.<CachedAt>comparingInt(cached -> cached.zIndex).thenComparing(cached -> cached.id);
+
+        private final int zIndex;
+        private final UUID id;
+    }
+
+    // Called by the cache atomically with every change of an entry. The index of a board is created and dropped inside
+    // the map's own compute, so an entry never lands in an index that was just dropped for being empty
+    private final class ZIndexWriter implements CacheWriter<BoardKey<UUID>, Widget> {
+        @Override
+        public void write(BoardKey<UUID> key, Widget widget) {
+            cachedZIndexes.compute(key.boardId, (boardId, index) -> {
+                var updated = index != null ? index : new CachedZIndexes();
+                updated.put(key.key, widget.getZIndex());
+                return updated;
+            });
+        }
+
+        @Override
+        public void delete(BoardKey<UUID> key, Widget widget, RemovalCause cause) {
+            cachedZIndexes.computeIfPresent(key.boardId, (boardId, index) -> {
+                index.remove(key.key);
+                return index.isEmpty() ? null : index;
+            });
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+import org.springframework.data.domain.Pageable;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+/*
+ * Boards kept in mutable z-ordered columns. Copying the columns on every write would cost more than the persistent
+ * trees, so writers mutate them under a write lock instead of publishing a new state. Every board has its own columns
+ * and lock, writers of different boards never wait for each other.
+ */
+public abstract class ColumnStoreDataset implements WidgetRepository {
+
+    // positions scanned or widgets streamed per read lock, so long scans let writers in between
+    private static final int SCAN_CHUNK = 4096;
+
+    // read by boards that were never written, nothing is ever put into it
+    private static final Board EMPTY_BOARD = new Board(new WidgetColumns());
+
+    private final Map<String, Board> boards = new ConcurrentHashMap<>();
+    private final Function<String, ZOrderedColumns> newColumns;
+    // version the last write of the current thread took, the last one of a group is the version of the whole group
+    private final ThreadLocal<Long> writtenVersion = new ThreadLocal<>();
+    // set while the thread runs a write group, with the undo of every write of the group applied so far
+    private final ThreadLocal<WriteGroup> group = new ThreadLocal<>();
+
+    ColumnStoreDataset(Function<String, ZOrderedColumns> newColumns, String datasource) {
+        this.newColumns = newColumns;
+        Metrics.gauge("widgets.board.size", Tags.of("datasource", datasource), boards,
+                      published -> published.values().stream().mapToInt(board -> board.read(ZOrderedColumns::size)).sum());
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Option<Widget> findById(String boardId, UUID id) {
+        return read(boardId, columns -> widgetWithId(columns, id));
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        return read(boardId, columns -> {
+            long from = Math.min(pageRequest.getOffset(), columns.size());
+            long to = Math.min(from + pageRequest.getPageSize(), columns.size());
+            return TreeSet.fromIterable(widgetsBetween(columns, (int) from, (int) to));
+        });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return TreeSet.fromIterable(widgetsAfter(boardId, afterZIndex, limit));
+    }
+
+    // Streams chunk by chunk, each one is consistent but writes between chunks may be seen
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        var chunk = widgetsAfter(boardId, Option.none(), SCAN_CHUNK);
+
+        while (!chunk.isEmpty()) {
+            chunk.forEach(action);
+            chunk = widgetsAfter(boardId, Option.some(chunk.get(chunk.size() - 1).getZIndex()), SCAN_CHUNK);
+        }
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        var found = new int[SCAN_CHUNK];
+        var scannedUntil = Option.<Integer>none();
+
+        while (true) {
+            var lastScanned = scannedUntil;
+            var chunk = new ArrayList<Widget>();
+            scannedUntil = read(boardId, columns -> {
+                int from = lastScanned.fold(columns::firstPositionAbove, () -> 0);
+                int to = Math.min(columns.size(), from + SCAN_CHUNK);
+                if (from >= to) {
+                    return Option.<Integer>none();
+                }
+
+                int count = columns.within(filterArea, from, to, found);
+                for (int i = 0; i < count; i++) {
+                    chunk.add(columns.widgetAt(found[i]));
+                }
+                return Option.some(columns.zIndexAt(to - 1));
+            });
+
+            if (!scannedUntil.isPresent()) {
+                return;
+            }
+            chunk.forEach(action);
+        }
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return read(boardId, columns -> {
+            var found = new int[Math.min(SCAN_CHUNK, columns.size())];
+            var widgets = new ArrayList<Widget>();
+
+            for (int from = 0; from < columns.size(); from += found.length) {
+                int count = columns.within(filterArea, from, Math.min(columns.size(), from + found.length), found);
+                for (int i = 0; i < count; i++) {
+                    widgets.add(columns.widgetAt(found[i]));
+                }
+            }
+
+            return TreeSet.fromIterable(widgets);
+        });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        var widgetWithId = generateId(newWidget);
+
+        return write(boardId, columns -> {
+            apply(boardId, columns, Vector.empty(), Vector.fromIterable(collidedWidgets).append(widgetWithId));
+            return columns.widgetAt(columns.positionOf(widgetWithId.getId()));
+        });
+    }
+
+    // The updated and deleted widgets must still be on the board, otherwise someone changed it since the batch was planned
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        var saved = changes.getCreated().appendAll(changes.getUpdated());
+
+        return write(boardId, columns -> {
+            for (UUID widgetId : changes.getDeleted()) {
+                if (columns.positionOf(widgetId) < 0) {
+                    throw new WidgetsChangedException(widgetId);
+                }
+            }
+
+            for (Widget widget : changes.getUpdated()) {
+                if (columns.positionOf(widget.getId()) < 0) {
+                    throw new WidgetsChangedException(widget.getId());
+                }
+            }
+
+            apply(boardId, columns, changes.getDeleted(), saved);
+            return TreeSet.fromIterable(saved);
+        });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget delete(String boardId, UUID widgetId) {
+        return write(boardId, columns -> {
+            int position = columns.positionOf(widgetId);
+            if (position < 0) {
+                throw new WidgetNotFoundException(widgetId);
+            }
+
+            var widget = columns.widgetAt(position);
+            apply(boardId, columns, Vector.of(widgetId), Vector.empty());
+            return widget;
+        });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Integer findLargestZIndex(String boardId) {
+        return read(boardId, columns -> columns.size() == 0 ? 0 : columns.zIndexAt(columns.size() - 1));
+    }
+
+    // Bumped under the write lock once the write is applied, a version read before the board is never newer than it.
+    // A write that fails leaves the version readers already hold
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public long boardVersion(String boardId) {
+        return boards.getOrDefault(boardId, EMPTY_BOARD).version;
+    }
+
+    @Override
+    public long writtenVersion(String boardId) {
+        var version = writtenVersion.get();
+        return version != null ? version : boardVersion(boardId);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return read(boardId, columns -> {
+            int position = columns.positionOfZIndex(zIndex);
+            if (position < 0) {
+                return TreeSet.<Widget>empty();
+            }
+
+            return TreeSet.fromIterable(widgetsBetween(columns, position, columns.runEnd(position) + 1));
+        });
+    }
+
+    // The group holds the board write lock, so readers see all of its writes or none. A write of the group that fails
+    // undoes the ones applied before it, newest first, and the board is left as the group found it
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void writeGroup(String boardId, Runnable writes) {
+        if (group.get() != null) {
+            writes.run();
+            return;
+        }
+
+        write(boardId, columns -> {
+            var writeGroup = new WriteGroup(boardId);
+            group.set(writeGroup);
+            try {
+                writes.run();
+            } catch (RuntimeException e) {
+                writeGroup.undo.forEach(Runnable::run);
+                throw e;
+            } finally {
+                group.remove();
+            }
+            return null;
+        });
+    }
+
+    // Boards the subclass loaded when it was created
+    void addBoard(String boardId, ZOrderedColumns columns) {
+        boards.put(boardId, new Board(columns));
+    }
+
+    // Runs the action on the columns of every board, each under its write lock
+    void forEachBoard(Consumer<ZOrderedColumns> action) {
+        boards.values().forEach(board -> board.write(columns -> {
+            action.accept(columns);
+            return null;
+        }, version -> { }));
+    }
+
+    // Within a write group the touched widgets are read first, putting them back and taking out the added ones undoes
+    // the change. Nothing is kept when the change fails its checks, it left the columns untouched
+    private void apply(String boardId, ZOrderedColumns columns, Iterable<UUID> removedIds, Iterable<Widget> changed) {
+        var writeGroup = group.get();
+        if (writeGroup == null || !writeGroup.boardId.equals(boardId)) {
+            columns.apply(removedIds, changed);
+            return;
+        }
+
+        var previous = new ArrayList<Widget>();
+        var added = new ArrayList<UUID>();
+        removedIds.forEach(id -> widgetWithId(columns, id).forEach(previous::add));
+        for (Widget widget : changed) {
+            var current = widgetWithId(columns, widget.getId());
+            if (current.isPresent()) {
+                current.forEach(previous::add);
+            } else {
+                added.add(widget.getId());
+            }
+        }
+
+        columns.apply(removedIds, changed);
+        writeGroup.undo.push(() -> columns.apply(added, previous));
+    }
+
+    private static Option<Widget> widgetWithId(ZOrderedColumns columns, UUID id) {
+        int position = columns.positionOf(id);
+        return position >= 0 ? Option.some(columns.widgetAt(position)) : Option.none();
+    }
+
+    private List<Widget> widgetsAfter(String boardId, Option<Integer> afterZIndex, int limit) {
+        return read(boardId, columns -> {
+            int from = afterZIndex.fold(columns::firstPositionAbove, () -> 0);
+            return widgetsBetween(columns, from, (int) Math.min((long) from + limit, columns.size()));
+        });
+    }
+
+    private static List<Widget> widgetsBetween(ZOrderedColumns columns, int from, int to) {
+        var widgets = new ArrayList<Widget>(Math.max(0, to - from));
+        for (int position = from; position < to; position++) {
+            widgets.add(columns.widgetAt(position));
+        }
+        return widgets;
+    }
+
+    // Reads do not register the board, only writes do
+    private <T> T read(String boardId, Function<ZOrderedColumns, T> reading) {
+        return boards.getOrDefault(boardId, EMPTY_BOARD).read(reading);
+    }
+
+    private <T> T write(String boardId, Function<ZOrderedColumns, T> writing) {
+        var board = boards.computeIfAbsent(boardId, id -> new Board(newColumns.apply(id)));
+        return board.write(writing, writtenVersion::set);
+    }
+
+    private Widget generateId(Widget newWidget) {
+        if (newWidget.getId() == null) {
+            return newWidget.toBuilder().id(UUID.randomUUID()).build();
+        }
+
+        return newWidget;
+    }
+
+    private static final class WriteGroup {
+        private final String boardId;
+        // newest first
+        private final ArrayDeque<Runnable> undo = new ArrayDeque<>();
+
+        private WriteGroup(String boardId) {
+            this.boardId = boardId;
+        }
+    }
+
+    private static final class Board {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final ZOrderedColumns columns;
+        private volatile long version;
+
+        private Board(ZOrderedColumns columns) {
+            this.columns = columns;
+        }
+
+        private <T> T read(Function<ZOrderedColumns, T> reading) {
+            lock.readLock().lock();
+            try {
+                return reading.apply(columns);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // The written version is handed over while the lock is still held, no later write has taken one yet
+        private <T> T write(Function<ZOrderedColumns, T> writing, LongConsumer written) {
+            lock.writeLock().lock();
+            try {
+                var result = writing.apply(columns);
+                written.accept(++version);
+                return result;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
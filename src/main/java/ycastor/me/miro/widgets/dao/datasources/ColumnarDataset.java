@@ -0,0 +1,14 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// In-memory boards kept in primitive columns on heap
+@Component
+@ConditionalOnProperty(value = "miro.datasource", havingValue = "COLUMNAR")
+public class ColumnarDataset extends ColumnStoreDataset {
+
+    public ColumnarDataset() {
+        super(boardId -> new WidgetColumns(), "columnar");
+    }
+}
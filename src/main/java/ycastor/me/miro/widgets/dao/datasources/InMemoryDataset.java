@@ -1,81 +1,191 @@
 package ycastor.me.miro.widgets.dao.datasources;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Predicate;
+import java.util.function.Consumer;
 
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import cyclops.control.Option;
 import cyclops.data.ImmutableSortedSet;
-import cyclops.data.TreeSet;
 import cyclops.data.Vector;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import ycastor.me.miro.utils.SortedSets;
 import ycastor.me.miro.widgets.commands.FilterArea;
 import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.journal.JournalEntry;
+import ycastor.me.miro.widgets.dao.journal.WidgetsJournal;
 import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
 import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
 
-import static ycastor.me.miro.utils.WidgetUtils.withinArea;
-
 @Component
-@ConditionalOnProperty(value = "miro.datasource", havingValue = "IN_MEMORY")
+@ConditionalOnExpression("'${miro.datasource}' == 'IN_MEMORY' and '${miro.ordering:DENSE}' == 'DENSE'")
 public class InMemoryDataset implements WidgetRepository {
 
-    private final AtomicReference<ImmutableSortedSet<Widget>> widgetsState = new AtomicReference<>();
+    // writers that lost the compare-and-set race against another writer
+    private static final Counter CAS_FAILURES = Metrics.counter("widgets.cas.failures", "datasource", "in-memory");
+
+    // one published state per board, writers of different boards never race on the same reference
+    private final Map<String, AtomicReference<WidgetsState>> boards = new ConcurrentHashMap<>();
+    // write group of the current thread, with the board state it changed and did not publish yet
+    private final ThreadLocal<WriteGroup> group = new ThreadLocal<>();
+    // version of the state the last write of the current thread published, or will publish with its group
+    private final ThreadLocal<Long> writtenVersion = new ThreadLocal<>();
+    // null when the boards are not durable, otherwise every published state is appended to it first
+    private final WidgetsJournal journal;
+    // durable writers append and publish under it, so the log order is the publication order across boards
+    private final Object commitLock = new Object();
+    // states appended to the journal and not durable yet, writers build on them while readers still get the published ones
+    private final Map<String, WidgetsState> appendedStates = new HashMap<>();
 
     public InMemoryDataset() {
-        widgetsState.set(TreeSet.empty());
+        this(Optional.empty());
+    }
+
+    @Autowired
+    public InMemoryDataset(Optional<WidgetsJournal> journal) {
+        this.journal = journal.orElse(null);
+        journal.map(WidgetsJournal::recover).ifPresent(recovered -> recovered.forEach((boardId, state) -> boards.put(boardId, new AtomicReference<>(state))));
+        Metrics.gauge("widgets.board.size", Tags.of("datasource", "in-memory"), boards, InMemoryDataset::widgetsOnBoards);
     }
 
     @Override
-    public Option<Widget> findById(UUID id) {
-        var currentState = widgetsState.get();
-        return currentState.filter(widget -> widget.getId().equals(id)).first();
+    @Timed(value = "widgets.repository", histogram = true)
+    public Option<Widget> findById(String boardId, UUID id) {
+        return currentState(boardId).findById(id);
     }
 
     @Override
-    public ImmutableSortedSet<Widget> listAll(Pageable pageRequest) {
-        var currentState = widgetsState.get();
-        var grouped = currentState.grouped(pageRequest.getPageSize());
-        var page = grouped.get(pageRequest.getPageNumber()).orElse(Vector.empty());
-        return TreeSet.fromIterable(page);
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        return currentState(boardId).findPage((int) pageRequest.getOffset(), pageRequest.getPageSize());
     }
 
     @Override
-    public ImmutableSortedSet<Widget> listAllWithinArea(FilterArea filterArea) {
-        var currentState = widgetsState.get();
-        return currentState.filter(widget -> withinArea(widget, filterArea));
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return currentState(boardId).findAfterZIndex(afterZIndex, limit);
     }
 
     @Override
-    public Widget save(Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
-        var widgetWithId = generateId(newWidget);
-        var currentState = widgetsState.get();
-        var withUpdatedCollisions = fixingCollisions(currentState, collidedWidgets);
-        var withUpdatedWidget = appendOrReplace(withUpdatedCollisions, widgetWithId);
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        currentState(boardId).forEach(action);
+    }
 
-        boolean success = widgetsState.compareAndSet(currentState, withUpdatedWidget);
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return currentState(boardId).findWithinArea(filterArea);
+    }
+
+    // The area index finds the widgets instead of a scan of the whole board
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        currentState(boardId).findWithinArea(filterArea).forEach(action);
+    }
 
-        if (!success) {
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        var widgetWithId = generateId(newWidget);
+        var currentState = writableState(boardId);
+        var changed = Vector.fromIterable(collidedWidgets).append(widgetWithId);
+        var updatedState = currentState.putAll(changed);
+
+        if (!publish(boardId, currentState, updatedState, Vector.of(JournalEntry.put(boardId, changed)))) {
             throw new WidgetsChangedException(widgetWithId.getId());
         }
 
-        return findById(widgetWithId.getId()).orElseGet(() -> { throw new WidgetNotFoundException(widgetWithId.getId()); });
+        return updatedState.findById(widgetWithId.getId()).orElseGet(() -> { throw new WidgetNotFoundException(widgetWithId.getId()); });
     }
 
+    // The updated and deleted widgets must still be on the board, otherwise someone changed it since the batch was planned
     @Override
-    public Widget delete(UUID widgetId) {
-        var currentState = widgetsState.get();
-        return currentState.filter(widget -> widget.getId().equals(widgetId))
-                           .first()
-                           .fold(widget -> {
-                               var updatedState = currentState.removeValue(widget);
-                               boolean success = widgetsState.compareAndSet(currentState, updatedState);
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        var currentState = writableState(boardId);
+        var withoutDeleted = currentState;
+
+        for (UUID widgetId : changes.getDeleted()) {
+            var widget = withoutDeleted.findById(widgetId).orElseGet(() -> { throw new WidgetsChangedException(widgetId); });
+            withoutDeleted = withoutDeleted.remove(widget);
+        }
+
+        for (Widget widget : changes.getUpdated()) {
+            if (!currentState.findById(widget.getId()).isPresent()) {
+                throw new WidgetsChangedException(widget.getId());
+            }
+        }
 
-                               if (!success) {
+        var saved = changes.getCreated().appendAll(changes.getUpdated());
+        var updatedState = withoutDeleted.putAll(saved);
+        var entries = changes.getDeleted().map(widgetId -> JournalEntry.remove(boardId, widgetId)).append(JournalEntry.put(boardId, saved));
+
+        if (!publish(boardId, currentState, updatedState, entries)) {
+            throw new WidgetsChangedException();
+        }
+
+        return SortedSets.fromIterable(saved);
+    }
+
+    // The board is built aside chunk by chunk and published once, readers see it empty until the whole import is in
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public long importWidgets(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        var currentState = writableState(boardId);
+        if (currentState.size() > 0) {
+            throw new BoardNotEmptyException(boardId);
+        }
+
+        var updatedState = currentState;
+        var entries = Vector.<JournalEntry>empty();
+        long imported = 0;
+        while (widgets.hasNext()) {
+            var chunk = WidgetRepository.nextChunk(widgets, chunkSize);
+            var chunkIds = new HashSet<UUID>();
+            for (Widget widget : chunk) {
+                imported++;
+                if (updatedState.findById(widget.getId()).isPresent() || !chunkIds.add(widget.getId())) {
+                    throw new InvalidImportException(imported, String.format("the id <%s> is already taken", widget.getId()));
+                }
+            }
+            updatedState = updatedState.appendAll(chunk);
+            entries = entries.append(JournalEntry.put(boardId, chunk));
+        }
+
+        if (!publish(boardId, currentState, updatedState, entries)) {
+            throw new WidgetsChangedException();
+        }
+
+        return imported;
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget delete(String boardId, UUID widgetId) {
+        var currentState = writableState(boardId);
+        return currentState.findById(widgetId)
+                           .fold(widget -> {
+                               if (!publish(boardId, currentState, currentState.remove(widget), Vector.of(JournalEntry.remove(boardId, widgetId)))) {
                                    throw new WidgetsChangedException(widgetId);
                                }
 
@@ -84,36 +194,161 @@ public class InMemoryDataset implements WidgetRepository {
     }
 
     @Override
-    public Integer findLargestZIndex() {
-        var currentState = widgetsState.get();
-        return currentState.last()
+    @Timed(value = "widgets.repository", histogram = true)
+    public Integer findLargestZIndex(String boardId) {
+        var currentState = currentState(boardId);
+        return currentState.findLargest()
                            .fold(Widget::getZIndex, () -> 0);
     }
 
     @Override
-    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(Integer zIndex) {
-        var currentState = widgetsState.get();
-        return currentState.dropUntil(widget -> zIndex.equals(widget.getZIndex()))
-                           .takeWhile(toGap(currentState));
+    @Timed(value = "widgets.repository", histogram = true)
+    public long boardVersion(String boardId) {
+        return currentState(boardId).version();
+    }
+
+    @Override
+    public long writtenVersion(String boardId) {
+        var version = writtenVersion.get();
+        return version != null ? version : boardVersion(boardId);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return currentState(boardId).findFromZIndexUntilGap(zIndex);
     }
 
-    private ImmutableSortedSet<Widget> fixingCollisions(ImmutableSortedSet<Widget> current, ImmutableSortedSet<Widget> collisions) {
-        if(collisions.isEmpty()) {
-            return current;
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void writeGroup(String boardId, Runnable writes) {
+        if (group.get() != null) {
+            writes.run();
+            return;
+        }
+
+        var writeGroup = new WriteGroup(boardId, writableState(boardId));
+        group.set(writeGroup);
+
+        try {
+            writes.run();
+
+            if (!commit(boardId, writeGroup.publishedState, writeGroup.state, writeGroup.entries)) {
+                throw new WidgetsChangedException();
+            }
+        } finally {
+            group.remove();
+        }
+    }
+
+    // Snapshots the board at a segment boundary, so the log replayed on startup stays short
+    @Scheduled(fixedDelayString = "${miro.journal-snapshot-interval:60000}")
+    @Timed(value = "widgets.repository", histogram = true)
+    public void snapshot() {
+        if (journal == null) {
+            return;
+        }
+
+        var snapshotStates = new HashMap<String, WidgetsState>();
+        long sequence;
+        synchronized (commitLock) {
+            // rotating syncs the segment, so the appended states are durable once the snapshot is taken
+            boards.forEach((boardId, state) -> snapshotStates.put(boardId, appendedStates.getOrDefault(boardId, state.get())));
+            sequence = journal.rotate();
+        }
+
+        journal.writeSnapshot(snapshotStates, sequence);
+    }
+
+    // Reads do not register the board, only writes do
+    private WidgetsState currentState(String boardId) {
+        var writeGroup = group.get();
+        if (writeGroup != null && writeGroup.boardId.equals(boardId)) {
+            return writeGroup.state;
+        }
+
+        var state = boards.get(boardId);
+        return state != null ? state.get() : WidgetsState.empty();
+    }
+
+    // Writers build on the last state appended to the journal, readers only see it once it is durable
+    private WidgetsState writableState(String boardId) {
+        var writeGroup = group.get();
+        if (journal == null || (writeGroup != null && writeGroup.boardId.equals(boardId))) {
+            return currentState(boardId);
+        }
+
+        synchronized (commitLock) {
+            var appended = appendedStates.get(boardId);
+            return appended != null ? appended : currentState(boardId);
         }
+    }
 
-        var tmp = current;
+    private AtomicReference<WidgetsState> board(String boardId) {
+        return boards.computeIfAbsent(boardId, id -> new AtomicReference<>(WidgetsState.empty()));
+    }
 
-        for(Widget widget: collisions) {
-            tmp = appendOrReplace(tmp, widget);
+    private boolean publish(String boardId, WidgetsState currentState, WidgetsState updatedState, Vector<JournalEntry> entries) {
+        var writeGroup = group.get();
+        if (writeGroup != null && writeGroup.boardId.equals(boardId)) {
+            writeGroup.state = updatedState;
+            writeGroup.entries = writeGroup.entries.appendAll(entries);
+            writtenVersion.set(updatedState.version());
+            return true;
         }
 
-        return tmp;
+        return commit(boardId, currentState, updatedState, entries);
     }
 
-    private ImmutableSortedSet<Widget> appendOrReplace(ImmutableSortedSet<Widget> set, Widget widget) {
-        var withRemoved = TreeSet.fromIterable(set.removeFirst(w -> w.getId().equals(widget.getId())));
-        return withRemoved.add(widget);
+    // Durable writers publish once their record is on disk, so readers never see a write the journal may lose. A failed
+    // sync fails every writer still waiting for it, their states are dropped and the board stays as last published
+    private boolean commit(String boardId, WidgetsState currentState, WidgetsState updatedState, Vector<JournalEntry> entries) {
+        var widgetsState = board(boardId);
+
+        if (journal == null) {
+            if (!widgetsState.compareAndSet(currentState, updatedState)) {
+                CAS_FAILURES.increment();
+                return false;
+            }
+
+            writtenVersion.set(updatedState.version());
+            return true;
+        }
+
+        if (entries.isEmpty()) {
+            writtenVersion.set(currentState.version());
+            return true;
+        }
+
+        long position;
+        synchronized (commitLock) {
+            if (appendedStates.getOrDefault(boardId, widgetsState.get()) != currentState) {
+                CAS_FAILURES.increment();
+                return false;
+            }
+
+            position = journal.append(entries);
+            appendedStates.put(boardId, updatedState);
+        }
+
+        try {
+            journal.awaitDurable(position);
+        } catch (RuntimeException e) {
+            synchronized (commitLock) {
+                appendedStates.clear();
+            }
+            throw e;
+        }
+
+        synchronized (commitLock) {
+            // a later write of the board may have been synced and published first, its state already holds this one
+            if (widgetsState.get().version() < updatedState.version()) {
+                widgetsState.set(updatedState);
+            }
+            appendedStates.remove(boardId, updatedState);
+        }
+        writtenVersion.set(updatedState.version());
+        return true;
     }
 
     private Widget generateId(Widget newWidget) {
@@ -123,4 +358,21 @@ public class InMemoryDataset implements WidgetRepository {
 
         return newWidget;
     }
+
+    private static int widgetsOnBoards(Map<String, AtomicReference<WidgetsState>> boards) {
+        return boards.values().stream().mapToInt(state -> state.get().size()).sum();
+    }
+
+    private static final class WriteGroup {
+        private final String boardId;
+        private final WidgetsState publishedState;
+        private WidgetsState state;
+        private Vector<JournalEntry> entries = Vector.empty();
+
+        private WriteGroup(String boardId, WidgetsState publishedState) {
+            this.boardId = boardId;
+            this.publishedState = publishedState;
+            this.state = publishedState;
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Boards kept off heap in one memory-mapped file each, reloaded on startup when the previous process closed them cleanly
+@Component
+@ConditionalOnProperty(value = "miro.datasource", havingValue = "MAPPED")
+public class MappedDataset extends ColumnStoreDataset implements Closeable {
+
+    private static final String BOARD_SUFFIX = ".dat";
+
+    @Autowired
+    public MappedDataset(@Value("${miro.mapped-directory:boards}") String directory) {
+        this(createDirectories(Paths.get(directory)));
+    }
+
+    private MappedDataset(Path directory) {
+        super(boardId -> new MappedWidgetColumns(directory.resolve(boardId + BOARD_SUFFIX)), "mapped");
+
+        try (var files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(BOARD_SUFFIX))
+                 .forEach(file -> {
+                     var name = file.getFileName().toString();
+                     addBoard(name.substring(0, name.length() - BOARD_SUFFIX.length()), new MappedWidgetColumns(file));
+                 });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        forEachBoard(columns -> ((MappedWidgetColumns) columns).close());
+    }
+
+    private static Path createDirectories(Path directory) {
+        try {
+            return Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
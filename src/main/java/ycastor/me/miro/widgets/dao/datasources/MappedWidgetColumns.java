@@ -0,0 +1,260 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.indexes.UuidIntMap;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+/*
+ * Widget records in fixed-width slots of a memory-mapped file, the heap only holds the z-order (z-index and slot per
+ * position), the id to slot map and the free slots. The file is a restart cache, not a log: it is reloaded only when
+ * it was closed cleanly, after a crash it is discarded and the board starts empty.
+ */
+final class MappedWidgetColumns extends ZOrderedColumns implements Closeable {
+
+    private static final int MAGIC = 0x4d49524f;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int CLEAN_AT = 8;
+    private static final int SLOTS_IN_USE_AT = 12;
+
+    private static final int SLOT_BYTES = 48;
+    private static final int USED = 0;
+    private static final int Z_INDEX = 4;
+    private static final int ID_MOST_BITS = 8;
+    private static final int ID_LEAST_BITS = 16;
+    private static final int X_AXIS = 24;
+    private static final int Y_AXIS = 28;
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 36;
+    private static final int X_MIDDLE = 40;
+    private static final int Y_MIDDLE = 44;
+
+    // 48 MiB per mapping, a single buffer cannot address more than 2 GiB
+    private static final int REGION_SLOTS = 1 << 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private final UuidIntMap slotById = new UuidIntMap();
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    // slots handed out so far, the ones above it were never written
+    private int slotsInUse;
+
+    MappedWidgetColumns(Path file) {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+            if (header.getInt(MAGIC_AT) == MAGIC && header.getInt(VERSION_AT) == VERSION && header.getInt(CLEAN_AT) == 1) {
+                load();
+            } else {
+                reset();
+            }
+
+            header.putInt(CLEAN_AT, 0);
+            header.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    Widget widgetAt(int position) {
+        int slot = slots[position];
+        var region = region(slot);
+        int offset = offset(slot);
+
+        return Widget.builder()
+                     .id(new UUID(region.getLong(offset + ID_MOST_BITS), region.getLong(offset + ID_LEAST_BITS)))
+                     .zIndex(region.getInt(offset + Z_INDEX))
+                     .width(region.getInt(offset + WIDTH))
+                     .height(region.getInt(offset + HEIGHT))
+                     .xAxis(region.getInt(offset + X_AXIS))
+                     .yAxis(region.getInt(offset + Y_AXIS))
+                     .build();
+    }
+
+    @Override
+    int positionOf(UUID id) {
+        int slot = slotById.get(id, -1);
+        return slot < 0 ? -1 : positionOfZIndex(region(slot).getInt(offset(slot) + Z_INDEX));
+    }
+
+    @Override
+    int within(FilterArea filterArea, int from, int to, int[] found) {
+        int minX = filterArea.getLowerLeft().getXAxis();
+        int maxX = filterArea.getUpperRight().getXAxis();
+        int minY = filterArea.getLowerLeft().getYAxis();
+        int maxY = filterArea.getUpperRight().getYAxis();
+        int count = 0;
+
+        for (int position = from; position < to; position++) {
+            int slot = slots[position];
+            var region = region(slot);
+            int offset = offset(slot);
+            int x = region.getInt(offset + X_MIDDLE);
+            int y = region.getInt(offset + Y_MIDDLE);
+
+            found[count] = position;
+            count += (x > minX & x < maxX & y > minY & y < maxY) ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    // Flushes the mapped slots and marks the file as reloadable
+    @Override
+    public void close() {
+        try {
+            regions.forEach(MappedByteBuffer::force);
+            header.putInt(CLEAN_AT, 1);
+            header.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected UUID idAt(int position) {
+        int slot = slots[position];
+        var region = region(slot);
+        int offset = offset(slot);
+        return new UUID(region.getLong(offset + ID_MOST_BITS), region.getLong(offset + ID_LEAST_BITS));
+    }
+
+    @Override
+    protected void rewritten(int position, Widget widget) {
+        write(slots[position], widget);
+    }
+
+    @Override
+    protected void placed(int position, Widget widget) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : newSlot();
+        slots[position] = slot;
+        write(slot, widget);
+        slotById.put(widget.getId(), slot);
+    }
+
+    @Override
+    protected void removed(int position) {
+        int slot = slots[position];
+        slotById.remove(idAt(position));
+        region(slot).putInt(offset(slot) + USED, 0);
+        free(slot);
+    }
+
+    @Override
+    protected void shiftColumns(int from, int to, int length) {
+        System.arraycopy(slots, from, slots, to, length);
+    }
+
+    @Override
+    protected void growColumns(int capacity) {
+        slots = Arrays.copyOf(slots, capacity);
+    }
+
+    // Rebuilds the heap indexes from the used slots, sorting them by z-index packed with the slot in one long
+    private void load() throws IOException {
+        slotsInUse = header.getInt(SLOTS_IN_USE_AT);
+        mapRegions(slotsInUse);
+
+        var used = new long[slotsInUse];
+        int usedCount = 0;
+        for (int slot = 0; slot < slotsInUse; slot++) {
+            var region = region(slot);
+            int offset = offset(slot);
+
+            if (region.getInt(offset + USED) == 1) {
+                used[usedCount++] = ((long) region.getInt(offset + Z_INDEX) << 32) | slot;
+                slotById.put(new UUID(region.getLong(offset + ID_MOST_BITS), region.getLong(offset + ID_LEAST_BITS)), slot);
+            } else {
+                free(slot);
+            }
+        }
+
+        Arrays.sort(used, 0, usedCount);
+        for (int i = 0; i < usedCount; i++) {
+            appendSorted((int) (used[i] >> 32));
+            slots[size() - 1] = (int) used[i];
+        }
+    }
+
+    private void reset() throws IOException {
+        channel.truncate(HEADER_BYTES);
+        header.putInt(MAGIC_AT, MAGIC);
+        header.putInt(VERSION_AT, VERSION);
+        header.putInt(SLOTS_IN_USE_AT, 0);
+        slotsInUse = 0;
+    }
+
+    private int newSlot() {
+        int slot = slotsInUse++;
+        header.putInt(SLOTS_IN_USE_AT, slotsInUse);
+
+        try {
+            mapRegions(slotsInUse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return slot;
+    }
+
+    private void free(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // Fields first and the used flag last, the order only matters to whoever reads the file while it is dirty
+    private void write(int slot, Widget widget) {
+        var region = region(slot);
+        int offset = offset(slot);
+
+        region.putInt(offset + Z_INDEX, widget.getZIndex());
+        region.putLong(offset + ID_MOST_BITS, widget.getId().getMostSignificantBits());
+        region.putLong(offset + ID_LEAST_BITS, widget.getId().getLeastSignificantBits());
+        region.putInt(offset + X_AXIS, widget.getXAxis());
+        region.putInt(offset + Y_AXIS, widget.getYAxis());
+        region.putInt(offset + WIDTH, widget.getWidth());
+        region.putInt(offset + HEIGHT, widget.getHeight());
+        region.putInt(offset + X_MIDDLE, widget.xAxisMiddlePoint());
+        region.putInt(offset + Y_MIDDLE, widget.yAxisMiddlePoint());
+        region.putInt(offset + USED, 1);
+    }
+
+    private void mapRegions(int slotCount) throws IOException {
+        while ((long) regions.size() * REGION_SLOTS < slotCount) {
+            long start = HEADER_BYTES + (long) regions.size() * REGION_SLOTS * SLOT_BYTES;
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, start, (long) REGION_SLOTS * SLOT_BYTES));
+        }
+    }
+
+    private MappedByteBuffer region(int slot) {
+        return regions.get(slot / REGION_SLOTS);
+    }
+
+    private static int offset(int slot) {
+        return (slot % REGION_SLOTS) * SLOT_BYTES;
+    }
+}
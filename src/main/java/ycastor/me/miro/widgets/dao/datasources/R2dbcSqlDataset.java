@@ -0,0 +1,360 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import cyclops.control.Option;
+import cyclops.data.tuple.Tuple2;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.ReactiveWidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+/*
+ * SqlDataset over R2DBC, the same tables and the same versioned writes without holding a thread while the database
+ * works. Statements of a write run one after the other on its connection, a transaction can't run two at once.
+ */
+@Component
+@ConditionalOnProperty(value = "miro.datasource", havingValue = "SQL")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class R2dbcSqlDataset implements ReactiveWidgetRepository {
+
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactions;
+
+    // Logs in as the JDBC datasource does, both reach the same database
+    @Autowired
+    public R2dbcSqlDataset(
+            @Value("${miro.sql-r2dbc-url}") String url,
+            @Value("${spring.datasource.username:sa}") String username,
+            @Value("${spring.datasource.password:}") String password
+    ) {
+        this(ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+                                                             .option(ConnectionFactoryOptions.USER, username)
+                                                             .option(ConnectionFactoryOptions.PASSWORD, password)
+                                                             .build()));
+    }
+
+    R2dbcSqlDataset(ConnectionFactory connectionFactory) {
+        this.databaseClient = DatabaseClient.create(connectionFactory);
+        this.transactions = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+    }
+
+    @Override
+    public Flux<Widget> listAll(String boardId, Pageable pageRequest) {
+        if (pageRequest.isUnpaged()) {
+            return widgets(databaseClient.sql(WidgetSql.BOARD_IN_Z_ORDER).bind("boardId", boardId));
+        }
+
+        return widgets(databaseClient.sql(WidgetSql.FIND_PAGE)
+                                     .bind("boardId", boardId)
+                                     .bind("limit", pageRequest.getPageSize())
+                                     .bind("offset", pageRequest.getOffset()));
+    }
+
+    @Override
+    public Flux<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return afterZIndex.fold(
+                zIndex -> widgets(databaseClient.sql(WidgetSql.FIND_AFTER_Z_INDEX)
+                                                .bind("boardId", boardId)
+                                                .bind("zIndex", zIndex)
+                                                .bind("limit", limit)),
+                () -> widgets(databaseClient.sql(WidgetSql.FIND_FROM_BOTTOM)
+                                            .bind("boardId", boardId)
+                                            .bind("limit", limit))
+        );
+    }
+
+    @Override
+    public Flux<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return widgets(databaseClient.sql("SELECT * FROM widget" + WidgetSql.WITHIN_AREA + " ORDER BY z_index")
+                                     .bind("boardId", boardId)
+                                     .bind("lowerLeftX", filterArea.getLowerLeft().getXAxis())
+                                     .bind("lowerLeftY", filterArea.getLowerLeft().getYAxis())
+                                     .bind("topRightX", filterArea.getUpperRight().getXAxis())
+                                     .bind("topRightY", filterArea.getUpperRight().getYAxis()));
+    }
+
+    @Override
+    public Mono<Widget> findById(String boardId, UUID id) {
+        return widgets(databaseClient.sql(WidgetSql.FIND_BY_ID).bind("boardId", boardId).bind("id", id)).next();
+    }
+
+    @Override
+    public Mono<Integer> findLargestZIndex(String boardId) {
+        return databaseClient.sql(WidgetSql.FIND_LARGEST_Z_INDEX)
+                             .bind("boardId", boardId)
+                             .map(row -> row.get("z_index", Integer.class))
+                             .one()
+                             .defaultIfEmpty(0);
+    }
+
+    @Override
+    public Flux<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return findRunContaining(boardId, zIndex).flatMapMany(run -> widgetsBetween(boardId, zIndex, run.getRunEnd()));
+    }
+
+    @Override
+    public Mono<Long> boardVersion(String boardId) {
+        return databaseClient.sql(WidgetSql.BOARD_VERSION)
+                             .bind("boardId", boardId)
+                             .map(row -> row.get("version", Long.class))
+                             .one()
+                             .defaultIfEmpty(0L);
+    }
+
+    // The colliding run is pushed up with one UPDATE, rows and runs are only written as they were read
+    @Override
+    public Mono<Tuple2<Widget, Option<ZIndexRun>>> saveReportingShift(String boardId, Widget newWidget) {
+        int zIndex = newWidget.getZIndex();
+        var previous = newWidget.getId() == null
+                ? Mono.just(Option.<Widget>none())
+                : findById(boardId, newWidget.getId()).map(Option::some).switchIfEmpty(Mono.error(() -> new WidgetsChangedException(newWidget.getId())));
+
+        var write = readImports(boardId).flatMap(imports -> previous.flatMap(read -> findRunContaining(boardId, zIndex).map(Option::some).defaultIfEmpty(Option.none()).flatMap(shiftedRun -> {
+            boolean shiftedItself = WidgetSql.shiftsItself(read, zIndex, shiftedRun);
+            var shift = shiftedRun.fold(run -> shiftUp(boardId, zIndex, run.getRunEnd()), Mono::<Void>empty);
+            var saved = read.fold(
+                    widget -> update(boardId, newWidget.toBuilder().version(WidgetSql.readVersion(newWidget, widget) + (shiftedItself ? 1 : 0)).build()),
+                    () -> insert(boardId, newWidget.toBuilder().id(UUID.randomUUID()).build())
+            );
+            var release = read.fold(widget -> releaseZIndex(boardId, WidgetSql.releasedZIndex(widget, shiftedItself)), Mono::<Void>empty);
+
+            return shift.then(saved).flatMap(widget -> release.then(occupyZIndex(boardId, zIndex))
+                                                              .then(bumpVersion(boardId, imports))
+                                                              .thenReturn(Tuple2.of(widget, WidgetSql.shiftedRange(zIndex, shiftedRun))));
+        })));
+
+        return transactions.transactional(write).onErrorMap(R2dbcSqlDataset::isConflict, error -> new WidgetsChangedException());
+    }
+
+    // Every widget the batch changes was read first, a row missing or changed since rolls the whole batch back
+    @Override
+    public Flux<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        var changedIds = changes.getUpdated().map(Widget::getId).appendAll(changes.getDeleted());
+        var previous = changedIds.isEmpty()
+                ? Mono.just(List.<Widget>of())
+                : widgets(databaseClient.sql(WidgetSql.FIND_ALL_BY_ID)
+                                        .bind("boardId", boardId)
+                                        .bind("ids", changedIds.toList())).collectList();
+
+        var write = readImports(boardId).flatMapMany(imports -> previous.flatMapMany(read -> {
+            if (read.size() != changedIds.size()) {
+                return Flux.error(new WidgetsChangedException());
+            }
+            var readWidgets = new HashMap<UUID, Widget>();
+            read.forEach(widget -> readWidgets.put(widget.getId(), widget));
+            var previousZIndexes = WidgetSql.zIndexesOf(read);
+
+            var updated = changes.getUpdated().map(widget -> widget.toBuilder().version(WidgetSql.readVersion(widget, readWidgets.get(widget.getId()))).build());
+            var deletes = Flux.fromIterable(changes.getDeleted()).concatMap(widgetId -> deleteRow(boardId, readWidgets.get(widgetId)));
+            var updates = Flux.fromIterable(updated).concatMap(widget -> update(boardId, widget));
+            var inserts = Flux.fromIterable(changes.getCreated()).concatMap(widget -> insert(boardId, widget));
+
+            return deletes.thenMany(updates.concatWith(inserts)).collectList().flatMapMany(saved -> {
+                var currentZIndexes = WidgetSql.zIndexesOf(saved);
+                var released = Flux.fromIterable(WidgetSql.onlyIn(previousZIndexes, currentZIndexes)).concatMap(zIndex -> releaseZIndex(boardId, zIndex));
+                var occupied = Flux.fromIterable(WidgetSql.onlyIn(currentZIndexes, previousZIndexes)).concatMap(zIndex -> occupyZIndex(boardId, zIndex));
+                return released.thenMany(occupied).then(bumpVersion(boardId, imports)).thenMany(Flux.fromIterable(saved).sort());
+            });
+        }));
+
+        return transactions.transactional(write).onErrorMap(R2dbcSqlDataset::isConflict, error -> new WidgetsChangedException());
+    }
+
+    @Override
+    public Mono<Widget> delete(String boardId, UUID widgetId) {
+        var write = readImports(boardId).flatMap(imports -> findById(boardId, widgetId)
+                .switchIfEmpty(Mono.error(() -> new WidgetNotFoundException(widgetId)))
+                .flatMap(widget -> deleteRow(boardId, widget).then(releaseZIndex(boardId, widget.getZIndex())).then(bumpVersion(boardId, imports)).thenReturn(widget)));
+
+        return transactions.transactional(write).onErrorMap(R2dbcSqlDataset::isConflict, error -> new WidgetsChangedException(widgetId));
+    }
+
+    // Last statement of every write, so writers of a board only queue up on its row while committing. Like SqlDataset
+    // it only applies if the board was not imported since the write read it
+    private Mono<Void> bumpVersion(String boardId, long imports) {
+        return databaseClient.sql(WidgetSql.BUMP_VERSION)
+                             .bind("boardId", boardId)
+                             .bind("imports", imports)
+                             .fetch()
+                             .rowsUpdated()
+                             .flatMap(updated -> updated > 0
+                                     ? Mono.<Void>empty()
+                                     : databaseClient.sql(WidgetSql.INSERT_VERSION).bind("boardId", boardId).then());
+    }
+
+    // Imports the write read the board after, read before anything else of the board
+    private Mono<Long> readImports(String boardId) {
+        return databaseClient.sql(WidgetSql.READ_IMPORTS)
+                             .bind("boardId", boardId)
+                             .map(row -> row.get("imports", Long.class))
+                             .one()
+                             .defaultIfEmpty(0L);
+    }
+
+    // The run moves up as a whole, so only its first z-index and the gap right above it change
+    private Mono<Void> shiftUp(String boardId, int fromZIndex, int runEnd) {
+        return databaseClient.sql(WidgetSql.SHIFT_UP)
+                             .bind("boardId", boardId)
+                             .bind("fromZIndex", fromZIndex)
+                             .bind("toZIndex", runEnd)
+                             .fetch()
+                             .rowsUpdated()
+                             .flatMap(shifted -> WidgetSql.shiftedWholeRun(shifted, fromZIndex, runEnd) ? Mono.<Void>empty() : Mono.<Void>error(new WidgetsChangedException()))
+                             .then(releaseZIndex(boardId, fromZIndex))
+                             .then(occupyZIndex(boardId, runEnd + 1));
+    }
+
+    private Mono<Widget> insert(String boardId, Widget widget) {
+        var inserted = widget.toBuilder().version(0L).build();
+        return withParameters(databaseClient.sql(WidgetSql.INSERT), boardId, inserted).then().thenReturn(inserted);
+    }
+
+    private Mono<Widget> update(String boardId, Widget widget) {
+        return changed(withParameters(databaseClient.sql(WidgetSql.UPDATE), boardId, widget), () -> new WidgetsChangedException(widget.getId()))
+                .thenReturn(widget.toBuilder().version(widget.getVersion() + 1).build());
+    }
+
+    private Mono<Void> deleteRow(String boardId, Widget widget) {
+        return changed(
+                databaseClient.sql(WidgetSql.DELETE)
+                              .bind("boardId", boardId)
+                              .bind("id", widget.getId())
+                              .bind("version", widget.getVersion()),
+                () -> new WidgetsChangedException(widget.getId())
+        );
+    }
+
+    private Flux<Widget> widgetsBetween(String boardId, int fromZIndex, int toZIndex) {
+        return widgets(databaseClient.sql(WidgetSql.FIND_BETWEEN)
+                                     .bind("boardId", boardId)
+                                     .bind("fromZIndex", fromZIndex)
+                                     .bind("toZIndex", toZIndex));
+    }
+
+    private Mono<ZIndexRun> findRunContaining(String boardId, int zIndex) {
+        return runs(databaseClient.sql(WidgetSql.FIND_RUN_FLOOR)
+                                  .bind("boardId", boardId)
+                                  .bind("zIndex", zIndex))
+                .filter(run -> run.getRunEnd() >= zIndex);
+    }
+
+    private Mono<ZIndexRun> findRunStartingAt(String boardId, int runStart) {
+        return runs(databaseClient.sql(WidgetSql.FIND_RUN_STARTING_AT)
+                                  .bind("boardId", boardId)
+                                  .bind("runStart", runStart));
+    }
+
+    private Mono<Void> occupyZIndex(String boardId, int zIndex) {
+        var before = zIndex > Integer.MIN_VALUE ? findRunContaining(boardId, zIndex - 1) : Mono.<ZIndexRun>empty();
+        var after = zIndex < Integer.MAX_VALUE ? findRunStartingAt(boardId, zIndex + 1) : Mono.<ZIndexRun>empty();
+
+        return findRunContaining(boardId, zIndex).hasElement().flatMap(occupied -> occupied ? Mono.<Void>empty() : after.map(Option::some).defaultIfEmpty(Option.none()).flatMap(
+                runAfter -> before.map(Option::some).defaultIfEmpty(Option.none()).flatMap(runBefore -> {
+                    int runEnd = runAfter.map(ZIndexRun::getRunEnd).orElse(zIndex);
+                    var merged = runAfter.fold(run -> deleteRun(boardId, run), Mono::<Void>empty);
+                    return merged.then(runBefore.fold(run -> updateRunEnd(boardId, run, runEnd), () -> insertRun(boardId, zIndex, runEnd)));
+                })
+        ));
+    }
+
+    private Mono<Void> releaseZIndex(String boardId, int zIndex) {
+        return findRunContaining(boardId, zIndex).flatMap(run -> {
+            var shortened = run.getRunStart() < zIndex ? updateRunEnd(boardId, run, zIndex - 1) : deleteRun(boardId, run);
+            return zIndex < run.getRunEnd() ? shortened.then(insertRun(boardId, zIndex + 1, run.getRunEnd())) : shortened;
+        });
+    }
+
+    private Mono<Void> insertRun(String boardId, int runStart, int runEnd) {
+        return databaseClient.sql(WidgetSql.INSERT_RUN)
+                             .bind("boardId", boardId)
+                             .bind("runStart", runStart)
+                             .bind("runEnd", runEnd)
+                             .then();
+    }
+
+    private Mono<Void> updateRunEnd(String boardId, ZIndexRun run, int runEnd) {
+        return changed(
+                databaseClient.sql(WidgetSql.UPDATE_RUN_END)
+                              .bind("boardId", boardId)
+                              .bind("runStart", run.getRunStart())
+                              .bind("readRunEnd", run.getRunEnd())
+                              .bind("runEnd", runEnd),
+                WidgetsChangedException::new
+        );
+    }
+
+    private Mono<Void> deleteRun(String boardId, ZIndexRun run) {
+        return changed(
+                databaseClient.sql(WidgetSql.DELETE_RUN)
+                              .bind("boardId", boardId)
+                              .bind("runStart", run.getRunStart())
+                              .bind("runEnd", run.getRunEnd()),
+                WidgetsChangedException::new
+        );
+    }
+
+    private static Mono<Void> changed(DatabaseClient.GenericExecuteSpec statement, Supplier<WidgetsChangedException> conflict) {
+        return statement.fetch().rowsUpdated().flatMap(rows -> rows > 0 ? Mono.<Void>empty() : Mono.<Void>error(conflict.get()));
+    }
+
+    // Lock timeouts, deadlocks and keys inserted first by a concurrent write all mean this write lost against it
+    private static boolean isConflict(Throwable error) {
+        return error instanceof TransientDataAccessException || error instanceof DataIntegrityViolationException;
+    }
+
+    private static Flux<Widget> widgets(DatabaseClient.GenericExecuteSpec query) {
+        return query.map((row, metadata) -> toWidget(row)).all();
+    }
+
+    private static Mono<ZIndexRun> runs(DatabaseClient.GenericExecuteSpec query) {
+        return query.map((row, metadata) -> new ZIndexRun(row.get("run_start", Integer.class), row.get("run_end", Integer.class))).one();
+    }
+
+    private static Widget toWidget(Row row) {
+        return Widget.builder()
+                     .id(row.get("id", UUID.class))
+                     .zIndex(row.get("z_index", Integer.class))
+                     .width(row.get("width", Integer.class))
+                     .height(row.get("height", Integer.class))
+                     .xAxis(row.get("x_axis", Integer.class))
+                     .yAxis(row.get("y_axis", Integer.class))
+                     .version(row.get("version", Long.class))
+                     .build();
+    }
+
+    private static DatabaseClient.GenericExecuteSpec withParameters(DatabaseClient.GenericExecuteSpec statement, String boardId, Widget widget) {
+        return statement.bind("boardId", boardId)
+                        .bind("id", widget.getId())
+                        .bind("zIndex", widget.getZIndex())
+                        .bind("width", widget.getWidth())
+                        .bind("height", widget.getHeight())
+                        .bind("xAxis", widget.getXAxis())
+                        .bind("yAxis", widget.getYAxis())
+                        .bind("version", widget.getVersion());
+    }
+}
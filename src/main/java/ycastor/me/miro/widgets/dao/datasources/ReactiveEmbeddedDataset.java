@@ -0,0 +1,132 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.tuple.Tuple2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.ReactiveWidgetRepository;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+/*
+ * The embedded datasources on the reactive stack. The in-memory stores read a published state without locking, those
+ * reads run right on the event loop. The column stores and the tiled grid read under a lock a writer may hold, so
+ * their reads move to the bounded elastic threads, like every write since writes may wait on a journal fsync or a
+ * mapped file growing.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@ConditionalOnExpression("'${miro.datasource}' != 'SQL'")
+public class ReactiveEmbeddedDataset implements ReactiveWidgetRepository {
+
+    private static final int STREAM_PAGE_SIZE = 500;
+
+    private final WidgetRepository widgetRepository;
+    private final Scheduler readScheduler;
+
+    @Autowired
+    public ReactiveEmbeddedDataset(WidgetRepository widgetRepository) {
+        this.widgetRepository = widgetRepository;
+        this.readScheduler = readsWithoutLocking(widgetRepository) ? Schedulers.immediate() : Schedulers.boundedElastic();
+    }
+
+    @Override
+    public Flux<Widget> listAll(String boardId, Pageable pageRequest) {
+        if (pageRequest.isUnpaged()) {
+            // keyset pages read one at a time as the subscriber asks for more, a slow client holds no more than a page.
+            // Like paging through the API, a widget a concurrent write shifts across the cursor may show twice or not at all
+            return Flux.<ImmutableSortedSet<Widget>, Option<Integer>>generate(Option::none, (afterZIndex, sink) -> {
+                var page = widgetRepository.listAfterZIndex(boardId, afterZIndex, STREAM_PAGE_SIZE);
+                if (!page.isEmpty()) {
+                    sink.next(page);
+                }
+                if (page.size() < STREAM_PAGE_SIZE) {
+                    sink.complete();
+                }
+                return page.last().map(Widget::getZIndex);
+            }).concatMapIterable(page -> page, 1).subscribeOn(readScheduler);
+        }
+
+        return Flux.defer(() -> Flux.fromIterable(widgetRepository.listAll(boardId, pageRequest))).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Flux<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return Flux.defer(() -> Flux.fromIterable(widgetRepository.listAfterZIndex(boardId, afterZIndex, limit))).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Flux<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return Flux.defer(() -> Flux.fromIterable(widgetRepository.listAllWithinArea(boardId, filterArea))).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Mono<Widget> findById(String boardId, UUID id) {
+        return Mono.fromSupplier(() -> widgetRepository.findById(boardId, id).orElse(null)).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Mono<Integer> findLargestZIndex(String boardId) {
+        return Mono.fromSupplier(() -> widgetRepository.findLargestZIndex(boardId)).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Flux<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return Flux.defer(() -> Flux.fromIterable(widgetRepository.findFromZIndexUntilGap(boardId, zIndex))).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Mono<Long> boardVersion(String boardId) {
+        return Mono.fromSupplier(() -> widgetRepository.boardVersion(boardId)).subscribeOn(readScheduler);
+    }
+
+    @Override
+    public Mono<Tuple2<Widget, Option<ZIndexRun>>> saveReportingShift(String boardId, Widget newWidget) {
+        return Mono.fromSupplier(() -> savedWithShift(boardId, newWidget))
+                   .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Flux<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        return Flux.defer(() -> Flux.fromIterable(widgetRepository.saveBatch(boardId, changes)))
+                   .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Widget> delete(String boardId, UUID widgetId) {
+        return Mono.fromSupplier(() -> widgetRepository.delete(boardId, widgetId))
+                   .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Self ordering datasources tell which z-indexes they pushed up, the others are handed the run the widget lands on
+    private Tuple2<Widget, Option<ZIndexRun>> savedWithShift(String boardId, Widget newWidget) {
+        if (widgetRepository instanceof SelfOrderingRepository) {
+            return ((SelfOrderingRepository) widgetRepository).saveReportingShift(boardId, newWidget);
+        }
+
+        var collided = widgetRepository.findFromZIndexUntilGap(boardId, newWidget.getZIndex())
+                                       .map(widget -> widget.toBuilder().zIndex(widget.getZIndex() + 1).build());
+        var saved = widgetRepository.save(boardId, newWidget, collided);
+        return Tuple2.of(saved, collided.first().map(bottom -> new ZIndexRun(bottom.getZIndex() - 1, collided.last().orElse(bottom).getZIndex() - 1)));
+    }
+
+    // Only the plain in-memory stores, wrapping one in the tiled grid adds a lock around its reads
+    private static boolean readsWithoutLocking(WidgetRepository widgetRepository) {
+        return widgetRepository instanceof InMemoryDataset || widgetRepository instanceof SparseInMemoryDataset;
+    }
+}
@@ -0,0 +1,209 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import ycastor.me.miro.utils.SortedSets;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+@Component
+@ConditionalOnExpression("'${miro.datasource}' == 'IN_MEMORY' and '${miro.ordering:DENSE}' == 'SPARSE'")
+public class SparseInMemoryDataset implements SelfOrderingRepository {
+
+    private static final Counter CAS_FAILURES = Metrics.counter("widgets.cas.failures", "datasource", "sparse");
+
+    // one published state per board, writers of different boards never race on the same reference
+    private final Map<String, AtomicReference<SparseWidgetsState>> boards = new ConcurrentHashMap<>();
+    // version of the state the last write of the current thread published
+    private final ThreadLocal<Long> writtenVersion = new ThreadLocal<>();
+
+    public SparseInMemoryDataset() {
+        Metrics.gauge("widgets.board.size", Tags.of("datasource", "sparse"), boards,
+                      published -> published.values().stream().mapToInt(state -> state.get().size()).sum());
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Option<Widget> findById(String boardId, UUID id) {
+        return currentState(boardId).findById(id);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        return currentState(boardId).findPage((int) pageRequest.getOffset(), pageRequest.getPageSize());
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return currentState(boardId).findAfterZIndex(afterZIndex, limit);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        currentState(boardId).forEach(action);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        return currentState(boardId).findWithinArea(filterArea);
+    }
+
+    // The area index finds the widgets instead of a scan of the whole board
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        currentState(boardId).findWithinArea(filterArea).forEach(action);
+    }
+
+    // The collided widgets are ignored, the ranked order moves them up without rewriting them
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        return saveReportingShift(boardId, newWidget)._1();
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Tuple2<Widget, Option<ZIndexRun>> saveReportingShift(String boardId, Widget newWidget) {
+        var widgetWithId = generateId(newWidget);
+        var currentState = currentState(boardId);
+        var updatedState = currentState.put(widgetWithId);
+
+        if (!publish(boardId, currentState, updatedState)) {
+            throw new WidgetsChangedException(widgetWithId.getId());
+        }
+
+        var saved = updatedState.findById(widgetWithId.getId()).orElseGet(() -> { throw new WidgetNotFoundException(widgetWithId.getId()); });
+        return Tuple2.of(saved, currentState.shiftedBy(widgetWithId));
+    }
+
+    // The batch already carries the final z-indexes, once every changed widget is out of the order none of them collide
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        var currentState = currentState(boardId);
+        var updatedState = currentState;
+
+        for (UUID widgetId : changes.getDeleted().appendAll(changes.getUpdated().map(Widget::getId))) {
+            if (!updatedState.findById(widgetId).isPresent()) {
+                throw new WidgetsChangedException(widgetId);
+            }
+            updatedState = updatedState.remove(widgetId);
+        }
+
+        var saved = changes.getCreated().appendAll(changes.getUpdated());
+        for (Widget widget : saved) {
+            updatedState = updatedState.put(widget);
+        }
+
+        if (!publish(boardId, currentState, updatedState)) {
+            throw new WidgetsChangedException();
+        }
+
+        return SortedSets.fromIterable(saved);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Widget delete(String boardId, UUID widgetId) {
+        var currentState = currentState(boardId);
+        return currentState.findById(widgetId)
+                           .fold(widget -> {
+                               var updatedState = currentState.remove(widgetId);
+                               if (!publish(boardId, currentState, updatedState)) {
+                                   throw new WidgetsChangedException(widgetId);
+                               }
+
+                               return widget;
+                           }, () -> { throw new WidgetNotFoundException(widgetId); });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Integer findLargestZIndex(String boardId) {
+        return currentState(boardId)
+                           .findLargest()
+                           .fold(Widget::getZIndex, () -> 0);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public long boardVersion(String boardId) {
+        return currentState(boardId).version();
+    }
+
+    @Override
+    public long writtenVersion(String boardId) {
+        var version = writtenVersion.get();
+        return version != null ? version : boardVersion(boardId);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return currentState(boardId).findFromZIndexUntilGap(zIndex);
+    }
+
+    // A lost race with a writer is fine, the next run picks the crowded state up again
+    @Timed(value = "widgets.repository", histogram = true)
+    @Scheduled(fixedDelayString = "${miro.ordering-rebalance-interval:10000}")
+    public void rebalanceIfCrowded() {
+        boards.values().forEach(widgetsState -> {
+            var currentState = widgetsState.get();
+
+            if (currentState.isCrowded()) {
+                widgetsState.compareAndSet(currentState, currentState.rebalanced());
+            }
+        });
+    }
+
+    // Reads do not register the board, only writes do
+    private SparseWidgetsState currentState(String boardId) {
+        var state = boards.get(boardId);
+        return state != null ? state.get() : SparseWidgetsState.empty();
+    }
+
+    private boolean publish(String boardId, SparseWidgetsState currentState, SparseWidgetsState updatedState) {
+        var widgetsState = boards.computeIfAbsent(boardId, id -> new AtomicReference<>(SparseWidgetsState.empty()));
+        if (!widgetsState.compareAndSet(currentState, updatedState)) {
+            CAS_FAILURES.increment();
+            return false;
+        }
+
+        writtenVersion.set(updatedState.version());
+        return true;
+    }
+
+    private Widget generateId(Widget newWidget) {
+        if (newWidget.getId() == null) {
+            return newWidget.toBuilder().id(UUID.randomUUID()).build();
+        }
+
+        return newWidget;
+    }
+}
@@ -0,0 +1,178 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import ycastor.me.miro.utils.AvlTree;
+import ycastor.me.miro.utils.SortedSets;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.indexes.RankedZOrder;
+import ycastor.me.miro.widgets.dao.indexes.WidgetQuadTree;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+// Immutable board snapshot where the z-indexes are derived from the widget position in the ranked order
+public final class SparseWidgetsState {
+
+    private static final Comparator<UUID> ID_ORDER = Comparator.naturalOrder();
+
+    private static final SparseWidgetsState EMPTY = new SparseWidgetsState(
+            RankedZOrder.empty(), AvlTree.empty(ID_ORDER), WidgetQuadTree.empty(), false, 0
+    );
+
+    private final RankedZOrder order;
+    private final AvlTree<UUID, Long> ranksById;
+    private final WidgetQuadTree widgetsByArea;
+    private final boolean crowded;
+    // bumped by every put and remove, a rebalance doesn't change what the board shows
+    private final long version;
+
+    private SparseWidgetsState(
+            RankedZOrder order,
+            AvlTree<UUID, Long> ranksById,
+            WidgetQuadTree widgetsByArea,
+            boolean crowded,
+            long version
+    ) {
+        this.order = order;
+        this.ranksById = ranksById;
+        this.widgetsByArea = widgetsByArea;
+        this.crowded = crowded;
+        this.version = version;
+    }
+
+    public static SparseWidgetsState empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return order.size();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // Some widgets were inserted between ranks that are too close, a rebalance avoids doing it during a write later
+    public boolean isCrowded() {
+        return crowded;
+    }
+
+    public Option<Widget> findById(UUID id) {
+        return ranksById.get(id)
+                        .flatMap(order::find)
+                        .map(RankedZOrder.Placed::widget);
+    }
+
+    public ImmutableSortedSet<Widget> findPage(int offset, int limit) {
+        var found = new ArrayList<Widget>(limit);
+        var iterator = order.from(offset);
+
+        while (iterator.hasNext() && found.size() < limit) {
+            found.add(iterator.next().widget());
+        }
+
+        return SortedSets.fromIterable(found);
+    }
+
+    // z-indexes are derived, so the seek goes to the ordinal of the first widget above the cursor
+    public ImmutableSortedSet<Widget> findAfterZIndex(Option<Integer> afterZIndex, int limit) {
+        var start = afterZIndex.fold(
+                zIndex -> zIndex < Integer.MAX_VALUE ? order.ceiling(zIndex + 1).map(RankedZOrder.Placed::ordinal) : Option.<Integer>none(),
+                () -> Option.some(0)
+        );
+
+        return start.<ImmutableSortedSet<Widget>>fold(ordinal -> findPage(ordinal, limit), () -> TreeSet.empty());
+    }
+
+    public void forEach(Consumer<Widget> action) {
+        order.from(0).forEachRemaining(placed -> action.accept(placed.widget()));
+    }
+
+    public ImmutableSortedSet<Widget> findWithinArea(FilterArea filterArea) {
+        var found = new ArrayList<Widget>();
+        widgetsByArea.unorderedWithin(filterArea)
+                     .forEach(widget -> findById(widget.getId()).forEach(found::add));
+        return SortedSets.fromIterable(found);
+    }
+
+    public Option<Widget> findLargest() {
+        return order.last().map(RankedZOrder.Placed::widget);
+    }
+
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(int zIndex) {
+        return order.ceiling(zIndex)
+                    .filter(placed -> placed.zIndex() == zIndex)
+                    .<ImmutableSortedSet<Widget>>fold(first -> {
+                        var found = new ArrayList<Widget>();
+                        var iterator = order.from(first.ordinal());
+                        found.add(iterator.next().widget());
+
+                        while (iterator.hasNext()) {
+                            var placed = iterator.next();
+                            if (placed.startsRun()) {
+                                break;
+                            }
+                            found.add(placed.widget());
+                        }
+
+                        return SortedSets.fromIterable(found);
+                    }, () -> TreeSet.empty());
+    }
+
+    // The z-indexes putting the widget pushes up, from its own to the end of the run it lands on
+    public Option<ZIndexRun> shiftedBy(Widget widget) {
+        var withoutPrevious = ranksById.get(widget.getId()).isPresent() ? remove(widget.getId()) : this;
+        return withoutPrevious.order.runEndFrom(widget.getZIndex()).map(runEnd -> new ZIndexRun(widget.getZIndex(), runEnd));
+    }
+
+    // Places the widget at its z-index, a previous version of it is taken out of the order first
+    public SparseWidgetsState put(Widget widget) {
+        var withoutPrevious = ranksById.get(widget.getId()).isPresent() ? remove(widget.getId()) : this;
+        var inserted = withoutPrevious.order.insert(widget.getZIndex(), widget);
+
+        if (inserted.isPresent()) {
+            var placed = inserted.orElse(null);
+            return new SparseWidgetsState(
+                    placed.order(),
+                    withoutPrevious.ranksById.plus(widget.getId(), placed.rank()),
+                    withoutPrevious.widgetsByArea.insert(widget),
+                    withoutPrevious.crowded || placed.crowded(),
+                    withoutPrevious.version + 1
+            );
+        }
+
+        // no free rank left between the neighbours, rebalancing while writing is the exception
+        return withoutPrevious.rebalanced().put(widget);
+    }
+
+    public SparseWidgetsState remove(UUID widgetId) {
+        return ranksById.get(widgetId)
+                        .flatMap(order::find)
+                        .fold(placed -> new SparseWidgetsState(
+                                order.remove(placed.rank()),
+                                ranksById.minus(widgetId),
+                                widgetsByArea.remove(placed.widget()),
+                                crowded,
+                                version + 1
+                        ), () -> this);
+    }
+
+    public SparseWidgetsState rebalanced() {
+        var rebalancedOrder = order.rebalanced();
+        var rebalancedRanks = AvlTree.<UUID, Long>empty(ID_ORDER);
+        var iterator = rebalancedOrder.from(0);
+
+        while (iterator.hasNext()) {
+            var placed = iterator.next();
+            rebalancedRanks = rebalancedRanks.plus(placed.widget().getId(), placed.rank());
+        }
+
+        return new SparseWidgetsState(rebalancedOrder, rebalancedRanks, widgetsByArea, false, version);
+    }
+}
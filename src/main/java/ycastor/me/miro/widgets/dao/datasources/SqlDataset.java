@@ -1,80 +1,287 @@
 package ycastor.me.miro.widgets.dao.datasources;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import cyclops.control.Option;
 import cyclops.data.ImmutableSortedSet;
 import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
 import ycastor.me.miro.widgets.dao.WidgetRepository;
 import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
 
 @Component
 @ConditionalOnProperty(value = "miro.datasource", havingValue = "SQL")
-public class SqlDataset implements WidgetRepository {
+public class SqlDataset implements SelfOrderingRepository {
+
+    private static final int STREAM_FETCH_SIZE = 500;
 
     private final WidgetSqlRepository widgetSqlRepository;
+    private final ZIndexRunSqlRepository zIndexRunSqlRepository;
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    // reads rows from the driver in fetch sized chunks instead of loading the whole result
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+    // version the last write of the current thread committed with
+    private final ThreadLocal<Long> writtenVersion = new ThreadLocal<>();
 
     @Autowired
-    public SqlDataset(WidgetSqlRepository widgetSqlRepository) {
+    public SqlDataset(
+            WidgetSqlRepository widgetSqlRepository,
+            ZIndexRunSqlRepository zIndexRunSqlRepository,
+            NamedParameterJdbcTemplate jdbcTemplate
+    ) {
         this.widgetSqlRepository = widgetSqlRepository;
+        this.zIndexRunSqlRepository = zIndexRunSqlRepository;
+        this.jdbcTemplate = jdbcTemplate;
+
+        var streaming = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        streaming.setFetchSize(STREAM_FETCH_SIZE);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+
+        // counted on every scrape across the boards, the table has no cheaper size to read
+        Metrics.gauge("widgets.board.size", Tags.of("datasource", "sql"), widgetSqlRepository, WidgetSqlRepository::count);
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        var widgets = pageRequest.isPaged()
+                ? widgetSqlRepository.findPage(boardId, pageRequest.getOffset(), pageRequest.getPageSize())
+                : widgetSqlRepository.findPage(boardId, 0, Integer.MAX_VALUE);
+        return TreeSet.fromIterable(widgets);
     }
 
     @Override
-    public ImmutableSortedSet<Widget> listAll(Pageable pageRequest) {
-        var widgets = widgetSqlRepository.findAll(pageRequest);
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        var widgets = afterZIndex.fold(
+                zIndex -> widgetSqlRepository.findAllAfterZIndex(boardId, zIndex, limit),
+                () -> widgetSqlRepository.findAllFromBottom(boardId, limit)
+        );
         return TreeSet.fromIterable(widgets);
     }
 
+    // The colliding run is pushed up with one UPDATE, the collided widgets computed by the caller are not needed.
+    // Rows and runs are only written as they were read, a write that interleaved with a concurrent one fails instead
     @Override
+    @Timed(value = "widgets.repository", histogram = true)
     @Transactional
-    public Widget save(Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
-        widgetSqlRepository.saveAll(collidedWidgets);
-        return widgetSqlRepository.save(newWidget);
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        return saveReportingShift(boardId, newWidget)._1();
     }
 
     @Override
+    @Timed(value = "widgets.repository", histogram = true)
     @Transactional
-    public Widget delete(UUID widgetId) {
-        var found = findById(widgetId);
-        return found.fold(
-                widget -> {
-                    widgetSqlRepository.delete(widget);
-                    return widget;
-                },
-                () -> { throw new WidgetNotFoundException(widgetId); }
-        );
+    public Tuple2<Widget, Option<ZIndexRun>> saveReportingShift(String boardId, Widget newWidget) {
+        return detectingConflicts(() -> {
+            long imports = readImports(boardId);
+            int zIndex = newWidget.getZIndex();
+            var previous = Option.ofNullable(newWidget.getId())
+                                 .map(widgetId -> findById(boardId, widgetId).orElseGet(() -> { throw new WidgetsChangedException(widgetId); }));
+
+            var shiftedRun = Option.fromOptional(findRunContaining(boardId, zIndex));
+            boolean shiftedItself = WidgetSql.shiftsItself(previous, zIndex, shiftedRun);
+            shiftedRun.forEach(run -> shiftUp(boardId, zIndex, run.getRunEnd()));
+
+            var saved = previous.fold(
+                    widget -> update(boardId, newWidget.toBuilder().version(WidgetSql.readVersion(newWidget, widget) + (shiftedItself ? 1 : 0)).build()),
+                    () -> insert(boardId, newWidget.toBuilder().id(UUID.randomUUID()).build())
+            );
+
+            previous.map(widget -> WidgetSql.releasedZIndex(widget, shiftedItself))
+                    .forEach(previousZIndex -> releaseZIndex(boardId, previousZIndex));
+            occupyZIndex(boardId, zIndex);
+            bumpVersion(boardId, imports);
+
+            return Tuple2.of(saved, WidgetSql.shiftedRange(zIndex, shiftedRun));
+        });
+    }
+
+    // Each kind of change goes to the database as one JDBC batch, a row missing from it rolls the whole batch back
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    @Transactional
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        return detectingConflicts(() -> {
+            long imports = readImports(boardId);
+            var changedIds = changes.getUpdated().map(Widget::getId).appendAll(changes.getDeleted());
+            var previous = changedIds.isEmpty() ? List.<Widget>of() : widgetSqlRepository.findAllById(boardId, changedIds.toList());
+            if (previous.size() != changedIds.size()) {
+                throw new WidgetsChangedException();
+            }
+            var readWidgets = new HashMap<UUID, Widget>();
+            previous.forEach(widget -> readWidgets.put(widget.getId(), widget));
+            var previousZIndexes = WidgetSql.zIndexesOf(previous);
+
+            var deleted = changes.getDeleted().map(widgetId -> new MapSqlParameterSource("id", widgetId)
+                    .addValue("boardId", boardId)
+                    .addValue("version", readWidgets.get(widgetId).getVersion()));
+            checkAllChanged(
+                    changes.getDeleted(),
+                    jdbcTemplate.batchUpdate(WidgetSql.DELETE, deleted.stream().toArray(SqlParameterSource[]::new))
+            );
+            var updated = changes.getUpdated().map(widget -> widget.toBuilder().version(WidgetSql.readVersion(widget, readWidgets.get(widget.getId()))).build());
+            checkAllChanged(updated.map(Widget::getId), jdbcTemplate.batchUpdate(WidgetSql.UPDATE, asParameters(boardId, updated)));
+            var created = changes.getCreated().map(widget -> widget.toBuilder().version(0L).build());
+            jdbcTemplate.batchUpdate(WidgetSql.INSERT, asParameters(boardId, created));
+
+            var saved = created.appendAll(updated.map(widget -> widget.toBuilder().version(widget.getVersion() + 1).build()));
+            var currentZIndexes = WidgetSql.zIndexesOf(saved);
+            WidgetSql.onlyIn(previousZIndexes, currentZIndexes).forEach(zIndex -> releaseZIndex(boardId, zIndex));
+            WidgetSql.onlyIn(currentZIndexes, previousZIndexes).forEach(zIndex -> occupyZIndex(boardId, zIndex));
+            bumpVersion(boardId, imports);
+
+            return TreeSet.fromIterable(saved);
+        });
+    }
+
+    // One JDBC batch of rows per chunk, the runs are read off the ascending z-indexes and written once they end.
+    // The board is locked before it is checked for widgets, writes that overlap the import fail as conflicts
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    @Transactional
+    public long importWidgets(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        return detectingConflicts(() -> {
+            lockForImport(boardId);
+            if (!widgetSqlRepository.findAllFromBottom(boardId, 1).isEmpty()) {
+                throw new BoardNotEmptyException(boardId);
+            }
+
+            long imported = 0;
+            var runs = new ArrayList<SqlParameterSource>();
+            Integer runStart = null;
+            Integer runEnd = null;
+            while (widgets.hasNext()) {
+                var chunk = WidgetRepository.nextChunk(widgets, chunkSize).map(widget -> widget.toBuilder().version(0L).build());
+                checkIdsFree(boardId, chunk, imported);
+                jdbcTemplate.batchUpdate(WidgetSql.INSERT, asParameters(boardId, chunk));
+                imported += chunk.size();
+
+                for (Widget widget : chunk) {
+                    if (runEnd == null || widget.getZIndex() != runEnd + 1) {
+                        if (runEnd != null) {
+                            runs.add(runParameters(boardId, runStart, runEnd));
+                        }
+                        runStart = widget.getZIndex();
+                    }
+                    runEnd = widget.getZIndex();
+                }
+                if (runs.size() >= chunkSize) {
+                    jdbcTemplate.batchUpdate(WidgetSql.INSERT_RUN, runs.toArray(SqlParameterSource[]::new));
+                    runs.clear();
+                }
+            }
+
+            if (runEnd != null) {
+                runs.add(runParameters(boardId, runStart, runEnd));
+            }
+            jdbcTemplate.batchUpdate(WidgetSql.INSERT_RUN, runs.toArray(SqlParameterSource[]::new));
+            var board = new MapSqlParameterSource("boardId", boardId);
+            jdbcTemplate.update("UPDATE board_version SET version = version + 1, imports = imports + 1 WHERE board_id = :boardId", board);
+            writtenVersion.set(boardVersion(boardId));
+
+            return imported;
+        });
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    @Transactional
+    public Widget delete(String boardId, UUID widgetId) {
+        return detectingConflicts(() -> {
+            long imports = readImports(boardId);
+            return findById(boardId, widgetId).fold(
+                    widget -> {
+                        if (!widgetSqlRepository.deleteById(boardId, widgetId, widget.getVersion())) {
+                            throw new WidgetsChangedException(widgetId);
+                        }
+                        releaseZIndex(boardId, widget.getZIndex());
+                        bumpVersion(boardId, imports);
+                        return widget;
+                    },
+                    () -> { throw new WidgetNotFoundException(widgetId); }
+            );
+        });
     }
 
     @Override
-    public Integer findLargestZIndex() {
-        var zindex = widgetSqlRepository.findLargestZIndex();
+    @Timed(value = "widgets.repository", histogram = true)
+    public Integer findLargestZIndex(String boardId) {
+        var zindex = widgetSqlRepository.findLargestZIndex(boardId);
         return zindex != null ? zindex : 0;
     }
 
     @Override
-    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(Integer zIndex) {
-        TreeSet<Widget> widgets = TreeSet.fromIterable(widgetSqlRepository.findAllByzIndexGreaterThanEqual(zIndex));
+    @Timed(value = "widgets.repository", histogram = true)
+    public long boardVersion(String boardId) {
+        return jdbcTemplate.query(
+                WidgetSql.BOARD_VERSION,
+                new MapSqlParameterSource("boardId", boardId),
+                (ResultSetExtractor<Long>) resultSet -> resultSet.next() ? resultSet.getLong("version") : 0L
+        );
+    }
 
-        return widgets.takeWhile(toGap(widgets));
+    @Override
+    public long writtenVersion(String boardId) {
+        var version = writtenVersion.get();
+        return version != null ? version : boardVersion(boardId);
     }
 
     @Override
-    public Option<Widget> findById(UUID id) {
-        var found = widgetSqlRepository.findById(id);
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return findRunContaining(boardId, zIndex).map(run -> widgetSqlRepository.findAllByzIndexBetween(boardId, zIndex, run.getRunEnd()))
+                                        .map(TreeSet::fromIterable)
+                                        .orElse(TreeSet.empty());
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public Option<Widget> findById(String boardId, UUID id) {
+        var found = widgetSqlRepository.findById(boardId, id);
         return Option.fromOptional(found);
     }
 
     @Override
-    public ImmutableSortedSet<Widget> listAllWithinArea(FilterArea filterArea) {
+    @Timed(value = "widgets.repository", histogram = true)
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
         var currentState = widgetSqlRepository.findAllWithinArea(
+                boardId,
                 filterArea.getLowerLeft().getXAxis(),
                 filterArea.getLowerLeft().getYAxis(),
                 filterArea.getUpperRight().getXAxis(),
@@ -83,4 +290,198 @@ public class SqlDataset implements WidgetRepository {
 
         return TreeSet.fromIterable(currentState);
     }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        streamingJdbcTemplate.query(
+                WidgetSql.BOARD_IN_Z_ORDER,
+                new MapSqlParameterSource("boardId", boardId),
+                (RowCallbackHandler) resultSet -> action.accept(toWidget(resultSet))
+        );
+    }
+
+    @Override
+    @Timed(value = "widgets.repository", histogram = true)
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        var parameters = new MapSqlParameterSource()
+                .addValue("boardId", boardId)
+                .addValue("lowerLeftX", filterArea.getLowerLeft().getXAxis())
+                .addValue("lowerLeftY", filterArea.getLowerLeft().getYAxis())
+                .addValue("topRightX", filterArea.getUpperRight().getXAxis())
+                .addValue("topRightY", filterArea.getUpperRight().getYAxis());
+
+        streamingJdbcTemplate.query(
+                "SELECT * FROM widget" + WidgetSql.WITHIN_AREA + " ORDER BY z_index",
+                parameters,
+                (RowCallbackHandler) resultSet -> action.accept(toWidget(resultSet))
+        );
+    }
+
+    // Last statement of every write, the row stays locked until the write commits, so writers of a board only queue up
+    // on it for their commits. The rows written before carry their own versions to catch the writes that interleaved.
+    // The version read back under the lock is the one the write commits with, no other writer can take it
+    private void bumpVersion(String boardId, long imports) {
+        var board = new MapSqlParameterSource("boardId", boardId).addValue("imports", imports);
+        if (jdbcTemplate.update(WidgetSql.BUMP_VERSION, board) == 0) {
+            jdbcTemplate.update(WidgetSql.INSERT_VERSION, board);
+        }
+        writtenVersion.set(boardVersion(boardId));
+    }
+
+    // Imports the write read the board after, read before anything else of the board
+    private long readImports(String boardId) {
+        return jdbcTemplate.query(
+                WidgetSql.READ_IMPORTS,
+                new MapSqlParameterSource("boardId", boardId),
+                (ResultSetExtractor<Long>) resultSet -> resultSet.next() ? resultSet.getLong("imports") : 0L
+        );
+    }
+
+    // Holds the version row until the import commits, a board never written gets its row first. Writes still running
+    // then wait on the row for their commits and find the import count bumped
+    private void lockForImport(String boardId) {
+        var board = new MapSqlParameterSource("boardId", boardId);
+        if (!jdbcTemplate.query("SELECT version FROM board_version WHERE board_id = :boardId FOR UPDATE", board, (ResultSetExtractor<Boolean>) ResultSet::next)) {
+            jdbcTemplate.update("INSERT INTO board_version (board_id, version) VALUES (:boardId, 0)", board);
+        }
+    }
+
+    // Ids are unique within a board, the board is empty and locked so an id is only taken by an earlier chunk of the same
+    // import. Other boards may use the same ids. The rows imported so far are rolled back with the transaction
+    private void checkIdsFree(String boardId, Vector<Widget> chunk, long imported) {
+        var positions = new HashMap<UUID, Long>();
+        for (Widget widget : chunk) {
+            long position = imported + positions.size() + 1;
+            if (positions.put(widget.getId(), position) != null) {
+                throw new InvalidImportException(position, String.format("the id <%s> is already taken", widget.getId()));
+            }
+        }
+
+        var ids = new MapSqlParameterSource("boardId", boardId).addValue("ids", positions.keySet());
+        var taken = jdbcTemplate.queryForList("SELECT id FROM widget WHERE board_id = :boardId AND id IN (:ids)", ids, UUID.class);
+        if (!taken.isEmpty()) {
+            throw new InvalidImportException(positions.get(taken.get(0)), String.format("the id <%s> is already taken", taken.get(0)));
+        }
+    }
+
+    // The run moves up as a whole, so only its first z-index and the gap right above it change
+    private void shiftUp(String boardId, int fromZIndex, int runEnd) {
+        var range = new MapSqlParameterSource().addValue("boardId", boardId).addValue("fromZIndex", fromZIndex).addValue("toZIndex", runEnd);
+
+        if (!WidgetSql.shiftedWholeRun(jdbcTemplate.update(WidgetSql.SHIFT_UP, range), fromZIndex, runEnd)) {
+            throw new WidgetsChangedException();
+        }
+
+        releaseZIndex(boardId, fromZIndex);
+        occupyZIndex(boardId, runEnd + 1);
+    }
+
+    private Widget insert(String boardId, Widget widget) {
+        var inserted = widget.toBuilder().version(0L).build();
+        jdbcTemplate.update(WidgetSql.INSERT, asParameters(boardId, inserted));
+        return inserted;
+    }
+
+    private Widget update(String boardId, Widget widget) {
+        if (jdbcTemplate.update(WidgetSql.UPDATE, asParameters(boardId, widget)) == 0) {
+            throw new WidgetsChangedException(widget.getId());
+        }
+        return widget.toBuilder().version(widget.getVersion() + 1).build();
+    }
+
+    private Optional<ZIndexRun> findRunContaining(String boardId, int zIndex) {
+        return zIndexRunSqlRepository.findFloor(boardId, zIndex).filter(run -> run.getRunEnd() >= zIndex);
+    }
+
+    private void occupyZIndex(String boardId, int zIndex) {
+        if (findRunContaining(boardId, zIndex).isPresent()) {
+            return;
+        }
+
+        var before = zIndex > Integer.MIN_VALUE ? findRunContaining(boardId, zIndex - 1) : Optional.<ZIndexRun>empty();
+        var after = zIndex < Integer.MAX_VALUE ? zIndexRunSqlRepository.findStartingAt(boardId, zIndex + 1) : Optional.<ZIndexRun>empty();
+        int runEnd = after.map(ZIndexRun::getRunEnd).orElse(zIndex);
+
+        after.ifPresent(run -> deleteRun(boardId, run));
+        before.ifPresentOrElse(
+                run -> updateRunEnd(boardId, run, runEnd),
+                () -> zIndexRunSqlRepository.insert(boardId, zIndex, runEnd)
+        );
+    }
+
+    private void releaseZIndex(String boardId, int zIndex) {
+        findRunContaining(boardId, zIndex).ifPresent(run -> {
+            if (run.getRunStart() < zIndex) {
+                updateRunEnd(boardId, run, zIndex - 1);
+            } else {
+                deleteRun(boardId, run);
+            }
+
+            if (zIndex < run.getRunEnd()) {
+                zIndexRunSqlRepository.insert(boardId, zIndex + 1, run.getRunEnd());
+            }
+        });
+    }
+
+    private void updateRunEnd(String boardId, ZIndexRun run, int runEnd) {
+        if (!zIndexRunSqlRepository.updateRunEnd(boardId, run.getRunStart(), run.getRunEnd(), runEnd)) {
+            throw new WidgetsChangedException();
+        }
+    }
+
+    private void deleteRun(String boardId, ZIndexRun run) {
+        if (!zIndexRunSqlRepository.delete(boardId, run.getRunStart(), run.getRunEnd())) {
+            throw new WidgetsChangedException();
+        }
+    }
+
+    // Lock timeouts, deadlocks and keys inserted first by a concurrent write all mean this write lost against it
+    private static <T> T detectingConflicts(Supplier<T> write) {
+        try {
+            return write.get();
+        } catch (ConcurrencyFailureException | DuplicateKeyException e) {
+            throw new WidgetsChangedException();
+        }
+    }
+
+    private static Widget toWidget(ResultSet resultSet) throws SQLException {
+        return Widget.builder()
+                     .id(resultSet.getObject("id", UUID.class))
+                     .zIndex(resultSet.getInt("z_index"))
+                     .width(resultSet.getInt("width"))
+                     .height(resultSet.getInt("height"))
+                     .xAxis(resultSet.getInt("x_axis"))
+                     .yAxis(resultSet.getInt("y_axis"))
+                     .version(resultSet.getLong("version"))
+                     .build();
+    }
+
+    private static SqlParameterSource asParameters(String boardId, Widget widget) {
+        return new MapSqlParameterSource()
+                .addValue("boardId", boardId)
+                .addValue("id", widget.getId())
+                .addValue("zIndex", widget.getZIndex())
+                .addValue("width", widget.getWidth())
+                .addValue("height", widget.getHeight())
+                .addValue("xAxis", widget.getXAxis())
+                .addValue("yAxis", widget.getYAxis())
+                .addValue("version", widget.getVersion());
+    }
+
+    private static SqlParameterSource[] asParameters(String boardId, Vector<Widget> widgets) {
+        return widgets.stream().map(widget -> asParameters(boardId, widget)).toArray(SqlParameterSource[]::new);
+    }
+
+    private static SqlParameterSource runParameters(String boardId, int runStart, int runEnd) {
+        return new MapSqlParameterSource().addValue("boardId", boardId).addValue("runStart", runStart).addValue("runEnd", runEnd);
+    }
+
+    private static void checkAllChanged(Vector<UUID> widgetIds, int[] changedRows) {
+        for (int i = 0; i < changedRows.length; i++) {
+            if (changedRows[i] == 0) {
+                throw new WidgetsChangedException(widgetIds.getOrElse(i, null));
+            }
+        }
+    }
 }
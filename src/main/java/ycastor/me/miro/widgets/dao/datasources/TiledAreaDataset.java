@@ -0,0 +1,266 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.Pageable;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.instrument.Metrics;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.WidgetRepository;
+import ycastor.me.miro.widgets.dao.indexes.TileGrid;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+/*
+ * Serves in-area queries from a grid of square tiles per board, so overlapping viewports read the datasource once for
+ * the tiles they share. A query missing any of its tiles reads the whole block of them in one go, queries over more
+ * tiles than the limit skip the grid, the limit can't be above what a board keeps. Writes patch the tiles of the widgets
+ * they touched with the values read back after committing, in the order they took the grid, so the last patch of a
+ * widget always holds its latest value. Loads that
+ * overlapped a write are dropped instead of kept, like CachedSqlDataset does. Batches drop the board's grid, the
+ * patches of a write group wait until the group published.
+ */
+public abstract class TiledAreaDataset implements WidgetRepository {
+
+    private final WidgetRepository delegate;
+    private final int tileSize;
+    private final int maxTilesPerBoard;
+    private final int maxTilesPerQuery;
+    private final Cache<String, TileGrid> grids;
+    // bumped after every committed write to the board, a load that saw it change may hold data older than the write
+    private final Map<String, AtomicLong> writes = new ConcurrentHashMap<>();
+    // patches of the write group of the current thread, its writes are not visible to other threads yet
+    private final ThreadLocal<List<Runnable>> groupPatches = new ThreadLocal<>();
+
+    protected TiledAreaDataset(WidgetRepository delegate, int tileSize, int maxTilesPerBoard, int maxTilesPerQuery, long maxBoards) {
+        if (maxTilesPerQuery > maxTilesPerBoard) {
+            throw new IllegalArgumentException(String.format(
+                    "The tiles per query <%d> can't be more than the tiles kept per board <%d>", maxTilesPerQuery, maxTilesPerBoard
+            ));
+        }
+
+        this.delegate = delegate;
+        this.tileSize = tileSize;
+        this.maxTilesPerBoard = maxTilesPerBoard;
+        this.maxTilesPerQuery = maxTilesPerQuery;
+        this.grids = Caffeine.newBuilder().maximumSize(maxBoards).build();
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAllWithinArea(String boardId, FilterArea filterArea) {
+        long fromX = (long) filterArea.getLowerLeft().getXAxis() + 1;
+        long toX = (long) filterArea.getUpperRight().getXAxis() - 1;
+        long fromY = (long) filterArea.getLowerLeft().getYAxis() + 1;
+        long toY = (long) filterArea.getUpperRight().getYAxis() - 1;
+        if (fromX > toX || fromY > toY) {
+            return TreeSet.empty();
+        }
+
+        var grid = grids.get(boardId, id -> new TileGrid(tileSize, maxTilesPerBoard));
+        var range = new TileGrid.TileRange(grid.tile(fromX), grid.tile(toX), grid.tile(fromY), grid.tile(toY));
+        var block = block(grid, range);
+        if (range.tiles() > maxTilesPerQuery || !block.isPresent() || groupPatches.get() != null) {
+            count("bypass");
+            return delegate.listAllWithinArea(boardId, filterArea);
+        }
+
+        var found = new ArrayList<Widget>();
+        synchronized (grid) {
+            if (grid.collect(range, filterArea, found)) {
+                count("hit");
+                return TreeSet.fromIterable(found);
+            }
+        }
+
+        count("miss");
+        var boardWrites = writes(boardId);
+        long seenWrites = boardWrites.get();
+        var loaded = delegate.listAllWithinArea(boardId, block.orElse(null));
+        synchronized (grid) {
+            if (boardWrites.get() == seenWrites) {
+                grid.load(range, loaded);
+            }
+        }
+        return loaded.filter(widget -> withinArea(widget, filterArea));
+    }
+
+    @Override
+    public Widget save(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        return savePatching(boardId, newWidget, collidedWidgets)._1();
+    }
+
+    // Only the widgets the save pushed up are read back, they sit right above the saved one
+    protected Tuple2<Widget, Option<ZIndexRun>> savePatching(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        Tuple2<Widget, Option<ZIndexRun>> saved;
+        try {
+            saved = delegateSave(boardId, newWidget, collidedWidgets);
+        } finally {
+            writes(boardId).incrementAndGet();
+        }
+
+        var savedId = saved._1().getId();
+        patch(boardId, grid -> {
+            grid.remove(savedId);
+            delegate.findById(boardId, savedId).forEach(grid::patch);
+            saved._2().forEach(run -> delegate.listAfterZIndex(boardId, Option.some(run.getRunStart()), run.getRunEnd() - run.getRunStart() + 1)
+                                              .forEach(grid::patch));
+        });
+        return saved;
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> saveBatch(String boardId, WidgetChanges changes) {
+        try {
+            return delegate.saveBatch(boardId, changes);
+        } finally {
+            writes(boardId).incrementAndGet();
+            grids.invalidate(boardId);
+        }
+    }
+
+    @Override
+    public long importWidgets(String boardId, Iterator<Widget> widgets, int chunkSize) {
+        try {
+            return delegate.importWidgets(boardId, widgets, chunkSize);
+        } finally {
+            writes(boardId).incrementAndGet();
+            grids.invalidate(boardId);
+        }
+    }
+
+    @Override
+    public Widget delete(String boardId, UUID widgetId) {
+        try {
+            return delegate.delete(boardId, widgetId);
+        } finally {
+            writes(boardId).incrementAndGet();
+            patch(boardId, grid -> grid.remove(widgetId));
+        }
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAll(String boardId, Pageable pageRequest) {
+        return delegate.listAll(boardId, pageRequest);
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+        return delegate.listAfterZIndex(boardId, afterZIndex, limit);
+    }
+
+    @Override
+    public Integer findLargestZIndex(String boardId) {
+        return delegate.findLargestZIndex(boardId);
+    }
+
+    @Override
+    public long boardVersion(String boardId) {
+        return delegate.boardVersion(boardId);
+    }
+
+    @Override
+    public long writtenVersion(String boardId) {
+        return delegate.writtenVersion(boardId);
+    }
+
+    @Override
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(String boardId, Integer zIndex) {
+        return delegate.findFromZIndexUntilGap(boardId, zIndex);
+    }
+
+    @Override
+    public Option<Widget> findById(String boardId, UUID id) {
+        return delegate.findById(boardId, id);
+    }
+
+    @Override
+    public void forEachWidget(String boardId, Consumer<Widget> action) {
+        delegate.forEachWidget(boardId, action);
+    }
+
+    // Streams straight from the datasource, the tiles would hold the whole result at once
+    @Override
+    public void forEachWithinArea(String boardId, FilterArea filterArea, Consumer<Widget> action) {
+        delegate.forEachWithinArea(boardId, filterArea, action);
+    }
+
+    @Override
+    public void writeGroup(String boardId, Runnable writes) {
+        if (groupPatches.get() != null) {
+            delegate.writeGroup(boardId, writes);
+            return;
+        }
+
+        var patches = new ArrayList<Runnable>();
+        groupPatches.set(patches);
+        try {
+            delegate.writeGroup(boardId, writes);
+        } finally {
+            groupPatches.remove();
+            writes(boardId).incrementAndGet();
+            patches.forEach(Runnable::run);
+        }
+    }
+
+    // The saved widget and the z-indexes the save pushed up, from the saved one to the end of the run it collided with
+    protected abstract Tuple2<Widget, Option<ZIndexRun>> delegateSave(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets);
+
+    // Only boards with loaded tiles pay for reading the touched widgets back
+    private void patch(String boardId, Consumer<TileGrid> patch) {
+        var patches = groupPatches.get();
+        if (patches != null) {
+            patches.add(() -> patch(boardId, patch));
+            return;
+        }
+
+        var grid = grids.getIfPresent(boardId);
+        if (grid == null) {
+            return;
+        }
+
+        synchronized (grid) {
+            if (!grid.isEmpty()) {
+                patch.accept(grid);
+            }
+        }
+    }
+
+    // The area holding every middle point of the range, none when it doesn't fit the coordinates
+    private static Option<FilterArea> block(TileGrid grid, TileGrid.TileRange range) {
+        long lowerLeftX = grid.tileStart(range.fromX()) - 1;
+        long lowerLeftY = grid.tileStart(range.fromY()) - 1;
+        long upperRightX = grid.tileStart(range.toX() + 1);
+        long upperRightY = grid.tileStart(range.toY() + 1);
+        if (lowerLeftX < Integer.MIN_VALUE || lowerLeftY < Integer.MIN_VALUE || upperRightX > Integer.MAX_VALUE || upperRightY > Integer.MAX_VALUE) {
+            return Option.none();
+        }
+
+        return Option.some(new FilterArea(new Coordinates((int) lowerLeftX, (int) lowerLeftY), new Coordinates((int) upperRightX, (int) upperRightY)));
+    }
+
+    private AtomicLong writes(String boardId) {
+        return writes.computeIfAbsent(boardId, id -> new AtomicLong());
+    }
+
+    private static void count(String result) {
+        Metrics.counter("widgets.area_tiles", "result", result).increment();
+    }
+}
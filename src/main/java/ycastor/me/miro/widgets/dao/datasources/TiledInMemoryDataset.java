@@ -0,0 +1,41 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+@Component
+@Primary
+@ConditionalOnExpression("'${miro.datasource}' == 'IN_MEMORY' and '${miro.ordering:DENSE}' == 'DENSE' and '${miro.area-tiles:OFF}' == 'ON'")
+public class TiledInMemoryDataset extends TiledAreaDataset {
+
+    private final InMemoryDataset inMemoryDataset;
+
+    @Autowired
+    public TiledInMemoryDataset(
+            InMemoryDataset inMemoryDataset,
+            @Value("${miro.area-tiles-size:1000}") int tileSize,
+            @Value("${miro.area-tiles-per-board:4096}") int maxTilesPerBoard,
+            @Value("${miro.area-tiles-per-query:64}") int maxTilesPerQuery,
+            @Value("${miro.area-tiles-boards:256}") long maxBoards
+    ) {
+        super(inMemoryDataset, tileSize, maxTilesPerBoard, maxTilesPerQuery, maxBoards);
+        this.inMemoryDataset = inMemoryDataset;
+    }
+
+    // The collided widgets come already pushed up, one z-index above where the run was
+    @Override
+    protected Tuple2<Widget, Option<ZIndexRun>> delegateSave(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        var saved = inMemoryDataset.save(boardId, newWidget, collidedWidgets);
+        var shifted = collidedWidgets.first().map(bottom -> new ZIndexRun(bottom.getZIndex() - 1, collidedWidgets.last().orElse(bottom).getZIndex() - 1));
+        return Tuple2.of(saved, shifted);
+    }
+}
@@ -0,0 +1,47 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+// Tiles are local like the SQL cache, so they are only coherent while a single instance writes the board
+@Component
+@Primary
+@ConditionalOnExpression("'${miro.datasource}' == 'SQL' and '${miro.area-tiles:OFF}' == 'ON' and '${miro.sql-cache:OFF}' == 'OFF'")
+public class TiledSqlDataset extends TiledAreaDataset implements SelfOrderingRepository {
+
+    private final SqlDataset sqlDataset;
+
+    @Autowired
+    public TiledSqlDataset(
+            SqlDataset sqlDataset,
+            @Value("${miro.area-tiles-size:1000}") int tileSize,
+            @Value("${miro.area-tiles-per-board:4096}") int maxTilesPerBoard,
+            @Value("${miro.area-tiles-per-query:64}") int maxTilesPerQuery,
+            @Value("${miro.area-tiles-boards:256}") long maxBoards
+    ) {
+        super(sqlDataset, tileSize, maxTilesPerBoard, maxTilesPerQuery, maxBoards);
+        this.sqlDataset = sqlDataset;
+    }
+
+    @Override
+    public Tuple2<Widget, Option<ZIndexRun>> saveReportingShift(String boardId, Widget newWidget) {
+        return savePatching(boardId, newWidget, TreeSet.empty());
+    }
+
+    // The datasource pushes the run up by itself and tells which z-indexes it moved
+    @Override
+    protected Tuple2<Widget, Option<ZIndexRun>> delegateSave(String boardId, Widget newWidget, ImmutableSortedSet<Widget> collidedWidgets) {
+        return sqlDataset.saveReportingShift(boardId, newWidget);
+    }
+}
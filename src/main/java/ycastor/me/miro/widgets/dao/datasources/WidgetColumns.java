@@ -0,0 +1,119 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.indexes.UuidIntMap;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+// The board as parallel primitive columns on heap, the middle points are stored so area scans read two int arrays
+final class WidgetColumns extends ZOrderedColumns {
+
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private long[] idMostBits = new long[INITIAL_CAPACITY];
+    private long[] idLeastBits = new long[INITIAL_CAPACITY];
+    private int[] xAxes = new int[INITIAL_CAPACITY];
+    private int[] yAxes = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private int[] xMiddles = new int[INITIAL_CAPACITY];
+    private int[] yMiddles = new int[INITIAL_CAPACITY];
+
+    // positions move on every insert, so ids map to the z-index and the position is binary searched from it
+    private final UuidIntMap zIndexById = new UuidIntMap();
+
+    @Override
+    Widget widgetAt(int position) {
+        return Widget.builder()
+                     .id(idAt(position))
+                     .zIndex(zIndexAt(position))
+                     .width(widths[position])
+                     .height(heights[position])
+                     .xAxis(xAxes[position])
+                     .yAxis(yAxes[position])
+                     .build();
+    }
+
+    @Override
+    int positionOf(UUID id) {
+        int zIndex = zIndexById.get(id, MISSING);
+        return zIndex == MISSING && !zIndexById.containsKey(id) ? -1 : positionOfZIndex(zIndex);
+    }
+
+    @Override
+    int within(FilterArea filterArea, int from, int to, int[] found) {
+        int minX = filterArea.getLowerLeft().getXAxis();
+        int maxX = filterArea.getUpperRight().getXAxis();
+        int minY = filterArea.getLowerLeft().getYAxis();
+        int maxY = filterArea.getUpperRight().getYAxis();
+        int count = 0;
+
+        for (int position = from; position < to; position++) {
+            int x = xMiddles[position];
+            int y = yMiddles[position];
+            // non short-circuit, so the loop body has no branch but the store
+            found[count] = position;
+            count += (x > minX & x < maxX & y > minY & y < maxY) ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    @Override
+    protected UUID idAt(int position) {
+        return new UUID(idMostBits[position], idLeastBits[position]);
+    }
+
+    @Override
+    protected void rewritten(int position, Widget widget) {
+        write(position, widget);
+    }
+
+    @Override
+    protected void placed(int position, Widget widget) {
+        write(position, widget);
+    }
+
+    @Override
+    protected void removed(int position) {
+        zIndexById.remove(idAt(position));
+    }
+
+    @Override
+    protected void shiftColumns(int from, int to, int length) {
+        System.arraycopy(idMostBits, from, idMostBits, to, length);
+        System.arraycopy(idLeastBits, from, idLeastBits, to, length);
+        System.arraycopy(xAxes, from, xAxes, to, length);
+        System.arraycopy(yAxes, from, yAxes, to, length);
+        System.arraycopy(widths, from, widths, to, length);
+        System.arraycopy(heights, from, heights, to, length);
+        System.arraycopy(xMiddles, from, xMiddles, to, length);
+        System.arraycopy(yMiddles, from, yMiddles, to, length);
+    }
+
+    @Override
+    protected void growColumns(int capacity) {
+        idMostBits = Arrays.copyOf(idMostBits, capacity);
+        idLeastBits = Arrays.copyOf(idLeastBits, capacity);
+        xAxes = Arrays.copyOf(xAxes, capacity);
+        yAxes = Arrays.copyOf(yAxes, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        xMiddles = Arrays.copyOf(xMiddles, capacity);
+        yMiddles = Arrays.copyOf(yMiddles, capacity);
+    }
+
+    private void write(int position, Widget widget) {
+        idMostBits[position] = widget.getId().getMostSignificantBits();
+        idLeastBits[position] = widget.getId().getLeastSignificantBits();
+        xAxes[position] = widget.getXAxis();
+        yAxes[position] = widget.getYAxis();
+        widths[position] = widget.getWidth();
+        heights[position] = widget.getHeight();
+        xMiddles[position] = widget.xAxisMiddlePoint();
+        yMiddles[position] = widget.yAxisMiddlePoint();
+        zIndexById.put(widget.getId(), widget.getZIndex());
+    }
+}
@@ -0,0 +1,91 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import cyclops.control.Option;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+/*
+ * Statements over the widget tables and the planning of the writes that run them, shared by SqlDataset and
+ * R2dbcSqlDataset. Both write a board the same way and only differ in how they run the statements, blocking or not.
+ */
+final class WidgetSql {
+
+    static final String INSERT = "INSERT INTO widget (board_id, id, z_index, width, height, x_axis, y_axis, version)" +
+            " VALUES (:boardId, :id, :zIndex, :width, :height, :xAxis, :yAxis, :version)";
+    // only applies to the version the widget was read with
+    static final String UPDATE = "UPDATE widget SET z_index = :zIndex, width = :width, height = :height, x_axis = :xAxis, y_axis = :yAxis," +
+            " version = version + 1 WHERE board_id = :boardId AND id = :id AND version = :version";
+    static final String DELETE = "DELETE FROM widget WHERE board_id = :boardId AND id = :id AND version = :version";
+    // the run moves up as a whole, every row of it gets a new version
+    static final String SHIFT_UP = "UPDATE widget SET z_index = z_index + 1, version = version + 1" +
+            " WHERE board_id = :boardId AND z_index BETWEEN :fromZIndex AND :toZIndex";
+    static final String FIND_BY_ID = "SELECT * FROM widget WHERE board_id = :boardId AND id = :id";
+    static final String FIND_ALL_BY_ID = "SELECT * FROM widget WHERE board_id = :boardId AND id IN (:ids)";
+    static final String BOARD_IN_Z_ORDER = "SELECT * FROM widget WHERE board_id = :boardId ORDER BY z_index";
+    static final String FIND_PAGE = BOARD_IN_Z_ORDER + " LIMIT :limit OFFSET :offset";
+    static final String FIND_FROM_BOTTOM = BOARD_IN_Z_ORDER + " LIMIT :limit";
+    static final String FIND_AFTER_Z_INDEX = "SELECT * FROM widget WHERE board_id = :boardId AND z_index > :zIndex ORDER BY z_index LIMIT :limit";
+    static final String FIND_BETWEEN = "SELECT * FROM widget WHERE board_id = :boardId AND z_index BETWEEN :fromZIndex AND :toZIndex ORDER BY z_index";
+    static final String FIND_LARGEST_Z_INDEX = "SELECT z_index FROM widget WHERE board_id = :boardId ORDER BY z_index DESC LIMIT 1";
+    // x_middle and y_middle are computed columns, indexed together with the board
+    static final String WITHIN_AREA = " WHERE board_id = :boardId" +
+            " AND x_middle > :lowerLeftX" +
+            " AND x_middle < :topRightX" +
+            " AND y_middle > :lowerLeftY" +
+            " AND y_middle < :topRightY";
+
+    static final String FIND_RUN_FLOOR = "SELECT * FROM z_index_run WHERE board_id = :boardId AND run_start <= :zIndex ORDER BY run_start DESC LIMIT 1";
+    static final String FIND_RUN_STARTING_AT = "SELECT * FROM z_index_run WHERE board_id = :boardId AND run_start = :runStart";
+    static final String INSERT_RUN = "INSERT INTO z_index_run (board_id, run_start, run_end) VALUES (:boardId, :runStart, :runEnd)";
+    // runs are only changed if they still end where they were read
+    static final String UPDATE_RUN_END = "UPDATE z_index_run SET run_end = :runEnd WHERE board_id = :boardId AND run_start = :runStart AND run_end = :readRunEnd";
+    static final String DELETE_RUN = "DELETE FROM z_index_run WHERE board_id = :boardId AND run_start = :runStart AND run_end = :runEnd";
+
+    static final String BOARD_VERSION = "SELECT version FROM board_version WHERE board_id = :boardId";
+    static final String READ_IMPORTS = "SELECT imports FROM board_version WHERE board_id = :boardId";
+    // a board imported since the write read it is left as is, the version insert that follows then fails as a conflict
+    static final String BUMP_VERSION = "UPDATE board_version SET version = version + 1 WHERE board_id = :boardId AND imports = :imports";
+    static final String INSERT_VERSION = "INSERT INTO board_version (board_id, version) VALUES (:boardId, 1)";
+
+    // A widget saved into the run it collides with is pushed up with it, one more version of its row
+    static boolean shiftsItself(Option<Widget> previous, int zIndex, Option<ZIndexRun> shiftedRun) {
+        return previous.filter(widget -> shiftedRun.filter(run -> widget.getZIndex() >= zIndex && widget.getZIndex() <= run.getRunEnd()).isPresent())
+                       .isPresent();
+    }
+
+    // Where the saved widget was before the save, after its own shift
+    static int releasedZIndex(Widget previous, boolean shiftedItself) {
+        return shiftedItself ? previous.getZIndex() + 1 : previous.getZIndex();
+    }
+
+    // The z-indexes a save pushes up, from the saved one to the end of the run it collided with
+    static Option<ZIndexRun> shiftedRange(int zIndex, Option<ZIndexRun> shiftedRun) {
+        return shiftedRun.map(run -> new ZIndexRun(zIndex, run.getRunEnd()));
+    }
+
+    // A shift that moved any other number of rows interleaved with a concurrent write
+    static boolean shiftedWholeRun(int shiftedRows, int fromZIndex, int runEnd) {
+        return shiftedRows == runEnd - fromZIndex + 1;
+    }
+
+    // The version the caller planned the write against, or the one read by the write itself
+    static long readVersion(Widget widget, Widget read) {
+        return widget.getVersion() != null ? widget.getVersion() : read.getVersion();
+    }
+
+    static Set<Integer> zIndexesOf(Iterable<Widget> widgets) {
+        var zIndexes = new HashSet<Integer>();
+        widgets.forEach(widget -> zIndexes.add(widget.getZIndex()));
+        return zIndexes;
+    }
+
+    // Z-indexes of a batch that are taken in the first set and not in the second, released or occupied by it
+    static List<Integer> onlyIn(Set<Integer> zIndexes, Set<Integer> others) {
+        return zIndexes.stream().filter(zIndex -> !others.contains(zIndex)).collect(Collectors.toList());
+    }
+}
@@ -1,28 +1,48 @@
 package ycastor.me.miro.widgets.dao.datasources;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Optional;
 import java.util.UUID;
 
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 import ycastor.me.miro.widgets.dao.models.Widget;
 
+// Every query is scoped to a board, widgets are keyed by board and id and a widget is only found on its own
 @ConditionalOnProperty(value = "miro.datasource", havingValue = "SQL")
 public interface WidgetSqlRepository extends PagingAndSortingRepository<Widget, UUID> {
 
-    @Query("SELECT w.z_index FROM widget w ORDER BY w.z_index DESC LIMIT 1")
-    Integer findLargestZIndex();
+    @Query(WidgetSql.FIND_BY_ID)
+    Optional<Widget> findById(String boardId, UUID id);
 
-    Set<Widget> findAllByzIndexGreaterThanEqual(Integer zindex);
+    @Query(WidgetSql.FIND_ALL_BY_ID)
+    List<Widget> findAllById(String boardId, Collection<UUID> ids);
 
-    @Query("SELECT * FROM widget" +
-            " WHERE x_axis + (height / 2) > :lowerLeftX" +
-            " AND x_axis + (height / 2) < :topRightX" +
-            " AND y_axis + (width / 2) > :lowerLeftY" +
-            " AND y_axis + (width / 2) < :topRightY")
-    List<Widget> findAllWithinArea(int lowerLeftX, int lowerLeftY, int topRightX, int topRightY);
+    @Query(WidgetSql.FIND_PAGE)
+    List<Widget> findPage(String boardId, long offset, int limit);
+
+    @Query(WidgetSql.FIND_LARGEST_Z_INDEX)
+    Integer findLargestZIndex(String boardId);
+
+    @Query(WidgetSql.FIND_BETWEEN)
+    List<Widget> findAllByzIndexBetween(String boardId, int fromZIndex, int toZIndex);
+
+    @Query(WidgetSql.FIND_FROM_BOTTOM)
+    List<Widget> findAllFromBottom(String boardId, int limit);
+
+    @Query(WidgetSql.FIND_AFTER_Z_INDEX)
+    List<Widget> findAllAfterZIndex(String boardId, int zIndex, int limit);
+
+    @Query("SELECT * FROM widget" + WidgetSql.WITHIN_AREA)
+    List<Widget> findAllWithinArea(String boardId, int lowerLeftX, int lowerLeftY, int topRightX, int topRightY);
+
+    // false when the widget was changed or deleted since it was read with that version
+    @Modifying
+    @Query(WidgetSql.DELETE)
+    boolean deleteById(String boardId, UUID id, long version);
 
 }
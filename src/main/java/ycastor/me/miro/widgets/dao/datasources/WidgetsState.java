@@ -0,0 +1,223 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import cyclops.data.tuple.Tuple;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.utils.AvlTree;
+import ycastor.me.miro.utils.SortedSets;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.indexes.WidgetQuadTree;
+import ycastor.me.miro.widgets.dao.indexes.ZIndexRuns;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+public final class WidgetsState {
+
+    private static final Comparator<Integer> Z_ORDER = Comparator.naturalOrder();
+    // the id index is a tree too, cyclops' HashMap 10.4 loses other entries when removing keys
+    private static final Comparator<UUID> ID_ORDER = Comparator.naturalOrder();
+
+    private static final WidgetsState EMPTY = new WidgetsState(
+            AvlTree.empty(Z_ORDER), AvlTree.empty(ID_ORDER), WidgetQuadTree.empty(), ZIndexRuns.empty(), 0
+    );
+
+    // by z-index, both indexes rebalance so creating on top of the board keeps them O(log n) deep
+    private final AvlTree<Integer, Widget> widgets;
+    private final AvlTree<UUID, Widget> widgetsById;
+    private final WidgetQuadTree widgetsByArea;
+    private final ZIndexRuns zIndexRuns;
+    // every state derived from this one by a write has the next version
+    private final long version;
+
+    private WidgetsState(
+            AvlTree<Integer, Widget> widgets,
+            AvlTree<UUID, Widget> widgetsById,
+            WidgetQuadTree widgetsByArea,
+            ZIndexRuns zIndexRuns,
+            long version
+    ) {
+        this.widgets = widgets;
+        this.widgetsById = widgetsById;
+        this.widgetsByArea = widgetsByArea;
+        this.zIndexRuns = zIndexRuns;
+        this.version = version;
+    }
+
+    public static WidgetsState empty() {
+        return EMPTY;
+    }
+
+    public ImmutableSortedSet<Widget> widgets() {
+        return SortedSets.fromIterable(widgets::values);
+    }
+
+    public int size() {
+        return widgetsById.size();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public Option<Widget> findById(UUID id) {
+        return widgetsById.get(id);
+    }
+
+    public ImmutableSortedSet<Widget> findPage(int offset, int limit) {
+        return firstOf(widgets.valuesFromPosition(offset), limit);
+    }
+
+    public ImmutableSortedSet<Widget> findAfterZIndex(Option<Integer> afterZIndex, int limit) {
+        var iterator = afterZIndex.fold(zIndex -> widgets.valuesFrom(zIndex, false), widgets::values);
+        return firstOf(iterator, limit);
+    }
+
+    // Walks the snapshot in z-order, writes published meanwhile are not seen
+    public void forEach(Consumer<Widget> action) {
+        widgets.values().forEachRemaining(action);
+    }
+
+    public ImmutableSortedSet<Widget> findWithinArea(FilterArea filterArea) {
+        return widgetsByArea.within(filterArea);
+    }
+
+    public Option<Widget> findLargest() {
+        return widgets.last().map(Tuple2::_2);
+    }
+
+    public ImmutableSortedSet<Widget> findFromZIndexUntilGap(int zIndex) {
+        return zIndexRuns.runEnd(zIndex).<ImmutableSortedSet<Widget>>fold(runEnd -> {
+            var found = new ArrayList<Widget>();
+            var iterator = widgets.valuesFrom(zIndex, true);
+
+            while (iterator.hasNext()) {
+                var widget = iterator.next();
+                if (widget.getZIndex() > runEnd) {
+                    break;
+                }
+                found.add(widget);
+            }
+
+            return SortedSets.fromIterable(found);
+        }, () -> TreeSet.empty());
+    }
+
+    public WidgetsState put(Widget widget) {
+        return putAll(Vector.of(widget));
+    }
+
+    // Previous versions are removed before adding, so shifted widgets can move into z-indexes released by the same batch
+    public WidgetsState putAll(Iterable<Widget> changed) {
+        var latest = new LinkedHashMap<UUID, Widget>();
+        changed.forEach(widget -> latest.put(widget.getId(), widget));
+
+        var updatedWidgets = widgets;
+        var updatedById = widgetsById;
+        var updatedByArea = widgetsByArea;
+        var releasedZIndexes = new HashSet<Integer>();
+        var occupiedZIndexes = new HashSet<Integer>();
+
+        for (Widget widget : latest.values()) {
+            var previous = widgetsById.get(widget.getId());
+            if (previous.isPresent()) {
+                var previousWidget = previous.orElse(null);
+                updatedWidgets = updatedWidgets.minus(previousWidget.getZIndex());
+                updatedByArea = updatedByArea.remove(previousWidget);
+                releasedZIndexes.add(previousWidget.getZIndex());
+            }
+        }
+
+        for (Widget widget : latest.values()) {
+            if (updatedWidgets.get(widget.getZIndex()).isPresent()) {
+                throw new WidgetsChangedException(widget.getId());
+            }
+            updatedWidgets = updatedWidgets.plus(widget.getZIndex(), widget);
+            updatedById = updatedById.plus(widget.getId(), widget);
+            updatedByArea = updatedByArea.insert(widget);
+            if (!releasedZIndexes.remove(widget.getZIndex())) {
+                occupiedZIndexes.add(widget.getZIndex());
+            }
+        }
+
+        var updatedRuns = zIndexRuns;
+        for (Integer zIndex : releasedZIndexes) {
+            updatedRuns = updatedRuns.release(zIndex);
+        }
+        for (Integer zIndex : occupiedZIndexes) {
+            updatedRuns = updatedRuns.occupy(zIndex);
+        }
+
+        return new WidgetsState(updatedWidgets, updatedById, updatedByArea, updatedRuns, version + 1);
+    }
+
+    // Bulk load of widgets above every widget of the state, in ascending z-order and with ids not on the board yet.
+    // Nothing is replaced or shifted, so each widget is only inserted and the runs only grow at their top
+    public WidgetsState appendAll(Iterable<Widget> widgets) {
+        if (this.widgets.isEmpty()) {
+            return loadedInto(widgets);
+        }
+
+        var updatedWidgets = this.widgets;
+        var updatedById = widgetsById;
+        var updatedByArea = widgetsByArea;
+        var updatedRuns = zIndexRuns;
+
+        for (Widget widget : widgets) {
+            updatedWidgets = updatedWidgets.plus(widget.getZIndex(), widget);
+            updatedById = updatedById.plus(widget.getId(), widget);
+            updatedByArea = updatedByArea.insert(widget);
+            updatedRuns = updatedRuns.occupy(widget.getZIndex());
+        }
+
+        return new WidgetsState(updatedWidgets, updatedById, updatedByArea, updatedRuns, version + 1);
+    }
+
+    // Into an empty state both trees are built bottom-up from the sorted widgets, instead of one insert per widget
+    private WidgetsState loadedInto(Iterable<Widget> widgets) {
+        var byZIndex = new ArrayList<Tuple2<Integer, Widget>>();
+        var byId = new ArrayList<Tuple2<UUID, Widget>>();
+        var updatedByArea = widgetsByArea;
+        var updatedRuns = zIndexRuns;
+
+        for (Widget widget : widgets) {
+            byZIndex.add(Tuple.tuple(widget.getZIndex(), widget));
+            byId.add(Tuple.tuple(widget.getId(), widget));
+            updatedByArea = updatedByArea.insert(widget);
+            updatedRuns = updatedRuns.occupy(widget.getZIndex());
+        }
+        byId.sort((first, second) -> ID_ORDER.compare(first._1(), second._1()));
+
+        return new WidgetsState(AvlTree.fromSorted(Z_ORDER, byZIndex), AvlTree.fromSorted(ID_ORDER, byId), updatedByArea, updatedRuns, version + 1);
+    }
+
+    public WidgetsState remove(Widget widget) {
+        return new WidgetsState(
+                widgets.minus(widget.getZIndex()),
+                widgetsById.minus(widget.getId()),
+                widgetsByArea.remove(widget),
+                zIndexRuns.release(widget.getZIndex()),
+                version + 1
+        );
+    }
+
+    private static ImmutableSortedSet<Widget> firstOf(Iterator<Widget> iterator, int limit) {
+        var found = new ArrayList<Widget>(limit);
+
+        while (iterator.hasNext() && found.size() < limit) {
+            found.add(iterator.next());
+        }
+
+        return SortedSets.fromIterable(found);
+    }
+}
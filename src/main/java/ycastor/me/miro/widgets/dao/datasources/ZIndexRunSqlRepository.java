@@ -0,0 +1,35 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.Optional;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+// Runs are keyed by board and run start, the inherited id based methods would mix the boards up.
+// Runs are only changed if they still end where they were read, false when a concurrent write changed them first
+@ConditionalOnProperty(value = "miro.datasource", havingValue = "SQL")
+public interface ZIndexRunSqlRepository extends CrudRepository<ZIndexRun, Integer> {
+
+    @Query(WidgetSql.FIND_RUN_FLOOR)
+    Optional<ZIndexRun> findFloor(String boardId, int zIndex);
+
+    @Query(WidgetSql.FIND_RUN_STARTING_AT)
+    Optional<ZIndexRun> findStartingAt(String boardId, int runStart);
+
+    @Modifying
+    @Query(WidgetSql.INSERT_RUN)
+    void insert(String boardId, int runStart, int runEnd);
+
+    @Modifying
+    @Query(WidgetSql.UPDATE_RUN_END)
+    boolean updateRunEnd(String boardId, int runStart, int readRunEnd, int runEnd);
+
+    @Modifying
+    @Query(WidgetSql.DELETE_RUN)
+    boolean delete(String boardId, int runStart, int runEnd);
+
+}
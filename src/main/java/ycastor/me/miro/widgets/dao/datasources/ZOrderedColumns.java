@@ -0,0 +1,183 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+/*
+ * A board kept by position in a sorted z-index column, a widget's position is its place in the z-order. Subclasses
+ * decide where the rest of the widget lives and move it along with the positions. Mutable and not thread safe,
+ * the dataset guards it.
+ */
+abstract class ZOrderedColumns {
+
+    static final int INITIAL_CAPACITY = 64;
+
+    private int[] zIndexes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    int zIndexAt(int position) {
+        return zIndexes[position];
+    }
+
+    // Negative when the z-index is free, as Arrays.binarySearch
+    int positionOfZIndex(int zIndex) {
+        return Arrays.binarySearch(zIndexes, 0, size, zIndex);
+    }
+
+    int firstPositionAbove(int zIndex) {
+        int position = positionOfZIndex(zIndex);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    // Last position of the contiguous z-index run that holds the given position
+    int runEnd(int position) {
+        int end = position;
+        while (end + 1 < size && zIndexes[end + 1] == zIndexes[end] + 1) {
+            end++;
+        }
+        return end;
+    }
+
+    abstract Widget widgetAt(int position);
+
+    // -1 when the widget is not on the board
+    abstract int positionOf(UUID id);
+
+    // Writes the positions in [from, to) whose middle point is strictly inside the area, returns how many were found
+    abstract int within(FilterArea filterArea, int from, int to, int[] found);
+
+    /*
+     * Removes the given ids and puts the changed widgets, replacing their previous versions. The change is checked
+     * before any column is touched, so a conflict leaves the board as it was. Widgets that move without passing a
+     * neighbour are rewritten in place, from the top down, which is how a collided run shifts up.
+     */
+    void apply(Iterable<UUID> removedIds, Iterable<Widget> changed) {
+        var latest = new LinkedHashMap<UUID, Widget>();
+        changed.forEach(widget -> latest.put(widget.getId(), widget));
+
+        var leaving = new HashSet<UUID>(latest.keySet());
+        removedIds.forEach(leaving::add);
+
+        var claimed = new HashSet<Integer>();
+        for (Widget widget : latest.values()) {
+            int occupant = positionOfZIndex(widget.getZIndex());
+            if (!claimed.add(widget.getZIndex()) || (occupant >= 0 && !leaving.contains(idAt(occupant)))) {
+                throw new WidgetsChangedException(widget.getId());
+            }
+        }
+
+        var topDown = new ArrayList<>(latest.values());
+        topDown.sort(Comparator.<Widget>naturalOrder().reversed());
+
+        var moving = new ArrayList<Widget>();
+        for (Widget widget : topDown) {
+            int position = positionOf(widget.getId());
+            if (position >= 0 && fitsAt(position, widget.getZIndex())) {
+                zIndexes[position] = widget.getZIndex();
+                rewritten(position, widget);
+            } else {
+                moving.add(widget);
+            }
+        }
+
+        var leavingPositions = new ArrayList<Integer>();
+        removedIds.forEach(id -> leavingPositions.add(positionOf(id)));
+        moving.forEach(widget -> leavingPositions.add(positionOf(widget.getId())));
+
+        removeAll(leavingPositions);
+        moving.sort(Comparator.naturalOrder());
+        insertAll(moving);
+    }
+
+    protected abstract UUID idAt(int position);
+
+    // The widget at the position changed, its z-index already moved without passing a neighbour
+    protected abstract void rewritten(int position, Widget widget);
+
+    // A new position was opened for the widget, the columns above it were already shifted
+    protected abstract void placed(int position, Widget widget);
+
+    // The widget at the position is leaving, called before any position shifts
+    protected abstract void removed(int position);
+
+    protected abstract void shiftColumns(int from, int to, int length);
+
+    protected abstract void growColumns(int capacity);
+
+    // Loads widgets already sorted by z-index, used when a store reopens
+    protected void appendSorted(int zIndex) {
+        if (size == zIndexes.length) {
+            grow(zIndexes.length + (zIndexes.length >> 1));
+        }
+        zIndexes[size++] = zIndex;
+    }
+
+    private boolean fitsAt(int position, int zIndex) {
+        return (position == 0 || zIndexes[position - 1] < zIndex) && (position == size - 1 || zIndexes[position + 1] > zIndex);
+    }
+
+    // One pass over the board, every widget above a removed one moves down once
+    private void removeAll(List<Integer> leavingPositions) {
+        var positions = leavingPositions.stream().mapToInt(Integer::intValue).filter(position -> position >= 0).sorted().distinct().toArray();
+        if (positions.length == 0) {
+            return;
+        }
+
+        for (int position : positions) {
+            removed(position);
+        }
+
+        int target = positions[0];
+        for (int i = 0; i < positions.length; i++) {
+            int from = positions[i] + 1;
+            int length = (i + 1 < positions.length ? positions[i + 1] : size) - from;
+
+            System.arraycopy(zIndexes, from, zIndexes, target, length);
+            shiftColumns(from, target, length);
+            target += length;
+        }
+
+        size -= positions.length;
+    }
+
+    // Merges the widgets, sorted by z-index, from the top down, so every widget already there moves up once
+    private void insertAll(List<Widget> widgets) {
+        if (size + widgets.size() > zIndexes.length) {
+            grow(Math.max(size + widgets.size(), zIndexes.length + (zIndexes.length >> 1)));
+        }
+
+        int end = size;
+        for (int i = widgets.size() - 1; i >= 0; i--) {
+            var widget = widgets.get(i);
+            int insertion = -Arrays.binarySearch(zIndexes, 0, end, widget.getZIndex()) - 1;
+            int length = end - insertion;
+
+            System.arraycopy(zIndexes, insertion, zIndexes, insertion + i + 1, length);
+            shiftColumns(insertion, insertion + i + 1, length);
+
+            zIndexes[insertion + i] = widget.getZIndex();
+            placed(insertion + i, widget);
+            end = insertion;
+        }
+
+        size += widgets.size();
+    }
+
+    private void grow(int capacity) {
+        zIndexes = Arrays.copyOf(zIndexes, capacity);
+        growColumns(capacity);
+    }
+}
@@ -0,0 +1,434 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import cyclops.control.Option;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+/*
+ * Persistent treap keyed by sparse rank keys. Every node keeps the number of free z-indexes between its predecessor and
+ * itself (its gap), and every subtree keeps its size and the sum of its gaps, so the z-index of a widget is derived as
+ * ORIGIN + ordinal + gaps up to it. Inserting in the middle of a run only touches the new node, the occupant and the
+ * first node after the run, instead of shifting every widget up to the gap.
+ */
+public final class RankedZOrder {
+
+    public static final long RANK_STRIDE = 1L << 20;
+    // below this distance between neighbour ranks the order should be rebalanced soon
+    public static final long CROWDED_DISTANCE = 1L << 10;
+
+    private static final long ORIGIN = Integer.MIN_VALUE;
+    private static final long LOWEST_RANK = -(1L << 61);
+    private static final long HIGHEST_RANK = 1L << 61;
+
+    private static final RankedZOrder EMPTY = new RankedZOrder(null);
+
+    private final Node root;
+
+    private RankedZOrder(Node root) {
+        this.root = root;
+    }
+
+    public static RankedZOrder empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public Option<Placed> find(long rank) {
+        var node = root;
+        int ordinalBefore = 0;
+        long gapsBefore = 0;
+
+        while (node != null) {
+            if (rank < node.rank) {
+                node = node.left;
+            } else if (rank > node.rank) {
+                ordinalBefore += size(node.left) + 1;
+                gapsBefore += gapSum(node.left) + node.gap;
+                node = node.right;
+            } else {
+                return Option.some(placed(node, ordinalBefore, gapsBefore));
+            }
+        }
+
+        return Option.none();
+    }
+
+    public Option<Placed> last() {
+        return size() == 0 ? Option.none() : Option.some(select(size() - 1));
+    }
+
+    // First widget whose z-index is greater than or equal to the given one
+    public Option<Placed> ceiling(long zIndex) {
+        var node = root;
+        int ordinalBefore = 0;
+        long gapsBefore = 0;
+        Placed candidate = null;
+
+        while (node != null) {
+            var current = placed(node, ordinalBefore, gapsBefore);
+            if (current.zIndex >= zIndex) {
+                candidate = current;
+                node = node.left;
+            } else {
+                ordinalBefore += size(node.left) + 1;
+                gapsBefore += gapSum(node.left) + node.gap;
+                node = node.right;
+            }
+        }
+
+        return Option.ofNullable(candidate);
+    }
+
+    // Last z-index of the run holding the given one, the widgets an insert at it pushes up. None when it is free
+    public Option<Integer> runEndFrom(int zIndex) {
+        return ceiling(zIndex).filter(occupant -> occupant.zIndex == zIndex).map(occupant -> {
+            var closing = firstGapAfter(occupant.ordinal);
+            return (int) (closing != null ? closing.zIndex - closing.gap - 1 : select(size() - 1).zIndex);
+        });
+    }
+
+    // Widgets in z-order starting at the given ordinal, each one carrying its derived z-index
+    public Iterator<Placed> from(int ordinal) {
+        if (ordinal >= size()) {
+            return new ArrayDeque<Placed>().iterator();
+        }
+
+        var first = select(ordinal);
+        var path = new ArrayDeque<Node>();
+        var node = root;
+
+        while (node != null) {
+            if (first.rank <= node.rank) {
+                path.push(node);
+                if (first.rank == node.rank) {
+                    break;
+                }
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        return new Iterator<>() {
+            private long previousZIndex = first.zIndex - 1 - first.gap;
+            private int nextOrdinal = ordinal;
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Placed next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+
+                var current = path.pop();
+                var right = current.right;
+                while (right != null) {
+                    path.push(right);
+                    right = right.left;
+                }
+
+                previousZIndex = previousZIndex + 1 + current.gap;
+                return new Placed(current.rank, current.widget, nextOrdinal++, previousZIndex, current.gap);
+            }
+        };
+    }
+
+    /*
+     * Places the widget at the z-index, pushing the occupant (and the rest of its run) one z-index up.
+     * Returns none when there is no free rank left between the neighbours, the order must be rebalanced first.
+     */
+    public Option<Inserted> insert(int zIndex, Widget widget) {
+        var successor = ceiling(zIndex);
+
+        if (successor.isPresent()) {
+            var next = successor.orElse(null);
+            // in front of everything a whole stride is taken, like when appending
+            long previousRank = next.ordinal == 0 ? Math.max(next.rank - 2 * RANK_STRIDE, LOWEST_RANK) : select(next.ordinal - 1).rank;
+
+            if (next.rank - previousRank < 2) {
+                return Option.none();
+            }
+
+            long rank = next.ordinal == 0 ? next.rank - (next.rank - previousRank) / 2 : previousRank + (next.rank - previousRank) / 2;
+            boolean crowded = next.rank - previousRank < CROWDED_DISTANCE;
+
+            if (next.zIndex == zIndex) {
+                var runEnd = firstGapAfter(next.ordinal);
+                var updated = withGap(root, next.rank, 0);
+                if (runEnd != null) {
+                    updated = withGap(updated, runEnd.rank, runEnd.gap - 1);
+                }
+                return Option.some(new Inserted(new RankedZOrder(insert(updated, new Node(rank, widget, next.gap))), rank, crowded));
+            }
+
+            long previousZIndex = next.zIndex - 1 - next.gap;
+            var updated = withGap(root, next.rank, next.zIndex - zIndex - 1);
+            return Option.some(new Inserted(new RankedZOrder(insert(updated, new Node(rank, widget, zIndex - previousZIndex - 1))), rank, crowded));
+        }
+
+        var last = last();
+        long previousZIndex = last.fold(it -> it.zIndex, () -> ORIGIN - 1);
+        long rank = last.fold(it -> it.rank + RANK_STRIDE, () -> 0L);
+
+        if (rank > HIGHEST_RANK) {
+            return Option.none();
+        }
+
+        return Option.some(new Inserted(new RankedZOrder(insert(root, new Node(rank, widget, zIndex - previousZIndex - 1))), rank, false));
+    }
+
+    // Removes the widget, leaving a free z-index behind without moving any other widget
+    public RankedZOrder remove(long rank) {
+        return find(rank).fold(removed -> {
+            var updated = root;
+
+            if (removed.ordinal + 1 < size()) {
+                var successor = select(removed.ordinal + 1);
+                updated = withGap(updated, successor.rank, successor.gap + removed.gap + 1);
+            }
+
+            return new RankedZOrder(remove(updated, rank));
+        }, () -> this);
+    }
+
+    // Spreads the rank keys evenly again, the z-indexes stay the same
+    public RankedZOrder rebalanced() {
+        Node rebuilt = null;
+        long rank = 0;
+        var iterator = from(0);
+
+        while (iterator.hasNext()) {
+            var placed = iterator.next();
+            rebuilt = insert(rebuilt, new Node(rank, placed.widget, placed.gap));
+            rank += RANK_STRIDE;
+        }
+
+        return new RankedZOrder(rebuilt);
+    }
+
+    private Placed select(int ordinal) {
+        var node = root;
+        int ordinalBefore = 0;
+        long gapsBefore = 0;
+
+        while (node != null) {
+            int leftSize = size(node.left);
+            int nodeOrdinal = ordinalBefore + leftSize;
+
+            if (ordinal < nodeOrdinal) {
+                node = node.left;
+            } else if (ordinal > nodeOrdinal) {
+                ordinalBefore = nodeOrdinal + 1;
+                gapsBefore += gapSum(node.left) + node.gap;
+                node = node.right;
+            } else {
+                return placed(node, ordinalBefore, gapsBefore);
+            }
+        }
+
+        throw new NoSuchElementException();
+    }
+
+    // The first widget after the given ordinal that has a free z-index right below it, i.e. the one closing the run
+    private Placed firstGapAfter(int ordinal) {
+        return firstGapFrom(root, ordinal + 1, 0, 0);
+    }
+
+    private static Placed firstGapFrom(Node node, int fromOrdinal, int ordinalBefore, long gapsBefore) {
+        if (node == null || node.gapSum == 0) {
+            return null;
+        }
+
+        int nodeOrdinal = ordinalBefore + size(node.left);
+        long gapsUntilNode = gapsBefore + gapSum(node.left) + node.gap;
+
+        if (nodeOrdinal < fromOrdinal) {
+            return firstGapFrom(node.right, fromOrdinal, nodeOrdinal + 1, gapsUntilNode);
+        }
+
+        var inLeft = firstGapFrom(node.left, fromOrdinal, ordinalBefore, gapsBefore);
+        if (inLeft != null) {
+            return inLeft;
+        }
+
+        if (node.gap > 0) {
+            return placed(node, ordinalBefore, gapsBefore);
+        }
+
+        return firstGapFrom(node.right, fromOrdinal, nodeOrdinal + 1, gapsUntilNode);
+    }
+
+    private static Placed placed(Node node, int ordinalBefore, long gapsBefore) {
+        int ordinal = ordinalBefore + size(node.left);
+        long zIndex = ORIGIN + ordinal + gapsBefore + gapSum(node.left) + node.gap;
+        return new Placed(node.rank, node.widget, ordinal, zIndex, node.gap);
+    }
+
+    private static Node withGap(Node node, long rank, long gap) {
+        if (node == null) {
+            return null;
+        }
+        if (rank < node.rank) {
+            return node.with(withGap(node.left, rank, gap), node.right);
+        }
+        if (rank > node.rank) {
+            return node.with(node.left, withGap(node.right, rank, gap));
+        }
+        return new Node(node.rank, node.priority, node.widget, gap, node.left, node.right);
+    }
+
+    private static Node insert(Node node, Node single) {
+        var parts = split(node, single.rank);
+        return merge(merge(parts[0], single), parts[1]);
+    }
+
+    private static Node remove(Node node, long rank) {
+        var lower = split(node, rank);
+        var upper = split(lower[1], rank + 1);
+        return merge(lower[0], upper[1]);
+    }
+
+    // [ranks lower than the given one, ranks greater than or equal to it]
+    private static Node[] split(Node node, long rank) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+
+        if (node.rank < rank) {
+            var parts = split(node.right, rank);
+            return new Node[]{node.with(node.left, parts[0]), parts[1]};
+        }
+
+        var parts = split(node.left, rank);
+        return new Node[]{parts[0], node.with(parts[1], node.right)};
+    }
+
+    private static Node merge(Node lower, Node upper) {
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
+        if (lower.priority > upper.priority) {
+            return lower.with(lower.left, merge(lower.right, upper));
+        }
+        return upper.with(merge(lower, upper.left), upper.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static long gapSum(Node node) {
+        return node == null ? 0 : node.gapSum;
+    }
+
+    public static final class Placed {
+        private final long rank;
+        private final Widget widget;
+        private final int ordinal;
+        private final long zIndex;
+        private final long gap;
+
+        private Placed(long rank, Widget widget, int ordinal, long zIndex, long gap) {
+            this.rank = rank;
+            this.widget = widget;
+            this.ordinal = ordinal;
+            this.zIndex = zIndex;
+            this.gap = gap;
+        }
+
+        public long rank() {
+            return rank;
+        }
+
+        public int ordinal() {
+            return ordinal;
+        }
+
+        public int zIndex() {
+            return (int) zIndex;
+        }
+
+        // a free z-index right below this widget means it starts a new run
+        public boolean startsRun() {
+            return gap > 0;
+        }
+
+        public Widget widget() {
+            return widget.getZIndex() == zIndex ? widget : widget.toBuilder().zIndex((int) zIndex).build();
+        }
+    }
+
+    public static final class Inserted {
+        private final RankedZOrder order;
+        private final long rank;
+        private final boolean crowded;
+
+        private Inserted(RankedZOrder order, long rank, boolean crowded) {
+            this.order = order;
+            this.rank = rank;
+            this.crowded = crowded;
+        }
+
+        public RankedZOrder order() {
+            return order;
+        }
+
+        public long rank() {
+            return rank;
+        }
+
+        public boolean crowded() {
+            return crowded;
+        }
+    }
+
+    private static final class Node {
+        private final long rank;
+        private final long priority;
+        private final Widget widget;
+        private final long gap;
+        private final Node left;
+        private final Node right;
+        private final int size;
+        private final long gapSum;
+
+        private Node(long rank, Widget widget, long gap) {
+            this(rank, priorityOf(rank), widget, gap, null, null);
+        }
+
+        private Node(long rank, long priority, Widget widget, long gap, Node left, Node right) {
+            this.rank = rank;
+            this.priority = priority;
+            this.widget = widget;
+            this.gap = gap;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+            this.gapSum = gapSum(left) + gapSum(right) + gap;
+        }
+
+        private Node with(Node left, Node right) {
+            return new Node(rank, priority, widget, gap, left, right);
+        }
+
+        // SplitMix64 finalizer, a deterministic but well spread heap priority for each rank
+        private static long priorityOf(long rank) {
+            long mixed = (rank ^ (rank >>> 30)) * 0xbf58476d1ce4e5b9L;
+            mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+            return mixed ^ (mixed >>> 31);
+        }
+    }
+}
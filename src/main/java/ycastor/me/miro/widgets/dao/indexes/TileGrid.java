@@ -0,0 +1,147 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+/*
+ * The widgets of one board bucketed by the square tile their middle point falls in, only for the tiles that were loaded.
+ * A widget lives in exactly one tile, so a query merges the tiles it overlaps and trims the ones on its edges.
+ * The least recently read tiles are dropped past the limit. Not thread safe, callers hold the grid while using it.
+ */
+public final class TileGrid {
+
+    private final int tileSize;
+    private final LinkedHashMap<Long, Map<UUID, Widget>> tiles;
+    private final Map<UUID, Long> tileOfWidget = new HashMap<>();
+
+    public TileGrid(int tileSize, int maxTiles) {
+        this.tileSize = tileSize;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<UUID, Widget>> eldest) {
+                if (size() <= maxTiles) {
+                    return false;
+                }
+                eldest.getValue().keySet().forEach(tileOfWidget::remove);
+                return true;
+            }
+        };
+    }
+
+    public long tile(long coordinate) {
+        return Math.floorDiv(coordinate, tileSize);
+    }
+
+    public long tileStart(long tile) {
+        return tile * tileSize;
+    }
+
+    // Adds the widgets of the tiles within the area to found, false as soon as one of the tiles was never loaded
+    public boolean collect(TileRange range, FilterArea filterArea, Collection<Widget> found) {
+        for (long tileX = range.fromX; tileX <= range.toX; tileX++) {
+            for (long tileY = range.fromY; tileY <= range.toY; tileY++) {
+                var tile = tiles.get(key(tileX, tileY));
+                if (tile == null) {
+                    return false;
+                }
+                boolean inner = tileX > range.fromX && tileX < range.toX && tileY > range.fromY && tileY < range.toY;
+                for (Widget widget : tile.values()) {
+                    if (inner || withinArea(widget, filterArea)) {
+                        found.add(widget);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Replaces every tile of the range with the widgets read for it, the widgets must be every one within the range
+    public void load(TileRange range, Iterable<Widget> widgets) {
+        for (long tileX = range.fromX; tileX <= range.toX; tileX++) {
+            for (long tileY = range.fromY; tileY <= range.toY; tileY++) {
+                var previous = tiles.put(key(tileX, tileY), new HashMap<>());
+                if (previous != null) {
+                    previous.keySet().forEach(tileOfWidget::remove);
+                }
+            }
+        }
+
+        for (Widget widget : widgets) {
+            var key = key(tile(widget.xAxisMiddlePoint()), tile(widget.yAxisMiddlePoint()));
+            var tile = tiles.get(key);
+            if (tile != null) {
+                tile.put(widget.getId(), widget);
+                tileOfWidget.put(widget.getId(), key);
+            }
+        }
+    }
+
+    // Moves the widget to the tile of its current middle point, it is only kept there when that tile is loaded
+    public void patch(Widget widget) {
+        remove(widget.getId());
+        var key = key(tile(widget.xAxisMiddlePoint()), tile(widget.yAxisMiddlePoint()));
+        var tile = tiles.get(key);
+        if (tile != null) {
+            tile.put(widget.getId(), widget);
+            tileOfWidget.put(widget.getId(), key);
+        }
+    }
+
+    public void remove(UUID widgetId) {
+        var key = tileOfWidget.remove(widgetId);
+        if (key != null) {
+            tiles.get(key).remove(widgetId);
+        }
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    private static long key(long tileX, long tileY) {
+        return (tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    // Inclusive tile indexes on both axes
+    public static final class TileRange {
+        private final long fromX;
+        private final long toX;
+        private final long fromY;
+        private final long toY;
+
+        public TileRange(long fromX, long toX, long fromY, long toY) {
+            this.fromX = fromX;
+            this.toX = toX;
+            this.fromY = fromY;
+            this.toY = toY;
+        }
+
+        public long tiles() {
+            return (toX - fromX + 1) * (toY - fromY + 1);
+        }
+
+        public long fromX() {
+            return fromX;
+        }
+
+        public long toX() {
+            return toX;
+        }
+
+        public long fromY() {
+            return fromY;
+        }
+
+        public long toY() {
+            return toY;
+        }
+    }
+}
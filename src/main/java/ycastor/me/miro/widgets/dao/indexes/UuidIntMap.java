@@ -0,0 +1,125 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.UUID;
+
+// Open addressing map from ids to ints kept in primitive arrays, deletions shift the probe chain back instead of leaving tombstones
+public final class UuidIntMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mostBits;
+    private long[] leastBits;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public UuidIntMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(UUID id, int missing) {
+        int slot = find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return slot < 0 ? missing : values[slot];
+    }
+
+    public boolean containsKey(UUID id) {
+        return find(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+    }
+
+    public void put(UUID id, int value) {
+        // kept at most half full, so probe chains stay short
+        if ((size + 1) * 2 > used.length) {
+            resize(used.length * 2);
+        }
+
+        insert(id.getMostSignificantBits(), id.getLeastSignificantBits(), value);
+    }
+
+    private void insert(long most, long least, int value) {
+        int mask = used.length - 1;
+        int slot = home(most, least, mask);
+
+        while (used[slot]) {
+            if (mostBits[slot] == most && leastBits[slot] == least) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        used[slot] = true;
+        mostBits[slot] = most;
+        leastBits[slot] = least;
+        values[slot] = value;
+        size++;
+    }
+
+    public void remove(UUID id) {
+        int free = find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (free < 0) {
+            return;
+        }
+
+        int mask = used.length - 1;
+        used[free] = false;
+        size--;
+
+        for (int slot = (free + 1) & mask; used[slot]; slot = (slot + 1) & mask) {
+            int home = home(mostBits[slot], leastBits[slot], mask);
+            // the entry may move back only if its home is not between the freed slot and where it sits
+            boolean reachable = free <= slot ? (home > free && home <= slot) : (home > free || home <= slot);
+            if (!reachable) {
+                used[free] = true;
+                mostBits[free] = mostBits[slot];
+                leastBits[free] = leastBits[slot];
+                values[free] = values[slot];
+                used[slot] = false;
+                free = slot;
+            }
+        }
+    }
+
+    private int find(long most, long least) {
+        int mask = used.length - 1;
+        for (int slot = home(most, least, mask); used[slot]; slot = (slot + 1) & mask) {
+            if (mostBits[slot] == most && leastBits[slot] == least) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        var oldMost = mostBits;
+        var oldLeast = leastBits;
+        var oldValues = values;
+        var oldUsed = used;
+
+        allocate(capacity);
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (oldUsed[slot]) {
+                insert(oldMost[slot], oldLeast[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostBits = new long[capacity];
+        leastBits = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        size = 0;
+    }
+
+    private static int home(long most, long least, int mask) {
+        long hash = most ^ Long.rotateLeft(least, 32);
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (hash ^ (hash >>> 33)) & mask;
+    }
+}
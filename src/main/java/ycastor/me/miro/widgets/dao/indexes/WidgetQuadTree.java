@@ -0,0 +1,205 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cyclops.data.ImmutableSortedSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.utils.SortedSets;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+// Persistent point quadtree over the widgets middle points, every change copies only the path to the touched leaf
+public final class WidgetQuadTree {
+
+    private static final int LEAF_CAPACITY = 16;
+    private static final long WORLD_MIN = Integer.MIN_VALUE;
+    private static final long WORLD_SIZE = 1L << 32;
+
+    private static final WidgetQuadTree EMPTY = new WidgetQuadTree(Leaf.EMPTY);
+
+    private final Node root;
+
+    private WidgetQuadTree(Node root) {
+        this.root = root;
+    }
+
+    public static WidgetQuadTree empty() {
+        return EMPTY;
+    }
+
+    public WidgetQuadTree insert(Widget widget) {
+        return new WidgetQuadTree(root.insert(WORLD_MIN, WORLD_MIN, WORLD_SIZE, widget));
+    }
+
+    public WidgetQuadTree remove(Widget widget) {
+        return new WidgetQuadTree(root.remove(WORLD_MIN, WORLD_MIN, WORLD_SIZE, widget));
+    }
+
+    public ImmutableSortedSet<Widget> within(FilterArea filterArea) {
+        return SortedSets.fromIterable(unorderedWithin(filterArea));
+    }
+
+    public List<Widget> unorderedWithin(FilterArea filterArea) {
+        var found = new ArrayList<Widget>();
+        root.collect(WORLD_MIN, WORLD_MIN, WORLD_SIZE, filterArea, found);
+        return found;
+    }
+
+    private static boolean intersects(long minX, long minY, long size, FilterArea filterArea) {
+        long maxX = minX + size - 1;
+        long maxY = minY + size - 1;
+        return minX < filterArea.getUpperRight().getXAxis() && maxX > filterArea.getLowerLeft().getXAxis()
+                && minY < filterArea.getUpperRight().getYAxis() && maxY > filterArea.getLowerLeft().getYAxis();
+    }
+
+    private static int quadrant(long minX, long minY, long size, Widget widget) {
+        long half = size / 2;
+        int east = widget.xAxisMiddlePoint() >= minX + half ? 1 : 0;
+        int north = widget.yAxisMiddlePoint() >= minY + half ? 2 : 0;
+        return east + north;
+    }
+
+    private interface Node {
+        Node insert(long minX, long minY, long size, Widget widget);
+
+        Node remove(long minX, long minY, long size, Widget widget);
+
+        void collect(long minX, long minY, long size, FilterArea filterArea, List<Widget> found);
+
+        void collectAll(List<Widget> found);
+
+        int size();
+    }
+
+    private static final class Leaf implements Node {
+        private static final Leaf EMPTY = new Leaf(Vector.empty());
+
+        private final Vector<Widget> widgets;
+
+        private Leaf(Vector<Widget> widgets) {
+            this.widgets = widgets;
+        }
+
+        @Override
+        public Node insert(long minX, long minY, long size, Widget widget) {
+            var appended = widgets.append(widget);
+
+            // a single-point cell can't be split any further, so it just keeps growing
+            if (appended.size() <= LEAF_CAPACITY || size == 1) {
+                return new Leaf(appended);
+            }
+
+            Node split = Branch.EMPTY;
+            for (Widget each : appended) {
+                split = split.insert(minX, minY, size, each);
+            }
+            return split;
+        }
+
+        @Override
+        public Node remove(long minX, long minY, long size, Widget widget) {
+            return new Leaf(widgets.removeFirst(it -> it.getId().equals(widget.getId())));
+        }
+
+        @Override
+        public void collect(long minX, long minY, long size, FilterArea filterArea, List<Widget> found) {
+            for (Widget widget : widgets) {
+                if (withinArea(widget, filterArea)) {
+                    found.add(widget);
+                }
+            }
+        }
+
+        @Override
+        public void collectAll(List<Widget> found) {
+            widgets.forEach(found::add);
+        }
+
+        @Override
+        public int size() {
+            return widgets.size();
+        }
+    }
+
+    private static final class Branch implements Node {
+        private static final Branch EMPTY = new Branch(new Node[]{Leaf.EMPTY, Leaf.EMPTY, Leaf.EMPTY, Leaf.EMPTY}, 0);
+
+        private final Node[] children;
+        private final int size;
+
+        private Branch(Node[] children, int size) {
+            this.children = children;
+            this.size = size;
+        }
+
+        @Override
+        public Node insert(long minX, long minY, long size, Widget widget) {
+            int quadrant = quadrant(minX, minY, size, widget);
+            long half = size / 2;
+            var updated = children.clone();
+            updated[quadrant] = children[quadrant].insert(childX(minX, half, quadrant), childY(minY, half, quadrant), half, widget);
+            return new Branch(updated, this.size + 1);
+        }
+
+        @Override
+        public Node remove(long minX, long minY, long size, Widget widget) {
+            int quadrant = quadrant(minX, minY, size, widget);
+            long half = size / 2;
+            var child = children[quadrant].remove(childX(minX, half, quadrant), childY(minY, half, quadrant), half, widget);
+            int remaining = this.size - (children[quadrant].size() - child.size());
+
+            if (remaining <= LEAF_CAPACITY) {
+                var collapsed = new ArrayList<Widget>(remaining);
+                var updated = children.clone();
+                updated[quadrant] = child;
+                for (Node node : updated) {
+                    node.collectAll(collapsed);
+                }
+                return new Leaf(Vector.fromIterable(collapsed));
+            }
+
+            var updated = children.clone();
+            updated[quadrant] = child;
+            return new Branch(updated, remaining);
+        }
+
+        @Override
+        public void collect(long minX, long minY, long size, FilterArea filterArea, List<Widget> found) {
+            long half = size / 2;
+            for (int quadrant = 0; quadrant < children.length; quadrant++) {
+                var child = children[quadrant];
+                if (child.size() == 0) {
+                    continue;
+                }
+                long x = childX(minX, half, quadrant);
+                long y = childY(minY, half, quadrant);
+                if (intersects(x, y, half, filterArea)) {
+                    child.collect(x, y, half, filterArea, found);
+                }
+            }
+        }
+
+        @Override
+        public void collectAll(List<Widget> found) {
+            for (Node child : children) {
+                child.collectAll(found);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private static long childX(long minX, long half, int quadrant) {
+            return (quadrant & 1) == 0 ? minX : minX + half;
+        }
+
+        private static long childY(long minY, long half, int quadrant) {
+            return (quadrant & 2) == 0 ? minY : minY + half;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.Comparator;
+
+import cyclops.control.Option;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.utils.AvlTree;
+
+// Persistent set of contiguous z-index runs, keyed by the run start and holding the (inclusive) run end
+public final class ZIndexRuns {
+
+    private static final ZIndexRuns EMPTY = new ZIndexRuns(AvlTree.empty(Comparator.<Integer>naturalOrder()));
+
+    private final AvlTree<Integer, Integer> runs;
+
+    private ZIndexRuns(AvlTree<Integer, Integer> runs) {
+        this.runs = runs;
+    }
+
+    public static ZIndexRuns empty() {
+        return EMPTY;
+    }
+
+    public Option<Integer> runEnd(int zIndex) {
+        return containing(zIndex).map(Tuple2::_2);
+    }
+
+    public ZIndexRuns occupy(int zIndex) {
+        if (containing(zIndex).isPresent()) {
+            return this;
+        }
+
+        var before = zIndex > Integer.MIN_VALUE ? containing(zIndex - 1) : Option.<Tuple2<Integer, Integer>>none();
+        var after = zIndex < Integer.MAX_VALUE ? runs.get(zIndex + 1) : Option.<Integer>none();
+
+        int start = before.fold(Tuple2::_1, () -> zIndex);
+        int end = after.orElse(zIndex);
+        var withoutAfter = after.isPresent() ? runs.minus(zIndex + 1) : runs;
+
+        return new ZIndexRuns(withoutAfter.plus(start, end));
+    }
+
+    public ZIndexRuns release(int zIndex) {
+        return containing(zIndex).fold(run -> {
+            var updated = runs.minus(run._1());
+
+            if (run._1() < zIndex) {
+                updated = updated.plus(run._1(), zIndex - 1);
+            }
+
+            if (zIndex < run._2()) {
+                updated = updated.plus(zIndex + 1, run._2());
+            }
+
+            return new ZIndexRuns(updated);
+        }, () -> this);
+    }
+
+    private Option<Tuple2<Integer, Integer>> containing(int zIndex) {
+        return runs.floor(zIndex).filter(run -> run._2() >= zIndex);
+    }
+}
@@ -0,0 +1,95 @@
+package ycastor.me.miro.widgets.dao.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import cyclops.data.Vector;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+/*
+ * Binary layout of the journal records and snapshots. A record is its payload length and CRC32 followed by the payload,
+ * so a torn write at the end of a segment is told apart from a complete record.
+ */
+final class JournalCodec {
+
+    private JournalCodec() {
+    }
+
+    static byte[] encodeEntries(Vector<JournalEntry> entries) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+
+        out.writeInt(entries.size());
+        for (JournalEntry entry : entries) {
+            out.writeUTF(entry.getBoardId());
+            out.writeByte(entry.getType().ordinal());
+            if (entry.getType() == JournalEntry.Type.PUT) {
+                writeWidgets(out, entry.getWidgets());
+            } else {
+                writeId(out, entry.getRemovedId());
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Vector<JournalEntry> decodeEntries(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        var entries = new ArrayList<JournalEntry>(count);
+
+        for (int i = 0; i < count; i++) {
+            var boardId = in.readUTF();
+            var type = JournalEntry.Type.values()[in.readByte()];
+            entries.add(type == JournalEntry.Type.PUT ? JournalEntry.put(boardId, readWidgets(in)) : JournalEntry.remove(boardId, readId(in)));
+        }
+
+        return Vector.fromIterable(entries);
+    }
+
+    static void writeWidgets(DataOutputStream out, Iterable<Widget> widgets) throws IOException {
+        var list = new ArrayList<Widget>();
+        widgets.forEach(list::add);
+
+        out.writeInt(list.size());
+        for (Widget widget : list) {
+            writeId(out, widget.getId());
+            out.writeInt(widget.getZIndex());
+            out.writeInt(widget.getWidth());
+            out.writeInt(widget.getHeight());
+            out.writeInt(widget.getXAxis());
+            out.writeInt(widget.getYAxis());
+        }
+    }
+
+    static Vector<Widget> readWidgets(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        var widgets = new ArrayList<Widget>(count);
+
+        for (int i = 0; i < count; i++) {
+            widgets.add(Widget.builder()
+                              .id(readId(in))
+                              .zIndex(in.readInt())
+                              .width(in.readInt())
+                              .height(in.readInt())
+                              .xAxis(in.readInt())
+                              .yAxis(in.readInt())
+                              .build());
+        }
+
+        return Vector.fromIterable(widgets);
+    }
+
+    private static void writeId(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readId(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
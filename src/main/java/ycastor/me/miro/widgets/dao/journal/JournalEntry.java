@@ -0,0 +1,39 @@
+package ycastor.me.miro.widgets.dao.journal;
+
+import java.util.UUID;
+
+import cyclops.data.Vector;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import ycastor.me.miro.widgets.dao.datasources.WidgetsState;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+// One state transition of an in-memory board, replayed through the same WidgetsState operations that made it
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class JournalEntry {
+
+    public enum Type { PUT, REMOVE }
+
+    String boardId;
+    Type type;
+    Vector<Widget> widgets;
+    UUID removedId;
+
+    public static JournalEntry put(String boardId, Iterable<Widget> widgets) {
+        return new JournalEntry(boardId, Type.PUT, Vector.fromIterable(widgets), null);
+    }
+
+    public static JournalEntry remove(String boardId, UUID widgetId) {
+        return new JournalEntry(boardId, Type.REMOVE, Vector.empty(), widgetId);
+    }
+
+    public WidgetsState applyTo(WidgetsState state) {
+        if (type == Type.PUT) {
+            return state.putAll(widgets);
+        }
+
+        return state.findById(removedId).fold(state::remove, () -> state);
+    }
+}
@@ -0,0 +1,350 @@
+package ycastor.me.miro.widgets.dao.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import cyclops.data.Vector;
+import ycastor.me.miro.widgets.dao.datasources.WidgetsState;
+
+/*
+ * Write-ahead log of the in-memory boards, split in numbered segments and shared by every board, so one fsync covers
+ * the commits of all of them. A snapshot numbered N holds the boards as they were after every segment before N, so
+ * recovery loads the latest snapshot and replays the segments from N on.
+ * Appending only writes to the page cache, committers wait for the fsync in awaitDurable, where one force covers every
+ * record appended before it (group commit). Once a force failed the page cache may have dropped records, so the journal
+ * refuses every later append and sync and nothing is acknowledged anymore until the boards are recovered again.
+ */
+@Component
+@ConditionalOnExpression("'${miro.datasource}' == 'IN_MEMORY' and '${miro.ordering:DENSE}' == 'DENSE' and '${miro.journal:OFF}' == 'ON'")
+public class WidgetsJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    // payload length and CRC32 before every record
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final long groupCommitWindowMillis;
+    // taken before the journal monitor, held while forcing so concurrent committers wait for the same fsync
+    private final Object syncLock = new Object();
+
+    private FileChannel segment;
+    private long segmentSequence;
+    // bytes appended since the journal was opened, across segments, and how many of them are known to be on disk
+    private long appended;
+    private long synced;
+    private volatile IOException failure;
+
+    @Autowired
+    public WidgetsJournal(
+            @Value("${miro.journal-directory:journal}") String directory,
+            @Value("${miro.journal-group-commit-window:0}") long groupCommitWindowMillis
+    ) {
+        this.directory = Paths.get(directory);
+        this.groupCommitWindowMillis = groupCommitWindowMillis;
+
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // A torn record at the end of the last segment is a write that was never acknowledged, it is cut off the log
+    public synchronized Map<String, WidgetsState> recover() {
+        try {
+            var snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            long snapshotSequence = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+            var states = snapshots.isEmpty() ? new HashMap<String, WidgetsState>() : readSnapshot(snapshotSequence);
+
+            var segments = sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX).stream()
+                                                                    .filter(sequence -> sequence >= snapshotSequence)
+                                                                    .collect(Collectors.toList());
+            for (int i = 0; i < segments.size(); i++) {
+                replay(segments.get(i), states, i == segments.size() - 1);
+            }
+
+            segmentSequence = segments.isEmpty() ? snapshotSequence : Math.max(snapshotSequence, segments.get(segments.size() - 1) + 1);
+            segment = openSegment(segmentSequence);
+
+            return states;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the position to wait for, the record is not durable until awaitDurable returns
+    public synchronized long append(Vector<JournalEntry> entries) {
+        checkNotFailed();
+        try {
+            var payload = JournalCodec.encodeEntries(entries);
+            var checksum = new CRC32();
+            checksum.update(payload);
+
+            var record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+                                   .putInt(payload.length)
+                                   .putInt((int) checksum.getValue())
+                                   .put(payload)
+                                   .flip();
+            while (record.hasRemaining()) {
+                segment.write(record);
+            }
+
+            appended += record.limit();
+            return appended;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The window trades commit latency for fewer fsyncs, records appended while it elapses share the same force
+    public void awaitDurable(long position) {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            checkNotFailed();
+
+            if (groupCommitWindowMillis > 0) {
+                try {
+                    Thread.sleep(groupCommitWindowMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                target = appended;
+                channel = segment;
+            }
+
+            sync(channel);
+            synced = target;
+        }
+    }
+
+    // Closes the current segment and starts the next one, the returned sequence is the one a snapshot of the boards should carry
+    public long rotate() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                checkNotFailed();
+                sync(segment);
+                synced = appended;
+
+                try {
+                    segment.close();
+
+                    segmentSequence++;
+                    segment = openSegment(segmentSequence);
+
+                    return segmentSequence;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    // Written aside and renamed, so a crash never leaves a partial snapshot, then the files it covers are dropped
+    public void writeSnapshot(Map<String, WidgetsState> states, long sequence) {
+        var target = directory.resolve(fileName(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        var temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try {
+            try (var file = new FileOutputStream(temporary.toFile())) {
+                var checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+                var out = new DataOutputStream(checked);
+
+                out.writeInt(states.size());
+                for (var board : states.entrySet()) {
+                    out.writeUTF(board.getKey());
+                    JournalCodec.writeWidgets(out, board.getValue().widgets());
+                }
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                file.getFD().sync();
+            }
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+
+            for (Long older : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (older < sequence) {
+                    Files.deleteIfExists(directory.resolve(fileName(SEGMENT_PREFIX, older, SEGMENT_SUFFIX)));
+                }
+            }
+            for (Long older : sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (older < sequence) {
+                    Files.deleteIfExists(directory.resolve(fileName(SNAPSHOT_PREFIX, older, SNAPSHOT_SUFFIX)));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (segment != null && segment.isOpen()) {
+                    segment.force(false);
+                    synced = appended;
+                    segment.close();
+                }
+            }
+        }
+    }
+
+    // Overridden by tests to fail the fsync
+    protected void force(FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    private void sync(FileChannel channel) {
+        try {
+            force(channel);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkNotFailed() {
+        var failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("The journal failed to sync before, it takes no more writes", failed);
+        }
+    }
+
+    private Map<String, WidgetsState> readSnapshot(long sequence) throws IOException {
+        var path = directory.resolve(fileName(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+
+        try (var checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)), new CRC32())) {
+            var in = new DataInputStream(checked);
+            var states = new HashMap<String, WidgetsState>();
+            int boards = in.readInt();
+            // boards are written in z-order with distinct ids, so each one loads as a bulk append into an empty state
+            for (int i = 0; i < boards; i++) {
+                states.put(in.readUTF(), WidgetsState.empty().appendAll(JournalCodec.readWidgets(in)));
+            }
+            long computed = checked.getChecksum().getValue();
+
+            if (in.readLong() != computed) {
+                throw new IllegalStateException(String.format("The journal snapshot <%s> is corrupted", path));
+            }
+
+            return states;
+        }
+    }
+
+    private void replay(long sequence, Map<String, WidgetsState> states, boolean lastSegment) throws IOException {
+        var path = directory.resolve(fileName(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                var payload = readRecord(in, size - position);
+
+                if (payload == null) {
+                    if (!lastSegment) {
+                        throw new IllegalStateException(String.format("The journal segment <%s> is corrupted at %d", path, position));
+                    }
+                    channel.truncate(position);
+                    channel.force(true);
+                    break;
+                }
+
+                for (JournalEntry entry : JournalCodec.decodeEntries(new DataInputStream(new ByteArrayInputStream(payload)))) {
+                    states.put(entry.getBoardId(), entry.applyTo(states.getOrDefault(entry.getBoardId(), WidgetsState.empty())));
+                }
+                position += RECORD_HEADER_BYTES + payload.length;
+            }
+        }
+    }
+
+    // Null when the rest of the segment is not a complete record
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        if (remaining < RECORD_HEADER_BYTES) {
+            return null;
+        }
+
+        int length = in.readInt();
+        int expectedChecksum = in.readInt();
+        if (length < 0 || length > remaining - RECORD_HEADER_BYTES) {
+            return null;
+        }
+
+        var payload = in.readNBytes(length);
+        var checksum = new CRC32();
+        checksum.update(payload);
+
+        return (int) checksum.getValue() == expectedChecksum ? payload : null;
+    }
+
+    private FileChannel openSegment(long sequence) throws IOException {
+        var channel = FileChannel.open(
+                directory.resolve(fileName(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+        );
+        syncDirectory();
+        return channel;
+    }
+
+    // Makes created and renamed files survive a crash, platforms that cannot open directories skip it
+    private void syncDirectory() {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    private List<Long> sequences(String prefix, String suffix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                        .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(String prefix, long sequence, String suffix) {
+        return String.format("%s%020d%s", prefix, sequence, suffix);
+    }
+}
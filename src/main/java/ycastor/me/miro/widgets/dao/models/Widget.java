@@ -7,12 +7,21 @@ import javax.validation.constraints.Positive;
 
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
 
+// Read back from the exported boards when importing them
 @Data
 @Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
 public class Widget implements Comparable<Widget> {
     @Id
     private UUID id;
@@ -26,6 +35,11 @@ public class Widget implements Comparable<Widget> {
     private Integer xAxis;
     @NotNull
     private Integer yAxis;
+    // only tracked by the SQL datasource, the row version the widget was read with
+    @Version
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long version;
 
     @Override
     public int compareTo(Widget o) {
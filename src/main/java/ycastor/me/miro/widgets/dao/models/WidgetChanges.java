@@ -0,0 +1,19 @@
+package ycastor.me.miro.widgets.dao.models;
+
+import java.util.UUID;
+
+import cyclops.data.Vector;
+import lombok.Builder;
+import lombok.Value;
+
+// Net result of a batch, every widget appears once with its final version
+@Value
+@Builder
+public class WidgetChanges {
+    @Builder.Default
+    Vector<Widget> created = Vector.empty();
+    @Builder.Default
+    Vector<Widget> updated = Vector.empty();
+    @Builder.Default
+    Vector<UUID> deleted = Vector.empty();
+}
@@ -0,0 +1,11 @@
+package ycastor.me.miro.widgets.dao.models;
+
+import cyclops.data.ImmutableSortedSet;
+import lombok.Value;
+
+// A page of the board in z-order, the next cursor is absent once the page comes back short
+@Value
+public class WidgetsPage {
+    ImmutableSortedSet<Widget> widgets;
+    String nextCursor;
+}
@@ -0,0 +1,16 @@
+package ycastor.me.miro.widgets.dao.models;
+
+import org.springframework.data.annotation.Id;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ZIndexRun {
+    @Id
+    private Integer runStart;
+    private Integer runEnd;
+}
@@ -0,0 +1,7 @@
+package ycastor.me.miro.widgets.exceptions;
+
+public class BoardNotEmptyException extends RuntimeException {
+    public BoardNotEmptyException(String boardId) {
+        super(String.format("The board <%s> already has widgets, only empty boards are imported", boardId));
+    }
+}
@@ -0,0 +1,11 @@
+package ycastor.me.miro.widgets.exceptions;
+
+public class InvalidImportException extends RuntimeException {
+    public InvalidImportException(long position, String reason) {
+        super(String.format("Widget #%d of the import is not valid: %s", position, reason));
+    }
+
+    public InvalidImportException(String reason) {
+        super(String.format("The import is not valid: %s", reason));
+    }
+}
@@ -6,4 +6,8 @@ public class WidgetsChangedException extends RuntimeException {
     public WidgetsChangedException(UUID widgetId) {
         super(String.format("Failed to update/create the widget <%s>, someone changes the board state", widgetId));
     }
+
+    public WidgetsChangedException() {
+        super("Failed to apply the group of changes, someone changes the board state");
+    }
 }
@@ -0,0 +1,7 @@
+package ycastor.me.miro.widgets.exceptions;
+
+public class WidgetsWriterStoppedException extends RuntimeException {
+    public WidgetsWriterStoppedException() {
+        super("The widgets writer is stopped, the command was not applied");
+    }
+}
@@ -0,0 +1,28 @@
+package ycastor.me.miro.widgets.feed;
+
+import java.util.UUID;
+
+import cyclops.data.Vector;
+import lombok.Builder;
+import lombok.Value;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+/*
+ * What a single write did to a board, every widget with its values after the write. Shifted widgets were only pushed up
+ * by it. Datasources that push the colliding run themselves don't return it, then shiftedFrom is set instead: the run
+ * starting at that z-index, up to its first gap, was pushed up by one before the written widget took its place.
+ */
+@Value
+@Builder(toBuilder = true)
+public class BoardChange {
+    long version;
+    @Builder.Default
+    Vector<Widget> created = Vector.empty();
+    @Builder.Default
+    Vector<Widget> updated = Vector.empty();
+    @Builder.Default
+    Vector<Widget> shifted = Vector.empty();
+    Integer shiftedFrom;
+    @Builder.Default
+    Vector<UUID> deleted = Vector.empty();
+}
@@ -0,0 +1,353 @@
+package ycastor.me.miro.widgets.feed;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+
+/*
+ * Versioned changes of every board. Each write to a board takes the next version of the board and its change is kept in
+ * a bounded history, so subscribers resume from any version still kept and get a reset once they fall behind it.
+ * Writes to a board run side by side, their changes are appended in the order of the versions the repository gave them.
+ * Writers only append to the history, the changes are pushed to the subscribers by the dispatcher threads.
+ */
+@Component
+public class WidgetsFeed {
+    private static final Counter RESETS = Metrics.counter("widgets.feed.resets");
+    private static final long RESET = -1;
+    // a subscriber gives its dispatcher back after this many changes, so a long backlog doesn't hold it
+    private static final int MAX_CHANGES_PER_DISPATCH = 64;
+
+    // versions restart with the instance, event ids carry its start so older ones are never resumed
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Board> boards = new ConcurrentHashMap<>();
+    private final ThreadLocal<Group> group = new ThreadLocal<>();
+    private final int history;
+    private final ExecutorService dispatchers;
+
+    @Autowired
+    public WidgetsFeed(@Value("${miro.feed.history:1024}") int history, @Value("${miro.feed.dispatchers:0}") int dispatchers) {
+        this.history = history;
+        var threads = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(dispatchers > 0 ? dispatchers : Runtime.getRuntime().availableProcessors(), task -> {
+            var thread = new Thread(task, "widgets-feed-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Metrics.gauge("widgets.feed.subscribers", boards, published -> published.values().stream().mapToInt(board -> board.subscribers.size()).sum());
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatchers.shutdownNow();
+    }
+
+    // Runs the write without holding the board, its change is ordered by the version the write gave the board
+    public <T> T record(String boardId, Supplier<T> write, LongSupplier writtenVersion, Function<T, BoardChange> change) {
+        var current = group.get();
+        if (current != null && current.boardId.equals(boardId)) {
+            var result = write.get();
+            current.changes.add(new Written(writtenVersion.getAsLong(), change.apply(result)));
+            return result;
+        }
+
+        var board = board(boardId);
+        long ticket = board.start();
+        var written = List.<Written>of();
+        try {
+            var result = write.get();
+            written = List.of(new Written(writtenVersion.getAsLong(), change.apply(result)));
+            return result;
+        } finally {
+            board.finish(ticket, written);
+        }
+    }
+
+    // For writes applied before they are recorded, their changes follow the order in which they are recorded
+    public <T> T record(String boardId, Supplier<T> write, Function<T, BoardChange> change) {
+        return record(boardId, write, () -> Long.MAX_VALUE, change);
+    }
+
+    // Runs a write that replaced the whole board, it takes a version without a change so subscribers read the board again
+    public <T> T recordReload(String boardId, Supplier<T> write, LongSupplier writtenVersion) {
+        var board = board(boardId);
+        long ticket = board.start();
+        var written = List.<Written>of();
+        try {
+            var result = write.get();
+            written = List.of(new Written(writtenVersion.getAsLong(), null));
+            return result;
+        } finally {
+            board.finish(ticket, written);
+        }
+    }
+
+    // The changes recorded by the writes of a group are appended once the whole group is applied, none if it fails
+    public void group(String boardId, Runnable writes) {
+        var board = board(boardId);
+        var current = new Group(boardId);
+        long ticket = board.start();
+        boolean applied = false;
+        group.set(current);
+        try {
+            writes.run();
+            applied = true;
+        } finally {
+            group.remove();
+            board.finish(ticket, applied ? current.changes : List.of());
+        }
+    }
+
+    // Starts after the given event id, or from now without one. Returns how to cancel the subscription
+    public Runnable subscribe(String boardId, String lastEventId, Subscriber subscriber) {
+        var board = board(boardId);
+        var subscription = new Subscription(board, subscriber, resumeVersion(board, lastEventId));
+        board.subscribers.add(subscription);
+        subscription.schedule();
+        return () -> board.subscribers.remove(subscription);
+    }
+
+    private Board board(String boardId) {
+        return boards.computeIfAbsent(boardId, id -> new Board());
+    }
+
+    private String eventId(long version) {
+        return epoch + "-" + version;
+    }
+
+    private long resumeVersion(Board board, String lastEventId) {
+        if (lastEventId == null) {
+            return board.version;
+        }
+
+        int separator = lastEventId.lastIndexOf('-');
+        if (separator < 0 || !lastEventId.substring(0, separator).equals(epoch)) {
+            return RESET;
+        }
+
+        try {
+            long version = Long.parseLong(lastEventId.substring(separator + 1));
+            return version >= 0 && version <= board.version ? version : RESET;
+        } catch (NumberFormatException e) {
+            return RESET;
+        }
+    }
+
+    // Called by one dispatcher at a time for a subscriber, a failure cancels its subscription
+    public interface Subscriber {
+        void changed(String eventId, BoardChange change) throws IOException;
+
+        // The changes since the last event are no longer kept, the board has to be read again
+        void reset(String eventId, long version) throws IOException;
+    }
+
+    private static final class Group {
+        private final String boardId;
+        private final List<Written> changes = new ArrayList<>();
+
+        private Group(String boardId) {
+            this.boardId = boardId;
+        }
+    }
+
+    // A change with the version its write gave the board in the repository, a reload has no change
+    private static final class Written {
+        private final long version;
+        private final BoardChange change;
+
+        private Written(long version, BoardChange change) {
+            this.version = version;
+            this.change = change;
+        }
+    }
+
+    // Held until every write that started before it was written finished, none of them can still take an older version
+    private static final class Held {
+        private static final Comparator<Held> ORDER = Comparator.<Held>comparingLong(held -> held.written.version)
+                                                                .thenComparingLong(held -> held.arrival);
+
+        private final Written written;
+        private final long lastStarted;
+        private final long arrival;
+
+        private Held(Written written, long lastStarted, long arrival) {
+            this.written = written;
+            this.lastStarted = lastStarted;
+            this.arrival = arrival;
+        }
+    }
+
+    private final class Board {
+        // only guards the bookkeeping below and the appends, never a write to the repository
+        private final ReentrantLock appends = new ReentrantLock();
+        // tickets of the writes still running, taken in the order the writes started
+        private final NavigableSet<Long> running = new TreeSet<>();
+        private final PriorityQueue<Held> held = new PriorityQueue<>(Held.ORDER);
+        private long tickets;
+        private long arrivals;
+        // version v is kept at v % history until a later version takes its slot
+        private final AtomicReferenceArray<BoardChange> changes = new AtomicReferenceArray<>(history);
+        private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean signalled = new AtomicBoolean();
+        private volatile long version;
+
+        private long start() {
+            appends.lock();
+            try {
+                running.add(++tickets);
+                return tickets;
+            } finally {
+                appends.unlock();
+            }
+        }
+
+        // A write that started after another one finished is applied over it and takes a newer version, so the held
+        // changes are appended in version order once the writes started before them are done
+        private void finish(long ticket, List<Written> written) {
+            boolean appended = false;
+            appends.lock();
+            try {
+                running.remove(ticket);
+                written.forEach(change -> held.add(new Held(change, tickets, ++arrivals)));
+                while (!held.isEmpty() && (running.isEmpty() || running.first() > held.peek().lastStarted)) {
+                    var next = held.poll().written.change;
+                    if (next != null) {
+                        append(next);
+                    } else {
+                        skip();
+                    }
+                    appended = true;
+                }
+            } finally {
+                appends.unlock();
+            }
+
+            if (appended) {
+                signal();
+            }
+        }
+
+        // Only called holding the appends lock
+        private void append(BoardChange change) {
+            long next = version + 1;
+            changes.set((int) (next % history), change.toBuilder().version(next).build());
+            version = next;
+        }
+
+        // Only called holding the appends lock, the version is missing from the history like the ones it no longer keeps
+        private void skip() {
+            long next = version + 1;
+            changes.set((int) (next % history), null);
+            version = next;
+        }
+
+        private BoardChange change(long version) {
+            var change = changes.get((int) (version % history));
+            return change != null && change.getVersion() == version ? change : null;
+        }
+
+        // The writer only queues a single fan-out per board, however many subscribers it has
+        private void signal() {
+            if (signalled.compareAndSet(false, true)) {
+                dispatch(this::fanOut);
+            }
+        }
+
+        private void fanOut() {
+            signalled.set(false);
+            subscribers.forEach(Subscription::schedule);
+        }
+    }
+
+    private final class Subscription {
+        private final Board board;
+        private final Subscriber subscriber;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private long sent;
+
+        private Subscription(Board board, Subscriber subscriber, long sent) {
+            this.board = board;
+            this.subscriber = subscriber;
+            this.sent = sent;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                dispatch(this::send);
+            }
+        }
+
+        // Stays scheduled once it failed, so it is never sent to again
+        private void send() {
+            try {
+                sendPending();
+            } catch (IOException | RuntimeException e) {
+                board.subscribers.remove(this);
+                return;
+            }
+
+            scheduled.set(false);
+            if (sent < board.version) {
+                schedule();
+            }
+        }
+
+        private void sendPending() throws IOException {
+            if (sent == RESET) {
+                reset();
+            }
+
+            long latest = Math.min(board.version, sent + MAX_CHANGES_PER_DISPATCH);
+            while (sent < latest) {
+                var change = board.change(sent + 1);
+                if (change == null) {
+                    reset();
+                    return;
+                }
+                subscriber.changed(eventId(change.getVersion()), change);
+                sent = change.getVersion();
+            }
+        }
+
+        private void reset() throws IOException {
+            long version = board.version;
+            RESETS.increment();
+            subscriber.reset(eventId(version), version);
+            sent = version;
+        }
+    }
+
+    // Writes must not fail because the dispatchers stopped first on shutdown
+    private void dispatch(Runnable task) {
+        try {
+            dispatchers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // subscribers are not served anymore
+        }
+    }
+}
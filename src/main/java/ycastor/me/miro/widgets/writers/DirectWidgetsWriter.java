@@ -0,0 +1,47 @@
+package ycastor.me.miro.widgets.writers;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.widgets.WidgetsService;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+// Applies the command on the caller thread, failures are thrown right away instead of completing the future
+@Component
+@ConditionalOnProperty(value = "miro.writes", havingValue = "DIRECT", matchIfMissing = true)
+public class DirectWidgetsWriter implements WidgetsWriter {
+    private final WidgetsService widgetsService;
+
+    @Autowired
+    public DirectWidgetsWriter(WidgetsService widgetsService) {
+        this.widgetsService = widgetsService;
+    }
+
+    @Override
+    public CompletableFuture<Widget> create(String boardId, WidgetCreateCommand command) {
+        return CompletableFuture.completedFuture(widgetsService.create(boardId, command));
+    }
+
+    @Override
+    public CompletableFuture<Widget> update(String boardId, UUID widgetId, WidgetUpdateCommand command) {
+        return CompletableFuture.completedFuture(widgetsService.update(boardId, widgetId, command));
+    }
+
+    @Override
+    public CompletableFuture<Widget> delete(String boardId, UUID widgetId) {
+        return CompletableFuture.completedFuture(widgetsService.delete(boardId, widgetId));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableSortedSet<Widget>> applyBatch(String boardId, WidgetBatchCommand command) {
+        return CompletableFuture.completedFuture(widgetsService.applyBatch(boardId, command));
+    }
+}
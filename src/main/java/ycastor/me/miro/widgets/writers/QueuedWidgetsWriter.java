@@ -0,0 +1,180 @@
+package ycastor.me.miro.widgets.writers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.widgets.WidgetsService;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetsWriterStoppedException;
+
+/*
+ * Single writer per board: every command is queued on the lane of its board and applied by the lane thread, so writers
+ * never race each other on a board state while boards on different lanes are written in parallel.
+ * Whatever is queued on a lane while a group is applied becomes the next group, published as one change per board.
+ */
+@Component
+@ConditionalOnProperty(value = "miro.writes", havingValue = "QUEUED")
+public class QueuedWidgetsWriter implements WidgetsWriter {
+    private final WidgetsService widgetsService;
+    private final int maxGroupSize;
+    private final Lane[] lanes;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public QueuedWidgetsWriter(
+            WidgetsService widgetsService,
+            @Value("${miro.write-queue.capacity:4096}") int capacity,
+            @Value("${miro.write-queue.max-group-size:256}") int maxGroupSize,
+            @Value("${miro.write-queue.lanes:0}") int lanes
+    ) {
+        this.widgetsService = widgetsService;
+        this.maxGroupSize = maxGroupSize;
+        // one lane per core unless configured, a board always maps to the same lane
+        this.lanes = new Lane[lanes > 0 ? lanes : Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane(capacity, "widgets-writer-" + i);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        for (Lane lane : lanes) {
+            lane.writer.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.writer.interrupt();
+        }
+        for (Lane lane : lanes) {
+            lane.writer.join();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Widget> create(String boardId, WidgetCreateCommand command) {
+        return submit(boardId, () -> widgetsService.create(boardId, command));
+    }
+
+    @Override
+    public CompletableFuture<Widget> update(String boardId, UUID widgetId, WidgetUpdateCommand command) {
+        return submit(boardId, () -> widgetsService.update(boardId, widgetId, command));
+    }
+
+    @Override
+    public CompletableFuture<Widget> delete(String boardId, UUID widgetId) {
+        return submit(boardId, () -> widgetsService.delete(boardId, widgetId));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableSortedSet<Widget>> applyBatch(String boardId, WidgetBatchCommand command) {
+        return submit(boardId, () -> widgetsService.applyBatch(boardId, command));
+    }
+
+    // Blocks while the lane is full, so producers are slowed down instead of piling up commands
+    private <T> CompletableFuture<T> submit(String boardId, Supplier<T> action) {
+        var command = new QueuedCommand<>(boardId, action);
+
+        if (!running) {
+            command.result.completeExceptionally(new WidgetsWriterStoppedException());
+            return command.result;
+        }
+
+        try {
+            lanes[Math.floorMod(boardId.hashCode(), lanes.length)].commands.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            command.result.completeExceptionally(e);
+        }
+
+        return command.result;
+    }
+
+    // The futures are completed only after the group is published, so callers always read their own writes
+    private void apply(String boardId, List<QueuedCommand<?>> group) {
+        var completions = new ArrayList<Runnable>(group.size());
+
+        try {
+            widgetsService.writeGroup(boardId, () -> group.forEach(command -> completions.add(command.run())));
+            completions.forEach(Runnable::run);
+        } catch (RuntimeException e) {
+            group.forEach(command -> command.result.completeExceptionally(e));
+        }
+    }
+
+    private final class Lane {
+        private final BlockingQueue<QueuedCommand<?>> commands;
+        private final Thread writer;
+
+        private Lane(int capacity, String name) {
+            this.commands = new ArrayBlockingQueue<>(capacity);
+            this.writer = new Thread(this::applyQueued, name);
+            this.writer.setDaemon(true);
+        }
+
+        // A drained group may mix boards sharing the lane, each board publishes its own commands in queue order
+        private void applyQueued() {
+            var group = new ArrayList<QueuedCommand<?>>(maxGroupSize);
+
+            while (running) {
+                try {
+                    group.add(commands.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                commands.drainTo(group, maxGroupSize - 1);
+                var byBoard = new LinkedHashMap<String, List<QueuedCommand<?>>>();
+                group.forEach(command -> byBoard.computeIfAbsent(command.boardId, boardId -> new ArrayList<>()).add(command));
+                byBoard.forEach(QueuedWidgetsWriter.this::apply);
+                group.clear();
+            }
+
+            commands.drainTo(group);
+            group.forEach(command -> command.result.completeExceptionally(new WidgetsWriterStoppedException()));
+        }
+    }
+
+    private static final class QueuedCommand<T> {
+        private final String boardId;
+        private final Supplier<T> action;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private QueuedCommand(String boardId, Supplier<T> action) {
+            this.boardId = boardId;
+            this.action = action;
+        }
+
+        // Applies the command and returns how to complete its future once the group is published
+        private Runnable run() {
+            try {
+                var value = action.get();
+                return () -> result.complete(value);
+            } catch (RuntimeException e) {
+                return () -> result.completeExceptionally(e);
+            }
+        }
+    }
+}
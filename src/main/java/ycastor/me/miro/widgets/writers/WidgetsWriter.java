@@ -0,0 +1,22 @@
+package ycastor.me.miro.widgets.writers;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.commands.WidgetUpdateCommand;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+public interface WidgetsWriter {
+
+    CompletableFuture<Widget> create(String boardId, WidgetCreateCommand command);
+
+    CompletableFuture<Widget> update(String boardId, UUID widgetId, WidgetUpdateCommand command);
+
+    CompletableFuture<Widget> delete(String boardId, UUID widgetId);
+
+    CompletableFuture<ImmutableSortedSet<Widget>> applyBatch(String boardId, WidgetBatchCommand command);
+
+}
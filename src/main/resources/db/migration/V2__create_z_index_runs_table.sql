@@ -0,0 +1,11 @@
+create index widget_z_index_idx on widget (z_index);
+
+create table z_index_run (
+    run_start INTEGER not null primary key,
+    run_end INTEGER not null
+);
+
+insert into z_index_run (run_start, run_end)
+select min(z_index), max(z_index)
+from (select z_index, z_index - row_number() over (order by z_index) as run_group from widget) runs
+group by run_group;
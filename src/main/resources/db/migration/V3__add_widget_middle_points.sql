@@ -0,0 +1,4 @@
+-- in-area queries filter on the widget middle point, kept as computed columns so an index can serve the range
+alter table widget add column x_middle INTEGER as (x_axis + (height / 2));
+alter table widget add column y_middle INTEGER as (y_axis + (width / 2));
+create index widget_middle_point_idx on widget (x_middle, y_middle);
@@ -0,0 +1,10 @@
+-- every board has its own z-order, existing widgets and runs stay on the default board
+alter table widget add column board_id VARCHAR(64) not null default 'default';
+drop index widget_z_index_idx;
+create index widget_board_z_index_idx on widget (board_id, z_index);
+drop index widget_middle_point_idx;
+create index widget_board_middle_point_idx on widget (board_id, x_middle, y_middle);
+
+alter table z_index_run add column board_id VARCHAR(64) not null default 'default';
+alter table z_index_run drop primary key;
+alter table z_index_run add primary key (board_id, run_start);
@@ -0,0 +1,5 @@
+-- bumped by every write to the board, boards without a row were never written since
+create table board_version (
+    board_id VARCHAR(64) not null primary key,
+    version BIGINT not null
+);
@@ -0,0 +1,2 @@
+-- bumped by every write of the row, collision shifts included, writes only apply to the version they read
+alter table widget add column version BIGINT not null default 0;
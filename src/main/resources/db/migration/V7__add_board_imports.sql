@@ -0,0 +1,2 @@
+-- bumped by every import of the board, a write that read the board before an import fails instead of landing on it
+alter table board_version add column imports BIGINT not null default 0;
@@ -0,0 +1,3 @@
+-- widget ids only have to be unique within their board, a board can be imported with ids another board already uses
+alter table widget drop primary key;
+alter table widget add primary key (board_id, id);
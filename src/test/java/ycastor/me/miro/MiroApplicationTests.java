@@ -1,13 +1,50 @@
 package ycastor.me.miro;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ycastor.me.miro.fixtures.WidgetFixture;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
 class MiroApplicationTests {
 
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void prometheusExposesWidgetMetrics() throws Exception {
+		mockMvc.perform(post("/widget").contentType(MediaType.APPLICATION_JSON)
+									   .content(objectMapper.writeValueAsString(WidgetFixture.widgetCreateCommand())))
+			   .andExpect(status().isOk());
+
+		mockMvc.perform(get("/actuator/prometheus"))
+			   .andExpect(status().isOk())
+			   .andExpect(content().string(containsString("widgets_service_seconds_bucket")))
+			   .andExpect(content().string(containsString("widgets_repository_seconds_count")))
+			   .andExpect(content().string(containsString("widgets_collisions_shifted_count")))
+			   .andExpect(content().string(containsString("widgets_board_size{datasource=\"in-memory\",}")));
+	}
+
 }
@@ -0,0 +1,148 @@
+package ycastor.me.miro.api;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.shared.Problem;
+import ycastor.me.miro.widgets.ReactiveWidgetsService;
+import ycastor.me.miro.widgets.commands.WidgetCreateCommand;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@AutoConfigureWebTestClient
+class ReactiveWidgetsApiTest {
+
+    private static final String BOARD = WidgetsApi.DEFAULT_BOARD;
+
+    @MockBean
+    private ReactiveWidgetsService widgetsService;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    @DisplayName("Fetching an unchanged widget again should answer not modified")
+    void fetchWidgetById_NotModified() throws Exception {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
+
+        when(widgetsService.fetch(BOARD, uuid)).thenReturn(Mono.just(widget));
+
+        var etag = webTestClient.get().uri("/widget/" + uuid)
+                                .exchange()
+                                .expectStatus().isOk()
+                                .expectBody().json(objectMapper.writeValueAsString(widget))
+                                .returnResult()
+                                .getResponseHeaders()
+                                .getETag();
+
+        webTestClient.get().uri("/widget/" + uuid).header("If-None-Match", etag)
+                     .exchange()
+                     .expectStatus().isNotModified();
+    }
+
+    @Test
+    @DisplayName("Fetching a widget in Smile should answer it in binary, tagged apart from JSON")
+    void fetchWidgetById_Smile() throws Exception {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
+        var smile = MediaType.parseMediaType("application/x-jackson-smile");
+
+        when(widgetsService.fetch(BOARD, uuid)).thenReturn(Mono.just(widget));
+
+        var result = webTestClient.get().uri("/widget/" + uuid).accept(smile)
+                                  .exchange()
+                                  .expectStatus().isOk()
+                                  .expectHeader().contentType(smile)
+                                  .expectBody(byte[].class)
+                                  .returnResult();
+
+        var smileMapper = new ObjectMapper(new SmileFactory());
+        assertThat(smileMapper.readTree(result.getResponseBody())).isEqualTo(smileMapper.readTree(smileMapper.writeValueAsBytes(widget)));
+        assertThat(result.getResponseHeaders().getETag()).endsWith("-smile\"");
+    }
+
+    @Test
+    @DisplayName("Fetching a missing widget should answer not found")
+    void fetchWidgetById_NotFound() {
+        when(widgetsService.fetch(eq(BOARD), any())).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/widget/" + UUID.randomUUID())
+                     .exchange()
+                     .expectStatus().isNotFound();
+    }
+
+    @Test
+    @DisplayName("Listing an unchanged board again should not read it")
+    void fetchListOfObjects_NotModified() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+
+        when(widgetsService.boardVersion("team-board")).thenReturn(Mono.just(7L));
+        when(widgetsService.list(eq("team-board"), any())).thenReturn(Flux.just(widget));
+
+        var etag = webTestClient.get().uri("/boards/team-board/widget")
+                                .exchange()
+                                .expectStatus().isOk()
+                                .expectBody().json(objectMapper.writeValueAsString(List.of(widget)))
+                                .returnResult()
+                                .getResponseHeaders()
+                                .getETag();
+
+        webTestClient.get().uri("/boards/team-board/widget").header("If-None-Match", etag)
+                     .exchange()
+                     .expectStatus().isNotModified();
+
+        verify(widgetsService).list(eq("team-board"), any());
+    }
+
+    @Test
+    @DisplayName("Creating a widget without coordinates should fail")
+    void createWidget_Invalid() {
+        var command = WidgetFixture.widgetCreateCommand().toBuilder().xAxis(null).build();
+
+        var problem = webTestClient.post().uri("/widget")
+                                   .contentType(MediaType.APPLICATION_JSON)
+                                   .bodyValue(command)
+                                   .exchange()
+                                   .expectStatus().isBadRequest()
+                                   .expectBody(Problem.class)
+                                   .returnResult()
+                                   .getResponseBody();
+
+        assertThat(problem.getMessage()).isEqualTo("The x-axis must be informed");
+        verifyNoInteractions(widgetsService);
+    }
+
+    @Test
+    @DisplayName("Deleting a missing widget should answer not found")
+    void deleteWidget_NotFound() {
+        var uuid = UUID.randomUUID();
+
+        when(widgetsService.delete(BOARD, uuid)).thenReturn(Mono.error(new WidgetNotFoundException(uuid)));
+
+        webTestClient.delete().uri("/widget/" + uuid)
+                     .exchange()
+                     .expectStatus().isNotFound();
+    }
+}
@@ -1,6 +1,10 @@
 package ycastor.me.miro.api;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -12,21 +16,36 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.oath.cyclops.jackson.CyclopsModule;
 
 import cyclops.control.Option;
 import cyclops.data.TreeSet;
+import cyclops.data.Vector;
 import ycastor.me.miro.fixtures.WidgetFixture;
 import ycastor.me.miro.shared.Problem;
 import ycastor.me.miro.widgets.WidgetsService;
 import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetBatchOperation;
 import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetsPage;
+import ycastor.me.miro.widgets.exceptions.InvalidCursorException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -34,6 +53,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @AutoConfigureMockMvc
 class WidgetsApiTest {
 
+    private static final String BOARD = WidgetsApi.DEFAULT_BOARD;
+    private static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
     @MockBean
     private WidgetsService widgetsService;
 
@@ -51,13 +73,107 @@ class WidgetsApiTest {
 
         var expectedWidget = objectMapper.writeValueAsString(widget);
 
-        when(widgetsService.fetch(uuid)).thenReturn(Option.of(widget));
+        when(widgetsService.fetch(BOARD, uuid)).thenReturn(Option.of(widget));
 
         mockMvc.perform(get("/widget/" + uuid.toString()))
                .andExpect(status().isOk())
                .andExpect(content().json(expectedWidget));
 
-        verify(widgetsService).fetch(uuid);
+        verify(widgetsService).fetch(BOARD, uuid);
+    }
+
+    @Test
+    @DisplayName("Fetching a widget by Id on a board")
+    void fetchWidgetByIdOnBoard() throws Exception {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
+
+        when(widgetsService.fetch("team-board", uuid)).thenReturn(Option.of(widget));
+
+        mockMvc.perform(get("/boards/team-board/widget/" + uuid.toString()))
+               .andExpect(status().isOk())
+               .andExpect(content().json(objectMapper.writeValueAsString(widget)));
+
+        verify(widgetsService).fetch("team-board", uuid);
+    }
+
+    @Test
+    @DisplayName("Fetching an unchanged widget again should answer not modified")
+    void fetchWidgetById_NotModified() throws Exception {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
+
+        when(widgetsService.fetch(BOARD, uuid)).thenReturn(Option.of(widget));
+
+        var etag = mockMvc.perform(get("/widget/" + uuid))
+                          .andExpect(status().isOk())
+                          .andReturn()
+                          .getResponse()
+                          .getHeader("ETag");
+
+        mockMvc.perform(get("/widget/" + uuid).header("If-None-Match", etag))
+               .andExpect(status().isNotModified())
+               .andExpect(content().string(""));
+        mockMvc.perform(get("/widget/" + uuid).header("If-None-Match", "\"0_0_0_1_1\""))
+               .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Listing an unchanged board again should not read it")
+    void fetchListOfObjects_NotModified() throws Exception {
+        when(widgetsService.boardVersion(BOARD)).thenReturn(7L);
+        when(widgetsService.list(eq(BOARD), any())).thenReturn(TreeSet.of(WidgetFixture.oneWidget()));
+
+        var etag = mockMvc.perform(get("/widget"))
+                          .andExpect(status().isOk())
+                          .andReturn()
+                          .getResponse()
+                          .getHeader("ETag");
+
+        mockMvc.perform(get("/widget").header("If-None-Match", etag))
+               .andExpect(status().isNotModified());
+
+        when(widgetsService.boardVersion(BOARD)).thenReturn(8L);
+
+        mockMvc.perform(get("/widget").header("If-None-Match", etag))
+               .andExpect(status().isOk());
+
+        verify(widgetsService, times(2)).list(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Tags of in-area results should depend on the area")
+    void fetchListOfObjectsWithinArea_TaggedByArea() throws Exception {
+        var area = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(10, 10)).build();
+        var otherArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(20, 20)).build();
+
+        when(widgetsService.filterInArea(eq(BOARD), any())).thenReturn(TreeSet.empty());
+
+        var etag = mockMvc.perform(post("/widget/in-area").content(objectMapper.writeValueAsString(area)).contentType(MediaType.APPLICATION_JSON))
+                          .andExpect(status().isOk())
+                          .andReturn()
+                          .getResponse()
+                          .getHeader("ETag");
+
+        mockMvc.perform(post("/widget/in-area").content(objectMapper.writeValueAsString(area))
+                                               .contentType(MediaType.APPLICATION_JSON)
+                                               .header("If-None-Match", etag))
+               .andExpect(status().isNotModified());
+        mockMvc.perform(post("/widget/in-area").content(objectMapper.writeValueAsString(otherArea))
+                                               .contentType(MediaType.APPLICATION_JSON)
+                                               .header("If-None-Match", etag))
+               .andExpect(status().isOk());
+
+        verify(widgetsService, times(2)).filterInArea(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Using an invalid board id should fail")
+    void invalidBoardId() throws Exception {
+        mockMvc.perform(get("/boards/not.a.board/widget/" + UUID.randomUUID()))
+               .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetsService);
     }
 
     @Test
@@ -69,13 +185,172 @@ class WidgetsApiTest {
 
         var expectedWidget = objectMapper.writeValueAsString(listOf);
 
-        when(widgetsService.list(any())).thenReturn(TreeSet.of(widget));
+        when(widgetsService.list(eq(BOARD), any())).thenReturn(TreeSet.of(widget));
 
         mockMvc.perform(get("/widget"))
                .andExpect(status().isOk())
                .andExpect(content().json(expectedWidget));
 
-        verify(widgetsService).list(any());
+        verify(widgetsService).list(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Fetching a page of objects by cursor")
+    void fetchPageByCursor() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var page = new WidgetsPage(TreeSet.of(widget), "MQ");
+
+        var expectedPage = objectMapper.writeValueAsString(page);
+
+        when(widgetsService.listAfter(BOARD, "", 1)).thenReturn(page);
+
+        mockMvc.perform(get("/widget").param("cursor", "").param("pageSize", "1"))
+               .andExpect(status().isOk())
+               .andExpect(content().json(expectedPage));
+
+        verify(widgetsService).listAfter(BOARD, "", 1);
+    }
+
+    @Test
+    @DisplayName("Fetching a page with an invalid cursor")
+    void fetchPageByInvalidCursor() throws Exception {
+        when(widgetsService.listAfter(eq(BOARD), any(), anyInt())).thenThrow(new InvalidCursorException("???"));
+
+        mockMvc.perform(get("/widget").param("cursor", "???"))
+               .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Streaming all objects as NDJSON")
+    void streamAllObjects() throws Exception {
+        var widget1 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(2).build();
+
+        var expectedLines = objectMapper.writeValueAsString(widget1) + "\n" + objectMapper.writeValueAsString(widget2) + "\n";
+
+        doAnswer(invocation -> {
+            Consumer<Widget> action = invocation.getArgument(1);
+            action.accept(widget1);
+            action.accept(widget2);
+            return null;
+        }).when(widgetsService).streamAll(eq(BOARD), any());
+
+        var started = mockMvc.perform(get("/widget").accept("application/x-ndjson"))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+               .andExpect(status().isOk())
+               .andExpect(content().contentType("application/x-ndjson"))
+               .andExpect(content().string(expectedLines));
+    }
+
+    @Test
+    @DisplayName("Exporting a board in Smile should stream its widgets one after the other")
+    void exportBoard_Smile() throws Exception {
+        var widget1 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(2).build();
+        var smileMapper = new ObjectMapper(new SmileFactory());
+
+        doAnswer(invocation -> {
+            Consumer<Widget> action = invocation.getArgument(1);
+            action.accept(widget1);
+            action.accept(widget2);
+            return null;
+        }).when(widgetsService).streamAll(eq(BOARD), any());
+
+        var started = mockMvc.perform(get("/widget/export").accept(SMILE))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+        var body = mockMvc.perform(asyncDispatch(started))
+                          .andExpect(status().isOk())
+                          .andExpect(content().contentType(SMILE))
+                          .andReturn()
+                          .getResponse()
+                          .getContentAsByteArray();
+
+        assertThat(smileMapper.readerFor(Widget.class).<Widget>readValues(body).readAll()).containsExactly(widget1, widget2);
+    }
+
+    @Test
+    @DisplayName("Importing a board from NDJSON should hand every line over to the service")
+    void importBoard_Ndjson() throws Exception {
+        var widget1 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
+        var imported = new ArrayList<Widget>();
+
+        when(widgetsService.importBoard(eq("team-board"), any(), eq(1000))).thenAnswer(invocation -> {
+            Iterator<Widget> widgets = invocation.getArgument(1);
+            widgets.forEachRemaining(imported::add);
+            return (long) imported.size();
+        });
+
+        mockMvc.perform(post("/boards/team-board/widget/import").content(objectMapper.writeValueAsString(widget1) + "\n" + objectMapper.writeValueAsString(widget2) + "\n")
+                                                                 .contentType("application/x-ndjson"))
+               .andExpect(status().isOk())
+               .andExpect(content().string("2"));
+
+        assertThat(imported).containsExactly(widget1, widget2);
+    }
+
+    @Test
+    @DisplayName("Importing a body that doesn't parse should be rejected")
+    void importBoard_Malformed() throws Exception {
+        when(widgetsService.importBoard(eq(BOARD), any(), anyInt())).thenAnswer(invocation -> {
+            Iterator<Widget> widgets = invocation.getArgument(1);
+            widgets.forEachRemaining(widget -> { });
+            return 0L;
+        });
+
+        mockMvc.perform(post("/widget/import").content("{\"zindex\": 1}\n{\"zindex\": ").contentType("application/x-ndjson"))
+               .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Streaming objects within area as NDJSON")
+    void streamObjectsWithinArea() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var filterArea = FilterArea.builder()
+                                   .upperRight(new Coordinates(1, 1))
+                                   .lowerLeft(new Coordinates(1, 1))
+                                   .build();
+
+        doAnswer(invocation -> {
+            Consumer<Widget> action = invocation.getArgument(2);
+            action.accept(widget);
+            return null;
+        }).when(widgetsService).streamInArea(eq(BOARD), eq(filterArea), any());
+
+        var started = mockMvc.perform(post("/widget/in-area").content(objectMapper.writeValueAsString(filterArea))
+                                                             .contentType(MediaType.APPLICATION_JSON)
+                                                             .accept("application/x-ndjson"))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+               .andExpect(status().isOk())
+               .andExpect(content().string(objectMapper.writeValueAsString(widget) + "\n"));
+    }
+
+    @Test
+    @DisplayName("Streaming the changes of a board as server-sent events")
+    void streamChanges() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var change = BoardChange.builder().version(3).created(Vector.of(widget)).build();
+
+        doAnswer(invocation -> {
+            WidgetsFeed.Subscriber subscriber = invocation.getArgument(2);
+            subscriber.changed("epoch-3", change);
+            return (Runnable) () -> {};
+        }).when(widgetsService).subscribe(eq("team-board"), eq("epoch-2"), any());
+
+        var started = mockMvc.perform(get("/boards/team-board/widget/changes").header("Last-Event-ID", "epoch-2")
+                                                                                .accept(MediaType.TEXT_EVENT_STREAM))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+
+        assertThat(started.getResponse().getContentAsString())
+                .isEqualTo("id:epoch-3\nevent:change\ndata:" + objectMapper.writeValueAsString(change) + "\n\n");
     }
 
     @Test
@@ -92,13 +367,59 @@ class WidgetsApiTest {
         var expectedWidget = objectMapper.writeValueAsString(listOf);
         var filter = objectMapper.writeValueAsString(filterArea);
 
-        when(widgetsService.filterInArea(any())).thenReturn(TreeSet.of(widget));
+        when(widgetsService.filterInArea(eq(BOARD), any())).thenReturn(TreeSet.of(widget));
 
         mockMvc.perform(post("/widget/in-area").content(filter).contentType(MediaType.APPLICATION_JSON))
                .andExpect(status().isOk())
                .andExpect(content().json(expectedWidget));
 
-        verify(widgetsService).filterInArea(any());
+        verify(widgetsService).filterInArea(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Fetching objects within area in Smile, tagged apart from the JSON answer")
+    void fetchListOfObjectsWithinArea_Smile() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(500, 500)).build();
+        var smileMapper = new ObjectMapper(new SmileFactory()).registerModule(new CyclopsModule());
+
+        when(widgetsService.filterInArea(eq(BOARD), any())).thenReturn(TreeSet.of(widget));
+
+        var jsonTag = mockMvc.perform(post("/widget/in-area").content(objectMapper.writeValueAsString(filterArea)).contentType(MediaType.APPLICATION_JSON))
+                             .andReturn()
+                             .getResponse()
+                             .getHeader("ETag");
+        var response = mockMvc.perform(post("/widget/in-area").content(smileMapper.writeValueAsBytes(filterArea))
+                                                              .contentType(SMILE)
+                                                              .accept(SMILE)
+                                                              .header("If-None-Match", jsonTag))
+                              .andExpect(status().isOk())
+                              .andExpect(content().contentType(SMILE))
+                              .andExpect(header().string("Vary", "Accept"))
+                              .andReturn()
+                              .getResponse();
+
+        assertThat(smileMapper.readTree(response.getContentAsByteArray())).isEqualTo(smileMapper.readTree(smileMapper.writeValueAsBytes(TreeSet.of(widget))));
+        assertThat(response.getHeader("ETag")).isNotEqualTo(jsonTag).endsWith("-smile\"");
+    }
+
+    @Test
+    @DisplayName("Creating a new Widget in CBOR")
+    void createWidget_Cbor() throws Exception {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var cborMapper = new ObjectMapper(new CBORFactory());
+
+        when(widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand())).thenReturn(widget);
+
+        var response = mockMvc.perform(post("/widget").content(cborMapper.writeValueAsBytes(WidgetFixture.widgetCreateCommand()))
+                                                      .contentType(MediaType.APPLICATION_CBOR)
+                                                      .accept(MediaType.APPLICATION_CBOR))
+                              .andExpect(status().isOk())
+                              .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                              .andReturn()
+                              .getResponse();
+
+        assertThat(cborMapper.readTree(response.getContentAsByteArray())).isEqualTo(cborMapper.readTree(cborMapper.writeValueAsBytes(widget)));
     }
 
     @Test
@@ -109,13 +430,13 @@ class WidgetsApiTest {
 
         var expectedWidget = objectMapper.writeValueAsString(widget);
 
-        when(widgetsService.delete(uuid)).thenReturn(widget);
+        when(widgetsService.delete(BOARD, uuid)).thenReturn(widget);
 
         mockMvc.perform(delete("/widget/" + uuid.toString()))
                .andExpect(status().isOk())
                .andExpect(content().json(expectedWidget));
 
-        verify(widgetsService).delete(uuid);
+        verify(widgetsService).delete(BOARD, uuid);
     }
 
     @Test
@@ -127,13 +448,13 @@ class WidgetsApiTest {
         var widgetCommandJson = objectMapper.writeValueAsString(widgetCommand);
         var expectedWidget = objectMapper.writeValueAsString(widget);
 
-        when(widgetsService.create(any())).thenReturn(widget);
+        when(widgetsService.create(eq(BOARD), any())).thenReturn(widget);
 
         mockMvc.perform(post("/widget").content(widgetCommandJson).contentType(MediaType.APPLICATION_JSON))
                .andExpect(status().isOk())
                .andExpect(content().json(expectedWidget));
 
-        verify(widgetsService).create(any());
+        verify(widgetsService).create(eq(BOARD), any());
     }
 
     @Test
@@ -146,13 +467,13 @@ class WidgetsApiTest {
         var widgetCommandJson = objectMapper.writeValueAsString(widgetCommand);
         var expectedWidget = objectMapper.writeValueAsString(widget);
 
-        when(widgetsService.update(uuid, widgetCommand)).thenReturn(widget);
+        when(widgetsService.update(BOARD, uuid, widgetCommand)).thenReturn(widget);
 
         mockMvc.perform(post("/widget/" + uuid.toString()).content(widgetCommandJson).contentType(MediaType.APPLICATION_JSON))
                .andExpect(status().isOk())
                .andExpect(content().string(expectedWidget));
 
-        verify(widgetsService).update(uuid, widgetCommand);
+        verify(widgetsService).update(BOARD, uuid, widgetCommand);
     }
 
     @Test
@@ -165,13 +486,13 @@ class WidgetsApiTest {
         var widgetCommandJson = objectMapper.writeValueAsString(widgetCommand);
         var expectedErrorJson = objectMapper.writeValueAsString(expectedError);
 
-        when(widgetsService.update(uuid, widgetCommand)).thenThrow(new WidgetNotFoundException(uuid));
+        when(widgetsService.update(BOARD, uuid, widgetCommand)).thenThrow(new WidgetNotFoundException(uuid));
 
         mockMvc.perform(post("/widget/" + uuid.toString()).content(widgetCommandJson).contentType(MediaType.APPLICATION_JSON))
                .andExpect(status().isNotFound())
                .andExpect(content().json(expectedErrorJson));
 
-        verify(widgetsService).update(uuid, widgetCommand);
+        verify(widgetsService).update(BOARD, uuid, widgetCommand);
     }
 
     @Test
@@ -188,4 +509,46 @@ class WidgetsApiTest {
                .andExpect(status().isBadRequest())
                .andExpect(content().json(expectedErrorJson));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Applying a batch of operations")
+    void applyBatch() throws Exception {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
+        var batchCommand = WidgetBatchCommand.builder()
+                                             .operations(List.of(
+                                                     WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand()),
+                                                     WidgetBatchOperation.delete(UUID.randomUUID())
+                                             ))
+                                             .build();
+
+        var batchCommandJson = objectMapper.writeValueAsString(batchCommand);
+        var expectedWidgets = objectMapper.writeValueAsString(TreeSet.of(widget));
+
+        when(widgetsService.applyBatch(BOARD, batchCommand)).thenReturn(TreeSet.of(widget));
+
+        mockMvc.perform(post("/widget/batch").content(batchCommandJson).contentType(MediaType.APPLICATION_JSON))
+               .andExpect(status().isOk())
+               .andExpect(content().json(expectedWidgets));
+
+        verify(widgetsService).applyBatch(BOARD, batchCommand);
+    }
+
+    @Test
+    @DisplayName("Applying a batch with a malformed operation should fail")
+    void applyBatchInvalidOperation() throws Exception {
+        var batchCommand = WidgetBatchCommand.builder()
+                                             .operations(List.of(WidgetBatchOperation.builder().type(WidgetBatchOperation.Type.UPDATE).build()))
+                                             .build();
+        var expectedError = new Problem(
+                "Invalid Request",
+                "Create operations need a create command, updates a widget id and an update command, deletes a widget id"
+        );
+
+        mockMvc.perform(post("/widget/batch").content(objectMapper.writeValueAsString(batchCommand)).contentType(MediaType.APPLICATION_JSON))
+               .andExpect(status().isBadRequest())
+               .andExpect(content().json(objectMapper.writeValueAsString(expectedError)));
+
+        verifyNoInteractions(widgetsService);
+    }
+}
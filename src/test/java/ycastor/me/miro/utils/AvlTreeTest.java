@@ -0,0 +1,101 @@
+package ycastor.me.miro.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import cyclops.data.tuple.Tuple;
+import cyclops.data.tuple.Tuple2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AvlTreeTest {
+
+    private static final Comparator<Integer> ORDER = Comparator.naturalOrder();
+
+    @Test
+    @DisplayName("Keys added in ascending order should keep the tree shallow enough to walk and update")
+    void plus_AscendingKeys() {
+        var tree = AvlTree.<Integer, Integer>empty(ORDER);
+        for (int i = 0; i < 200_000; i++) {
+            tree = tree.plus(i, i);
+        }
+
+        for (int i = 0; i < 200_000; i += 2) {
+            tree = tree.minus(i);
+        }
+
+        assertThat(tree.size()).isEqualTo(100_000);
+        assertThat(tree.last().map(Tuple2::_1).orElse(null)).isEqualTo(199_999);
+        assertThat(tree.floor(100_000).map(Tuple2::_1).orElse(null)).isEqualTo(99_999);
+        assertThat(tree.valuesFromPosition(10).next()).isEqualTo(21);
+        assertThat(tree.valuesFrom(21, false).next()).isEqualTo(23);
+    }
+
+    @Test
+    @DisplayName("Building from sorted entries should give the same tree as adding them one by one")
+    void fromSorted_MatchesPlus() {
+        var entries = new ArrayList<Tuple2<Integer, Integer>>();
+        var added = AvlTree.<Integer, Integer>empty(ORDER);
+        for (int i = 0; i < 50_000; i++) {
+            entries.add(Tuple.tuple(i * 3, i));
+            added = added.plus(i * 3, i);
+        }
+
+        var built = AvlTree.fromSorted(ORDER, entries);
+
+        assertThat(built.size()).isEqualTo(added.size());
+        assertThat(values(built.values())).isEqualTo(values(added.values()));
+        assertThat(built.get(300).orElse(null)).isEqualTo(100);
+        assertThat(built.plus(1, -1).minus(0).valuesFromPosition(0).next()).isEqualTo(-1);
+    }
+
+    @Test
+    @DisplayName("Building from entries out of order or with repeated keys should be rejected")
+    void fromSorted_Unsorted() {
+        assertThatThrownBy(() -> AvlTree.fromSorted(ORDER, List.of(Tuple.tuple(2, 2), Tuple.tuple(1, 1)))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> AvlTree.fromSorted(ORDER, List.of(Tuple.tuple(1, 1), Tuple.tuple(1, 2)))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Random additions and removals should navigate like a java.util.TreeMap")
+    void randomOperations_MatchTreeMap() {
+        var random = new Random(11);
+        var tree = AvlTree.<Integer, Integer>empty(ORDER);
+        var expected = new TreeMap<Integer, Integer>();
+
+        for (int i = 0; i < 5_000; i++) {
+            int key = random.nextInt(1_000);
+            if (random.nextInt(3) == 0) {
+                tree = tree.minus(key);
+                expected.remove(key);
+            } else {
+                tree = tree.plus(key, i);
+                expected.put(key, i);
+            }
+
+            int probe = random.nextInt(1_100) - 50;
+            var floor = expected.floorEntry(probe);
+            assertThat(tree.size()).isEqualTo(expected.size());
+            assertThat(tree.get(probe).orElse(null)).isEqualTo(expected.get(probe));
+            assertThat(tree.floor(probe).map(Tuple2::_1).orElse(null)).isEqualTo(floor == null ? null : floor.getKey());
+            assertThat(values(tree.valuesFrom(probe, true))).isEqualTo(new ArrayList<>(expected.tailMap(probe, true).values()));
+        }
+
+        assertThat(values(tree.values())).isEqualTo(new ArrayList<>(expected.values()));
+        assertThat(values(tree.valuesFromPosition(expected.size() / 2))).isEqualTo(new ArrayList<>(expected.values()).subList(expected.size() / 2, expected.size()));
+    }
+
+    private static List<Integer> values(Iterator<Integer> iterator) {
+        var found = new ArrayList<Integer>();
+        iterator.forEachRemaining(found::add);
+        return found;
+    }
+}
@@ -0,0 +1,144 @@
+package ycastor.me.miro.widgets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.WidgetBatchCommand;
+import ycastor.me.miro.widgets.commands.WidgetBatchOperation;
+import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.datasources.InMemoryDataset;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchBoardTest {
+
+    private static final String BOARD = "board";
+
+    private InMemoryDataset inMemoryDataset;
+    private WidgetsService widgetsService;
+
+    @BeforeEach
+    void setUp() {
+        inMemoryDataset = new InMemoryDataset();
+        widgetsService = new WidgetsService(inMemoryDataset, new WidgetsCommandConverter(), new WidgetsFeed(16, 1));
+    }
+
+    @Test
+    @DisplayName("Creating several widgets on the same Z-Index should push the existing run once")
+    void createsOnSameZIndex_ShouldPushRunOnce() {
+        var existing1 = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(1).build());
+        var existing2 = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(2).build());
+        var afterGap = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(5).build());
+
+        var changed = widgetsService.applyBatch(BOARD, batch(
+                WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand().toBuilder().zIndex(1).build()),
+                WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand().toBuilder().zIndex(1).build())
+        ));
+
+        assertThat(changed).extracting(Widget::getZIndex).containsExactly(1, 2, 3, 4);
+        assertThat(inMemoryDataset.findById(BOARD, existing1.getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(3);
+        assertThat(inMemoryDataset.findById(BOARD, existing2.getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(4);
+        assertThat(inMemoryDataset.findById(BOARD, afterGap.getId()).orElse(null)).isEqualTo(afterGap);
+    }
+
+    @Test
+    @DisplayName("Operations of a batch should see the changes of the previous ones")
+    void operations_ShouldSeePreviousOnes() {
+        var existing = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(0).build());
+        var toDelete = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(1).build());
+
+        var changed = widgetsService.applyBatch(BOARD, batch(
+                WidgetBatchOperation.delete(toDelete.getId()),
+                WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand().toBuilder().zIndex(null).build()),
+                WidgetBatchOperation.update(existing.getId(), WidgetFixture.widgetUpdateCommand().toBuilder().zIndex(2).width(7).build())
+        ));
+
+        var board = inMemoryDataset.listAll(BOARD, PageRequest.of(0, 10));
+
+        assertThat(changed).hasSize(2);
+        assertThat(board).containsExactlyElementsOf(changed);
+        assertThat(board).extracting(Widget::getZIndex).containsExactly(2, 3);
+        assertThat(board.first().map(Widget::getWidth).orElse(null)).isEqualTo(7);
+        assertThat(inMemoryDataset.findById(BOARD, toDelete.getId()).isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("A failing operation should leave the board untouched")
+    void failingOperation_ShouldChangeNothing() {
+        var existing = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand());
+
+        assertThatThrownBy(() -> widgetsService.applyBatch(BOARD, batch(
+                WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand()),
+                WidgetBatchOperation.delete(UUID.randomUUID())
+        ))).isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 10))).containsExactly(existing);
+    }
+
+    @Test
+    @DisplayName("A random batch should leave the widgets in the same order as applying the operations one by one")
+    void randomBatch_ShouldMatchSequentialOrder() {
+        var random = new Random(11);
+        var sequentialDataset = new InMemoryDataset();
+        var sequentialService = new WidgetsService(sequentialDataset, new WidgetsCommandConverter(), new WidgetsFeed(16, 1));
+        var ids = new ArrayList<UUID>();
+
+        // every create and update gets its own width, so the widgets can be matched between both boards
+        for (int i = 0; i < 50; i++) {
+            var saved = widgetsService.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(random.nextInt(60)).width(1000 + i).build());
+            ids.add(saved.getId());
+        }
+        inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100)).forEach(widget -> sequentialDataset.save(BOARD, widget, TreeSet.empty()));
+
+        var operations = new ArrayList<WidgetBatchOperation>();
+        for (int i = 0; i < 200; i++) {
+            int choice = random.nextInt(3);
+            if (choice == 0 || ids.isEmpty()) {
+                operations.add(WidgetBatchOperation.create(WidgetFixture.widgetCreateCommand().toBuilder().zIndex(random.nextInt(80)).width(i + 1).build()));
+            } else if (choice == 1) {
+                var id = ids.get(random.nextInt(ids.size()));
+                operations.add(WidgetBatchOperation.update(id, WidgetFixture.widgetUpdateCommand().toBuilder().zIndex(random.nextInt(80)).width(i + 1).build()));
+            } else {
+                operations.add(WidgetBatchOperation.delete(ids.remove(random.nextInt(ids.size()))));
+            }
+        }
+
+        widgetsService.applyBatch(BOARD, WidgetBatchCommand.builder().operations(operations).build());
+        operations.forEach(operation -> {
+            switch (operation.getType()) {
+                case CREATE:
+                    sequentialService.create(BOARD, operation.getCreate());
+                    break;
+                case UPDATE:
+                    sequentialService.update(BOARD, operation.getWidgetId(), operation.getUpdate());
+                    break;
+                case DELETE:
+                    sequentialService.delete(BOARD, operation.getWidgetId());
+                    break;
+            }
+        });
+
+        var batchBoard = inMemoryDataset.listAll(BOARD, PageRequest.of(0, 1000));
+        var sequentialBoard = sequentialDataset.listAll(BOARD, PageRequest.of(0, 1000));
+
+        assertThat(batchBoard).extracting(Widget::getWidth).containsExactlyElementsOf(Vector.fromIterable(sequentialBoard).map(Widget::getWidth));
+    }
+
+    private static WidgetBatchCommand batch(WidgetBatchOperation... operations) {
+        return WidgetBatchCommand.builder().operations(List.of(operations)).build();
+    }
+}
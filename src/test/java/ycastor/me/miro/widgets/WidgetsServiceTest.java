@@ -1,23 +1,42 @@
 package ycastor.me.miro.widgets;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.PageRequest;
 
 import cyclops.control.Option;
 import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import cyclops.data.tuple.Tuple2;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import ycastor.me.miro.fixtures.WidgetFixture;
 import ycastor.me.miro.widgets.commands.FilterArea;
 import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.SelfOrderingRepository;
 import ycastor.me.miro.widgets.dao.WidgetRepository;
 import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.InvalidCursorException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+import ycastor.me.miro.widgets.feed.BoardChange;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -26,12 +45,18 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class WidgetsServiceTest {
 
+    private static final String BOARD = "board";
+
     @Mock
     private WidgetRepository widgetRepository;
     @Mock
     private WidgetsCommandConverter widgetsCommandConverter;
+    @Spy
+    private WidgetsFeed widgetsFeed = new WidgetsFeed(16, 1);
     @InjectMocks
     private WidgetsService widgetsService;
+    @Captor
+    private ArgumentCaptor<Function<Tuple2<Widget, Option<ZIndexRun>>, BoardChange>> recordedChange;
 
     @Test
     @DisplayName("Listing widgets")
@@ -39,18 +64,43 @@ class WidgetsServiceTest {
         var widget = WidgetFixture.oneWidget();
         var request = PageRequest.of(1, 100);
 
-        when(widgetRepository.listAll(request)).thenReturn(TreeSet.of(widget));
+        when(widgetRepository.listAll(BOARD, request)).thenReturn(TreeSet.of(widget));
 
-        var found = widgetsService.list(PageRequest.of(1, 100));
+        var found = widgetsService.list(BOARD, PageRequest.of(1, 100));
 
         assertThat(found).containsOnly(widget);
 
-        verify(widgetRepository).listAll(request);
+        verify(widgetRepository).listAll(BOARD, request);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
     }
 
+    @Test
+    @DisplayName("Listing widgets by cursor")
+    void listWidgetsByCursor() {
+        var widget1 = WidgetFixture.oneWidget().toBuilder().zIndex(3).build();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
+
+        when(widgetRepository.listAfterZIndex(BOARD, Option.none(), 2)).thenReturn(TreeSet.of(widget1, widget2));
+        when(widgetRepository.listAfterZIndex(BOARD, Option.some(4), 2)).thenReturn(TreeSet.empty());
+
+        var firstPage = widgetsService.listAfter(BOARD, "", 2);
+        var lastPage = widgetsService.listAfter(BOARD, firstPage.getNextCursor(), 2);
+
+        assertThat(firstPage.getWidgets()).containsExactly(widget1, widget2);
+        assertThat(lastPage.getWidgets()).isEmpty();
+        assertThat(lastPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    @DisplayName("Listing widgets with a malformed cursor")
+    void listWidgetsByInvalidCursor() {
+        assertThatThrownBy(() -> widgetsService.listAfter(BOARD, "not a cursor", 2)).isInstanceOf(InvalidCursorException.class);
+
+        verifyNoInteractions(widgetRepository);
+    }
+
     @Test
     @DisplayName("Listing widgets in Area")
     void listWidgetsInArea() {
@@ -60,13 +110,13 @@ class WidgetsServiceTest {
                                    .upperRight(new Coordinates(1, 1))
                                    .build();
 
-        when(widgetRepository.listAllWithinArea(filterArea)).thenReturn(TreeSet.of(widget));
+        when(widgetRepository.listAllWithinArea(BOARD, filterArea)).thenReturn(TreeSet.of(widget));
 
-        var found = widgetsService.filterInArea(filterArea);
+        var found = widgetsService.filterInArea(BOARD, filterArea);
 
         assertThat(found).containsOnly(widget);
 
-        verify(widgetRepository).listAllWithinArea(filterArea);
+        verify(widgetRepository).listAllWithinArea(BOARD, filterArea);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -78,13 +128,13 @@ class WidgetsServiceTest {
         var uuid = UUID.randomUUID();
         var widget = WidgetFixture.oneWidget();
 
-        when(widgetRepository.findById(uuid)).thenReturn(Option.of(widget));
+        when(widgetRepository.findById(BOARD, uuid)).thenReturn(Option.of(widget));
 
-        var found = widgetsService.fetch(uuid);
+        var found = widgetsService.fetch(BOARD, uuid);
 
         assertThat(found.orElse(null)).isEqualTo(widget);
 
-        verify(widgetRepository).findById(uuid);
+        verify(widgetRepository).findById(BOARD, uuid);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -97,17 +147,18 @@ class WidgetsServiceTest {
         var widget = WidgetFixture.oneWidget();
 
         when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.empty())).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.empty());
+        when(widgetRepository.save(BOARD, widget, TreeSet.empty())).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.empty());
 
-        var createdWidget = widgetsService.create(newWidget);
+        var createdWidget = widgetsService.create(BOARD, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
         verify(widgetsCommandConverter).fromCommand(newWidget, newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository).save(widget, TreeSet.empty());
-        verify(widgetRepository).findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository, never()).findLargestZIndex();
+        verify(widgetRepository).save(BOARD, widget, TreeSet.empty());
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0));
+        verify(widgetRepository, never()).findLargestZIndex(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -120,18 +171,19 @@ class WidgetsServiceTest {
         var widget = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
 
         when(widgetsCommandConverter.fromCommand(newWidget, 2)).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.empty())).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(2)).thenReturn(TreeSet.empty());
-        when(widgetRepository.findLargestZIndex()).thenReturn(1);
+        when(widgetRepository.save(BOARD, widget, TreeSet.empty())).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, 2)).thenReturn(TreeSet.empty());
+        when(widgetRepository.findLargestZIndex(BOARD)).thenReturn(1);
 
-        var createdWidget = widgetsService.create(newWidget);
+        var createdWidget = widgetsService.create(BOARD, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
         verify(widgetsCommandConverter).fromCommand(newWidget, 2);
-        verify(widgetRepository).save(widget, TreeSet.empty());
-        verify(widgetRepository).findFromZIndexUntilGap(2);
-        verify(widgetRepository).findLargestZIndex();
+        verify(widgetRepository).save(BOARD, widget, TreeSet.empty());
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, 2);
+        verify(widgetRepository).findLargestZIndex(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -146,22 +198,82 @@ class WidgetsServiceTest {
         var fixedCollidedWidget = collidedWidget.toBuilder().zIndex(1).build();
 
         when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.of(fixedCollidedWidget))).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.of(collidedWidget));
+        when(widgetRepository.save(BOARD, widget, TreeSet.of(fixedCollidedWidget))).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.of(collidedWidget));
 
-        var createdWidget = widgetsService.create(newWidget);
+        var createdWidget = widgetsService.create(BOARD, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
         verify(widgetsCommandConverter).fromCommand(newWidget, newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository).save(widget, TreeSet.of(fixedCollidedWidget));
-        verify(widgetRepository).findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository, never()).findLargestZIndex();
+        verify(widgetRepository).save(BOARD, widget, TreeSet.of(fixedCollidedWidget));
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0));
+        verify(widgetRepository, never()).findLargestZIndex(BOARD);
+        verify(widgetsFeed).record(eq(BOARD), any(), any(), recordedChange.capture());
+
+        var change = recordedChange.getValue().apply(Tuple2.of(createdWidget, Option.none()));
+        assertThat(change.getCreated()).containsExactly(widget);
+        assertThat(change.getShifted()).containsExactly(fixedCollidedWidget);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
     }
 
+    @Test
+    @DisplayName("Creating a Widget on a self ordering repository should not look for collisions and count the run it pushed up")
+    void create_SelfOrderingRepository() {
+        var selfOrderingRepository = mock(SelfOrderingRepository.class);
+        var service = new WidgetsService(selfOrderingRepository, widgetsCommandConverter, widgetsFeed);
+        var newWidget = WidgetFixture.widgetCreateCommand();
+        var widget = WidgetFixture.oneWidget();
+        var shiftedRun = Option.some(new ZIndexRun(widget.getZIndex(), widget.getZIndex() + 2));
+        var registry = new SimpleMeterRegistry();
+
+        when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
+        when(selfOrderingRepository.saveReportingShift(BOARD, widget)).thenReturn(Tuple2.of(widget, shiftedRun));
+
+        Metrics.addRegistry(registry);
+        try {
+            var createdWidget = service.create(BOARD, newWidget);
+
+            assertThat(createdWidget).isEqualTo(widget);
+            assertThat(registry.get("widgets.collisions.shifted").summary().totalAmount()).isEqualTo(3);
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+
+        verify(widgetsCommandConverter).fromCommand(newWidget, newWidget.maybeZIndex().orElse(0));
+        verify(selfOrderingRepository).saveReportingShift(BOARD, widget);
+        verify(selfOrderingRepository).writtenVersion(BOARD);
+        verify(widgetsFeed).record(eq(BOARD), any(), any(), recordedChange.capture());
+
+        assertThat(recordedChange.getValue().apply(Tuple2.of(widget, shiftedRun)).getShiftedFrom()).isEqualTo(widget.getZIndex());
+
+        verifyNoMoreInteractions(selfOrderingRepository);
+        verifyNoMoreInteractions(widgetsCommandConverter);
+    }
+
+    @Test
+    @DisplayName("Creating a Widget at a free z-index of a self ordering repository should not tell subscribers about a shift")
+    void create_SelfOrderingRepository_NothingShifted() {
+        var selfOrderingRepository = mock(SelfOrderingRepository.class);
+        var service = new WidgetsService(selfOrderingRepository, widgetsCommandConverter, widgetsFeed);
+        var newWidget = WidgetFixture.widgetCreateCommand();
+        var widget = WidgetFixture.oneWidget();
+
+        when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
+        when(selfOrderingRepository.saveReportingShift(BOARD, widget)).thenReturn(Tuple2.of(widget, Option.none()));
+
+        service.create(BOARD, newWidget);
+
+        verify(widgetsFeed).record(eq(BOARD), any(), any(), recordedChange.capture());
+
+        var change = recordedChange.getValue().apply(Tuple2.of(widget, Option.none()));
+        assertThat(change.getCreated()).containsExactly(widget);
+        assertThat(change.getShiftedFrom()).isNull();
+    }
+
     @Test
     @DisplayName("Updating a Widget without collision")
     void update_WithoutCollision() {
@@ -169,20 +281,21 @@ class WidgetsServiceTest {
         var newWidget = WidgetFixture.widgetUpdateCommand();
         var widget = WidgetFixture.oneWidget().toBuilder().id(uuid).build();
 
-        when(widgetRepository.findById(uuid)).thenReturn(Option.of(widget));
+        when(widgetRepository.findById(BOARD, uuid)).thenReturn(Option.of(widget));
         when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.empty())).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.empty());
+        when(widgetRepository.save(BOARD, widget, TreeSet.empty())).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.empty());
 
-        var createdWidget = widgetsService.update(uuid, newWidget);
+        var createdWidget = widgetsService.update(BOARD, uuid, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
         verify(widgetsCommandConverter).fromCommand(newWidget, newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository).findById(uuid);
-        verify(widgetRepository).save(widget, TreeSet.empty());
-        verify(widgetRepository).findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository, never()).findLargestZIndex();
+        verify(widgetRepository).findById(BOARD, uuid);
+        verify(widgetRepository).save(BOARD, widget, TreeSet.empty());
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0));
+        verify(widgetRepository, never()).findLargestZIndex(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -195,21 +308,22 @@ class WidgetsServiceTest {
         var newWidget = WidgetFixture.widgetUpdateCommand().toBuilder().zIndex(null).build();
         var widget = WidgetFixture.oneWidget().toBuilder().zIndex(2).id(uuid).build();
 
-        when(widgetRepository.findById(uuid)).thenReturn(Option.of(widget));
+        when(widgetRepository.findById(BOARD, uuid)).thenReturn(Option.of(widget));
         when(widgetsCommandConverter.fromCommand(newWidget, 2)).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.empty())).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(2)).thenReturn(TreeSet.empty());
-        when(widgetRepository.findLargestZIndex()).thenReturn(1);
+        when(widgetRepository.save(BOARD, widget, TreeSet.empty())).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, 2)).thenReturn(TreeSet.empty());
+        when(widgetRepository.findLargestZIndex(BOARD)).thenReturn(1);
 
-        var createdWidget = widgetsService.update(uuid, newWidget);
+        var createdWidget = widgetsService.update(BOARD, uuid, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
         verify(widgetsCommandConverter).fromCommand(newWidget, 2);
-        verify(widgetRepository).findById(uuid);
-        verify(widgetRepository).save(widget, TreeSet.empty());
-        verify(widgetRepository).findFromZIndexUntilGap(2);
-        verify(widgetRepository).findLargestZIndex();
+        verify(widgetRepository).findById(BOARD, uuid);
+        verify(widgetRepository).save(BOARD, widget, TreeSet.empty());
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, 2);
+        verify(widgetRepository).findLargestZIndex(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -224,20 +338,21 @@ class WidgetsServiceTest {
         var collidedWidget = WidgetFixture.oneWidget();
         var fixedCollidedWidget = collidedWidget.toBuilder().zIndex(1).build();
 
-        when(widgetRepository.findById(uuid)).thenReturn(Option.of(widget));
+        when(widgetRepository.findById(BOARD, uuid)).thenReturn(Option.of(widget));
         when(widgetsCommandConverter.fromCommand(newWidget, newWidget.maybeZIndex().orElse(0))).thenReturn(widget);
-        when(widgetRepository.save(widget, TreeSet.of(fixedCollidedWidget))).thenReturn(widget);
-        when(widgetRepository.findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.of(collidedWidget));
+        when(widgetRepository.save(BOARD, widget, TreeSet.of(fixedCollidedWidget))).thenReturn(widget);
+        when(widgetRepository.findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0))).thenReturn(TreeSet.of(collidedWidget));
 
-        var createdWidget = widgetsService.update(uuid, newWidget);
+        var createdWidget = widgetsService.update(BOARD, uuid, newWidget);
 
         assertThat(createdWidget).isEqualTo(widget);
 
-        verify(widgetRepository).findById(uuid);
+        verify(widgetRepository).findById(BOARD, uuid);
         verify(widgetsCommandConverter).fromCommand(newWidget, newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository).save(widget, TreeSet.of(fixedCollidedWidget));
-        verify(widgetRepository).findFromZIndexUntilGap(newWidget.maybeZIndex().orElse(0));
-        verify(widgetRepository, never()).findLargestZIndex();
+        verify(widgetRepository).save(BOARD, widget, TreeSet.of(fixedCollidedWidget));
+        verify(widgetRepository).writtenVersion(BOARD);
+        verify(widgetRepository).findFromZIndexUntilGap(BOARD, newWidget.maybeZIndex().orElse(0));
+        verify(widgetRepository, never()).findLargestZIndex(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -249,11 +364,11 @@ class WidgetsServiceTest {
         var uuid = UUID.randomUUID();
         var newWidget = WidgetFixture.widgetUpdateCommand().toBuilder().build();
 
-        when(widgetRepository.findById(uuid)).thenReturn(Option.none());
+        when(widgetRepository.findById(BOARD, uuid)).thenReturn(Option.none());
 
-        assertThatThrownBy(() -> widgetsService.update(uuid, newWidget)).isInstanceOf(WidgetNotFoundException.class);
+        assertThatThrownBy(() -> widgetsService.update(BOARD, uuid, newWidget)).isInstanceOf(WidgetNotFoundException.class);
 
-        verify(widgetRepository).findById(uuid);
+        verify(widgetRepository).findById(BOARD, uuid);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
@@ -265,15 +380,86 @@ class WidgetsServiceTest {
         var uuid = UUID.randomUUID();
         var widget = WidgetFixture.oneWidget();
 
-        when(widgetRepository.delete(uuid)).thenReturn(widget);
+        when(widgetRepository.delete(BOARD, uuid)).thenReturn(widget);
 
-        var found = widgetsService.delete(uuid);
+        var found = widgetsService.delete(BOARD, uuid);
 
         assertThat(found).isEqualTo(widget);
 
-        verify(widgetRepository).delete(uuid);
+        verify(widgetRepository).delete(BOARD, uuid);
+        verify(widgetRepository).writtenVersion(BOARD);
 
         verifyNoMoreInteractions(widgetRepository);
         verifyNoMoreInteractions(widgetsCommandConverter);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("A write that lost against a concurrent change should be tried again")
+    void delete_ConcurrentChange_ShouldRetry() {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget();
+
+        when(widgetRepository.delete(BOARD, uuid)).thenThrow(new WidgetsChangedException(uuid)).thenReturn(widget);
+
+        assertThat(widgetsService.delete(BOARD, uuid)).isEqualTo(widget);
+
+        verify(widgetRepository, times(2)).delete(BOARD, uuid);
+    }
+
+    @Test
+    @DisplayName("A write that keeps losing against concurrent changes should give up after a few attempts")
+    void delete_KeepsChanging_ShouldGiveUp() {
+        var uuid = UUID.randomUUID();
+
+        when(widgetRepository.delete(BOARD, uuid)).thenThrow(new WidgetsChangedException(uuid));
+
+        assertThatThrownBy(() -> widgetsService.delete(BOARD, uuid)).isInstanceOf(WidgetsChangedException.class);
+
+        verify(widgetRepository, times(4)).delete(BOARD, uuid);
+    }
+
+    @Test
+    @DisplayName("Writes of a group should be tried again right away, without holding the writer lane that applies it")
+    void writeGroup_ConcurrentChange_ShouldRetryWithoutBackoff() {
+        var uuid = UUID.randomUUID();
+        var widget = WidgetFixture.oneWidget();
+        var deleted = new AtomicReference<Widget>();
+
+        when(widgetRepository.delete(BOARD, uuid)).thenThrow(new WidgetsChangedException(uuid), new WidgetsChangedException(uuid)).thenReturn(widget);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(widgetRepository).writeGroup(eq(BOARD), any());
+
+        // a backoff gives up on an interrupted thread, so any sleep fails the write
+        Thread.currentThread().interrupt();
+        try {
+            widgetsService.writeGroup(BOARD, () -> deleted.set(widgetsService.delete(BOARD, uuid)));
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThat(deleted.get()).isEqualTo(widget);
+        verify(widgetRepository, times(3)).delete(BOARD, uuid);
+    }
+
+    @Test
+    @DisplayName("Importing should hand the widgets over with ids and stop at the first one out of z-order")
+    void importBoard_ChecksEveryWidget() {
+        var loaded = new ArrayList<Widget>();
+        when(widgetRepository.importWidgets(eq(BOARD), any(), eq(100))).thenAnswer(invocation -> {
+            Iterator<Widget> widgets = invocation.getArgument(1);
+            widgets.forEachRemaining(loaded::add);
+            return (long) loaded.size();
+        });
+        var inOrder = Vector.of(1, 2, 5).map(zIndex -> WidgetFixture.oneWidget().toBuilder().zIndex(zIndex).build());
+        var outOfOrder = Vector.of(1, 3, 3).map(zIndex -> WidgetFixture.oneWidget().toBuilder().zIndex(zIndex).build());
+
+        assertThat(widgetsService.importBoard(BOARD, inOrder.iterator(), 100)).isEqualTo(3);
+        assertThat(loaded).extracting(Widget::getZIndex).containsExactly(1, 2, 5);
+        assertThat(loaded).allSatisfy(widget -> assertThat(widget.getId()).isNotNull());
+
+        assertThatThrownBy(() -> widgetsService.importBoard(BOARD, outOfOrder.iterator(), 100)).isInstanceOf(InvalidImportException.class)
+                                                                                               .hasMessageContaining("#3");
+    }
+}
@@ -0,0 +1,186 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import cyclops.control.Option;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import cyclops.data.tuple.Tuple2;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachedSqlDatasetTest {
+
+    private static final String BOARD = "board";
+
+    @Mock
+    private SqlDataset sqlDataset;
+    private CachedSqlDataset cachedSqlDataset;
+
+    @BeforeEach
+    void setUp() {
+        cachedSqlDataset = new CachedSqlDataset(sqlDataset, 100, 10, 10);
+    }
+
+    @Test
+    @DisplayName("Reading a widget twice only loads it once")
+    void findById_Cached() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        when(sqlDataset.findById(BOARD, widget.getId())).thenReturn(Option.some(widget));
+
+        assertThat(cachedSqlDataset.findById(BOARD, widget.getId())).containsExactly(widget);
+        assertThat(cachedSqlDataset.findById(BOARD, widget.getId())).containsExactly(widget);
+
+        verify(sqlDataset, times(1)).findById(BOARD, widget.getId());
+    }
+
+    @Test
+    @DisplayName("Missing widgets are not cached")
+    void findById_MissingNotCached() {
+        var id = UUID.randomUUID();
+        when(sqlDataset.findById(BOARD, id)).thenReturn(Option.none());
+
+        assertThat(cachedSqlDataset.findById(BOARD, id).isPresent()).isFalse();
+        assertThat(cachedSqlDataset.findById(BOARD, id).isPresent()).isFalse();
+
+        verify(sqlDataset, times(2)).findById(BOARD, id);
+    }
+
+    @Test
+    @DisplayName("Saving drops the widgets of the run the datasource shifted, the ones below or past its end stay cached")
+    void save_InvalidatesShiftedRun() {
+        var below = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var shifted = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(4).build();
+        var pastRun = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(6).build();
+        var saved = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(3).build();
+        when(sqlDataset.findById(BOARD, below.getId())).thenReturn(Option.some(below));
+        when(sqlDataset.findById(BOARD, shifted.getId())).thenReturn(Option.some(shifted));
+        when(sqlDataset.findById(BOARD, pastRun.getId())).thenReturn(Option.some(pastRun));
+        when(sqlDataset.saveReportingShift(BOARD, saved)).thenReturn(Tuple2.of(saved, Option.some(new ZIndexRun(3, 4))));
+
+        Vector.of(below, shifted, pastRun).forEach(widget -> cachedSqlDataset.findById(BOARD, widget.getId()));
+        cachedSqlDataset.save(BOARD, saved, TreeSet.empty());
+        Vector.of(below, shifted, pastRun).forEach(widget -> cachedSqlDataset.findById(BOARD, widget.getId()));
+
+        verify(sqlDataset, times(1)).findById(BOARD, below.getId());
+        verify(sqlDataset, times(2)).findById(BOARD, shifted.getId());
+        verify(sqlDataset, times(1)).findById(BOARD, pastRun.getId());
+    }
+
+    @Test
+    @DisplayName("Deleting drops the widget, the largest z-index and the cached areas")
+    void delete_Invalidates() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(200, 200)).build();
+        when(sqlDataset.findById(BOARD, widget.getId())).thenReturn(Option.some(widget));
+        when(sqlDataset.findLargestZIndex(BOARD)).thenReturn(0);
+        when(sqlDataset.listAllWithinArea(BOARD, filterArea)).thenReturn(TreeSet.of(widget));
+
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        cachedSqlDataset.findLargestZIndex(BOARD);
+        cachedSqlDataset.listAllWithinArea(BOARD, filterArea);
+        cachedSqlDataset.findLargestZIndex(BOARD);
+        cachedSqlDataset.listAllWithinArea(BOARD, filterArea);
+        cachedSqlDataset.delete(BOARD, widget.getId());
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        cachedSqlDataset.findLargestZIndex(BOARD);
+        cachedSqlDataset.listAllWithinArea(BOARD, filterArea);
+
+        verify(sqlDataset, times(2)).findById(BOARD, widget.getId());
+        verify(sqlDataset, times(2)).findLargestZIndex(BOARD);
+        verify(sqlDataset, times(2)).listAllWithinArea(BOARD, filterArea);
+    }
+
+    @Test
+    @DisplayName("Areas are cached by board and area only, reading them again needs no round-trip for the board version")
+    void listAllWithinArea_Cached() {
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(200, 200)).build();
+        when(sqlDataset.listAllWithinArea(BOARD, filterArea)).thenReturn(TreeSet.empty());
+
+        cachedSqlDataset.listAllWithinArea(BOARD, filterArea);
+        cachedSqlDataset.listAllWithinArea(BOARD, filterArea);
+
+        verify(sqlDataset, times(1)).listAllWithinArea(BOARD, filterArea);
+        verify(sqlDataset, never()).boardVersion(BOARD);
+    }
+
+    @Test
+    @DisplayName("A board stops being indexed once none of its widgets is cached by id")
+    void delete_DropsEmptyIndex() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        when(sqlDataset.findById(BOARD, widget.getId())).thenReturn(Option.some(widget));
+
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        assertThat(cachedSqlDataset.indexedBoards()).isEqualTo(1);
+        cachedSqlDataset.delete(BOARD, widget.getId());
+
+        assertThat(cachedSqlDataset.indexedBoards()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Writes to another board keep what this board cached")
+    void delete_KeepsOtherBoards() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        when(sqlDataset.findById(BOARD, widget.getId())).thenReturn(Option.some(widget));
+        when(sqlDataset.findLargestZIndex(BOARD)).thenReturn(0);
+
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        cachedSqlDataset.findLargestZIndex(BOARD);
+        cachedSqlDataset.delete("other", UUID.randomUUID());
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        cachedSqlDataset.findLargestZIndex(BOARD);
+
+        verify(sqlDataset, times(1)).findById(BOARD, widget.getId());
+        verify(sqlDataset, times(1)).findLargestZIndex(BOARD);
+    }
+
+    @Test
+    @DisplayName("Batches drop the widgets they update or delete")
+    void saveBatch_InvalidatesChanged() {
+        var updated = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(5).build();
+        var untouched = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(9).build();
+        var changes = WidgetChanges.builder().updated(Vector.of(updated)).build();
+        when(sqlDataset.findById(BOARD, updated.getId())).thenReturn(Option.some(updated));
+        when(sqlDataset.findById(BOARD, untouched.getId())).thenReturn(Option.some(untouched));
+        when(sqlDataset.saveBatch(BOARD, changes)).thenReturn(TreeSet.of(updated));
+
+        cachedSqlDataset.findById(BOARD, updated.getId());
+        cachedSqlDataset.findById(BOARD, untouched.getId());
+        cachedSqlDataset.saveBatch(BOARD, changes);
+        cachedSqlDataset.findById(BOARD, updated.getId());
+        cachedSqlDataset.findById(BOARD, untouched.getId());
+
+        verify(sqlDataset, times(2)).findById(BOARD, updated.getId());
+        verify(sqlDataset, times(1)).findById(BOARD, untouched.getId());
+    }
+
+    @Test
+    @DisplayName("A load that overlaps a write is not cached")
+    void findById_OverlappingWriteNotCached() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(9).build();
+        var other = UUID.randomUUID();
+        when(sqlDataset.findById(BOARD, widget.getId())).thenAnswer(invocation -> {
+            cachedSqlDataset.delete(BOARD, other);
+            return Option.some(widget);
+        }).thenReturn(Option.some(widget));
+
+        cachedSqlDataset.findById(BOARD, widget.getId());
+        cachedSqlDataset.findById(BOARD, widget.getId());
+
+        verify(sqlDataset, times(2)).findById(BOARD, widget.getId());
+    }
+}
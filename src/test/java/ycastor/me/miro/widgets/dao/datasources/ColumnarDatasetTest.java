@@ -0,0 +1,213 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import cyclops.control.Option;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarDatasetTest {
+
+    private static final String BOARD = "board";
+
+    private ColumnarDataset columnarDataset;
+
+    @BeforeEach
+    void setUp() {
+        columnarDataset = new ColumnarDataset();
+    }
+
+    @Test
+    @DisplayName("Boards should keep their own z-order and only find their own widgets")
+    void boards_ShouldBeIndependent() {
+        var saved = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var other = columnarDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved);
+        assertThat(columnarDataset.listAll("other", PageRequest.of(0, 100))).containsExactly(other);
+        assertThat(columnarDataset.findById("other", saved.getId()).isPresent()).isFalse();
+        assertThat(columnarDataset.findLargestZIndex("empty")).isEqualTo(0);
+        assertThatThrownBy(() -> columnarDataset.delete("other", saved.getId())).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("When there are collisions, the collided run should shift up in place")
+    void saveWithCollision_ShouldShiftRun() {
+        var saved1 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var saved3 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(4).build(), TreeSet.empty());
+
+        var pushed1 = saved1.toBuilder().zIndex(2).build();
+        var pushed2 = saved2.toBuilder().zIndex(3).build();
+        var saved = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.of(pushed1, pushed2));
+
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved, pushed1, pushed2, saved3);
+        assertThat(columnarDataset.findFromZIndexUntilGap(BOARD, 1)).containsExactly(saved, pushed1, pushed2, saved3);
+        assertThat(columnarDataset.findById(BOARD, saved1.getId()).orElse(null)).isEqualTo(pushed1);
+    }
+
+    @Test
+    @DisplayName("Saving into a z-index taken by a widget that was not collided should fail without changes, its version included")
+    void save_OccupiedZIndex_ShouldFail() {
+        var saved = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        long version = columnarDataset.boardVersion(BOARD);
+
+        assertThatThrownBy(() -> columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty()))
+                .isInstanceOf(WidgetsChangedException.class);
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved);
+        assertThat(version).isEqualTo(1);
+        assertThat(columnarDataset.boardVersion(BOARD)).isEqualTo(version);
+        assertThat(columnarDataset.writtenVersion(BOARD)).isEqualTo(version);
+    }
+
+    @Test
+    @DisplayName("Deleting a non-existing widget should throw, deleting an existing one should split its run")
+    void delete() {
+        var saved1 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(0).build(), TreeSet.empty());
+        var saved2 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved3 = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        assertThat(columnarDataset.delete(BOARD, saved2.getId())).isEqualTo(saved2);
+        assertThatThrownBy(() -> columnarDataset.delete(BOARD, saved2.getId())).isInstanceOf(WidgetNotFoundException.class);
+        assertThat(columnarDataset.findFromZIndexUntilGap(BOARD, 0)).containsExactly(saved1);
+        assertThat(columnarDataset.findFromZIndexUntilGap(BOARD, 2)).containsExactly(saved3);
+        assertThat(columnarDataset.findLargestZIndex(BOARD)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Saving a batch planned over widgets that are gone should fail without changes")
+    void saveBatch_ChangedBoard_ShouldFail() {
+        var saved = columnarDataset.save(BOARD, WidgetFixture.oneWidget(), TreeSet.empty());
+        var gone = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(3).build();
+
+        assertThatThrownBy(() -> columnarDataset.saveBatch(BOARD, WidgetChanges.builder().updated(Vector.of(gone)).build()))
+                .isInstanceOf(WidgetsChangedException.class);
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved);
+    }
+
+    @Test
+    @DisplayName("A write group failing halfway should undo the writes it applied, a group that succeeds keeps them all")
+    void writeGroup_FailingWrite_ShouldUndoGroup() {
+        var bottom = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var top = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var pushed = TreeSet.of(bottom.toBuilder().zIndex(2).build(), top.toBuilder().zIndex(3).build());
+
+        assertThatThrownBy(() -> columnarDataset.writeGroup(BOARD, () -> {
+            columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), pushed);
+            columnarDataset.delete(BOARD, bottom.getId());
+            columnarDataset.saveBatch(BOARD, WidgetChanges.builder().created(Vector.of(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(7).build())).build());
+            columnarDataset.delete(BOARD, UUID.randomUUID());
+        })).isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(bottom, top);
+        assertThat(columnarDataset.findById(BOARD, bottom.getId()).orElse(null)).isEqualTo(bottom);
+
+        columnarDataset.writeGroup(BOARD, () -> {
+            columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), pushed);
+            columnarDataset.delete(BOARD, top.getId());
+        });
+
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 100))).extracting(Widget::getZIndex).containsExactly(1, 2);
+        assertThat(columnarDataset.findById(BOARD, bottom.getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Area scans should match the middle points strictly inside the area, in z-order")
+    void withinArea_ShouldFollowZOrder() {
+        var outside = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).xAxis(500).build(), TreeSet.empty());
+        var top = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+        var bottom = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var onTheEdge = columnarDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(4).xAxis(50).build(), TreeSet.empty());
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(100, 100)).build();
+
+        var streamed = new ArrayList<Widget>();
+        columnarDataset.forEachWithinArea(BOARD, filterArea, streamed::add);
+
+        assertThat(columnarDataset.listAllWithinArea(BOARD, filterArea)).containsExactly(bottom, top).doesNotContain(outside, onTheEdge);
+        assertThat(streamed).containsExactly(bottom, top);
+    }
+
+    @Test
+    @DisplayName("Random writes should leave the same board as the in-memory dataset")
+    void randomWrites_ShouldMatchInMemoryDataset() {
+        var inMemoryDataset = new InMemoryDataset();
+        var random = new Random(7);
+        var ids = new ArrayList<UUID>();
+
+        for (int i = 0; i < 5_000; i++) {
+            if (!ids.isEmpty() && random.nextInt(4) == 0) {
+                var id = ids.remove(random.nextInt(ids.size()));
+                assertThat(columnarDataset.delete(BOARD, id)).isEqualTo(inMemoryDataset.delete(BOARD, id));
+                continue;
+            }
+
+            int zIndex = random.nextInt(10_000);
+            var collided = inMemoryDataset.findFromZIndexUntilGap(BOARD, zIndex).map(w -> w.toBuilder().zIndex(w.getZIndex() + 1).build());
+            var widget = WidgetFixture.oneWidget().toBuilder()
+                                      .id(UUID.randomUUID())
+                                      .zIndex(zIndex)
+                                      .xAxis(random.nextInt(1_000))
+                                      .yAxis(random.nextInt(1_000))
+                                      .build();
+
+            assertThat(columnarDataset.save(BOARD, widget, collided)).isEqualTo(inMemoryDataset.save(BOARD, widget, collided));
+            ids.add(widget.getId());
+        }
+
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(100, 100)).upperRight(new Coordinates(600, 400)).build();
+        var streamed = new ArrayList<Widget>();
+        columnarDataset.forEachWidget(BOARD, streamed::add);
+
+        assertThat(streamed).containsExactlyElementsOf(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 10_000)));
+        assertThat(columnarDataset.listAllWithinArea(BOARD, filterArea)).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, filterArea));
+        assertThat(columnarDataset.listAfterZIndex(BOARD, Option.some(5_000), 50)).containsExactlyElementsOf(inMemoryDataset.listAfterZIndex(BOARD, Option.some(5_000), 50));
+        assertThat(columnarDataset.findLargestZIndex(BOARD)).isEqualTo(inMemoryDataset.findLargestZIndex(BOARD));
+        ids.forEach(id -> assertThat(columnarDataset.findById(BOARD, id).orElse(null)).isEqualTo(inMemoryDataset.findById(BOARD, id).orElse(null)));
+    }
+
+    @Test
+    @DisplayName("Batches should merge their widgets into the board in one pass, in any order")
+    void saveBatch_ShouldMergeUnsortedWidgets() {
+        var inMemoryDataset = new InMemoryDataset();
+        var random = new Random(5);
+        var created = new ArrayList<Widget>();
+
+        for (int i = 0; i < 3_000; i++) {
+            created.add(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i * 2).xAxis(random.nextInt(500)).build());
+        }
+        Collections.shuffle(created, random);
+
+        var firstBatch = WidgetChanges.builder().created(Vector.fromIterable(created.subList(0, 2_000))).build();
+        var secondBatch = WidgetChanges.builder()
+                                       .created(Vector.fromIterable(created.subList(2_000, 3_000)))
+                                       .updated(Vector.of(created.get(0).toBuilder().zIndex(-1).build(), created.get(1).toBuilder().xAxis(7).build()))
+                                       .deleted(Vector.of(created.get(2).getId(), created.get(3).getId()))
+                                       .build();
+
+        columnarDataset.saveBatch(BOARD, firstBatch);
+        inMemoryDataset.saveBatch(BOARD, firstBatch);
+        columnarDataset.saveBatch(BOARD, secondBatch);
+        inMemoryDataset.saveBatch(BOARD, secondBatch);
+
+        assertThat(columnarDataset.listAll(BOARD, PageRequest.of(0, 10_000))).containsExactlyElementsOf(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 10_000)));
+        created.forEach(widget -> assertThat(columnarDataset.findById(BOARD, widget.getId()).orElse(null)).isEqualTo(inMemoryDataset.findById(BOARD, widget.getId()).orElse(null)));
+    }
+}
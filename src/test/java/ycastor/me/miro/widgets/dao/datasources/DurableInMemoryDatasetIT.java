@@ -0,0 +1,78 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cyclops.data.TreeSet;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.journal.WidgetsJournal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DurableInMemoryDatasetIT {
+
+    private static final String BOARD = "board";
+
+    private static final int ACKNOWLEDGED_BEFORE_KILL = 500;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Every acknowledged write survives killing the JVM")
+    void kill_KeepsAcknowledgedWrites() throws Exception {
+        var process = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                Writer.class.getName(), directory.toString()
+        ).redirectErrorStream(true).start();
+
+        var acknowledged = new ArrayList<UUID>();
+        try (var lines = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while (acknowledged.size() < ACKNOWLEDGED_BEFORE_KILL && (line = lines.readLine()) != null) {
+                if (line.startsWith("saved ")) {
+                    acknowledged.add(UUID.fromString(line.substring("saved ".length())));
+                }
+            }
+
+            process.destroyForcibly();
+            assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+        }
+
+        try (var journal = new WidgetsJournal(directory.toString(), 0)) {
+            var recovered = new InMemoryDataset(Optional.of(journal));
+
+            assertThat(acknowledged).hasSize(ACKNOWLEDGED_BEFORE_KILL);
+            acknowledged.forEach(id -> assertThat(recovered.findById(BOARD, id).isPresent()).as("widget %s", id).isTrue());
+        }
+    }
+
+    // Saves on top of the board until killed, printing each widget once its save returned
+    public static class Writer {
+        public static void main(String[] args) {
+            var journal = new WidgetsJournal(args[0], 1);
+            var dataset = new InMemoryDataset(Optional.of(journal));
+
+            for (int i = 0; ; i++) {
+                var saved = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(i).build(), TreeSet.empty());
+                System.out.println("saved " + saved.getId());
+                System.out.flush();
+
+                if (i % 200 == 0) {
+                    dataset.snapshot();
+                }
+            }
+        }
+    }
+}
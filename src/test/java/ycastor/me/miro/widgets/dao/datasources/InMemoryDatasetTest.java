@@ -1,23 +1,37 @@
 package ycastor.me.miro.widgets.dao.datasources;
 
+import java.util.ArrayList;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.domain.PageRequest;
 
+import cyclops.control.Option;
 import cyclops.data.TreeSet;
+import cyclops.data.Vector;
 import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.utils.SortedSets;
 import ycastor.me.miro.widgets.commands.FilterArea;
 import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
 import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class InMemoryDatasetTest {
 
+    private static final String BOARD = "board";
+
     private InMemoryDataset inMemoryDataset;
 
     @BeforeEach
@@ -30,12 +44,38 @@ class InMemoryDatasetTest {
     void fetchExistingWidget_ShouldReturnSuccessfully() {
         var widget = WidgetFixture.oneWidget();
 
-        var saved = inMemoryDataset.save(widget, TreeSet.empty());
-        var found = inMemoryDataset.findById(saved.getId());
+        var saved = inMemoryDataset.save(BOARD, widget, TreeSet.empty());
+        var found = inMemoryDataset.findById(BOARD, saved.getId());
 
         assertThat(found.orElse(null)).isEqualTo(saved);
     }
 
+    @Test
+    @DisplayName("Boards should keep their own z-order and only find their own widgets")
+    void boards_ShouldBeIndependent() {
+        var saved = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var other = inMemoryDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved);
+        assertThat(inMemoryDataset.listAll("other", PageRequest.of(0, 100))).containsExactly(other);
+        assertThat(inMemoryDataset.findById("other", saved.getId()).isPresent()).isFalse();
+        assertThat(inMemoryDataset.findLargestZIndex("empty")).isEqualTo(0);
+        assertThatThrownBy(() -> inMemoryDataset.delete("other", saved.getId())).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Every write should bump the version of its own board only")
+    void boardVersion_BumpedByWrites() {
+        var saved = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        inMemoryDataset.save(BOARD, saved.toBuilder().zIndex(2).build(), TreeSet.empty());
+        long beforeDelete = inMemoryDataset.boardVersion(BOARD);
+        inMemoryDataset.delete(BOARD, saved.getId());
+
+        assertThat(beforeDelete).isEqualTo(2);
+        assertThat(inMemoryDataset.boardVersion(BOARD)).isEqualTo(3);
+        assertThat(inMemoryDataset.boardVersion("other")).isEqualTo(0);
+    }
+
     @Test
     @DisplayName("When there are collisions, the affected widgets should also be updated")
     void saveWithCollision_ShouldUpdateAffected() {
@@ -44,15 +84,15 @@ class InMemoryDatasetTest {
         var existingWidget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
         var existingWidget3 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
 
-        var saved1 = inMemoryDataset.save(existingWidget1, TreeSet.empty());
-        var saved2 = inMemoryDataset.save(existingWidget2, TreeSet.empty());
-        var saved3 = inMemoryDataset.save(existingWidget3, TreeSet.empty());
+        var saved1 = inMemoryDataset.save(BOARD, existingWidget1, TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, existingWidget2, TreeSet.empty());
+        var saved3 = inMemoryDataset.save(BOARD, existingWidget3, TreeSet.empty());
 
         var collidedWidget1 = saved1.toBuilder().zIndex(saved1.getZIndex() + 1).build();
         var collidedWidget2 = saved2.toBuilder().zIndex(saved2.getZIndex() + 1).build();
 
-        var savedWidget = inMemoryDataset.save(newWidget, TreeSet.of(collidedWidget1, collidedWidget2));
-        var currentState = inMemoryDataset.listAll(PageRequest.of(0, 100));
+        var savedWidget = inMemoryDataset.save(BOARD, newWidget, TreeSet.of(collidedWidget1, collidedWidget2));
+        var currentState = inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100));
 
         assertThat(currentState).containsOnly(savedWidget, collidedWidget1, collidedWidget2, saved3);
     }
@@ -61,10 +101,10 @@ class InMemoryDatasetTest {
     @DisplayName("Updating a widget should update the state correctly")
     void updateWidget_ShouldUpdateStateCorrectly() {
         var existingWidget = WidgetFixture.oneWidget();
-        var saved = inMemoryDataset.save(existingWidget, TreeSet.empty());
+        var saved = inMemoryDataset.save(BOARD, existingWidget, TreeSet.empty());
 
         var update = WidgetFixture.oneWidget().toBuilder().id(saved.getId()).zIndex(2).build();
-        var updatedWidget = inMemoryDataset.save(update, TreeSet.empty());
+        var updatedWidget = inMemoryDataset.save(BOARD, update, TreeSet.empty());
 
         assertThat(updatedWidget).isEqualTo(update);
     }
@@ -73,10 +113,10 @@ class InMemoryDatasetTest {
     @DisplayName("Deleting an existing Widget should update the state correctly")
     void deleteExistingWidget_ShouldUpdateStateCorrectly() {
         var widget = WidgetFixture.oneWidget();
-        var saved = inMemoryDataset.save(widget, TreeSet.empty());
+        var saved = inMemoryDataset.save(BOARD, widget, TreeSet.empty());
 
-        var deleted = inMemoryDataset.delete(saved.getId());
-        var found = inMemoryDataset.findById(saved.getId());
+        var deleted = inMemoryDataset.delete(BOARD, saved.getId());
+        var found = inMemoryDataset.findById(BOARD, saved.getId());
 
         assertThat(deleted).isEqualTo(saved);
         assertThat(found.isPresent()).isFalse();
@@ -85,7 +125,7 @@ class InMemoryDatasetTest {
     @Test
     @DisplayName("Trying to delete a non-existing widget should thrown an exception")
     void deleteNonExisting_ShouldThrowException() {
-        assertThatThrownBy(() -> inMemoryDataset.delete(UUID.randomUUID())).isInstanceOf(WidgetNotFoundException.class);
+        assertThatThrownBy(() -> inMemoryDataset.delete(BOARD, UUID.randomUUID())).isInstanceOf(WidgetNotFoundException.class);
     }
 
     @Test
@@ -95,11 +135,11 @@ class InMemoryDatasetTest {
         var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(100).build();
         var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(10000).build();
 
-        inMemoryDataset.save(widget1, TreeSet.empty());
-        inMemoryDataset.save(widget2, TreeSet.empty());
-        inMemoryDataset.save(widget3, TreeSet.empty());
+        inMemoryDataset.save(BOARD, widget1, TreeSet.empty());
+        inMemoryDataset.save(BOARD, widget2, TreeSet.empty());
+        inMemoryDataset.save(BOARD, widget3, TreeSet.empty());
 
-        int largestZindex = inMemoryDataset.findLargestZIndex();
+        int largestZindex = inMemoryDataset.findLargestZIndex(BOARD);
 
         assertThat(largestZindex).isEqualTo(10000);
     }
@@ -107,7 +147,7 @@ class InMemoryDatasetTest {
     @Test
     @DisplayName("When finding the largest Z-Index and there are no widgets, the Z-Index should be 0")
     void findLargestZIndex_NoWidgets() {
-        int largestZindex = inMemoryDataset.findLargestZIndex();
+        int largestZindex = inMemoryDataset.findLargestZIndex(BOARD);
         assertThat(largestZindex).isEqualTo(0);
     }
 
@@ -119,16 +159,44 @@ class InMemoryDatasetTest {
         var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
         var widget4 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
 
-        var saved1 = inMemoryDataset.save(widget1, TreeSet.empty());
-        var saved2 = inMemoryDataset.save(widget2, TreeSet.empty());
-        var saved3 = inMemoryDataset.save(widget3, TreeSet.empty());
-        inMemoryDataset.save(widget4, TreeSet.empty());
+        var saved1 = inMemoryDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, widget2, TreeSet.empty());
+        var saved3 = inMemoryDataset.save(BOARD, widget3, TreeSet.empty());
+        inMemoryDataset.save(BOARD, widget4, TreeSet.empty());
 
-        var subset = inMemoryDataset.findFromZIndexUntilGap(0);
+        var subset = inMemoryDataset.findFromZIndexUntilGap(BOARD, 0);
 
         assertThat(subset).containsOnly(saved1, saved2, saved3);
     }
 
+    @Test
+    @DisplayName("Searching from a Z-Index preceded by a gap should return its run")
+    void findFromZIndexUntilGap_AfterGap() {
+        var widget1 = WidgetFixture.oneWidget();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
+        var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(3).build();
+
+        inMemoryDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, widget2, TreeSet.empty());
+        var saved3 = inMemoryDataset.save(BOARD, widget3, TreeSet.empty());
+
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 2)).containsExactly(saved2, saved3);
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 1)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deleting a widget should split its Z-Index run")
+    void delete_SplitsRun() {
+        var saved1 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget(), TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved3 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        inMemoryDataset.delete(BOARD, saved2.getId());
+
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 0)).containsExactly(saved1);
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 2)).containsExactly(saved3);
+    }
+
     @Test
     @DisplayName("Fetching Widgets within an area")
     void findWidgets_OnlyWithinArea() {
@@ -137,12 +205,143 @@ class InMemoryDatasetTest {
         var widget3 = WidgetFixture.oneWidget().toBuilder().height(100).width(100).zIndex(3).xAxis(50).yAxis(50).build();
         var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(100, 150)).build();
 
-        var saved1 = inMemoryDataset.save(widget1, TreeSet.empty());
-        var saved2 = inMemoryDataset.save(widget2, TreeSet.empty());
-        inMemoryDataset.save(widget3, TreeSet.empty());
+        var saved1 = inMemoryDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, widget2, TreeSet.empty());
+        inMemoryDataset.save(BOARD, widget3, TreeSet.empty());
 
-        var inArea = inMemoryDataset.listAllWithinArea(filterArea);
+        var inArea = inMemoryDataset.listAllWithinArea(BOARD, filterArea);
 
         assertThat(inArea).containsOnly(saved1, saved2);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Writes in a group should see each other but only be visible to other threads once the group ends")
+    void writeGroup_PublishesOnce() {
+        inMemoryDataset.writeGroup(BOARD, () -> {
+            var saved1 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget(), TreeSet.empty());
+            var saved2 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+            assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved1, saved2);
+            assertThat(CompletableFuture.supplyAsync(() -> inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).join()).isEmpty();
+        });
+
+        assertThat(CompletableFuture.supplyAsync(() -> inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).join()).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Saving a batch should apply every change in a single state transition")
+    void saveBatch_AppliesAllChanges() {
+        var saved1 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        var created = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var pushed = saved1.toBuilder().zIndex(2).build();
+
+        var changed = inMemoryDataset.saveBatch(BOARD, WidgetChanges.builder()
+                                                             .created(Vector.of(created))
+                                                             .updated(Vector.of(pushed))
+                                                             .deleted(Vector.of(saved2.getId()))
+                                                             .build());
+
+        assertThat(changed).containsExactly(created, pushed);
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(created, pushed);
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 1)).containsExactly(created, pushed);
+    }
+
+    @Test
+    @DisplayName("Saving a batch planned over widgets that are gone should fail without changes")
+    void saveBatch_ChangedBoard_ShouldFail() {
+        var saved = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget(), TreeSet.empty());
+        var gone = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(3).build();
+
+        assertThatThrownBy(() -> inMemoryDataset.saveBatch(BOARD, WidgetChanges.builder().updated(Vector.of(gone)).build()))
+                .isInstanceOf(WidgetsChangedException.class);
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved);
+    }
+
+    @Test
+    @DisplayName("Listing after a z-index should seek right above it, across gaps")
+    void listAfterZIndex_ShouldSeekAboveIt() {
+        var saved1 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).build(), TreeSet.empty());
+        var saved3 = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(6).build(), TreeSet.empty());
+
+        assertThat(inMemoryDataset.listAfterZIndex(BOARD, Option.none(), 2)).containsExactly(saved1, saved2);
+        assertThat(inMemoryDataset.listAfterZIndex(BOARD, Option.some(1), 2)).containsExactly(saved2, saved3);
+        assertThat(inMemoryDataset.listAfterZIndex(BOARD, Option.some(3), 10)).containsExactly(saved2, saved3);
+        assertThat(inMemoryDataset.listAfterZIndex(BOARD, Option.some(6), 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Streaming within an area should hand the matching widgets over in z-order, found by the area index")
+    void forEachWithinArea_ShouldFollowZOrder() {
+        var indexedDataset = new InMemoryDataset() {
+            @Override
+            public void forEachWidget(String boardId, Consumer<Widget> action) {
+                throw new AssertionError("the whole board was scanned");
+            }
+        };
+        var outside = indexedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).xAxis(500).build(), TreeSet.empty());
+        var top = indexedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+        var bottom = indexedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var filterArea = FilterArea.builder()
+                                   .lowerLeft(new Coordinates(0, 0))
+                                   .upperRight(new Coordinates(100, 100))
+                                   .build();
+
+        var streamed = new ArrayList<Widget>();
+        indexedDataset.forEachWithinArea(BOARD, filterArea, streamed::add);
+
+        assertThat(streamed).containsExactly(bottom, top).doesNotContain(outside);
+    }
+
+    @Test
+    @DisplayName("Importing should build the board and its Z-Index runs in one publication, across chunks")
+    void importWidgets_BuildsBoard() {
+        var imported = Vector.of(1, 2, 3, 7, 8).map(zIndex -> WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(zIndex).build());
+        long version = inMemoryDataset.boardVersion(BOARD);
+
+        assertThat(inMemoryDataset.importWidgets(BOARD, imported.iterator(), 2)).isEqualTo(5);
+
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactlyElementsOf(imported);
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 2)).containsExactly(imported.getOrElse(1, null), imported.getOrElse(2, null));
+        assertThat(inMemoryDataset.findFromZIndexUntilGap(BOARD, 7)).containsExactly(imported.getOrElse(3, null), imported.getOrElse(4, null));
+        assertThat(inMemoryDataset.findById(BOARD, imported.getOrElse(4, null).getId()).isPresent()).isTrue();
+        assertThat(inMemoryDataset.boardVersion(BOARD)).isGreaterThan(version);
+    }
+
+    @Test
+    @DisplayName("Importing a large board in z-order should leave it readable and writable at any Z-Index")
+    void importWidgets_LargeBoard() {
+        var random = new Random(3);
+        var imported = new ArrayList<Widget>();
+        for (int i = 0; i < 25_000; i++) {
+            imported.add(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i).xAxis(random.nextInt(10_000)).yAxis(random.nextInt(10_000)).build());
+        }
+
+        assertThat(inMemoryDataset.importWidgets(BOARD, imported.iterator(), 1_000)).isEqualTo(25_000);
+
+        var collided = inMemoryDataset.findFromZIndexUntilGap(BOARD, 0);
+        var shifted = Vector.fromIterable(collided).map(widget -> widget.toBuilder().zIndex(widget.getZIndex() + 1).build());
+        var saved = inMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(0).build(), SortedSets.fromIterable(shifted));
+
+        assertThat(collided).hasSize(25_000);
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(2_500, 10))).extracting(Widget::getZIndex).containsExactly(25_000);
+        assertThat(inMemoryDataset.findById(BOARD, imported.get(24_999).getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(25_000);
+        assertThat(inMemoryDataset.findById(BOARD, saved.getId()).isPresent()).isTrue();
+        assertThat(inMemoryDataset.findLargestZIndex(BOARD)).isEqualTo(25_000);
+    }
+
+    @Test
+    @DisplayName("Importing into a board with widgets or with a repeated id should leave the board as it was")
+    void importWidgets_Rejected() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var repeated = Vector.of(widget, widget.toBuilder().zIndex(2).build());
+
+        assertThatThrownBy(() -> inMemoryDataset.importWidgets(BOARD, repeated.iterator(), 10)).isInstanceOf(InvalidImportException.class);
+        assertThat(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).isEmpty();
+
+        inMemoryDataset.save(BOARD, widget, TreeSet.empty());
+        assertThatThrownBy(() -> inMemoryDataset.importWidgets(BOARD, Vector.<Widget>empty().iterator(), 10)).isInstanceOf(BoardNotEmptyException.class);
+    }
+}
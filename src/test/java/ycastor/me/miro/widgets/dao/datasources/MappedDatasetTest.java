@@ -0,0 +1,136 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+
+import cyclops.data.TreeSet;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedDatasetTest {
+
+    private static final String BOARD = "board";
+
+    @TempDir
+    Path directory;
+
+    private MappedDataset mappedDataset;
+
+    @BeforeEach
+    void setUp() {
+        mappedDataset = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        mappedDataset.close();
+    }
+
+    @Test
+    @DisplayName("When there are collisions, the collided run should shift up in the mapped slots")
+    void saveWithCollision_ShouldShiftRun() {
+        var saved1 = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        var pushed1 = saved1.toBuilder().zIndex(2).build();
+        var pushed2 = saved2.toBuilder().zIndex(3).build();
+        var saved = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.of(pushed1, pushed2));
+
+        assertThat(mappedDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved, pushed1, pushed2);
+        assertThat(mappedDataset.findById(BOARD, saved2.getId()).orElse(null)).isEqualTo(pushed2);
+    }
+
+    @Test
+    @DisplayName("A cleanly closed file should reload the board, reusing the slots freed before")
+    void reopen_ShouldReloadBoard() {
+        var kept = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).xAxis(-20).build(), TreeSet.empty());
+        var deleted = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        mappedDataset.delete(BOARD, deleted.getId());
+
+        mappedDataset.close();
+        mappedDataset = open();
+        var added = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        assertThat(mappedDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(added, kept);
+        assertThat(mappedDataset.findById(BOARD, deleted.getId()).isPresent()).isFalse();
+        assertThat(mappedDataset.findLargestZIndex(BOARD)).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Every board should be kept in its own file and reloaded with its own z-order")
+    void reopen_ShouldReloadEveryBoard() {
+        var first = mappedDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var other = mappedDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        mappedDataset.close();
+        mappedDataset = open();
+
+        assertThat(directory.resolve(BOARD + ".dat")).exists();
+        assertThat(directory.resolve("other.dat")).exists();
+        assertThat(mappedDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(first);
+        assertThat(mappedDataset.listAll("other", PageRequest.of(0, 100))).containsExactly(other);
+    }
+
+    @Test
+    @DisplayName("A file that was not closed should be discarded on the next open")
+    void reopenAfterCrash_ShouldStartEmpty() {
+        mappedDataset.save(BOARD, WidgetFixture.oneWidget(), TreeSet.empty());
+
+        var afterCrash = open();
+
+        assertThat(afterCrash.listAll(BOARD, PageRequest.of(0, 100))).isEmpty();
+        afterCrash.close();
+    }
+
+    @Test
+    @DisplayName("Random writes should leave the same board as the in-memory dataset, before and after reopening")
+    void randomWrites_ShouldMatchInMemoryDataset() {
+        var inMemoryDataset = new InMemoryDataset();
+        var random = new Random(11);
+        var ids = new ArrayList<UUID>();
+
+        for (int i = 0; i < 2_000; i++) {
+            if (!ids.isEmpty() && random.nextInt(4) == 0) {
+                var id = ids.remove(random.nextInt(ids.size()));
+                assertThat(mappedDataset.delete(BOARD, id)).isEqualTo(inMemoryDataset.delete(BOARD, id));
+                continue;
+            }
+
+            int zIndex = random.nextInt(4_000);
+            var collided = inMemoryDataset.findFromZIndexUntilGap(BOARD, zIndex).map(w -> w.toBuilder().zIndex(w.getZIndex() + 1).build());
+            var widget = WidgetFixture.oneWidget().toBuilder()
+                                      .id(UUID.randomUUID())
+                                      .zIndex(zIndex)
+                                      .xAxis(random.nextInt(1_000))
+                                      .yAxis(random.nextInt(1_000))
+                                      .build();
+
+            assertThat(mappedDataset.save(BOARD, widget, collided)).isEqualTo(inMemoryDataset.save(BOARD, widget, collided));
+            ids.add(widget.getId());
+        }
+
+        mappedDataset.close();
+        mappedDataset = open();
+
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(100, 100)).upperRight(new Coordinates(600, 400)).build();
+        assertThat(mappedDataset.listAll(BOARD, PageRequest.of(0, 10_000))).containsExactlyElementsOf(inMemoryDataset.listAll(BOARD, PageRequest.of(0, 10_000)));
+        assertThat(mappedDataset.listAllWithinArea(BOARD, filterArea)).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, filterArea));
+        ids.forEach(id -> assertThat(mappedDataset.findById(BOARD, id).orElse(null)).isEqualTo(inMemoryDataset.findById(BOARD, id).orElse(null)));
+    }
+
+    private MappedDataset open() {
+        return new MappedDataset(directory.toString());
+    }
+}
@@ -0,0 +1,171 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import cyclops.control.Option;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles("sql")
+class R2dbcSqlDatasetIT {
+
+    private static final String BOARD = "board";
+
+    @Autowired
+    private R2dbcSqlDataset r2dbcSqlDataset;
+
+    @Autowired
+    private SqlDataset sqlDataset;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM widget");
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM z_index_run");
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM board_version");
+    }
+
+    @Test
+    @DisplayName("A collision should push the run it lands on, on its own board only")
+    void saveWithCollision_ShouldPushRun() {
+        var saved = save(BOARD, 1);
+        var other = save("other", 1);
+
+        var top = r2dbcSqlDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build()).block();
+
+        assertThat(top._2().orElse(null)).isEqualTo(new ZIndexRun(1, 1));
+        assertThat(r2dbcSqlDataset.listAll(BOARD, Pageable.unpaged()).collectList().block()).containsExactly(top._1(), saved.toBuilder().zIndex(2).build());
+        assertThat(r2dbcSqlDataset.listAll("other", PageRequest.of(0, 10)).collectList().block()).containsExactly(other);
+        assertThat(r2dbcSqlDataset.findLargestZIndex(BOARD).block()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Widgets saved over R2DBC should read the same over JDBC")
+    void save_ShouldShareTheDatabase() {
+        var saved = save(BOARD, 3);
+
+        assertThat(sqlDataset.findById(BOARD, saved.getId()).orElse(null)).isEqualTo(saved);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 3)).containsExactly(saved);
+        assertThat(r2dbcSqlDataset.boardVersion(BOARD).block()).isEqualTo(sqlDataset.boardVersion(BOARD)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("An update planned against an older version of the widget should fail")
+    void save_StaleVersion_ShouldFail() {
+        var saved = save(BOARD, 1);
+        var moved = r2dbcSqlDataset.save(BOARD, saved.toBuilder().zIndex(5).build()).block();
+
+        assertThatThrownBy(() -> r2dbcSqlDataset.save(BOARD, saved.toBuilder().zIndex(7).build()).block()).isInstanceOf(WidgetsChangedException.class);
+        assertThat(r2dbcSqlDataset.findById(BOARD, saved.getId()).block()).isEqualTo(moved);
+        assertThat(r2dbcSqlDataset.listAfterZIndex(BOARD, Option.none(), 10).collectList().block()).containsExactly(moved);
+    }
+
+    @Test
+    @DisplayName("Deleting a widget should bump the version and a missing one should not be found")
+    void delete_ShouldRemoveWidget() {
+        var saved = save(BOARD, 1);
+
+        assertThat(r2dbcSqlDataset.delete(BOARD, saved.getId()).block()).isEqualTo(saved);
+        assertThatThrownBy(() -> r2dbcSqlDataset.delete(BOARD, UUID.randomUUID()).block()).isInstanceOf(WidgetNotFoundException.class);
+        assertThat(r2dbcSqlDataset.findById(BOARD, saved.getId()).blockOptional()).isEmpty();
+        assertThat(r2dbcSqlDataset.boardVersion(BOARD).block()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A batch should apply all of its changes at once")
+    void saveBatch_ShouldApplyAllChanges() {
+        var kept = save(BOARD, 1);
+        var deleted = save(BOARD, 2);
+        var created = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(3).build();
+        var updated = kept.toBuilder().xAxis(42).build();
+
+        var saved = r2dbcSqlDataset.saveBatch(BOARD, WidgetChanges.builder()
+                                                                               .created(Vector.of(created))
+                                                                               .updated(Vector.of(updated))
+                                                                               .deleted(Vector.of(deleted.getId()))
+                                                                               .build())
+                                   .collectList()
+                                   .block();
+
+        assertThat(saved).containsExactly(updated, created);
+        assertThat(r2dbcSqlDataset.listAll(BOARD, Pageable.unpaged()).collectList().block()).containsExactly(updated, created);
+        assertThat(r2dbcSqlDataset.boardVersion(BOARD).block()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("A write that overlaps an import of its board should fail instead of landing on the imported board")
+    void save_OverlappingImport_ShouldConflict() throws Exception {
+        var removed = save(BOARD, 3);
+        r2dbcSqlDataset.delete(BOARD, removed.getId()).block();
+        var imported = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var importLocked = new CountDownLatch(1);
+        var importReleased = new CountDownLatch(1);
+
+        var importer = CompletableFuture.runAsync(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            sqlDataset.importWidgets(BOARD, Vector.of(imported).iterator(), 10);
+            importLocked.countDown();
+            awaitUninterruptibly(importReleased);
+        }));
+        assertThat(importLocked.await(5, TimeUnit.SECONDS)).isTrue();
+        // r2dbc-h2 runs the statements on the subscribing thread
+        var writer = CompletableFuture.supplyAsync(() -> save(BOARD, 5));
+        awaitBlockedSession();
+        importReleased.countDown();
+        importer.get(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> writer.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(WidgetsChangedException.class);
+        assertThat(r2dbcSqlDataset.listAll(BOARD, Pageable.unpaged()).collectList().block()).containsExactly(imported);
+    }
+
+    private Widget save(String boardId, int zIndex) {
+        return r2dbcSqlDataset.save(boardId, WidgetFixture.oneWidget().toBuilder().zIndex(zIndex).build()).block();
+    }
+
+    // H2 reports the session a statement waits for, so the write is known to be queued behind the import lock
+    private void awaitBlockedSession() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String blocked = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE BLOCKER_ID IS NOT NULL";
+
+        while (jdbcTemplate.getJdbcTemplate().queryForObject(blocked, Integer.class) == 0) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import cyclops.control.Option;
+import cyclops.data.ImmutableSortedSet;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactiveEmbeddedDatasetTest {
+
+    private static final String BOARD = "board";
+
+    @Test
+    @DisplayName("Reads of the in-memory stores should run on the subscribing thread, they never wait on a lock")
+    void reads_InMemory_ShouldStayOnCallerThread() {
+        var reactiveDataset = new ReactiveEmbeddedDataset(new InMemoryDataset());
+
+        var readingThread = reactiveDataset.boardVersion(BOARD).map(version -> Thread.currentThread().getName()).block();
+
+        assertThat(readingThread).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    @DisplayName("Reads of the column stores should move off the subscribing thread, they wait on the board lock")
+    void reads_Columnar_ShouldMoveToBoundedElastic() {
+        var reactiveDataset = new ReactiveEmbeddedDataset(new ColumnarDataset());
+
+        var readingThread = reactiveDataset.boardVersion(BOARD).map(version -> Thread.currentThread().getName()).block();
+
+        assertThat(readingThread).startsWith("boundedElastic");
+    }
+
+    @Test
+    @DisplayName("Saving should report the run it pushed up for the stores the collisions are planned for")
+    void saveReportingShift_ShouldReportPushedRun() {
+        var reactiveDataset = new ReactiveEmbeddedDataset(new InMemoryDataset());
+        reactiveDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build()).block();
+        reactiveDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build()).block();
+        reactiveDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(4).build()).block();
+
+        var intoRun = reactiveDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build()).block();
+        var intoGap = reactiveDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(9).build()).block();
+
+        assertThat(intoRun._2().orElse(null)).isEqualTo(new ZIndexRun(1, 2));
+        assertThat(intoGap._2().isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Streaming a whole board should read it a page at a time, only as far as the subscriber asked")
+    void listAll_Unpaged_ShouldReadOnDemand() {
+        var pagesRead = new AtomicInteger();
+        var inMemoryDataset = new InMemoryDataset() {
+            @Override
+            public ImmutableSortedSet<Widget> listAfterZIndex(String boardId, Option<Integer> afterZIndex, int limit) {
+                pagesRead.incrementAndGet();
+                return super.listAfterZIndex(boardId, afterZIndex, limit);
+            }
+        };
+        var imported = new ArrayList<Widget>();
+        var importedIds = new ArrayList<UUID>();
+        for (int i = 0; i < 1_200; i++) {
+            imported.add(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i * 2).build());
+            importedIds.add(imported.get(i).getId());
+        }
+        inMemoryDataset.importWidgets(BOARD, imported.iterator(), 1_000);
+        var reactiveDataset = new ReactiveEmbeddedDataset(inMemoryDataset);
+        pagesRead.set(0);
+
+        var firstWidgets = reactiveDataset.listAll(BOARD, Pageable.unpaged()).limitRequest(10).collectList().block();
+
+        assertThat(firstWidgets).extracting(Widget::getZIndex).containsExactly(0, 2, 4, 6, 8, 10, 12, 14, 16, 18);
+        assertThat(pagesRead).hasValue(1);
+
+        var wholeBoard = reactiveDataset.listAll(BOARD, Pageable.unpaged()).collectList().block();
+
+        assertThat(wholeBoard).extracting(Widget::getId).containsExactlyElementsOf(importedIds);
+    }
+}
@@ -0,0 +1,134 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import cyclops.control.Option;
+import cyclops.data.TreeSet;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.ZIndexRun;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SparseInMemoryDatasetTest {
+
+    private static final String BOARD = "board";
+
+    private SparseInMemoryDataset sparseInMemoryDataset;
+
+    @BeforeEach
+    void setUp() {
+        sparseInMemoryDataset = new SparseInMemoryDataset();
+    }
+
+    @Test
+    @DisplayName("Saving into an occupied Z-Index should push the widgets up until the gap")
+    void saveWithCollision_ShouldPushUntilGap() {
+        var saved1 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var saved3 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(4).build(), TreeSet.empty());
+
+        var savedWidget = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var currentState = sparseInMemoryDataset.listAll(BOARD, PageRequest.of(0, 100));
+
+        assertThat(currentState).containsExactly(
+                savedWidget,
+                saved1.toBuilder().zIndex(2).build(),
+                saved2.toBuilder().zIndex(3).build(),
+                saved3
+        );
+        assertThat(sparseInMemoryDataset.findById(BOARD, saved2.getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(3);
+        assertThat(sparseInMemoryDataset.findFromZIndexUntilGap(BOARD, 2)).extracting(Widget::getId)
+                                                                   .containsExactly(saved1.getId(), saved2.getId(), saved3.getId());
+    }
+
+    @Test
+    @DisplayName("Saving should report the z-indexes it pushed up, none when the z-index was free")
+    void saveReportingShift_ShouldReportPushedRun() {
+        var saved1 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(4).build(), TreeSet.empty());
+
+        var intoRun = sparseInMemoryDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build());
+        var intoGap = sparseInMemoryDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(7).build());
+        var onTop = sparseInMemoryDataset.saveReportingShift(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(7).build());
+        var ownRun = sparseInMemoryDataset.saveReportingShift(BOARD, saved1.toBuilder().zIndex(1).build());
+
+        assertThat(intoRun._2().orElse(null)).isEqualTo(new ZIndexRun(1, 2));
+        assertThat(intoGap._2().isPresent()).isFalse();
+        assertThat(onTop._2().orElse(null)).isEqualTo(new ZIndexRun(7, 7));
+        // the widget leaves z-index 2 before landing on 1, it no longer joins the run it lands on with the one above
+        assertThat(ownRun._2().orElse(null)).isEqualTo(new ZIndexRun(1, 1));
+    }
+
+    @Test
+    @DisplayName("Updating a widget to another Z-Index should move only it")
+    void updateWidget_ShouldMoveIt() {
+        var saved1 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        var update = saved1.toBuilder().zIndex(5).build();
+        var updatedWidget = sparseInMemoryDataset.save(BOARD, update, TreeSet.empty());
+
+        assertThat(updatedWidget).isEqualTo(update);
+        assertThat(sparseInMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved2, update);
+        assertThat(sparseInMemoryDataset.findLargestZIndex(BOARD)).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Deleting a widget should leave a gap and not shift the others")
+    void delete_ShouldLeaveGap() {
+        var saved1 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var saved3 = sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+
+        sparseInMemoryDataset.delete(BOARD, saved2.getId());
+
+        assertThat(sparseInMemoryDataset.listAll(BOARD, PageRequest.of(0, 100))).containsExactly(saved1, saved3);
+        assertThat(sparseInMemoryDataset.findFromZIndexUntilGap(BOARD, 2)).isEmpty();
+        assertThatThrownBy(() -> sparseInMemoryDataset.delete(BOARD, saved2.getId())).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Listing in area and by page should return the current Z-Indexes")
+    void listing_ShouldReturnDerivedZIndexes() {
+        for (int i = 0; i < 50; i++) {
+            sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(0).build(), TreeSet.empty());
+        }
+        sparseInMemoryDataset.rebalanceIfCrowded();
+
+        var filterArea = FilterArea.builder()
+                                   .lowerLeft(new Coordinates(0, 0))
+                                   .upperRight(new Coordinates(200, 200))
+                                   .build();
+
+        assertThat(sparseInMemoryDataset.listAllWithinArea(BOARD, filterArea)).extracting(Widget::getZIndex).hasSize(50).startsWith(0).endsWith(49);
+
+        var streamed = new ArrayList<Widget>();
+        sparseInMemoryDataset.forEachWithinArea(BOARD, filterArea, streamed::add);
+        assertThat(streamed).containsExactlyElementsOf(sparseInMemoryDataset.listAllWithinArea(BOARD, filterArea));
+        assertThat(sparseInMemoryDataset.listAll(BOARD, PageRequest.of(1, 20))).extracting(Widget::getZIndex).hasSize(20).startsWith(20).endsWith(39);
+    }
+
+    @Test
+    @DisplayName("Listing after a z-index should seek by the current Z-Indexes")
+    void listAfterZIndex_ShouldUseDerivedZIndexes() {
+        for (int i = 0; i < 30; i++) {
+            sparseInMemoryDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(0).build(), TreeSet.empty());
+        }
+
+        assertThat(sparseInMemoryDataset.listAfterZIndex(BOARD, Option.none(), 10)).extracting(Widget::getZIndex).hasSize(10).startsWith(0).endsWith(9);
+        assertThat(sparseInMemoryDataset.listAfterZIndex(BOARD, Option.some(9), 10)).extracting(Widget::getZIndex).hasSize(10).startsWith(10).endsWith(19);
+        assertThat(sparseInMemoryDataset.listAfterZIndex(BOARD, Option.some(29), 10)).isEmpty();
+        assertThat(sparseInMemoryDataset.listAfterZIndex(BOARD, Option.some(Integer.MAX_VALUE), 10)).isEmpty();
+    }
+}
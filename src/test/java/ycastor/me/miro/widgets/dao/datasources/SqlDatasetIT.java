@@ -1,5 +1,11 @@
 package ycastor.me.miro.widgets.dao.datasources;
 
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -7,67 +13,130 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import cyclops.control.Option;
 import cyclops.data.TreeSet;
+import cyclops.data.Vector;
 import ycastor.me.miro.fixtures.WidgetFixture;
 import ycastor.me.miro.widgets.commands.FilterArea;
 import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+import ycastor.me.miro.widgets.exceptions.BoardNotEmptyException;
+import ycastor.me.miro.widgets.exceptions.InvalidImportException;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @SpringBootTest
 @ActiveProfiles("sql")
 class SqlDatasetIT {
 
+    private static final String BOARD = "board";
+
     @Autowired
     private SqlDataset sqlDataset;
 
     @Autowired
     private WidgetSqlRepository widgetSqlRepository;
 
+    @Autowired
+    private ZIndexRunSqlRepository zIndexRunSqlRepository;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @BeforeEach
     void setUp() {
         widgetSqlRepository.deleteAll();
+        zIndexRunSqlRepository.deleteAll();
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM board_version");
     }
 
     @Test
     @DisplayName("Find a widget by Id")
     void findById() {
         var widget = WidgetFixture.oneWidget();
-        var saved = sqlDataset.save(widget, TreeSet.empty());
+        var saved = sqlDataset.save(BOARD, widget, TreeSet.empty());
 
-        var found = sqlDataset.findById(saved.getId());
+        var found = sqlDataset.findById(BOARD, saved.getId());
 
         assertThat(found.orElse(null)).isEqualTo(saved);
     }
 
+    @Test
+    @DisplayName("A collision should only shift the widgets of its own board")
+    void saveWithCollision_ShouldStayOnBoard() {
+        var saved = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var other = sqlDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        var top = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        assertThat(sqlDataset.listAfterZIndex(BOARD, Option.none(), 10)).containsExactly(top, saved.toBuilder().zIndex(2).build());
+        assertThat(sqlDataset.listAfterZIndex("other", Option.none(), 10)).containsExactly(other);
+        assertThat(sqlDataset.findById("other", saved.getId()).isPresent()).isFalse();
+        assertThat(sqlDataset.findFromZIndexUntilGap("other", 1)).containsExactly(other);
+        assertThatThrownBy(() -> sqlDataset.delete("other", saved.getId())).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Every committed write should bump the version of its own board only")
+    void boardVersion_BumpedByCommittedWrites() {
+        var saved = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        sqlDataset.delete(BOARD, saved.getId());
+        assertThatThrownBy(() -> sqlDataset.delete(BOARD, saved.getId())).isInstanceOf(WidgetNotFoundException.class);
+
+        assertThat(sqlDataset.boardVersion(BOARD)).isEqualTo(2);
+        assertThat(sqlDataset.boardVersion("other")).isEqualTo(0);
+    }
+
     @Test
     @DisplayName("Find widgets in a paged way")
     void searchPaged() {
         var widget1 = WidgetFixture.oneWidget().toBuilder().zIndex(1).build();
         var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
 
-        var saved1 = sqlDataset.save(widget1, TreeSet.empty());
-        var saved2 = sqlDataset.save(widget2, TreeSet.empty());
+        var saved1 = sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, widget2, TreeSet.empty());
 
-        var page1 = sqlDataset.listAll(PageRequest.of(0, 1));
-        var page2 = sqlDataset.listAll(PageRequest.of(1, 1));
+        var page1 = sqlDataset.listAll(BOARD, PageRequest.of(0, 1));
+        var page2 = sqlDataset.listAll(BOARD, PageRequest.of(1, 1));
 
         assertThat(page1).containsOnly(saved1);
         assertThat(page2).containsOnly(saved2);
     }
 
+    @Test
+    @DisplayName("Find widgets after a z-index")
+    void searchAfterZIndex() {
+        var saved1 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).build(), TreeSet.empty());
+        var saved3 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(6).build(), TreeSet.empty());
+
+        assertThat(sqlDataset.listAfterZIndex(BOARD, Option.none(), 2)).containsExactly(saved1, saved2);
+        assertThat(sqlDataset.listAfterZIndex(BOARD, Option.some(1), 2)).containsExactly(saved2, saved3);
+        assertThat(sqlDataset.listAfterZIndex(BOARD, Option.some(6), 2)).isEmpty();
+    }
+
     @Test
     @DisplayName("Find largest Z-index")
     void largestZindex() {
         var widget1 = WidgetFixture.oneWidget().toBuilder().zIndex(1).build();
         var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
 
-        sqlDataset.save(widget1, TreeSet.empty());
-        sqlDataset.save(widget2, TreeSet.empty());
+        sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        sqlDataset.save(BOARD, widget2, TreeSet.empty());
 
-        var maximumZIndex = sqlDataset.findLargestZIndex();
+        var maximumZIndex = sqlDataset.findLargestZIndex(BOARD);
 
         assertThat(maximumZIndex).isEqualTo(2);
     }
@@ -80,15 +149,15 @@ class SqlDatasetIT {
         var existingWidget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
         var existingWidget3 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
 
-        var savedWidget1 = sqlDataset.save(existingWidget1, TreeSet.empty());
-        var savedWidget2 = sqlDataset.save(existingWidget2, TreeSet.empty());
-        var savedWidget3 = sqlDataset.save(existingWidget3, TreeSet.empty());
+        var savedWidget1 = sqlDataset.save(BOARD, existingWidget1, TreeSet.empty());
+        var savedWidget2 = sqlDataset.save(BOARD, existingWidget2, TreeSet.empty());
+        var savedWidget3 = sqlDataset.save(BOARD, existingWidget3, TreeSet.empty());
 
         var collidedWidget1 = savedWidget1.toBuilder().zIndex(savedWidget1.getZIndex() + 1).build();
         var collidedWidget2 = savedWidget2.toBuilder().zIndex(savedWidget2.getZIndex() + 1).build();
 
-        var savedWidget = sqlDataset.save(newWidget, TreeSet.of(collidedWidget1, collidedWidget2));
-        var currentState = sqlDataset.listAll(Pageable.unpaged());
+        var savedWidget = sqlDataset.save(BOARD, newWidget, TreeSet.of(collidedWidget1, collidedWidget2));
+        var currentState = sqlDataset.listAll(BOARD, Pageable.unpaged());
 
         assertThat(currentState).containsOnly(savedWidget, collidedWidget1, collidedWidget2, savedWidget3);
     }
@@ -101,12 +170,12 @@ class SqlDatasetIT {
         var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
         var widget4 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
 
-        var saved1 = sqlDataset.save(widget1, TreeSet.empty());
-        var saved2 = sqlDataset.save(widget2, TreeSet.empty());
-        var saved3 = sqlDataset.save(widget3, TreeSet.empty());
-        sqlDataset.save(widget4, TreeSet.empty());
+        var saved1 = sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, widget2, TreeSet.empty());
+        var saved3 = sqlDataset.save(BOARD, widget3, TreeSet.empty());
+        sqlDataset.save(BOARD, widget4, TreeSet.empty());
 
-        var subset = sqlDataset.findFromZIndexUntilGap(0);
+        var subset = sqlDataset.findFromZIndexUntilGap(BOARD, 0);
 
         assertThat(subset).containsOnly(saved1, saved2, saved3);
     }
@@ -119,12 +188,268 @@ class SqlDatasetIT {
         var widget3 = WidgetFixture.oneWidget().toBuilder().height(100).width(100).zIndex(3).xAxis(50).yAxis(50).build();
         var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(100, 150)).build();
 
-        var saved1 = sqlDataset.save(widget1, TreeSet.empty());
-        var saved2 = sqlDataset.save(widget2, TreeSet.empty());
-        sqlDataset.save(widget3, TreeSet.empty());
+        var saved1 = sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, widget2, TreeSet.empty());
+        sqlDataset.save(BOARD, widget3, TreeSet.empty());
 
-        var inArea = sqlDataset.listAllWithinArea(filterArea);
+        var inArea = sqlDataset.listAllWithinArea(BOARD, filterArea);
 
         assertThat(inArea).containsOnly(saved1, saved2);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Fetching Widgets within an area should follow moved widgets and use the middle point index")
+    void findWidgets_WithinAreaByIndex() {
+        var saved = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().xAxis(500).build(), TreeSet.empty());
+        var moved = sqlDataset.save(BOARD, saved.toBuilder().xAxis(0).yAxis(0).build(), TreeSet.empty());
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(100, 100)).build();
+
+        var plan = jdbcTemplate.getJdbcTemplate().queryForObject(
+                "EXPLAIN SELECT * FROM widget WHERE board_id = 'board' AND x_middle > 0 AND x_middle < 100 AND y_middle > 0 AND y_middle < 100",
+                String.class
+        );
+
+        assertThat(sqlDataset.listAllWithinArea(BOARD, filterArea)).containsOnly(moved);
+        assertThat(plan).containsIgnoringCase("widget_board_middle_point_idx");
+    }
+
+    @Test
+    @DisplayName("Searching from a Z-Index preceded by a gap should return its run")
+    void findFromZIndexUntilGap_AfterGap() {
+        var widget1 = WidgetFixture.oneWidget();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
+        var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(3).build();
+
+        sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, widget2, TreeSet.empty());
+        var saved3 = sqlDataset.save(BOARD, widget3, TreeSet.empty());
+
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 2)).containsOnly(saved2, saved3);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deleting a widget should split its Z-Index run")
+    void delete_SplitsRun() {
+        var widget1 = WidgetFixture.oneWidget();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().zIndex(1).build();
+        var widget3 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
+
+        var saved1 = sqlDataset.save(BOARD, widget1, TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, widget2, TreeSet.empty());
+        var saved3 = sqlDataset.save(BOARD, widget3, TreeSet.empty());
+
+        sqlDataset.delete(BOARD, saved2.getId());
+
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 0)).containsOnly(saved1);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 2)).containsOnly(saved3);
+    }
+
+    @Test
+    @DisplayName("Shifting collided widgets should extend their Z-Index run")
+    void save_WithConflicts_ExtendsRun() {
+        var existingWidget1 = WidgetFixture.oneWidget().toBuilder().zIndex(1).build();
+        var existingWidget2 = WidgetFixture.oneWidget().toBuilder().zIndex(2).build();
+        var existingWidget3 = WidgetFixture.oneWidget().toBuilder().zIndex(4).build();
+
+        var savedWidget1 = sqlDataset.save(BOARD, existingWidget1, TreeSet.empty());
+        var savedWidget2 = sqlDataset.save(BOARD, existingWidget2, TreeSet.empty());
+        var savedWidget3 = sqlDataset.save(BOARD, existingWidget3, TreeSet.empty());
+
+        var collidedWidget1 = savedWidget1.toBuilder().zIndex(2).build();
+        var collidedWidget2 = savedWidget2.toBuilder().zIndex(3).build();
+
+        var savedWidget = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.of(collidedWidget1, collidedWidget2));
+
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).containsOnly(savedWidget, collidedWidget1, collidedWidget2, savedWidget3);
+    }
+
+    @Test
+    @DisplayName("Saving a batch should insert, update and delete the widgets and keep the Z-Index runs")
+    void saveBatch_AppliesAllChanges() {
+        var saved1 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var saved2 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var saved3 = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+
+        var created = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var pushed = saved1.toBuilder().zIndex(2).build();
+        var moved = saved2.toBuilder().zIndex(10).build();
+
+        var changed = sqlDataset.saveBatch(BOARD, WidgetChanges.builder()
+                                                        .created(Vector.of(created))
+                                                        .updated(Vector.of(pushed, moved))
+                                                        .deleted(Vector.of(saved3.getId()))
+                                                        .build());
+
+        assertThat(changed).containsExactly(created, pushed, moved);
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).containsExactly(created, pushed, moved);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).containsExactly(created, pushed);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 3)).isEmpty();
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 10)).containsExactly(moved);
+    }
+
+    @Test
+    @DisplayName("Saving a batch that updates a missing widget should roll the whole batch back")
+    void saveBatch_MissingWidget_RollsBack() {
+        var saved = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var missing = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(5).build();
+
+        assertThatThrownBy(() -> sqlDataset.saveBatch(BOARD, WidgetChanges.builder()
+                                                                   .deleted(Vector.of(saved.getId()))
+                                                                   .updated(Vector.of(missing))
+                                                                   .build()))
+                .isInstanceOf(WidgetsChangedException.class);
+
+        assertThat(sqlDataset.findById(BOARD, saved.getId()).orElse(null)).isEqualTo(saved);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).containsExactly(saved);
+    }
+
+    @Test
+    @DisplayName("Stream widgets from the database cursor in z-order")
+    void streamWidgets() {
+        var top = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+        var outside = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).xAxis(500).build(), TreeSet.empty());
+        var bottom = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var filterArea = FilterArea.builder()
+                                   .lowerLeft(new Coordinates(0, 0))
+                                   .upperRight(new Coordinates(100, 100))
+                                   .build();
+
+        var all = new ArrayList<Widget>();
+        var inArea = new ArrayList<Widget>();
+        sqlDataset.forEachWidget(BOARD, all::add);
+        sqlDataset.forEachWithinArea(BOARD, filterArea, inArea::add);
+
+        assertThat(all).containsExactly(bottom, outside, top);
+        assertThat(inArea).containsExactly(bottom, top);
+    }
+
+    @Test
+    @DisplayName("Moving a widget down into its own run should shift the run once and keep the runs in sync")
+    void save_MovingWithinOwnRun() {
+        var bottom = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var middle = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        var top = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+        var afterGap = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).build(), TreeSet.empty());
+
+        var moved = sqlDataset.save(BOARD, top.toBuilder().zIndex(1).build(), TreeSet.empty());
+
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).containsExactly(
+                moved,
+                bottom.toBuilder().zIndex(2).build(),
+                middle.toBuilder().zIndex(3).build(),
+                afterGap
+        );
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).extracting(Widget::getZIndex).containsExactly(1, 2, 3);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 4)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Writes should only apply to the version the widget was read with, collision shifts included")
+    void save_StaleVersion_ShouldFail() {
+        var read = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var shifted = sqlDataset.findById(BOARD, read.getId()).orElse(null);
+
+        assertThat(shifted.getVersion()).isEqualTo(read.getVersion() + 1);
+        assertThatThrownBy(() -> sqlDataset.save(BOARD, read.toBuilder().width(7).build(), TreeSet.empty()))
+                .isInstanceOf(WidgetsChangedException.class);
+        assertThatThrownBy(() -> sqlDataset.saveBatch(BOARD, WidgetChanges.builder().updated(Vector.of(read.toBuilder().zIndex(10).build())).build()))
+                .isInstanceOf(WidgetsChangedException.class);
+
+        var updated = sqlDataset.save(BOARD, shifted.toBuilder().width(7).build(), TreeSet.empty());
+
+        assertThat(sqlDataset.findById(BOARD, read.getId()).map(Widget::getVersion).orElse(null)).isEqualTo(updated.getVersion());
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).extracting(Widget::getZIndex).containsExactly(1, 2);
+    }
+
+    @Test
+    @DisplayName("Importing should batch insert the widgets and their Z-Index runs, across chunks")
+    void importWidgets_BuildsBoard() {
+        var imported = Vector.of(1, 2, 3, 7, 8).map(zIndex -> WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(zIndex).build());
+
+        assertThat(sqlDataset.importWidgets(BOARD, imported.iterator(), 2)).isEqualTo(5);
+
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).containsExactlyElementsOf(imported);
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 2)).containsExactly(imported.getOrElse(1, null), imported.getOrElse(2, null));
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 7)).containsExactly(imported.getOrElse(3, null), imported.getOrElse(4, null));
+        assertThat(sqlDataset.boardVersion(BOARD)).isEqualTo(1);
+
+        var collided = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1).map(Widget::getZIndex)).containsExactly(1, 2, 3, 4);
+        assertThat(sqlDataset.findById(BOARD, collided.getId()).isPresent()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Importing into a board with widgets or with an id repeated across chunks should roll the whole import back")
+    void importWidgets_Rejected() {
+        sqlDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var repeated = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var taken = Vector.of(repeated, repeated.toBuilder().zIndex(2).build());
+
+        assertThatThrownBy(() -> sqlDataset.importWidgets(BOARD, taken.iterator(), 1)).isInstanceOf(InvalidImportException.class);
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).isEmpty();
+        assertThat(sqlDataset.findFromZIndexUntilGap(BOARD, 1)).isEmpty();
+
+        assertThatThrownBy(() -> sqlDataset.importWidgets("other", Vector.<Widget>empty().iterator(), 10)).isInstanceOf(BoardNotEmptyException.class);
+    }
+
+    @Test
+    @DisplayName("Importing ids another board already uses should keep both boards apart")
+    void importWidgets_IdsOfOtherBoard() {
+        var saved = sqlDataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var copied = saved.toBuilder().zIndex(4).xAxis(42).build();
+
+        assertThat(sqlDataset.importWidgets(BOARD, Vector.of(copied).iterator(), 10)).isEqualTo(1);
+        var moved = sqlDataset.save(BOARD, sqlDataset.findById(BOARD, saved.getId()).orElse(null).toBuilder().zIndex(6).build(), TreeSet.empty());
+        sqlDataset.delete("other", saved.getId());
+
+        assertThat(sqlDataset.findById(BOARD, saved.getId()).orElse(null)).isEqualTo(moved);
+        assertThat(moved.getXAxis()).isEqualTo(42);
+        assertThat(sqlDataset.findById("other", saved.getId()).isPresent()).isFalse();
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).containsExactly(moved);
+    }
+
+    @Test
+    @DisplayName("A write that overlaps an import of its board should fail instead of landing on the imported board")
+    void importWidgets_OverlappingWrite_ShouldConflict() throws Exception {
+        var removed = sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty());
+        sqlDataset.delete(BOARD, removed.getId());
+        var imported = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var importLocked = new CountDownLatch(1);
+        var importReleased = new CountDownLatch(1);
+
+        var importer = CompletableFuture.runAsync(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            sqlDataset.importWidgets(BOARD, Vector.of(imported).iterator(), 10);
+            importLocked.countDown();
+            awaitUninterruptibly(importReleased);
+        }));
+        assertThat(importLocked.await(5, TimeUnit.SECONDS)).isTrue();
+        var writer = CompletableFuture.supplyAsync(() -> sqlDataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).build(), TreeSet.empty()));
+        awaitBlockedSession();
+        importReleased.countDown();
+        importer.get(5, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> writer.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(WidgetsChangedException.class);
+        assertThat(sqlDataset.listAll(BOARD, Pageable.unpaged())).containsExactly(imported);
+    }
+
+    // H2 reports the session a statement waits for, so the writer is known to be queued behind the import lock
+    private void awaitBlockedSession() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String blocked = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE BLOCKER_ID IS NOT NULL";
+
+        while (jdbcTemplate.getJdbcTemplate().queryForObject(blocked, Integer.class) == 0) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import cyclops.control.Option;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class TiledAreaDatasetTest {
+
+    private static final String BOARD = "board";
+
+    private InMemoryDataset inMemoryDataset;
+    private TiledInMemoryDataset tiledDataset;
+
+    @BeforeEach
+    void setUp() {
+        inMemoryDataset = spy(new InMemoryDataset());
+        tiledDataset = new TiledInMemoryDataset(inMemoryDataset, 100, 1000, 16, 10);
+    }
+
+    @Test
+    @DisplayName("Overlapping queries read their tiles once and trim them to their own area")
+    void listAllWithinArea_ServedFromTiles() {
+        var random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            save(widget(i, random.nextInt(400), random.nextInt(400)));
+        }
+
+        var wide = area(-1, -1, 350, 350);
+        var inside = area(37, 112, 261, 199);
+        assertThat(tiledDataset.listAllWithinArea(BOARD, wide)).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, wide));
+        assertThat(tiledDataset.listAllWithinArea(BOARD, inside)).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, inside));
+
+        // the two comparisons and a single load of the wide area's tiles
+        verify(inMemoryDataset, times(3)).listAllWithinArea(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Saves and deletes patch the loaded tiles, including the widgets shifted by a collision")
+    void writes_PatchTiles() {
+        var area = area(0, 0, 300, 300);
+        var moved = save(widget(1, 10, 10));
+        var shifted = save(widget(2, 150, 150));
+        var deleted = save(widget(3, 250, 50));
+        tiledDataset.listAllWithinArea(BOARD, area);
+
+        save(widget(4, 80, 220));
+        tiledDataset.save(BOARD, moved.toBuilder().xAxis(600).build(), TreeSet.empty());
+        var colliding = widget(2, 40, 40);
+        tiledDataset.save(BOARD, colliding, inMemoryDataset.findFromZIndexUntilGap(BOARD, 2).map(widget -> widget.toBuilder().zIndex(widget.getZIndex() + 1).build()));
+        tiledDataset.delete(BOARD, deleted.getId());
+
+        var found = tiledDataset.listAllWithinArea(BOARD, area);
+        assertThat(found).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, area));
+        assertThat(found.map(Widget::getId)).doesNotContain(moved.getId(), deleted.getId());
+        assertThat(found.filter(widget -> widget.getId().equals(shifted.getId())).map(Widget::getZIndex)).containsExactly(3);
+        verify(inMemoryDataset, times(2)).listAllWithinArea(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("A collision reads back only the widgets it pushed up, not the runs they merged with")
+    void save_PatchesOnlyShifted() {
+        var area = area(0, 0, 300, 300);
+        var bottom = save(widget(1, 10, 10));
+        var below = save(widget(2, 150, 150));
+        save(widget(4, 250, 50));
+        var top = save(widget(5, 80, 220));
+        tiledDataset.listAllWithinArea(BOARD, area);
+
+        var collided = TreeSet.of(bottom.toBuilder().zIndex(2).build(), below.toBuilder().zIndex(3).build());
+        tiledDataset.save(BOARD, widget(1, 40, 40), collided);
+
+        var found = tiledDataset.listAllWithinArea(BOARD, area);
+        assertThat(found).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, area));
+        assertThat(found.filter(widget -> widget.getId().equals(top.getId())).map(Widget::getZIndex)).containsExactly(5);
+        verify(inMemoryDataset).listAfterZIndex(BOARD, Option.some(1), 2);
+        verify(inMemoryDataset, never()).findFromZIndexUntilGap(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("A query limit above what a board keeps should be rejected at startup")
+    void constructor_QueryLimitAboveBoardLimit() {
+        assertThatThrownBy(() -> new TiledInMemoryDataset(inMemoryDataset, 100, 16, 32, 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Queries over more tiles than the limit and empty areas never load tiles")
+    void listAllWithinArea_Bypassed() {
+        save(widget(1, 10, 10));
+        var large = area(0, 0, 1000, 1000);
+
+        tiledDataset.listAllWithinArea(BOARD, large);
+        tiledDataset.listAllWithinArea(BOARD, large);
+        assertThat(tiledDataset.listAllWithinArea(BOARD, area(10, 10, 11, 500))).isEmpty();
+
+        verify(inMemoryDataset, times(2)).listAllWithinArea(eq(BOARD), any());
+    }
+
+    @Test
+    @DisplayName("Batches drop the tiles of their board, write groups patch them once published")
+    void batchesAndGroups_KeepTilesCurrent() {
+        var area = area(0, 0, 200, 200);
+        var kept = save(widget(1, 10, 10));
+        tiledDataset.listAllWithinArea(BOARD, area);
+
+        tiledDataset.saveBatch(BOARD, WidgetChanges.builder().created(Vector.of(widget(5, 20, 20).toBuilder().id(UUID.randomUUID()).build())).build());
+        assertThat(tiledDataset.listAllWithinArea(BOARD, area)).hasSize(2);
+
+        tiledDataset.writeGroup(BOARD, () -> {
+            tiledDataset.save(BOARD, kept.toBuilder().xAxis(30).build(), TreeSet.empty());
+            tiledDataset.save(BOARD, widget(7, 40, 40), TreeSet.empty());
+        });
+
+        assertThat(tiledDataset.listAllWithinArea(BOARD, area)).containsExactlyElementsOf(inMemoryDataset.listAllWithinArea(BOARD, area)).hasSize(3);
+        verify(inMemoryDataset, times(3)).listAllWithinArea(eq(BOARD), any());
+    }
+
+    private Widget save(Widget widget) {
+        return tiledDataset.save(BOARD, widget, TreeSet.empty());
+    }
+
+    // A 10x10 widget, its middle point 5 right and above of the given corner
+    private static Widget widget(int zIndex, int xAxis, int yAxis) {
+        return WidgetFixture.oneWidget().toBuilder().zIndex(zIndex).xAxis(xAxis).yAxis(yAxis).width(10).height(10).build();
+    }
+
+    private static FilterArea area(int lowerLeftX, int lowerLeftY, int upperRightX, int upperRightY) {
+        return new FilterArea(new Coordinates(lowerLeftX, lowerLeftY), new Coordinates(upperRightX, upperRightY));
+    }
+}
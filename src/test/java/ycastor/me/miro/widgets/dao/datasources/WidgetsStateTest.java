@@ -0,0 +1,111 @@
+package ycastor.me.miro.widgets.dao.datasources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import cyclops.control.Option;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetsChangedException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WidgetsStateTest {
+
+    @Test
+    @DisplayName("Replacing a widget should keep the id index and the z-ordered set in sync")
+    void put_ReplacesPreviousVersion() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var moved = widget.toBuilder().zIndex(10).build();
+
+        var state = WidgetsState.empty().put(widget).put(moved);
+
+        assertThat(state.findById(widget.getId()).orElse(null)).isEqualTo(moved);
+        assertThat(state.widgets()).containsExactly(moved);
+        assertThat(state.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Shifted widgets can move into z-indexes released by the same batch")
+    void putAll_ShiftingIntoReleasedZIndexes() {
+        var widget1 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var widget2 = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(2).build();
+        var newWidget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(1).build();
+        var shifted1 = widget1.toBuilder().zIndex(2).build();
+        var shifted2 = widget2.toBuilder().zIndex(3).build();
+
+        var state = WidgetsState.empty()
+                                .putAll(Vector.of(widget1, widget2))
+                                .putAll(Vector.of(shifted1, shifted2, newWidget));
+
+        assertThat(state.widgets()).containsExactly(newWidget, shifted1, shifted2);
+        assertThat(state.findById(widget1.getId()).orElse(null)).isEqualTo(shifted1);
+        assertThat(state.findById(widget2.getId()).orElse(null)).isEqualTo(shifted2);
+    }
+
+    @Test
+    @DisplayName("Adding a widget on a z-index held by a widget that is not part of the change should fail")
+    void putAll_OccupiedZIndex() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+        var intruder = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+
+        var state = WidgetsState.empty().put(widget);
+
+        assertThatThrownBy(() -> state.put(intruder)).isInstanceOf(WidgetsChangedException.class);
+    }
+
+    @Test
+    @DisplayName("Removing a widget should drop it from both indexes")
+    void remove_DropsFromBothIndexes() {
+        var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).build();
+
+        var state = WidgetsState.empty().put(widget).remove(widget);
+
+        assertThat(state.findById(widget.getId()).isPresent()).isFalse();
+        assertThat(state.widgets()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Removing widgets should keep every other widget reachable by id")
+    void remove_KeepsOtherWidgetsIndexed() {
+        var widgets = new ArrayList<Widget>();
+        var state = WidgetsState.empty();
+        for (int i = 0; i < 200; i++) {
+            var widget = WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i).build();
+            widgets.add(widget);
+            state = state.put(widget);
+        }
+
+        Collections.shuffle(widgets, new Random(7));
+        for (int i = 0; i < widgets.size(); i++) {
+            for (int j = i; j < widgets.size(); j++) {
+                assertThat(state.findById(widgets.get(j).getId()).isPresent()).isTrue();
+            }
+            state = state.remove(widgets.get(i));
+        }
+
+        assertThat(state.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Widgets created on top of a large board one by one should stay reachable in z-order")
+    void put_AscendingZIndexes_LargeBoard() {
+        var state = WidgetsState.empty();
+        for (int i = 0; i < 30_000; i++) {
+            state = state.put(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i).build());
+        }
+
+        assertThat(state.widgets()).hasSize(30_000);
+        assertThat(state.findFromZIndexUntilGap(0)).hasSize(30_000);
+        assertThat(state.findPage(29_998, 10)).extracting(Widget::getZIndex).containsExactly(29_998, 29_999);
+        assertThat(state.findAfterZIndex(Option.some(15_000), 1)).extracting(Widget::getZIndex).containsExactly(15_001);
+        assertThat(state.findLargest().map(Widget::getZIndex).orElse(null)).isEqualTo(29_999);
+    }
+}
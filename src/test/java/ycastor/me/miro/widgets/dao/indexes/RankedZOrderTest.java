@@ -0,0 +1,131 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RankedZOrderTest {
+
+    @Test
+    @DisplayName("Inserting into an occupied Z-Index should push the rest of the run up until the gap")
+    void insert_PushesRunUntilGap() {
+        var first = widget(1);
+        var second = widget(2);
+        var afterGap = widget(4);
+        var order = insert(insert(insert(RankedZOrder.empty(), first), second), afterGap);
+
+        var newWidget = widget(1);
+        order = insert(order, newWidget);
+
+        assertThat(zIndexes(order)).containsExactly(1, 2, 3, 4);
+        assertThat(idsInOrder(order)).containsExactly(newWidget.getId(), first.getId(), second.getId(), afterGap.getId());
+    }
+
+    @Test
+    @DisplayName("Removing a widget should leave a gap without moving the others")
+    void remove_LeavesGap() {
+        var first = widget(1);
+        var second = widget(2);
+        var third = widget(3);
+        var inserted = RankedZOrder.empty().insert(1, first).orElse(null);
+        var order = insert(insert(inserted.order(), second), third).remove(inserted.rank());
+
+        assertThat(zIndexes(order)).containsExactly(2, 3);
+    }
+
+    @Test
+    @DisplayName("Inserting repeatedly at the same Z-Index should mark the order as crowded and rebalancing should keep it")
+    void insertSameSpot_RebalanceKeepsZIndexes() {
+        var order = insert(RankedZOrder.empty(), widget(0));
+        boolean crowded = false;
+
+        for (int i = 0; i < 63; i++) {
+            var widget = widget(1);
+            var inserted = order.insert(1, widget);
+            if (!inserted.isPresent()) {
+                order = order.rebalanced();
+                inserted = order.insert(1, widget);
+            }
+            crowded = crowded || inserted.orElse(null).crowded();
+            order = inserted.orElse(null).order();
+        }
+
+        assertThat(crowded).isTrue();
+        assertThat(zIndexes(order.rebalanced())).isEqualTo(zIndexes(order));
+        assertThat(zIndexes(order)).hasSize(64).startsWith(0, 1, 2).endsWith(63);
+    }
+
+    @Test
+    @DisplayName("Random inserts and removals should derive the same Z-Indexes as shifting every collided widget")
+    void randomOperations_MatchShifting() {
+        var random = new Random(7);
+        var order = RankedZOrder.empty();
+        var expected = new TreeMap<Integer, UUID>();
+
+        for (int i = 0; i < 2_000; i++) {
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                var zIndex = new ArrayList<>(expected.keySet()).get(random.nextInt(expected.size()));
+                expected.remove(zIndex);
+                order = order.remove(rankAt(order, zIndex));
+            } else {
+                var widget = widget(random.nextInt(400) - 200);
+                var inserted = order.insert(widget.getZIndex(), widget);
+                if (!inserted.isPresent()) {
+                    order = order.rebalanced();
+                    inserted = order.insert(widget.getZIndex(), widget);
+                }
+                order = inserted.orElse(null).order();
+                shift(expected, widget.getZIndex());
+                expected.put(widget.getZIndex(), widget.getId());
+            }
+
+            assertThat(order.size()).isEqualTo(expected.size());
+        }
+
+        assertThat(zIndexes(order)).containsExactlyElementsOf(expected.keySet());
+        assertThat(idsInOrder(order)).containsExactlyElementsOf(expected.values());
+    }
+
+    private static long rankAt(RankedZOrder order, int zIndex) {
+        return order.ceiling(zIndex).orElse(null).rank();
+    }
+
+    private static void shift(TreeMap<Integer, UUID> expected, int zIndex) {
+        int runEnd = zIndex;
+        while (expected.containsKey(runEnd)) {
+            runEnd++;
+        }
+        for (int z = runEnd; z > zIndex; z--) {
+            expected.put(z, expected.remove(z - 1));
+        }
+    }
+
+    private static RankedZOrder insert(RankedZOrder order, Widget widget) {
+        return order.insert(widget.getZIndex(), widget).orElse(null).order();
+    }
+
+    private static ArrayList<Integer> zIndexes(RankedZOrder order) {
+        var found = new ArrayList<Integer>();
+        order.from(0).forEachRemaining(placed -> found.add(placed.zIndex()));
+        return found;
+    }
+
+    private static ArrayList<UUID> idsInOrder(RankedZOrder order) {
+        var found = new ArrayList<UUID>();
+        order.from(0).forEachRemaining(placed -> found.add(placed.widget().getId()));
+        return found;
+    }
+
+    private static Widget widget(int zIndex) {
+        return WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(zIndex).build();
+    }
+}
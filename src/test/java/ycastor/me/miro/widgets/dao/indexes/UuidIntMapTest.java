@@ -0,0 +1,44 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UuidIntMapTest {
+
+    @Test
+    @DisplayName("Random puts and removes should match a HashMap")
+    void randomOperations_ShouldMatchHashMap() {
+        var map = new UuidIntMap();
+        var expected = new HashMap<UUID, Integer>();
+        var keys = new ArrayList<UUID>();
+        var random = new Random(3);
+
+        for (int i = 0; i < 50_000; i++) {
+            if (!keys.isEmpty() && random.nextInt(3) == 0) {
+                var key = keys.remove(random.nextInt(keys.size()));
+                map.remove(key);
+                expected.remove(key);
+            } else if (!keys.isEmpty() && random.nextBoolean()) {
+                var key = keys.get(random.nextInt(keys.size()));
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                var key = UUID.randomUUID();
+                keys.add(key);
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        expected.forEach((key, value) -> assertThat(map.get(key, -1)).isEqualTo(value));
+        assertThat(map.containsKey(UUID.randomUUID())).isFalse();
+    }
+}
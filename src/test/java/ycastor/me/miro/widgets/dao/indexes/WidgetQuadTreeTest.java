@@ -0,0 +1,100 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import cyclops.data.TreeSet;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.commands.FilterArea;
+import ycastor.me.miro.widgets.dao.models.Coordinates;
+import ycastor.me.miro.widgets.dao.models.Widget;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ycastor.me.miro.utils.WidgetUtils.withinArea;
+
+class WidgetQuadTreeTest {
+
+    @Test
+    @DisplayName("Searching an area should return the same widgets as a full scan, ordered by z-index")
+    void within_MatchesFullScan() {
+        var random = new Random(42);
+        var widgets = new ArrayList<Widget>();
+        var quadTree = WidgetQuadTree.empty();
+
+        for (int i = 0; i < 2000; i++) {
+            var widget = randomWidget(random, i);
+            widgets.add(widget);
+            quadTree = quadTree.insert(widget);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            var filterArea = randomArea(random);
+            var expected = TreeSet.fromIterable(widgets).filter(widget -> withinArea(widget, filterArea));
+
+            assertThat(quadTree.within(filterArea)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Removed widgets should no longer be found")
+    void remove_ShouldDropWidgets() {
+        var random = new Random(7);
+        var widgets = new ArrayList<Widget>();
+        var quadTree = WidgetQuadTree.empty();
+
+        for (int i = 0; i < 500; i++) {
+            var widget = randomWidget(random, i);
+            widgets.add(widget);
+            quadTree = quadTree.insert(widget);
+        }
+
+        for (int i = 0; i < 490; i++) {
+            quadTree = quadTree.remove(widgets.remove(0));
+        }
+
+        var everything = FilterArea.builder()
+                                   .lowerLeft(new Coordinates(Integer.MIN_VALUE, Integer.MIN_VALUE))
+                                   .upperRight(new Coordinates(Integer.MAX_VALUE, Integer.MAX_VALUE))
+                                   .build();
+
+        assertThat(quadTree.within(everything)).containsExactlyElementsOf(TreeSet.fromIterable(widgets));
+    }
+
+    @Test
+    @DisplayName("Many widgets sharing the same middle point should all be found")
+    void insert_SameMiddlePoint() {
+        var quadTree = WidgetQuadTree.empty();
+
+        for (int i = 0; i < 100; i++) {
+            quadTree = quadTree.insert(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i).build());
+        }
+
+        var filterArea = FilterArea.builder().lowerLeft(new Coordinates(0, 0)).upperRight(new Coordinates(100, 100)).build();
+
+        assertThat(quadTree.within(filterArea)).hasSize(100);
+    }
+
+    private static Widget randomWidget(Random random, int zIndex) {
+        return Widget.builder()
+                     .id(UUID.randomUUID())
+                     .zIndex(zIndex)
+                     .xAxis(random.nextInt(10_000) - 5_000)
+                     .yAxis(random.nextInt(10_000) - 5_000)
+                     .width(1 + random.nextInt(200))
+                     .height(1 + random.nextInt(200))
+                     .build();
+    }
+
+    private static FilterArea randomArea(Random random) {
+        int x = random.nextInt(10_000) - 5_000;
+        int y = random.nextInt(10_000) - 5_000;
+        return FilterArea.builder()
+                         .lowerLeft(new Coordinates(x, y))
+                         .upperRight(new Coordinates(x + random.nextInt(3_000), y + random.nextInt(3_000)))
+                         .build();
+    }
+}
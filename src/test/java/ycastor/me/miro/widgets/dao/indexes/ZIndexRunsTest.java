@@ -0,0 +1,49 @@
+package ycastor.me.miro.widgets.dao.indexes;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZIndexRunsTest {
+
+    @Test
+    @DisplayName("Occupying adjacent Z-Indexes should merge them into a single run")
+    void occupy_MergesAdjacentRuns() {
+        var runs = ZIndexRuns.empty().occupy(1).occupy(3).occupy(2);
+
+        assertThat(runs.runEnd(1).orElse(null)).isEqualTo(3);
+        assertThat(runs.runEnd(2).orElse(null)).isEqualTo(3);
+        assertThat(runs.runEnd(0).isPresent()).isFalse();
+        assertThat(runs.runEnd(4).isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Releasing a Z-Index in the middle of a run should split it")
+    void release_SplitsRun() {
+        var runs = ZIndexRuns.empty().occupy(0).occupy(1).occupy(2).occupy(3).release(2);
+
+        assertThat(runs.runEnd(0).orElse(null)).isEqualTo(1);
+        assertThat(runs.runEnd(2).isPresent()).isFalse();
+        assertThat(runs.runEnd(3).orElse(null)).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Releasing the edges of a run should shrink it")
+    void release_ShrinksRun() {
+        var runs = ZIndexRuns.empty().occupy(5).occupy(6).occupy(7).release(5).release(7);
+
+        assertThat(runs.runEnd(6).orElse(null)).isEqualTo(6);
+        assertThat(runs.runEnd(5).isPresent()).isFalse();
+        assertThat(runs.runEnd(7).isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("The extreme Z-Indexes should not overflow")
+    void occupy_ExtremeZIndexes() {
+        var runs = ZIndexRuns.empty().occupy(Integer.MAX_VALUE).occupy(Integer.MIN_VALUE);
+
+        assertThat(runs.runEnd(Integer.MAX_VALUE).orElse(null)).isEqualTo(Integer.MAX_VALUE);
+        assertThat(runs.runEnd(Integer.MIN_VALUE).orElse(null)).isEqualTo(Integer.MIN_VALUE);
+    }
+}
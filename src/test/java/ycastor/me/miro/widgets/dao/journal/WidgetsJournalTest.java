@@ -0,0 +1,191 @@
+package ycastor.me.miro.widgets.dao.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cyclops.control.Option;
+import cyclops.data.TreeSet;
+import cyclops.data.Vector;
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.dao.datasources.InMemoryDataset;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.dao.models.WidgetChanges;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WidgetsJournalTest {
+
+    private static final String BOARD = "board";
+
+    @TempDir
+    Path directory;
+
+    private WidgetsJournal journal;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    @DisplayName("Restarting replays the saves, shifts, batches and deletes of the log")
+    void recover_ReplaysLog() throws IOException {
+        var dataset = open();
+        var bottom = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var deleted = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(5).build(), TreeSet.empty());
+        var top = dataset.save(BOARD,
+                WidgetFixture.oneWidget().toBuilder().zIndex(1).build(),
+                TreeSet.of(bottom.toBuilder().zIndex(2).build())
+        );
+        dataset.delete(BOARD, deleted.getId());
+        dataset.saveBatch(BOARD, WidgetChanges.builder().updated(Vector.of(top.toBuilder().xAxis(42).build())).build());
+        var expected = dataset.listAfterZIndex(BOARD, Option.none(), 10);
+
+        journal.close();
+        var recovered = open();
+
+        assertThat(recovered.listAfterZIndex(BOARD, Option.none(), 10)).containsExactlyElementsOf(expected);
+        assertThat(recovered.findById(BOARD, top.getId()).map(Widget::getXAxis).orElse(null)).isEqualTo(42);
+        assertThat(recovered.findById(BOARD, deleted.getId()).isPresent()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Snapshots replace the segments they cover and recovery continues from them, for every board")
+    void snapshot_RecoversFromSnapshotAndTail() throws IOException {
+        var dataset = open();
+        var beforeSnapshot = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        var otherBoard = dataset.save("other", WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        dataset.snapshot();
+        var afterSnapshot = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+
+        journal.close();
+        var recovered = open();
+
+        assertThat(recovered.findById(BOARD, beforeSnapshot.getId()).orElse(null)).isEqualTo(beforeSnapshot);
+        assertThat(recovered.findById(BOARD, afterSnapshot.getId()).orElse(null)).isEqualTo(afterSnapshot);
+        assertThat(recovered.listAfterZIndex("other", Option.none(), 10)).containsExactly(otherBoard);
+        assertThat(recovered.findById(BOARD, otherBoard.getId()).isPresent()).isFalse();
+        assertThat(files("journal-")).hasSize(2);
+        assertThat(files("snapshot-")).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("A large board recovers from its snapshot readable and writable at any Z-Index")
+    void snapshot_LargeBoard() throws IOException {
+        var dataset = open();
+        var random = new Random(5);
+        var imported = new ArrayList<Widget>();
+        for (int i = 0; i < 25_000; i++) {
+            imported.add(WidgetFixture.oneWidget().toBuilder().id(UUID.randomUUID()).zIndex(i).xAxis(random.nextInt(10_000)).yAxis(random.nextInt(10_000)).build());
+        }
+        dataset.importWidgets(BOARD, imported.iterator(), 1_000);
+        dataset.snapshot();
+
+        journal.close();
+        var recovered = open();
+        var top = recovered.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(25_000).build(), TreeSet.empty());
+
+        assertThat(recovered.findFromZIndexUntilGap(BOARD, 0)).hasSize(25_001);
+        assertThat(recovered.findById(BOARD, imported.get(12_345).getId()).orElse(null)).isEqualTo(imported.get(12_345));
+        assertThat(recovered.findLargestZIndex(BOARD)).isEqualTo(top.getZIndex());
+    }
+
+    @Test
+    @DisplayName("A torn record at the end of the log is dropped and the log keeps growing after it")
+    void recover_TruncatesTornTail() throws IOException {
+        var dataset = open();
+        var saved = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        journal.close();
+
+        var segment = directory.resolve(files("journal-").get(0));
+        long completeSize = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 90, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        var recovered = open();
+        var afterCrash = recovered.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        journal.close();
+
+        assertThat(Files.size(segment)).isEqualTo(completeSize);
+
+        var reopened = open();
+        assertThat(reopened.findById(BOARD, saved.getId()).orElse(null)).isEqualTo(saved);
+        assertThat(reopened.findById(BOARD, afterCrash.getId()).orElse(null)).isEqualTo(afterCrash);
+    }
+
+    @Test
+    @DisplayName("A write group is logged as one record")
+    void writeGroup_LoggedTogether() throws IOException {
+        var dataset = open();
+        dataset.writeGroup(BOARD, () -> {
+            dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+            dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty());
+        });
+        var expected = dataset.listAfterZIndex(BOARD, Option.none(), 10);
+
+        journal.close();
+        var recovered = open();
+
+        assertThat(recovered.listAfterZIndex(BOARD, Option.none(), 10)).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    @DisplayName("A write whose sync failed is never published and the journal takes no more writes")
+    void awaitDurable_FailedSync_NothingPublished() {
+        var failing = new AtomicBoolean();
+        journal = new WidgetsJournal(directory.toString(), 0) {
+            @Override
+            protected void force(FileChannel channel) throws IOException {
+                if (failing.get()) {
+                    throw new IOException("injected");
+                }
+                super.force(channel);
+            }
+        };
+        var dataset = new InMemoryDataset(Optional.of(journal));
+        var kept = dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(1).build(), TreeSet.empty());
+        long version = dataset.boardVersion(BOARD);
+
+        failing.set(true);
+        assertThatThrownBy(() -> dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(2).build(), TreeSet.empty()))
+                .isInstanceOf(UncheckedIOException.class);
+
+        assertThat(dataset.listAfterZIndex(BOARD, Option.none(), 10)).containsExactly(kept);
+        assertThat(dataset.boardVersion(BOARD)).isEqualTo(version);
+
+        failing.set(false);
+        assertThatThrownBy(() -> dataset.save(BOARD, WidgetFixture.oneWidget().toBuilder().zIndex(3).build(), TreeSet.empty()))
+                .isInstanceOf(UncheckedIOException.class);
+        assertThat(dataset.listAfterZIndex(BOARD, Option.none(), 10)).containsExactly(kept);
+    }
+
+    private InMemoryDataset open() {
+        journal = new WidgetsJournal(directory.toString(), 0);
+        return new InMemoryDataset(Optional.of(journal));
+    }
+
+    private List<String> files(String prefix) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.startsWith(prefix))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ycastor.me.miro.widgets.feed;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import cyclops.data.Vector;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WidgetsFeedTest {
+
+    private static final String BOARD = "board";
+
+    private WidgetsFeed widgetsFeed;
+
+    @BeforeEach
+    void setUp() {
+        widgetsFeed = new WidgetsFeed(4, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        widgetsFeed.stop();
+    }
+
+    @Test
+    @DisplayName("Subscribers should get every change of their board in version order")
+    void subscribe_ShouldGetChangesInOrder() throws InterruptedException {
+        var events = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(events));
+        widgetsFeed.subscribe("other", null, collecting(new LinkedBlockingQueue<>()));
+
+        var deleted = UUID.randomUUID();
+        delete(BOARD, deleted);
+        delete("other", UUID.randomUUID());
+        delete(BOARD, UUID.randomUUID());
+
+        var first = next(events);
+        var second = next(events);
+
+        assertThat(first.change.getVersion()).isEqualTo(1);
+        assertThat(first.change.getDeleted()).containsExactly(deleted);
+        assertThat(second.change.getVersion()).isEqualTo(2);
+        assertThat(events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    @DisplayName("Subscribing with an event id should resume right after it")
+    void subscribe_ShouldResumeAfterEventId() throws InterruptedException {
+        var live = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(live));
+        delete(BOARD, UUID.randomUUID());
+        var resumeFrom = next(live).eventId;
+        var missed = UUID.randomUUID();
+        delete(BOARD, missed);
+
+        var resumed = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, resumeFrom, collecting(resumed));
+
+        assertThat(next(resumed).change.getDeleted()).containsExactly(missed);
+    }
+
+    @Test
+    @DisplayName("Resuming from a change that is no longer kept should reset the subscriber")
+    void subscribe_BehindHistory_ShouldReset() throws InterruptedException {
+        var live = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(live));
+        delete(BOARD, UUID.randomUUID());
+        var resumeFrom = next(live).eventId;
+        for (int i = 0; i < 5; i++) {
+            delete(BOARD, UUID.randomUUID());
+        }
+
+        var resumed = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, resumeFrom, collecting(resumed));
+        var unknown = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, "restarted-1", collecting(unknown));
+
+        assertThat(next(resumed).resetTo).isEqualTo(6);
+        assertThat(next(unknown).resetTo).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("A group should publish its changes only once all of them were applied")
+    void group_Failing_ShouldPublishNothing() throws InterruptedException {
+        var events = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(events));
+
+        assertThatThrownBy(() -> widgetsFeed.group(BOARD, () -> {
+            delete(BOARD, UUID.randomUUID());
+            throw new IllegalStateException("journal failed");
+        })).isInstanceOf(IllegalStateException.class);
+        widgetsFeed.group(BOARD, () -> {
+            delete(BOARD, UUID.randomUUID());
+            delete(BOARD, UUID.randomUUID());
+        });
+
+        assertThat(next(events).change.getVersion()).isEqualTo(1);
+        assertThat(next(events).change.getVersion()).isEqualTo(2);
+        assertThat(events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    @DisplayName("A reload should reset the subscribers instead of sending a change")
+    void recordReload_ShouldReset() throws InterruptedException {
+        var events = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(events));
+
+        assertThat(widgetsFeed.recordReload(BOARD, () -> 42L, () -> 1L)).isEqualTo(42L);
+        assertThat(next(events).resetTo).isEqualTo(1);
+
+        delete(BOARD, UUID.randomUUID());
+        assertThat(next(events).change.getVersion()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("A slow write should not hold the writes of its board, their changes should follow the repository versions")
+    void record_Concurrent_ShouldOrderByWrittenVersion() throws Exception {
+        var events = new LinkedBlockingQueue<Event>();
+        widgetsFeed.subscribe(BOARD, null, collecting(events));
+        var slowStarted = new CountDownLatch(1);
+        var slowReleased = new CountDownLatch(1);
+        var slowWidget = UUID.randomUUID();
+        var fastWidget = UUID.randomUUID();
+
+        var slow = CompletableFuture.runAsync(() -> widgetsFeed.record(BOARD, () -> {
+            slowStarted.countDown();
+            awaitUninterruptibly(slowReleased);
+            return slowWidget;
+        }, () -> 1L, id -> BoardChange.builder().deleted(Vector.of(id)).build()));
+        assertThat(slowStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        widgetsFeed.record(BOARD, () -> fastWidget, () -> 2L, id -> BoardChange.builder().deleted(Vector.of(id)).build());
+        assertThat(events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+        slowReleased.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+
+        assertThat(next(events).change.getDeleted()).containsExactly(slowWidget);
+        assertThat(next(events).change.getDeleted()).containsExactly(fastWidget);
+    }
+
+    private void delete(String boardId, UUID widgetId) {
+        widgetsFeed.record(boardId, () -> widgetId, id -> BoardChange.builder().deleted(Vector.of(id)).build());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Event next(BlockingQueue<Event> events) throws InterruptedException {
+        var event = events.poll(5, TimeUnit.SECONDS);
+        assertThat(event).isNotNull();
+        return event;
+    }
+
+    private static WidgetsFeed.Subscriber collecting(BlockingQueue<Event> events) {
+        return new WidgetsFeed.Subscriber() {
+            @Override
+            public void changed(String eventId, BoardChange change) {
+                events.add(new Event(eventId, change, null));
+            }
+
+            @Override
+            public void reset(String eventId, long version) {
+                events.add(new Event(eventId, null, version));
+            }
+        };
+    }
+
+    private static final class Event {
+        private final String eventId;
+        private final BoardChange change;
+        private final Long resetTo;
+
+        private Event(String eventId, BoardChange change, Long resetTo) {
+            this.eventId = eventId;
+            this.change = change;
+            this.resetTo = resetTo;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ycastor.me.miro.widgets.writers;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+
+import ycastor.me.miro.fixtures.WidgetFixture;
+import ycastor.me.miro.widgets.WidgetsService;
+import ycastor.me.miro.widgets.converters.WidgetsCommandConverter;
+import ycastor.me.miro.widgets.dao.datasources.InMemoryDataset;
+import ycastor.me.miro.widgets.dao.models.Widget;
+import ycastor.me.miro.widgets.exceptions.WidgetNotFoundException;
+import ycastor.me.miro.widgets.exceptions.WidgetsWriterStoppedException;
+import ycastor.me.miro.widgets.feed.WidgetsFeed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class QueuedWidgetsWriterTest {
+
+    private static final String BOARD = "board";
+
+    private InMemoryDataset inMemoryDataset;
+    private QueuedWidgetsWriter queuedWidgetsWriter;
+
+    @BeforeEach
+    void setUp() {
+        inMemoryDataset = new InMemoryDataset();
+        var widgetsService = new WidgetsService(inMemoryDataset, new WidgetsCommandConverter(), new WidgetsFeed(16, 1));
+        queuedWidgetsWriter = new QueuedWidgetsWriter(widgetsService, 64, 16, 4);
+        queuedWidgetsWriter.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        queuedWidgetsWriter.stop();
+    }
+
+    @Test
+    @DisplayName("Concurrent creations on top of the board should all be applied without contention failures")
+    void concurrentCreates_ShouldAllSucceed() {
+        var executor = Executors.newFixedThreadPool(8);
+        var results = new ArrayList<CompletableFuture<Widget>>();
+
+        try {
+            for (int i = 0; i < 800; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> queuedWidgetsWriter.create(BOARD, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(null).build()), executor)
+                                             .thenCompose(result -> result));
+            }
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        var board = inMemoryDataset.listAll(BOARD, PageRequest.of(0, 1000));
+
+        assertThat(board).hasSize(800);
+        assertThat(board.first().map(Widget::getZIndex).orElse(null)).isEqualTo(1);
+        assertThat(board.last().map(Widget::getZIndex).orElse(null)).isEqualTo(800);
+    }
+
+    @Test
+    @DisplayName("Concurrent creations on boards sharing the lanes should stack up on their own board")
+    void concurrentCreatesOnBoards_ShouldStayOnTheirBoard() {
+        var executor = Executors.newFixedThreadPool(8);
+        var results = new ArrayList<CompletableFuture<Widget>>();
+
+        try {
+            for (int i = 0; i < 800; i++) {
+                var boardId = "board-" + (i % 16);
+                results.add(CompletableFuture.supplyAsync(() -> queuedWidgetsWriter.create(boardId, WidgetFixture.widgetCreateCommand().toBuilder().zIndex(null).build()), executor)
+                                             .thenCompose(result -> result));
+            }
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int i = 0; i < 16; i++) {
+            var board = inMemoryDataset.listAll("board-" + i, PageRequest.of(0, 1000));
+
+            assertThat(board).hasSize(50);
+            assertThat(board.last().map(Widget::getZIndex).orElse(null)).isEqualTo(50);
+        }
+    }
+
+    @Test
+    @DisplayName("A failing command should fail only its own future")
+    void failingCommand_ShouldNotAffectOthers() {
+        var created = queuedWidgetsWriter.create(BOARD, WidgetFixture.widgetCreateCommand());
+        var failed = queuedWidgetsWriter.update(BOARD, UUID.randomUUID(), WidgetFixture.widgetUpdateCommand());
+        var updated = created.thenCompose(widget -> queuedWidgetsWriter.update(BOARD, widget.getId(), WidgetFixture.widgetUpdateCommand().toBuilder().zIndex(5).build()));
+
+        assertThat(updated.join().getZIndex()).isEqualTo(5);
+        assertThatThrownBy(failed::join).isInstanceOf(CompletionException.class)
+                                        .hasCauseInstanceOf(WidgetNotFoundException.class);
+        assertThat(inMemoryDataset.findById(BOARD, created.join().getId()).map(Widget::getZIndex).orElse(null)).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Commands submitted after stopping should fail")
+    void stopped_ShouldRejectCommands() throws InterruptedException {
+        queuedWidgetsWriter.stop();
+
+        var result = queuedWidgetsWriter.create(BOARD, WidgetFixture.widgetCreateCommand());
+
+        assertThatThrownBy(result::join).hasCauseInstanceOf(WidgetsWriterStoppedException.class);
+    }
+}